@@ -26,6 +26,7 @@ import com.google.android.material.switchmaterial.SwitchMaterial;
 import com.google.android.material.textfield.TextInputEditText;
 import com.google.android.material.textfield.TextInputLayout;
 import com.smsemailforwarder.app.utils.ConfigurationManager;
+import com.smsemailforwarder.app.utils.FilterDecisionLog;
 import com.smsemailforwarder.app.utils.NotificationHelper;
 import com.smsemailforwarder.app.utils.PreferencesManager;
 import com.smsemailforwarder.app.utils.SmsFilter;
@@ -480,12 +481,14 @@ public class AdvancedSettingsActivity extends AppCompatActivity {
     private void showDiagnostics() {
         String diagnostics = configurationManager.getConfigurationSummary() + "\n\n" +
                            new SmsFilter(this).getFilteringStats() + "\n\n" +
+                           FilterDecisionLog.getSummary() + "\n\n" +
                            notificationHelper.getNotificationSettingsSummary();
         
         AlertDialog.Builder builder = new AlertDialog.Builder(this);
         builder.setTitle("System Diagnostics");
         builder.setMessage(diagnostics);
         builder.setPositiveButton("OK", null);
+        builder.setNegativeButton("Clear Decisions", (dialog, which) -> FilterDecisionLog.clear());
         builder.setNeutralButton("Share", (dialog, which) -> {
             Intent shareIntent = new Intent(Intent.ACTION_SEND);
             shareIntent.setType("text/plain");
@@ -4,10 +4,26 @@ import android.app.IntentService;
 import android.content.Intent;
 import android.util.Log;
 
+import com.smsemailforwarder.app.utils.BacklogDigest;
+import com.smsemailforwarder.app.utils.ConfigSnapshot;
+import com.smsemailforwarder.app.utils.CredentialVault;
+import com.smsemailforwarder.app.utils.EmailTemplates;
+import com.smsemailforwarder.app.utils.FilterRules;
+import com.smsemailforwarder.app.utils.InboxScanner;
+import com.smsemailforwarder.app.utils.MetricsRegistry;
 import com.smsemailforwarder.app.utils.NotificationHelper;
+import com.smsemailforwarder.app.utils.PipelineTracer;
 import com.smsemailforwarder.app.utils.PreferencesManager;
+import com.smsemailforwarder.app.utils.SmsFilter;
 import com.smsemailforwarder.app.utils.SmsFormatter;
+import com.smsemailforwarder.app.utils.StreamingMimeMessage;
+import com.smsemailforwarder.app.utils.TracingSMTPTransport;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 
 import javax.mail.Authenticator;
@@ -16,8 +32,6 @@ import javax.mail.MessagingException;
 import javax.mail.PasswordAuthentication;
 import javax.mail.Session;
 import javax.mail.Transport;
-import javax.mail.internet.InternetAddress;
-import javax.mail.internet.MimeMessage;
 
 /**
  * IntentService for handling email sending operations
@@ -28,6 +42,10 @@ public class EmailService extends IntentService {
     
     private static final String TAG = "EmailService";
     
+    // Time range of a backlog sent as one digest email (see InboxScanner.forwardMissed)
+    public static final String EXTRA_BACKLOG_SINCE = "backlog_since";
+    public static final String EXTRA_BACKLOG_UNTIL = "backlog_until";
+    
     // Retry configuration
     private static final int MAX_RETRY_ATTEMPTS = 3;
     private static final int RETRY_DELAY_MS = 2000;
@@ -49,63 +67,102 @@ public class EmailService extends IntentService {
         
         Log.d(TAG, "EmailService started");
         
-        PreferencesManager prefs = new PreferencesManager(this);
+        boolean isTestMode = intent.getBooleanExtra("test_mode", false);
+        if (!isTestMode) {
+            // Every queued SMS/backlog intent leaves the queue here, whatever happens to it
+            MetricsRegistry.getInstance(this).gauge(MetricsRegistry.EMAIL_QUEUE_DEPTH).decrement();
+        }
+        
+        long traceId = intent.getLongExtra(PipelineTracer.EXTRA_TRACE_ID, PipelineTracer.NO_TRACE);
+        PipelineTracer.mark(traceId, PipelineTracer.Stage.DEQUEUED);
+        PipelineTracer.attach(traceId);
+        
+        ConfigSnapshot config = ConfigSnapshot.get(this);
         NotificationHelper notificationHelper = new NotificationHelper(this);
         
         // Check if email is configured
-        if (!prefs.isEmailConfigured()) {
+        if (!config.isEmailConfigured()) {
             Log.e(TAG, "Email not configured");
             notificationHelper.showErrorNotification(
                 "Email Configuration Error",
                 "Please configure email settings before using SMS forwarding"
             );
+            PipelineTracer.finish(traceId, PipelineTracer.OUTCOME_FAILED);
+            PipelineTracer.detach();
             return;
         }
         
         try {
-            boolean isTestMode = intent.getBooleanExtra("test_mode", false);
-            
             if (isTestMode) {
-                handleTestEmail(prefs, notificationHelper);
+                handleTestEmail(config, notificationHelper);
+            } else if (intent.hasExtra(EXTRA_BACKLOG_UNTIL)) {
+                handleBacklogEmail(intent, config, notificationHelper);
             } else {
-                handleSmsEmail(intent, prefs, notificationHelper);
+                handleSmsEmail(intent, config, notificationHelper);
             }
             
         } catch (Exception e) {
             Log.e(TAG, "Error in EmailService", e);
+            PipelineTracer.finish(traceId, PipelineTracer.OUTCOME_FAILED);
             notificationHelper.showErrorNotification(
                 "Email Service Error",
                 "Failed to process email: " + e.getMessage()
             );
+        } finally {
+            PipelineTracer.detach();
         }
     }
     
+    @Override
+    public void onDestroy() {
+        // The queue is empty; persist the catch-up timestamp and message count before the
+        // process may be killed
+        new PreferencesManager(this).flush();
+        super.onDestroy();
+    }
+    
     /**
      * Handles sending test email to verify configuration
      */
-    private void handleTestEmail(PreferencesManager prefs, NotificationHelper notificationHelper) {
+    private void handleTestEmail(ConfigSnapshot config, NotificationHelper notificationHelper) {
         Log.d(TAG, "Sending test email");
         
         String subject = "SMS Forwarder Test - " + SmsFormatter.formatTimestamp(System.currentTimeMillis(), "dd.MM.yyyy HH:mm");
         String body = buildTestEmailBody();
         
-        boolean success = sendEmailWithRetry(prefs, subject, body, notificationHelper);
+        boolean success = sendEmailWithRetry(config, config.getToEmail(), FilterRules.Priority.NORMAL,
+                                             subject, out -> out.write(body), null, null, notificationHelper);
         
         if (success) {
             Log.i(TAG, "Test email sent successfully");
-            notificationHelper.showEmailSentNotification(prefs.getEmailRecipient());
+            notificationHelper.showEmailSentNotification(config.getToEmail());
         }
     }
     
     /**
      * Handles sending SMS content via email
      */
-    private void handleSmsEmail(Intent intent, PreferencesManager prefs, NotificationHelper notificationHelper) {
+    private void handleSmsEmail(Intent intent, ConfigSnapshot config, NotificationHelper notificationHelper) {
         // Extract SMS data from intent
         String sender = intent.getStringExtra("sender");
         String message = intent.getStringExtra("message");
         long timestamp = intent.getLongExtra("timestamp", System.currentTimeMillis());
         
+        // Filter rules may route the message elsewhere or change its priority
+        String recipient = intent.getStringExtra("recipient");
+        if (recipient == null) {
+            recipient = config.getToEmail();
+        }
+        FilterRules.Priority priority = FilterRules.Priority.NORMAL;
+        String priorityName = intent.getStringExtra("priority");
+        if (priorityName != null) {
+            try {
+                priority = FilterRules.Priority.valueOf(priorityName);
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, "Unknown priority: " + priorityName);
+            }
+        }
+        
         Log.d(TAG, "Processing SMS email - Sender: " + sender + ", Message length: " + 
               (message != null ? message.length() : 0));
         
@@ -115,33 +172,152 @@ public class EmailService extends IntentService {
                 "SMS Data Error",
                 "Invalid SMS data received for email forwarding"
             );
+            PipelineTracer.finish(PipelineTracer.current(), PipelineTracer.OUTCOME_FAILED);
             return;
         }
         
-        // Format email content
-        String subject = SmsFormatter.formatEmailSubject(sender, timestamp, prefs);
-        String body = SmsFormatter.formatEmailBody(sender, message, timestamp, prefs);
+        // Format email content from the precompiled templates; bodies render while sending
+        // Messages are sent one at a time here, so the next number can't be taken twice
+        final EmailTemplates templates = EmailTemplates.get(this);
+        final PreferencesManager preferencesManager = new PreferencesManager(this);
+        final long count = templates.isCountMessages() ? preferencesManager.getForwardedCount() + 1 : 0;
+        String subject = templates.getSubject().render(sender, message, timestamp, count);
+        
+        // Summary of near-duplicates collapsed by NearDuplicateDetector
+        int duplicateCount = intent.getIntExtra("duplicate_count", 0);
+        final String collapsed;
+        if (duplicateCount > 0) {
+            long lastTimestamp = intent.getLongExtra("duplicate_last_timestamp", timestamp);
+            collapsed = duplicateCount + " similar message" + (duplicateCount == 1 ? " was" : "s were") +
+                   " received until " + SmsFormatter.formatTimestamp(lastTimestamp, "dd.MM.yyyy HH:mm") +
+                   " and collapsed into this email.";
+            subject = "[+" + duplicateCount + " similar] " + subject;
+        } else {
+            collapsed = null;
+        }
+        
+        StreamingMimeMessage.BodyWriter body = out -> {
+            templates.getTextBody().renderTo(out, sender, message, timestamp, count);
+            if (collapsed != null) {
+                out.append("\n\n").append(collapsed);
+            }
+        };
+        StreamingMimeMessage.BodyWriter htmlBody = templates.getHtmlBody() == null ? null : out -> {
+            templates.getHtmlBody().renderTo(out, sender, message, timestamp, count);
+            if (collapsed != null) {
+                out.append("\n<p>").append(collapsed).append("</p>");
+            }
+        };
         
         Log.d(TAG, "Email formatted - Subject: " + subject);
+        PipelineTracer.markCurrent(PipelineTracer.Stage.FORMATTED);
         
         // Send email with retry logic
-        boolean success = sendEmailWithRetry(prefs, subject, body, notificationHelper);
+        long sendStartNanos = System.nanoTime();
+        boolean success = sendEmailWithRetry(config, recipient, priority, subject, body, htmlBody, null,
+                                             notificationHelper);
+        MetricsRegistry metricsRegistry = MetricsRegistry.getInstance(this);
+        if (success) {
+            metricsRegistry.recordForwarded((System.nanoTime() - sendStartNanos) / 1000L);
+            preferencesManager.addForwardedCount(1);
+        } else {
+            metricsRegistry.recordFailed();
+        }
+        PipelineTracer.finish(PipelineTracer.current(),
+            success ? PipelineTracer.OUTCOME_FORWARDED : PipelineTracer.OUTCOME_FAILED);
         
         if (success) {
-            Log.i(TAG, "SMS email sent successfully to " + prefs.getEmailRecipient());
-            notificationHelper.showEmailSentNotification(prefs.getEmailRecipient());
+            Log.i(TAG, "SMS email sent successfully to " + recipient);
+            notificationHelper.showEmailSentNotification(recipient);
         }
     }
     
+    /**
+     * Sends a backlog of missed messages as one email per recipient and priority
+     * The messages are read from the inbox again with the scan's verdicts, routed by the filter
+     * rules at their own timestamps and compressed while the email is sent. The backlog is marked processed only when every
+     * digest went out, so a failed send is offered again by the next inbox scan.
+     */
+    private void handleBacklogEmail(Intent intent, ConfigSnapshot config, NotificationHelper notificationHelper) {
+        long since = intent.getLongExtra(EXTRA_BACKLOG_SINCE, 0);
+        long until = intent.getLongExtra(EXTRA_BACKLOG_UNTIL, 0);
+        List<SmsFilter.BatchMessage> messages = InboxScanner.readForwardable(this, since, until);
+        if (messages.isEmpty()) {
+            Log.w(TAG, "Backlog is no longer in the inbox");
+            PipelineTracer.finish(PipelineTracer.current(), PipelineTracer.OUTCOME_FAILED);
+            return;
+        }
+        
+        // Route and priority rules split the backlog, one digest per recipient and priority
+        SmsFilter smsFilter = new SmsFilter(this);
+        Map<String, FilterRules.Decision> routes = new LinkedHashMap<>();
+        Map<String, List<SmsFilter.BatchMessage>> groups = new HashMap<>();
+        for (SmsFilter.BatchMessage message : messages) {
+            FilterRules.Decision decision = smsFilter.route(message);
+            if (decision.recipient == null) {
+                decision.recipient = config.getToEmail();
+            }
+            String route = decision.recipient + '\n' + decision.priority;
+            List<SmsFilter.BatchMessage> group = groups.get(route);
+            if (group == null) {
+                group = new ArrayList<>();
+                groups.put(route, group);
+                routes.put(route, decision);
+            }
+            group.add(message);
+        }
+        
+        boolean success = true;
+        for (Map.Entry<String, FilterRules.Decision> route : routes.entrySet()) {
+            FilterRules.Decision decision = route.getValue();
+            success &= sendBacklogDigest(config, decision.recipient, decision.priority,
+                                         groups.get(route.getKey()), notificationHelper);
+        }
+        if (success) {
+            new PreferencesManager(this).updateLastSmsTimestamp(until);
+        }
+        PipelineTracer.finish(PipelineTracer.current(),
+            success ? PipelineTracer.OUTCOME_FORWARDED : PipelineTracer.OUTCOME_FAILED);
+    }
+    
+    private boolean sendBacklogDigest(ConfigSnapshot config, String recipient, FilterRules.Priority priority,
+                                      List<SmsFilter.BatchMessage> messages,
+                                      NotificationHelper notificationHelper) {
+        BacklogDigest digest = new BacklogDigest(messages, config.getBacklogAttachmentFormat());
+        Log.d(TAG, "Sending backlog digest of " + digest.getMessageCount() + " messages to " + recipient);
+        
+        long sendStartNanos = System.nanoTime();
+        boolean success = sendEmailWithRetry(config, recipient, priority, digest.getSubject(),
+                                             digest::writeSummary, null, digest.getAttachment(),
+                                             notificationHelper);
+        MetricsRegistry metricsRegistry = MetricsRegistry.getInstance(this);
+        if (success) {
+            metricsRegistry.recordForwarded((System.nanoTime() - sendStartNanos) / 1000L);
+            metricsRegistry.counter(MetricsRegistry.SMS_FORWARDED).add(digest.getMessageCount() - 1);
+            new PreferencesManager(this).addForwardedCount(digest.getMessageCount());
+            Log.i(TAG, "Backlog digest sent successfully to " + recipient);
+            notificationHelper.showEmailSentNotification(recipient);
+        } else {
+            metricsRegistry.recordFailed();
+        }
+        return success;
+    }
+    
     /**
      * Sends email with retry logic
+     * @param htmlBody HTML alternative of the body, or null for plain text only
+     * @param attachment Attachment after the body, or null for none
      */
-    private boolean sendEmailWithRetry(PreferencesManager prefs, String subject, String body, NotificationHelper notificationHelper) {
+    private boolean sendEmailWithRetry(ConfigSnapshot config, String recipient, FilterRules.Priority priority,
+                                       String subject, StreamingMimeMessage.BodyWriter body,
+                                       StreamingMimeMessage.BodyWriter htmlBody,
+                                       StreamingMimeMessage.Attachment attachment,
+                                       NotificationHelper notificationHelper) {
         for (int attempt = 1; attempt <= MAX_RETRY_ATTEMPTS; attempt++) {
             Log.d(TAG, "Email send attempt " + attempt + "/" + MAX_RETRY_ATTEMPTS);
             
             try {
-                sendEmail(prefs, subject, body);
+                sendEmail(config, recipient, priority, subject, body, htmlBody, attachment);
                 Log.i(TAG, "Email sent successfully on attempt " + attempt);
                 return true;
                 
@@ -156,6 +332,8 @@ public class EmailService extends IntentService {
                     );
                     return false;
                 } else {
+                    MetricsRegistry.getInstance(this).recordRetry();
+                    
                     // Wait before retry
                     try {
                         Thread.sleep(RETRY_DELAY_MS * attempt); // Exponential backoff
@@ -173,15 +351,17 @@ public class EmailService extends IntentService {
     /**
      * Core email sending method using JavaMail API
      */
-    private void sendEmail(PreferencesManager prefs, String subject, String body) throws MessagingException {
+    private void sendEmail(ConfigSnapshot config, String recipient, FilterRules.Priority priority,
+                           String subject, StreamingMimeMessage.BodyWriter body,
+                           StreamingMimeMessage.BodyWriter htmlBody,
+                           StreamingMimeMessage.Attachment attachment) throws MessagingException {
         // Get email configuration
-        String smtpServer = prefs.getEmailSmtpServer();
-        int smtpPort = prefs.getEmailSmtpPort();
-        String username = prefs.getEmailUsername();
-        String password = prefs.getEmailPassword();
-        String recipient = prefs.getEmailRecipient();
-        boolean useStartTLS = prefs.isEmailUseStartTLS();
-        boolean useSSL = prefs.isEmailUseSSL();
+        String smtpServer = config.getSmtpServer();
+        int smtpPort = config.getSmtpPort();
+        String username = config.getEmailUsername();
+        String password = CredentialVault.getInstance(this).getSecret(CredentialVault.EMAIL_PASSWORD);
+        boolean useStartTLS = config.isUseTls();
+        boolean useSSL = config.isUseSsl();
         
         Log.d(TAG, "Configuring email - Server: " + smtpServer + ":" + smtpPort + 
               ", TLS: " + useStartTLS + ", SSL: " + useSSL);
@@ -214,18 +394,23 @@ public class EmailService extends IntentService {
             }
         });
         
+        // Use the tracing transport so SMTP phases show up in pipeline traces
+        session.setProvider(TracingSMTPTransport.PROVIDER);
+        
         // Enable debug mode for troubleshooting
         session.setDebug(Log.isLoggable(TAG, Log.DEBUG));
         
-        // Create and send message
-        Message message = new MimeMessage(session);
-        message.setFrom(new InternetAddress(username));
-        message.setRecipients(Message.RecipientType.TO, InternetAddress.parse(recipient));
-        message.setSubject(subject);
-        message.setText(body);
+        String priorityHeaders = null;
+        if (priority == FilterRules.Priority.HIGH) {
+            priorityHeaders = "X-Priority: 1\r\nImportance: high\r\n";
+        } else if (priority == FilterRules.Priority.LOW) {
+            priorityHeaders = "X-Priority: 5\r\nImportance: low\r\n";
+        }
         
-        // Set UTF-8 encoding for Croatian characters
-        message.setHeader("Content-Type", "text/plain; charset=UTF-8");
+        // Create and send message; UTF-8 quoted-printable handles Croatian characters, and
+        // with an HTML body clients show the last alternative they support
+        Message message = new StreamingMimeMessage(session, username, recipient, subject, priorityHeaders,
+                                                   body, htmlBody, attachment);
         
         Log.d(TAG, "Sending email via " + smtpServer);
         Transport.send(message);
@@ -7,6 +7,10 @@ import android.os.IBinder;
 import android.os.PowerManager;
 import android.util.Log;
 
+import com.smsemailforwarder.app.utils.CredentialVault;
+import com.smsemailforwarder.app.utils.FilterSnapshot;
+import com.smsemailforwarder.app.utils.MetricsHttpServer;
+import com.smsemailforwarder.app.utils.MetricsRegistry;
 import com.smsemailforwarder.app.utils.NotificationHelper;
 import com.smsemailforwarder.app.utils.PreferencesManager;
 
@@ -32,6 +36,7 @@ public class ForwarderService extends Service {
     private PreferencesManager preferencesManager;
     private PowerManager.WakeLock wakeLock;
     private SmsReceiver smsReceiver;
+    private MetricsHttpServer metricsServer;
     
     @Override
     public void onCreate() {
@@ -51,6 +56,9 @@ public class ForwarderService extends Service {
         
         // Initialize SMS receiver for dynamic registration
         smsReceiver = new SmsReceiver();
+        
+        // Compile the filter settings before the first SMS arrives
+        FilterSnapshot.warmUp(this);
     }
     
     @Override
@@ -128,6 +136,12 @@ public class ForwarderService extends Service {
             // Register SMS receiver dynamically (backup to manifest registration)
             registerSmsReceiver();
             
+            // Expose metrics for scraping if the user opted in
+            startMetricsServer();
+            
+            // Replace the vault key once it has reached its maximum age
+            CredentialVault.rotateIfDue(this);
+            
             // Update service state
             isServiceRunning = true;
             
@@ -158,6 +172,7 @@ public class ForwarderService extends Service {
         try {
             // Unregister SMS receiver
             unregisterSmsReceiver();
+            stopMetricsServer();
             
             // Release wake lock
             if (wakeLock != null && wakeLock.isHeld()) {
@@ -231,6 +246,38 @@ public class ForwarderService extends Service {
         }
     }
     
+    /**
+     * Starts the Prometheus metrics endpoint when enabled in preferences
+     */
+    private void startMetricsServer() {
+        if (!preferencesManager.isMetricsExportEnabled() || metricsServer != null) {
+            return;
+        }
+        
+        try {
+            metricsServer = new MetricsHttpServer(
+                MetricsRegistry.getInstance(this),
+                preferencesManager.isMetricsExportLan(),
+                preferencesManager.getMetricsExportPort()
+            );
+            metricsServer.start();
+        } catch (Exception e) {
+            Log.w(TAG, "Failed to start metrics endpoint", e);
+            metricsServer = null;
+            // Not critical - forwarding works without it
+        }
+    }
+    
+    /**
+     * Stops the Prometheus metrics endpoint
+     */
+    private void stopMetricsServer() {
+        if (metricsServer != null) {
+            metricsServer.stop();
+            metricsServer = null;
+        }
+    }
+    
     @Override
     public void onDestroy() {
         Log.d(TAG, "ForwarderService onDestroy");
@@ -238,6 +285,7 @@ public class ForwarderService extends Service {
         try {
             // Clean up resources
             unregisterSmsReceiver();
+            stopMetricsServer();
             
             // Release wake lock
             if (wakeLock != null && wakeLock.isHeld()) {
@@ -248,6 +296,13 @@ public class ForwarderService extends Service {
             // Update service state
             isServiceRunning = false;
             
+            // Persist metrics and settings before the process may be killed
+            MetricsRegistry.getInstance(this).flush();
+            preferencesManager.flush();
+            
+            // Drop decrypted credentials; the next start decrypts them again
+            CredentialVault.clearCache();
+            
             // Cancel service notifications
             if (notificationHelper != null) {
                 notificationHelper.cancelNotification(NotificationHelper.NOTIFICATION_ID_SERVICE);
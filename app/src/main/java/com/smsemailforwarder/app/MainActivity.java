@@ -1,15 +1,21 @@
 package com.smsemailforwarder.app;
 
 import android.Manifest;
+import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
+import android.net.Uri;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
+import android.text.InputType;
 import android.widget.Button;
+import android.widget.CheckBox;
+import android.widget.EditText;
+import android.widget.LinearLayout;
 import android.widget.TextView;
 import android.widget.Toast;
 
@@ -22,9 +28,21 @@ import androidx.swiperefreshlayout.widget.SwipeRefreshLayout;
 
 import com.google.android.material.card.MaterialCardView;
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
+import com.smsemailforwarder.app.utils.BlocklistFeed;
+import com.smsemailforwarder.app.utils.EmailTemplate;
+import com.smsemailforwarder.app.utils.EmailTemplates;
 import com.smsemailforwarder.app.utils.EmailTestHelper;
+import com.smsemailforwarder.app.utils.FilterRules;
+import com.smsemailforwarder.app.utils.InboxScanner;
+import com.smsemailforwarder.app.utils.PipelineTracer;
 import com.smsemailforwarder.app.utils.PreferencesManager;
 import com.smsemailforwarder.app.utils.ServiceManager;
+import com.smsemailforwarder.app.utils.SpamClassifier;
+
+import java.io.InputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Main Activity for SMS-to-Email Forwarder
@@ -35,6 +53,11 @@ public class MainActivity extends AppCompatActivity {
 
     private static final int SMS_PERMISSION_REQUEST_CODE = 123;
     private static final int NOTIFICATION_PERMISSION_REQUEST_CODE = 124;
+    private static final int BLOCKLIST_IMPORT_REQUEST_CODE = 125;
+
+    // Imports and training run one at a time and may outlive the activity
+    private static final ExecutorService backgroundExecutor = Executors.newSingleThreadExecutor();
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
 
     // UI Components
     private TextView serviceStatusText;
@@ -360,6 +383,24 @@ public class MainActivity extends AppCompatActivity {
         } else if (id == R.id.action_restart_service) {
             restartService();
             return true;
+        } else if (id == R.id.action_pipeline_latency) {
+            showPipelineLatency();
+            return true;
+        } else if (id == R.id.action_blocklist_feed) {
+            showBlocklistFeed();
+            return true;
+        } else if (id == R.id.action_filter_rules) {
+            showFilterRules();
+            return true;
+        } else if (id == R.id.action_email_templates) {
+            showEmailTemplates();
+            return true;
+        } else if (id == R.id.action_spam_training) {
+            showSpamTraining();
+            return true;
+        } else if (id == R.id.action_inbox_scan) {
+            scanInbox();
+            return true;
         }
         
         return super.onOptionsItemSelected(item);
@@ -373,6 +414,298 @@ public class MainActivity extends AppCompatActivity {
                 .show();
     }
 
+    private void showPipelineLatency() {
+        new AlertDialog.Builder(this)
+                .setTitle("Pipeline Latency")
+                .setMessage(PipelineTracer.getLatencySummary())
+                .setPositiveButton("OK", null)
+                .setNeutralButton("Export JSON", (dialog, which) -> exportPipelineTraces())
+                .show();
+    }
+
+    private void exportPipelineTraces() {
+        String json = PipelineTracer.exportToJson();
+        if (json == null) {
+            Toast.makeText(this, "Failed to export traces", Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        Intent shareIntent = new Intent(Intent.ACTION_SEND);
+        shareIntent.setType("application/json");
+        shareIntent.putExtra(Intent.EXTRA_TEXT, json);
+        shareIntent.putExtra(Intent.EXTRA_SUBJECT, "SMS Forwarder Pipeline Traces");
+        startActivity(Intent.createChooser(shareIntent, "Export Traces"));
+    }
+
+    private void showBlocklistFeed() {
+        BlocklistFeed feed = BlocklistFeed.getInstance(this);
+        
+        final EditText rateEdit = new EditText(this);
+        rateEdit.setInputType(InputType.TYPE_CLASS_NUMBER | InputType.TYPE_NUMBER_FLAG_DECIMAL);
+        rateEdit.setHint("False positive rate, e.g. 0.001");
+        rateEdit.setText(String.valueOf(preferencesManager.getBlocklistFeedFalsePositiveRate()));
+        
+        final CheckBox confirmCheck = new CheckBox(this);
+        confirmCheck.setText("Confirm Bloom filter hits exactly");
+        confirmCheck.setChecked(preferencesManager.isBlocklistFeedConfirm());
+        
+        LinearLayout layout = new LinearLayout(this);
+        layout.setOrientation(LinearLayout.VERTICAL);
+        layout.addView(rateEdit);
+        layout.addView(confirmCheck);
+        
+        StringBuilder message = new StringBuilder();
+        message.append("Numbers: ").append(feed.size()).append("\n\n");
+        message.append("Import a text file with one phone number per line. ");
+        message.append("Feed numbers are blocked in blacklist mode. ");
+        message.append("A lower false positive rate makes the next import larger.");
+        
+        AlertDialog dialog = new AlertDialog.Builder(this)
+                .setTitle("Blocklist Feed")
+                .setMessage(message.toString())
+                .setView(layout)
+                .setPositiveButton("Import", null)
+                .setNeutralButton("Clear", (d, which) -> {
+                    BlocklistFeed.getInstance(this).clear();
+                    Toast.makeText(this, "Blocklist feed cleared", Toast.LENGTH_SHORT).show();
+                })
+                .setNegativeButton("Save", null)
+                .show();
+        
+        dialog.getButton(AlertDialog.BUTTON_POSITIVE).setOnClickListener(v -> {
+            if (saveBlocklistFeedSettings(rateEdit, confirmCheck)) {
+                dialog.dismiss();
+                pickBlocklistFile();
+            }
+        });
+        dialog.getButton(AlertDialog.BUTTON_NEGATIVE).setOnClickListener(v -> {
+            if (saveBlocklistFeedSettings(rateEdit, confirmCheck)) {
+                dialog.dismiss();
+            }
+        });
+    }
+    
+    private boolean saveBlocklistFeedSettings(EditText rateEdit, CheckBox confirmCheck) {
+        float rate;
+        try {
+            rate = Float.parseFloat(rateEdit.getText().toString().trim());
+        } catch (NumberFormatException e) {
+            rate = -1;
+        }
+        if (!(rate > 0 && rate < 0.5f)) {
+            rateEdit.setError("Enter a rate between 0 and 0.5");
+            return false;
+        }
+        preferencesManager.setBlocklistFeedFalsePositiveRate(rate);
+        preferencesManager.setBlocklistFeedConfirm(confirmCheck.isChecked());
+        return true;
+    }
+
+    private void pickBlocklistFile() {
+        Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        intent.setType("text/*");
+        startActivityForResult(intent, BLOCKLIST_IMPORT_REQUEST_CODE);
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        
+        if (requestCode == BLOCKLIST_IMPORT_REQUEST_CODE && resultCode == RESULT_OK && data != null) {
+            importBlocklistFeed(data.getData());
+        }
+    }
+
+    private void importBlocklistFeed(Uri uri) {
+        Toast.makeText(this, "Importing blocklist feed...", Toast.LENGTH_SHORT).show();
+        final Context appContext = getApplicationContext();
+        final float falsePositiveRate = preferencesManager.getBlocklistFeedFalsePositiveRate();
+        
+        runInBackground(appContext, () -> {
+            try (InputStream input = appContext.getContentResolver().openInputStream(uri)) {
+                BlocklistFeed.ImportResult result =
+                        BlocklistFeed.getInstance(appContext).importFrom(input, falsePositiveRate);
+                return result.numbersImported + " numbers imported";
+            } catch (Exception e) {
+                return "Import failed: " + e.getMessage();
+            }
+        });
+    }
+
+    /**
+     * Runs a task on the shared background executor and toasts its result
+     * Only the application context is held, so a long import doesn't keep this activity alive.
+     */
+    private static void runInBackground(final Context appContext, final Callable<String> task) {
+        backgroundExecutor.execute(() -> {
+            String message;
+            try {
+                message = task.call();
+            } catch (Exception e) {
+                message = "Failed: " + e.getMessage();
+            }
+            final String toast = message;
+            mainHandler.post(() -> Toast.makeText(appContext, toast, Toast.LENGTH_LONG).show());
+        });
+    }
+
+    private void showFilterRules() {
+        final EditText rulesEdit = new EditText(this);
+        rulesEdit.setInputType(InputType.TYPE_CLASS_TEXT | InputType.TYPE_TEXT_FLAG_MULTI_LINE);
+        rulesEdit.setMinLines(6);
+        rulesEdit.setHorizontallyScrolling(true);
+        rulesEdit.setHint("drop if body contains \"nagradna igra\"\n" +
+                "route \"work@example.com\" if sender starts \"+38598\"\n" +
+                "priority high if body ~ \"\\d{6}\" and length < 80");
+        rulesEdit.setText(preferencesManager.getFilterRules());
+        
+        AlertDialog dialog = new AlertDialog.Builder(this)
+                .setTitle("Filter Rules")
+                .setMessage("One rule per line: forward, drop, route \"address\" or priority high|low, " +
+                        "optionally followed by \"if\" and conditions on sender, carrier, type, body, length or time. " +
+                        "Senders are compared in +385... form. Rules apply even when filtering is switched off.")
+                .setView(rulesEdit)
+                .setPositiveButton("Save", null)
+                .setNegativeButton("Cancel", null)
+                .show();
+        
+        // Validate before closing so a typo doesn't silently disable the rules
+        dialog.getButton(AlertDialog.BUTTON_POSITIVE).setOnClickListener(v -> {
+            String text = rulesEdit.getText().toString();
+            try {
+                FilterRules rules = FilterRules.compile(text);
+                preferencesManager.setFilterRules(text);
+                Toast.makeText(this, rules.size() + " rules saved", Toast.LENGTH_SHORT).show();
+                dialog.dismiss();
+            } catch (FilterRules.RuleParseException e) {
+                rulesEdit.setError(e.getMessage());
+            }
+        });
+    }
+
+    private void showEmailTemplates() {
+        final EditText textEdit = new EditText(this);
+        textEdit.setInputType(InputType.TYPE_CLASS_TEXT | InputType.TYPE_TEXT_FLAG_MULTI_LINE);
+        textEdit.setMinLines(4);
+        textEdit.setHint("Text body (empty for the default layout)\n" +
+                "From: {sender}\nCarrier: {carrier}\n{date} {time}\n\n{body}");
+        textEdit.setText(preferencesManager.getEmailTextTemplate());
+        
+        final EditText htmlEdit = new EditText(this);
+        htmlEdit.setInputType(InputType.TYPE_CLASS_TEXT | InputType.TYPE_TEXT_FLAG_MULTI_LINE);
+        htmlEdit.setMinLines(4);
+        htmlEdit.setHint("HTML body (empty for text only)\n" +
+                "<p><b>{sender}</b> at {time}</p>\n<p>{body}</p>");
+        htmlEdit.setText(preferencesManager.getEmailHtmlTemplate());
+        
+        LinearLayout layout = new LinearLayout(this);
+        layout.setOrientation(LinearLayout.VERTICAL);
+        layout.addView(textEdit);
+        layout.addView(htmlEdit);
+        
+        AlertDialog dialog = new AlertDialog.Builder(this)
+                .setTitle("Email Templates")
+                .setMessage("Placeholders: {sender}, {carrier}, {date}, {time}, {time:pattern}, {body}, " +
+                        "{length} and {count}. Lines whose placeholders are all empty are left out. " +
+                        "With an HTML template, emails carry both versions.")
+                .setView(layout)
+                .setPositiveButton("Save", null)
+                .setNegativeButton("Cancel", null)
+                .show();
+        
+        // Compile both before saving so a broken template never reaches the email service
+        dialog.getButton(AlertDialog.BUTTON_POSITIVE).setOnClickListener(v -> {
+            String text = textEdit.getText().toString();
+            String html = htmlEdit.getText().toString();
+            try {
+                EmailTemplates.validate(text, false, preferencesManager);
+            } catch (EmailTemplate.TemplateException e) {
+                textEdit.setError(e.getMessage());
+                return;
+            }
+            try {
+                EmailTemplates.validate(html, true, preferencesManager);
+            } catch (EmailTemplate.TemplateException e) {
+                htmlEdit.setError(e.getMessage());
+                return;
+            }
+            preferencesManager.setEmailTextTemplate(text);
+            preferencesManager.setEmailHtmlTemplate(html);
+            Toast.makeText(this, "Email templates saved", Toast.LENGTH_SHORT).show();
+            dialog.dismiss();
+        });
+    }
+
+    private void showSpamTraining() {
+        final SpamClassifier classifier = SpamClassifier.getInstance(this);
+        final boolean enabled = preferencesManager.isSpamClassifierEnabled();
+        final EditText messageEdit = new EditText(this);
+        messageEdit.setInputType(InputType.TYPE_CLASS_TEXT | InputType.TYPE_TEXT_FLAG_MULTI_LINE);
+        messageEdit.setHint("Paste an SMS to label it");
+        
+        new AlertDialog.Builder(this)
+                .setTitle("Spam Training")
+                .setMessage("Classifier: " + (enabled ? "On" : "Off") + "\n" + classifier.getSummary() +
+                        "\nLabel messages to teach the classifier. Once you have labeled " +
+                        SpamClassifier.MIN_TRAINING_MESSAGES + " of each, it replaces the built-in spam rules.")
+                .setView(messageEdit)
+                .setPositiveButton("Spam", (dialog, which) -> trainSpamClassifier(messageEdit, true))
+                .setNegativeButton("Not Spam", (dialog, which) -> trainSpamClassifier(messageEdit, false))
+                .setNeutralButton(enabled ? "Disable" : "Enable", (dialog, which) -> {
+                    preferencesManager.setSpamClassifierEnabled(!enabled);
+                    Toast.makeText(this, "Spam classifier " + (enabled ? "disabled" : "enabled"),
+                            Toast.LENGTH_SHORT).show();
+                })
+                .show();
+    }
+
+    private void trainSpamClassifier(EditText messageEdit, boolean spam) {
+        final String message = messageEdit.getText().toString().trim();
+        if (message.isEmpty()) {
+            Toast.makeText(this, "Enter a message to label", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        
+        // First use may load or seed the model, so keep it off the UI thread
+        final Context appContext = getApplicationContext();
+        runInBackground(appContext, () -> {
+            SpamClassifier.getInstance(appContext).train(message, spam);
+            return spam ? "Learned as spam" : "Learned as not spam";
+        });
+    }
+
+    private void scanInbox() {
+        if (ContextCompat.checkSelfPermission(this, Manifest.permission.READ_SMS)
+                != PackageManager.PERMISSION_GRANTED) {
+            Toast.makeText(this, "SMS permission is required", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        
+        Toast.makeText(this, "Scanning inbox...", Toast.LENGTH_SHORT).show();
+        new Thread(() -> {
+            InboxScanner.Report report = InboxScanner.scan(this, InboxScanner.DEFAULT_SCAN_LIMIT);
+            uiHandler.post(() -> showInboxScan(report));
+        }, "InboxScan").start();
+    }
+
+    private void showInboxScan(InboxScanner.Report report) {
+        final int missed = report.getMissed().size();
+        AlertDialog.Builder builder = new AlertDialog.Builder(this)
+                .setTitle("Inbox Scan")
+                .setMessage(report.getSummary() + "\nCounts use the current filter settings. " +
+                        "Missed messages arrived after the last SMS the app received.")
+                .setNegativeButton("Close", null);
+        if (missed > 0) {
+            builder.setPositiveButton("Forward " + missed + " Missed", (dialog, which) -> {
+                final Context appContext = getApplicationContext();
+                runInBackground(appContext, () ->
+                        InboxScanner.forwardMissed(appContext, report) + " messages queued");
+            });
+        }
+        builder.show();
+    }
+
     private void restartService() {
         if (ServiceManager.restartSmsForwarding(this)) {
             Toast.makeText(this, "Service restarted", Toast.LENGTH_SHORT).show();
@@ -7,7 +7,15 @@ import android.os.Bundle;
 import android.telephony.SmsMessage;
 import android.util.Log;
 
+import com.smsemailforwarder.app.utils.ConfigSnapshot;
+import com.smsemailforwarder.app.utils.FilterRules;
+import com.smsemailforwarder.app.utils.FilterSnapshot;
+import com.smsemailforwarder.app.utils.ForwardDispatcher;
+import com.smsemailforwarder.app.utils.MessageNormalizer;
+import com.smsemailforwarder.app.utils.MetricsRegistry;
 import com.smsemailforwarder.app.utils.NotificationHelper;
+import com.smsemailforwarder.app.utils.PhoneNumberNormalizer;
+import com.smsemailforwarder.app.utils.PipelineTracer;
 import com.smsemailforwarder.app.utils.PreferencesManager;
 import com.smsemailforwarder.app.utils.SmsFormatter;
 import com.smsemailforwarder.app.utils.SmsFilter;
@@ -33,16 +41,19 @@ public class SmsReceiver extends BroadcastReceiver {
         }
         
         Log.d(TAG, "SMS received, processing...");
+        long traceId = PipelineTracer.begin();
+        MetricsRegistry.getInstance(context).recordReceived();
         
         // Check if service is enabled
-        PreferencesManager preferencesManager = new PreferencesManager(context);
-        if (!preferencesManager.isServiceEnabled()) {
+        ConfigSnapshot config = ConfigSnapshot.get(context);
+        if (!config.isServiceEnabled()) {
             Log.d(TAG, "SMS forwarding service is disabled, ignoring SMS");
+            PipelineTracer.finish(traceId, PipelineTracer.OUTCOME_DROPPED);
             return;
         }
         
         // Check if email is configured
-        if (!preferencesManager.isEmailConfigured()) {
+        if (!config.isEmailConfigured()) {
             Log.w(TAG, "Email not configured, cannot forward SMS");
             
             // Show error notification
@@ -51,9 +62,13 @@ public class SmsReceiver extends BroadcastReceiver {
                 "SMS Forwarder Error", 
                 "Email not configured. Please set up email settings."
             );
+            PipelineTracer.finish(traceId, PipelineTracer.OUTCOME_DROPPED);
             return;
         }
         
+        // In a cold process, compile the filter settings while the PDUs are decoded
+        FilterSnapshot.warmUp(context);
+        
         try {
             // Extract SMS data from intent
             Bundle bundle = intent.getExtras();
@@ -93,30 +108,41 @@ public class SmsReceiver extends BroadcastReceiver {
                 }
             }
             
+            PipelineTracer.mark(traceId, PipelineTracer.Stage.PDU_DECODED);
+            
             // Validate extracted data
             if (senderNumber == null || fullMessageBody.length() == 0) {
                 Log.e(TAG, "Invalid SMS data - sender: " + senderNumber + 
                            ", message length: " + fullMessageBody.length());
+                PipelineTracer.finish(traceId, PipelineTracer.OUTCOME_DROPPED);
                 return;
             }
             
-            // Clean and format the data
+            // Clean and format the data; the body is trimmed, normalized and checked in one pass
             String cleanSender = cleanPhoneNumber(senderNumber);
-            String messageContent = fullMessageBody.toString().trim();
+            MessageNormalizer.Result content = MessageNormalizer.normalize(fullMessageBody, true);
+            String messageContent = content.text;
             
             // Validate message content
-            if (!SmsFormatter.isValidMessage(messageContent)) {
+            if (!content.isValid()) {
                 Log.w(TAG, "Message content validation failed");
+                PipelineTracer.finish(traceId, PipelineTracer.OUTCOME_DROPPED);
                 return;
             }
             
+            // Marks the point InboxScanner catches up from
+            new PreferencesManager(context).updateLastSmsTimestamp(timestamp);
+            
             // Apply SMS filtering
             SmsFilter smsFilter = new SmsFilter(context);
-            if (!smsFilter.shouldForwardMessage(cleanSender, messageContent)) {
+            FilterRules.Decision decision = smsFilter.decide(cleanSender, messageContent);
+            PipelineTracer.mark(traceId, PipelineTracer.Stage.FILTERED);
+            if (decision.action != FilterRules.Action.FORWARD) {
                 Log.i(TAG, "SMS filtered out - not forwarding");
+                PipelineTracer.finish(traceId, PipelineTracer.OUTCOME_FILTERED);
                 
                 // Show notification that message was filtered (if enabled)
-                if (preferencesManager.isNotificationEnabled()) {
+                if (config.isNotificationEnabled()) {
                     NotificationHelper notificationHelper = new NotificationHelper(context);
                     notificationHelper.showInfoNotification(
                         "SMS Filtered", 
@@ -125,7 +151,7 @@ public class SmsReceiver extends BroadcastReceiver {
                 }
                 
                 // Log filtering details in debug mode
-                if (preferencesManager.isDebugMode()) {
+                if (config.isDebugMode()) {
                     SmsFilter.FilterResult filterResult = smsFilter.testMessage(cleanSender, messageContent);
                     Log.d(TAG, "Filter result: " + filterResult.toString());
                 }
@@ -133,6 +159,12 @@ public class SmsReceiver extends BroadcastReceiver {
                 return;
             }
             
+            // Collapse near-identical campaign messages into one email per window
+            if (ForwardDispatcher.collapse(context, config, cleanSender, messageContent, timestamp, decision)) {
+                PipelineTracer.finish(traceId, PipelineTracer.OUTCOME_COLLAPSED);
+                return;
+            }
+            
             // Log the SMS details (for debugging)
             String carrier = SmsFormatter.detectCarrier(cleanSender);
             Log.i(TAG, "SMS parsed successfully and passed filters:");
@@ -144,11 +176,11 @@ public class SmsReceiver extends BroadcastReceiver {
                    messageContent.substring(0, 50) + "..." : messageContent));
             
             // Show notification that SMS was received (if enabled)
-            if (preferencesManager.isNotificationEnabled()) {
+            if (config.isNotificationEnabled()) {
                 NotificationHelper notificationHelper = new NotificationHelper(context);
                 String messagePreview = "";
                 
-                if (preferencesManager.isShowSmsPreview()) {
+                if (config.isShowSmsPreview()) {
                     messagePreview = messageContent.length() > 30 ? 
                                    messageContent.substring(0, 30) + "..." : messageContent;
                 }
@@ -157,10 +189,11 @@ public class SmsReceiver extends BroadcastReceiver {
             }
             
             // Forward to EmailService
-            forwardSmsToEmail(context, cleanSender, messageContent, timestamp);
+            forwardSmsToEmail(context, cleanSender, messageContent, timestamp, decision, traceId);
             
         } catch (Exception e) {
             Log.e(TAG, "Error processing SMS", e);
+            PipelineTracer.finish(traceId, PipelineTracer.OUTCOME_FAILED);
             
             // Show error notification
             NotificationHelper notificationHelper = new NotificationHelper(context);
@@ -197,48 +230,28 @@ public class SmsReceiver extends BroadcastReceiver {
             return "Unknown";
         }
         
-        // Remove any whitespace and special characters except + and digits
-        String cleaned = phoneNumber.replaceAll("[^+\\d]", "");
-        
-        // Handle Croatian number formats
-        if (cleaned.startsWith("+385")) {
-            // International format: +385xxxxxxxxx
-            return cleaned;
-        } else if (cleaned.startsWith("385")) {
-            // International without +: 385xxxxxxxxx
-            return "+" + cleaned;
-        } else if (cleaned.startsWith("0") && cleaned.length() >= 8) {
-            // National format: 0xxxxxxxxx -> +385xxxxxxxxx
-            return "+385" + cleaned.substring(1);
-        } else if (cleaned.length() >= 8 && cleaned.length() <= 9 && !cleaned.startsWith("0")) {
-            // Local format without leading 0: xxxxxxxxx -> +385xxxxxxxxx
-            return "+385" + cleaned;
-        }
-        
-        // Return as-is if no pattern matches (could be short code or special number)
-        return phoneNumber;
+        return PhoneNumberNormalizer.normalize(phoneNumber);
     }
     
     /**
      * Forwards SMS data to EmailService for sending
      */
-    private void forwardSmsToEmail(Context context, String sender, String message, long timestamp) {
+    private void forwardSmsToEmail(Context context, String sender, String message, long timestamp,
+                                   FilterRules.Decision decision, long traceId) {
         Log.d(TAG, "Forwarding SMS to EmailService");
         
         try {
-            Intent emailIntent = new Intent(context, EmailService.class);
-            emailIntent.putExtra("sender", sender);
-            emailIntent.putExtra("message", message);
-            emailIntent.putExtra("timestamp", timestamp);
-            emailIntent.putExtra("test_mode", false);
+            Intent emailIntent = ForwardDispatcher.createEmailIntent(context, sender, message, timestamp, decision);
+            emailIntent.putExtra(PipelineTracer.EXTRA_TRACE_ID, traceId);
             
             // Start the email service
-            context.startService(emailIntent);
+            ForwardDispatcher.send(context, emailIntent);
             
             Log.i(TAG, "SMS forwarding initiated successfully");
             
         } catch (Exception e) {
             Log.e(TAG, "Error starting EmailService", e);
+            PipelineTracer.finish(traceId, PipelineTracer.OUTCOME_FAILED);
             
             // Show error notification
             NotificationHelper notificationHelper = new NotificationHelper(context);
@@ -0,0 +1,610 @@
+package com.smsemailforwarder.app.utils;
+
+import android.util.JsonReader;
+import android.util.JsonWriter;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Index and content-addressed storage behind ConfigurationManager's backups
+ * A backup is a small manifest with the scalar settings and the hash of each list. Lists are
+ * stored once per distinct content as list_<hash>.json, written as a delta (added and removed
+ * entries) against the same list in the previous backup while the chain is short. Everything
+ * known about the backups lives in backup_index.json, so listing, sorting and restoring never
+ * scan the directory or stat files. Backups from before the index are picked up by a single
+ * directory scan the first time the index is created; manifests are named differently, so
+ * that scan never mistakes one for a self-contained backup.
+ */
+final class BackupStore {
+
+    private static final String TAG = "BackupStore";
+
+    private static final String INDEX_FILE = "backup_index.json";
+    private static final String LIST_FILE_PREFIX = "list_";
+    private static final String LIST_FILE_EXTENSION = ".json";
+    private static final int INDEX_VERSION = 1;
+    private static final int HASH_BYTES = 16;
+    private static final int BUFFER_SIZE = 16384;
+
+    // Restoring reads at most this many delta files on top of a full list
+    static final int MAX_DELTA_DEPTH = 8;
+
+    private static final Map<String, BackupStore> stores = new HashMap<>();
+
+    /**
+     * One backup, newest first in getBackups()
+     */
+    static final class Backup {
+        final String hash;
+        final String fileName;
+        long created;
+        // List name -> list hash; empty for backups that hold their lists inline
+        final Map<String, String> lists;
+
+        Backup(String hash, String fileName, long created, Map<String, String> lists) {
+            this.hash = hash;
+            this.fileName = fileName;
+            this.created = created;
+            this.lists = lists;
+        }
+    }
+
+    private static final class ListBlob {
+        final String hash;
+        final String list;
+        final String base; // null for a full list
+        final int depth;
+        final int count;
+
+        ListBlob(String hash, String list, String base, int depth, int count) {
+            this.hash = hash;
+            this.list = list;
+            this.base = base;
+            this.depth = depth;
+            this.count = count;
+        }
+    }
+
+    private final File directory;
+    private final String legacyPrefix;
+    private final String legacyExtension;
+    private final List<Backup> backups = new ArrayList<>();
+    private final Map<String, ListBlob> blobs = new HashMap<>();
+    // Last set hashed per list; settings sets are immutable, so the same instance has the same hash
+    private final Map<String, WeakReference<Set<String>>> hashedSets = new HashMap<>();
+    private final Map<String, String> hashedSetHashes = new HashMap<>();
+    private boolean loaded;
+
+    private BackupStore(File directory, String legacyPrefix, String legacyExtension) {
+        this.directory = directory;
+        this.legacyPrefix = legacyPrefix;
+        this.legacyExtension = legacyExtension;
+    }
+
+    /**
+     * The store for a directory, shared by all callers; synchronize on it around each operation
+     * @param legacyPrefix Name prefix of backups written before the index existed
+     */
+    static BackupStore get(File directory, String legacyPrefix, String legacyExtension) {
+        synchronized (stores) {
+            String path = directory.getAbsolutePath();
+            BackupStore store = stores.get(path);
+            if (store == null) {
+                store = new BackupStore(directory, legacyPrefix, legacyExtension);
+                stores.put(path, store);
+            }
+            return store;
+        }
+    }
+
+    /**
+     * All backups, newest first
+     */
+    List<Backup> getBackups() throws IOException {
+        ensureLoaded();
+        return Collections.unmodifiableList(backups);
+    }
+
+    Backup getLatest() throws IOException {
+        ensureLoaded();
+        return backups.isEmpty() ? null : backups.get(0);
+    }
+
+    Backup findByHash(String hash) throws IOException {
+        ensureLoaded();
+        for (Backup backup : backups) {
+            if (hash.equals(backup.hash)) {
+                return backup;
+            }
+        }
+        return null;
+    }
+
+    Backup findByFileName(String fileName) throws IOException {
+        ensureLoaded();
+        for (Backup backup : backups) {
+            if (backup.fileName.equals(fileName)) {
+                return backup;
+            }
+        }
+        return null;
+    }
+
+    File getFile(Backup backup) {
+        return new File(directory, backup.fileName);
+    }
+
+    /**
+     * Stores a list unless a list with the same content is already stored
+     * values must not change afterwards, like the sets returned by SharedPreferences.
+     * @param baseHash Hash of the same list in the previous backup, or null
+     * @return The list's content hash
+     */
+    String putList(String name, Set<String> values, String baseHash) throws IOException {
+        ensureLoaded();
+        WeakReference<Set<String>> hashed = hashedSets.get(name);
+        if (hashed != null && hashed.get() == values && blobs.containsKey(hashedSetHashes.get(name))) {
+            return hashedSetHashes.get(name);
+        }
+        List<String> sorted = new ArrayList<>(values);
+        Collections.sort(sorted);
+        String hash = hashList(sorted);
+        hashedSets.put(name, new WeakReference<>(values));
+        hashedSetHashes.put(name, hash);
+        if (blobs.containsKey(hash)) {
+            return hash;
+        }
+
+        long start = System.nanoTime();
+        ListBlob base = baseHash != null ? blobs.get(baseHash) : null;
+        List<String> added = null;
+        List<String> removed = null;
+        if (base != null && base.depth < MAX_DELTA_DEPTH) {
+            Set<String> previous = readList(baseHash);
+            added = new ArrayList<>();
+            for (String value : sorted) {
+                if (!previous.remove(value)) {
+                    added.add(value);
+                }
+            }
+            removed = new ArrayList<>(previous);
+            Collections.sort(removed);
+            // A delta only pays off while it is clearly smaller than the list itself
+            if (added.size() + removed.size() > sorted.size() / 2) {
+                added = null;
+                removed = null;
+            }
+        }
+
+        File file = new File(directory, LIST_FILE_PREFIX + hash + LIST_FILE_EXTENSION);
+        File temp = new File(directory, file.getName() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            JsonWriter json = new JsonWriter(new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE));
+            json.beginObject();
+            json.name("list").value(name);
+            if (added != null) {
+                json.name("base").value(baseHash);
+                writeArray(json, "added", added);
+                writeArray(json, "removed", removed);
+            } else {
+                writeArray(json, "values", sorted);
+            }
+            json.endObject();
+            json.flush();
+            out.getFD().sync();
+        }
+        replace(temp, file);
+
+        ListBlob blob = added != null ? new ListBlob(hash, name, baseHash, base.depth + 1, sorted.size())
+                                      : new ListBlob(hash, name, null, 0, sorted.size());
+        blobs.put(hash, blob);
+        Log.d(TAG, "Stored " + name + " (" + sorted.size() + " entries) as " +
+              (added != null ? "delta +" + added.size() + "/-" + removed.size() : "full list") +
+              " in " + (System.nanoTime() - start) / 1000000L + "ms");
+        return hash;
+    }
+
+    /**
+     * Rebuilds a stored list, applying its deltas, and checks it against its hash
+     */
+    Set<String> getList(String hash) throws IOException {
+        ensureLoaded();
+        Set<String> values = readList(hash);
+        List<String> sorted = new ArrayList<>(values);
+        Collections.sort(sorted);
+        if (!hash.equals(hashList(sorted))) {
+            throw new IOException("List " + hash + " does not match its hash");
+        }
+        return values;
+    }
+
+    private Set<String> readList(String hash) throws IOException {
+        ListBlob blob = blobs.get(hash);
+        if (blob == null) {
+            throw new IOException("Unknown list " + hash);
+        }
+        Set<String> values = blob.base != null ? readList(blob.base) : new HashSet<String>(blob.count * 4 / 3 + 1);
+        File file = new File(directory, LIST_FILE_PREFIX + hash + LIST_FILE_EXTENSION);
+        try (Reader reader = openReader(file)) {
+            JsonReader json = new JsonReader(reader);
+            json.beginObject();
+            while (json.hasNext()) {
+                String name = json.nextName();
+                if (name.equals("values") || name.equals("added")) {
+                    json.beginArray();
+                    while (json.hasNext()) {
+                        values.add(json.nextString());
+                    }
+                    json.endArray();
+                } else if (name.equals("removed")) {
+                    json.beginArray();
+                    while (json.hasNext()) {
+                        values.remove(json.nextString());
+                    }
+                    json.endArray();
+                } else {
+                    json.skipValue();
+                }
+            }
+            json.endObject();
+        } catch (IllegalStateException e) {
+            throw new IOException("Malformed list file " + file.getName(), e);
+        }
+        return values;
+    }
+
+    /**
+     * Writes a manifest and records it as the newest backup
+     */
+    File addBackup(String fileName, String hash, byte[] manifest, Map<String, String> lists) throws IOException {
+        ensureLoaded();
+        File file = new File(directory, fileName);
+        File temp = new File(directory, fileName + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            out.write(manifest);
+            out.getFD().sync();
+        }
+        replace(temp, file);
+        backups.add(0, new Backup(hash, fileName, System.currentTimeMillis(), lists));
+        saveIndex();
+        return file;
+    }
+
+    /**
+     * Marks an existing backup as the newest one without rewriting it
+     */
+    void touch(Backup backup) throws IOException {
+        backups.remove(backup);
+        backup.created = System.currentTimeMillis();
+        backups.add(0, backup);
+        saveIndex();
+    }
+
+    /**
+     * Deletes all but the newest keepCount backups and the lists only they used
+     * @return Number of backups deleted
+     */
+    int retain(int keepCount) throws IOException {
+        ensureLoaded();
+        if (backups.size() <= keepCount) {
+            return 0;
+        }
+
+        List<Backup> dropped = new ArrayList<>(backups.subList(keepCount, backups.size()));
+        backups.subList(keepCount, backups.size()).clear();
+
+        // Lists still referenced, including the bases their deltas are built on
+        Set<String> live = new HashSet<>();
+        for (Backup backup : backups) {
+            for (String hash : backup.lists.values()) {
+                ListBlob blob = blobs.get(hash);
+                while (blob != null && live.add(blob.hash)) {
+                    blob = blob.base != null ? blobs.get(blob.base) : null;
+                }
+            }
+        }
+        List<String> deadLists = new ArrayList<>();
+        for (String hash : blobs.keySet()) {
+            if (!live.contains(hash)) {
+                deadLists.add(hash);
+            }
+        }
+        for (String hash : deadLists) {
+            blobs.remove(hash);
+        }
+
+        // Save the index first, so a crash never leaves it pointing at deleted files
+        saveIndex();
+        int deleted = 0;
+        for (Backup backup : dropped) {
+            if (getFile(backup).delete()) {
+                deleted++;
+                Log.d(TAG, "Deleted old backup: " + backup.fileName);
+            }
+        }
+        for (String hash : deadLists) {
+            new File(directory, LIST_FILE_PREFIX + hash + LIST_FILE_EXTENSION).delete();
+        }
+        Log.d(TAG, "Deleted " + deadLists.size() + " unused lists");
+        return deleted;
+    }
+
+    // Index
+
+    private void ensureLoaded() throws IOException {
+        if (loaded) {
+            return;
+        }
+        File index = new File(directory, INDEX_FILE);
+        if (!index.exists()) {
+            importLegacyBackups();
+        } else {
+            try {
+                readIndex(index);
+            } catch (IOException e) {
+                // Which lists a manifest's deltas are built on is only known from the index, so
+                // start a new one; the files stay on disk for manual recovery
+                Log.e(TAG, "Backup index is damaged, starting a new one", e);
+                backups.clear();
+                blobs.clear();
+                index.renameTo(new File(directory, INDEX_FILE + ".damaged"));
+            }
+        }
+        loaded = true;
+    }
+
+    private void readIndex(File index) throws IOException {
+        try (Reader reader = openReader(index)) {
+            JsonReader json = new JsonReader(reader);
+            json.beginObject();
+            while (json.hasNext()) {
+                String name = json.nextName();
+                if (name.equals("version")) {
+                    int version = json.nextInt();
+                    if (version > INDEX_VERSION) {
+                        throw new IOException("Unsupported backup index version " + version);
+                    }
+                } else if (name.equals("backups")) {
+                    json.beginArray();
+                    while (json.hasNext()) {
+                        backups.add(readBackup(json));
+                    }
+                    json.endArray();
+                } else if (name.equals("lists")) {
+                    json.beginArray();
+                    while (json.hasNext()) {
+                        ListBlob blob = readListBlob(json);
+                        blobs.put(blob.hash, blob);
+                    }
+                    json.endArray();
+                } else {
+                    json.skipValue();
+                }
+            }
+            json.endObject();
+        } catch (IllegalStateException | NumberFormatException e) {
+            throw new IOException("Malformed backup index", e);
+        }
+    }
+
+    private static Backup readBackup(JsonReader json) throws IOException {
+        String hash = null;
+        String fileName = null;
+        long created = 0;
+        Map<String, String> lists = new LinkedHashMap<>();
+        json.beginObject();
+        while (json.hasNext()) {
+            String name = json.nextName();
+            switch (name) {
+                case "hash":
+                    hash = json.nextString();
+                    break;
+                case "file":
+                    fileName = json.nextString();
+                    break;
+                case "created":
+                    created = json.nextLong();
+                    break;
+                case "lists":
+                    json.beginObject();
+                    while (json.hasNext()) {
+                        lists.put(json.nextName(), json.nextString());
+                    }
+                    json.endObject();
+                    break;
+                default:
+                    json.skipValue();
+            }
+        }
+        json.endObject();
+        if (hash == null || fileName == null) {
+            throw new IOException("Backup entry without hash or file");
+        }
+        return new Backup(hash, fileName, created, lists);
+    }
+
+    private static ListBlob readListBlob(JsonReader json) throws IOException {
+        String hash = null;
+        String list = null;
+        String base = null;
+        int depth = 0;
+        int count = 0;
+        json.beginObject();
+        while (json.hasNext()) {
+            String name = json.nextName();
+            switch (name) {
+                case "hash":
+                    hash = json.nextString();
+                    break;
+                case "list":
+                    list = json.nextString();
+                    break;
+                case "base":
+                    base = json.nextString();
+                    break;
+                case "depth":
+                    depth = json.nextInt();
+                    break;
+                case "count":
+                    count = json.nextInt();
+                    break;
+                default:
+                    json.skipValue();
+            }
+        }
+        json.endObject();
+        if (hash == null) {
+            throw new IOException("List entry without hash");
+        }
+        return new ListBlob(hash, list, base, depth, count);
+    }
+
+    private void saveIndex() throws IOException {
+        File index = new File(directory, INDEX_FILE);
+        File temp = new File(directory, INDEX_FILE + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            JsonWriter json = new JsonWriter(new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)));
+            json.setIndent("  ");
+            json.beginObject();
+            json.name("version").value(INDEX_VERSION);
+            json.name("backups").beginArray();
+            for (Backup backup : backups) {
+                json.beginObject();
+                json.name("hash").value(backup.hash);
+                json.name("file").value(backup.fileName);
+                json.name("created").value(backup.created);
+                json.name("lists").beginObject();
+                for (Map.Entry<String, String> list : backup.lists.entrySet()) {
+                    json.name(list.getKey()).value(list.getValue());
+                }
+                json.endObject();
+                json.endObject();
+            }
+            json.endArray();
+            json.name("lists").beginArray();
+            for (ListBlob blob : blobs.values()) {
+                json.beginObject();
+                json.name("hash").value(blob.hash);
+                json.name("list").value(blob.list);
+                if (blob.base != null) {
+                    json.name("base").value(blob.base);
+                }
+                json.name("depth").value(blob.depth);
+                json.name("count").value(blob.count);
+                json.endObject();
+            }
+            json.endArray();
+            json.endObject();
+            json.flush();
+            out.getFD().sync();
+        }
+        replace(temp, index);
+    }
+
+    /**
+     * Adds backups written before the index existed; they keep their lists inline
+     * Only files with the legacy prefix are taken; manifests use another prefix.
+     */
+    private void importLegacyBackups() throws IOException {
+        File[] files = directory.listFiles((dir, name) ->
+            name.startsWith(legacyPrefix) && name.endsWith(legacyExtension));
+        if (files == null || files.length == 0) {
+            return;
+        }
+        for (File file : files) {
+            backups.add(new Backup("legacy:" + file.getName(), file.getName(), file.lastModified(),
+                                   new LinkedHashMap<String, String>()));
+        }
+        Collections.sort(backups, (b1, b2) -> Long.compare(b2.created, b1.created));
+        saveIndex();
+        Log.i(TAG, "Indexed " + files.length + " existing backups");
+    }
+
+    // Hashing
+
+    /**
+     * Content hash of a manifest
+     */
+    static String hash(byte[] data) {
+        MessageDigest digest = newDigest();
+        digest.update(data);
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Content hash of a sorted list; each value is length-prefixed so no separator is ambiguous
+     */
+    static String hashList(List<String> sortedValues) {
+        MessageDigest digest = newDigest();
+        byte[] length = new byte[4];
+        for (String value : sortedValues) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            length[0] = (byte) (bytes.length >>> 24);
+            length[1] = (byte) (bytes.length >>> 16);
+            length[2] = (byte) (bytes.length >>> 8);
+            length[3] = (byte) bytes.length;
+            digest.update(length);
+            digest.update(bytes);
+        }
+        return toHex(digest.digest());
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private static String toHex(byte[] digest) {
+        StringBuilder hex = new StringBuilder(HASH_BYTES * 2);
+        for (int i = 0; i < HASH_BYTES; i++) {
+            hex.append(Character.forDigit((digest[i] >> 4) & 0xf, 16));
+            hex.append(Character.forDigit(digest[i] & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    // Files
+
+    private static void writeArray(JsonWriter json, String name, List<String> values) throws IOException {
+        json.name(name).beginArray();
+        for (String value : values) {
+            json.value(value);
+        }
+        json.endArray();
+    }
+
+    private static Reader openReader(File file) throws IOException {
+        return new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8), BUFFER_SIZE);
+    }
+
+    private static void replace(File temp, File target) throws IOException {
+        if (!temp.renameTo(target)) {
+            temp.delete();
+            throw new IOException("Failed to replace " + target.getName());
+        }
+    }
+}
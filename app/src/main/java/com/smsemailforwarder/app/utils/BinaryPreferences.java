@@ -0,0 +1,735 @@
+package com.smsemailforwarder.app.utils;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * SharedPreferences kept in versioned binary files instead of one XML file
+ * Scalars and strings live in a small main file. Each string set (number lists, keywords)
+ * has its own segment file that is read on first access and only rewritten when that set
+ * changes. A changed set goes to a segment with a new generation number, and the main file,
+ * renamed into place last, names the generation of every set. A crash before that rename
+ * leaves the old main file and the old segments it names; segments no main file names are
+ * ignored and deleted by the next write.
+ *
+ * apply() updates memory at once and queues the disk write on a background thread; whatever is
+ * applied before that write starts goes out with it. flush() writes on the calling thread, for
+ * components that are about to stop.
+ * Settings from the old XML file are migrated the first time the store is opened.
+ */
+final class BinaryPreferences implements SharedPreferences {
+
+    private static final String TAG = "BinaryPreferences";
+
+    private static final String DIRECTORY = "config";
+    private static final String MAIN_SUFFIX = ".bin";
+    private static final String SEGMENT_SUFFIX = ".set";
+
+    private static final int MAIN_MAGIC = 0x534d4350; // "SMCP"
+    private static final int SEGMENT_MAGIC = 0x534d4353; // "SMCS"
+    static final int FILE_VERSION = 2; // 1 had no segment generations
+    private static final int SEGMENT_VERSION = 1;
+
+    private static final byte TYPE_BOOLEAN = 1;
+    private static final byte TYPE_INT = 2;
+    private static final byte TYPE_LONG = 3;
+    private static final byte TYPE_FLOAT = 4;
+    private static final byte TYPE_STRING = 5;
+    private static final byte TYPE_STRING_SET = 6;
+
+    private static final Map<String, BinaryPreferences> instances = new HashMap<>();
+    private static final ExecutorService writeExecutor = Executors.newSingleThreadExecutor();
+
+    private final String name;
+    private final File directory;
+    private final File mainFile;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // Guards values and the dirty state; file IO for writes happens under writeLock only
+    private final Object lock = new Object();
+    private final Object writeLock = new Object();
+    private final Map<String, Object> values = new HashMap<>();
+    private final Set<String> dirtySegments = new HashSet<>();
+    private boolean mainDirty;
+    private boolean writeScheduled;
+
+    // Generation of each set's segment named by the main file on disk; guarded by writeLock
+    private final Map<String, Long> segmentGenerations = new HashMap<>();
+    private long nextGeneration = 1;
+
+    private final WeakHashMap<OnSharedPreferenceChangeListener, Object> listeners = new WeakHashMap<>();
+
+    /**
+     * Set whose segment file has not been read yet
+     */
+    private static final class UnloadedSet {
+        final int size;
+        final long generation;
+
+        UnloadedSet(int size, long generation) {
+            this.size = size;
+            this.generation = generation;
+        }
+    }
+
+    private BinaryPreferences(Context context, String name) {
+        this(context, new File(context.getFilesDir(), DIRECTORY), name);
+    }
+
+    /**
+     * Store kept in the given directory; tests use a temporary folder
+     */
+    BinaryPreferences(Context context, File directory, String name) {
+        this.name = name;
+        this.directory = directory;
+        this.mainFile = new File(directory, name + MAIN_SUFFIX);
+
+        long start = System.nanoTime();
+        if (mainFile.exists()) {
+            try {
+                readMain();
+            } catch (IOException e) {
+                Log.e(TAG, "Unreadable settings file, starting from defaults", e);
+                values.clear();
+                segmentGenerations.clear();
+                File damaged = new File(directory, name + MAIN_SUFFIX + ".damaged");
+                if (!mainFile.renameTo(damaged)) {
+                    Log.w(TAG, "Failed to move aside " + mainFile);
+                }
+            }
+        } else {
+            migrateFromXml(context);
+        }
+        Log.d(TAG, "Loaded " + values.size() + " settings in " + (System.nanoTime() - start) / 1000L + "us");
+    }
+
+    /**
+     * The store for a name, shared by the whole process
+     */
+    static BinaryPreferences get(Context context, String name) {
+        synchronized (instances) {
+            BinaryPreferences preferences = instances.get(name);
+            if (preferences == null) {
+                preferences = new BinaryPreferences(context.getApplicationContext(), name);
+                instances.put(name, preferences);
+            }
+            return preferences;
+        }
+    }
+
+    /**
+     * Moves settings from the XML SharedPreferences of the same name into the binary files
+     * The XML is cleared only after the binary copy is on disk.
+     */
+    private void migrateFromXml(Context context) {
+        SharedPreferences legacy = context.getSharedPreferences(name, Context.MODE_PRIVATE);
+        Map<String, ?> all = legacy.getAll();
+        if (all.isEmpty()) {
+            return;
+        }
+
+        for (Map.Entry<String, ?> entry : all.entrySet()) {
+            Object value = entry.getValue();
+            if (value instanceof Set) {
+                @SuppressWarnings("unchecked")
+                Set<String> set = (Set<String>) value;
+                value = Collections.unmodifiableSet(new HashSet<>(set));
+                dirtySegments.add(entry.getKey());
+            }
+            if (value != null) {
+                values.put(entry.getKey(), value);
+            }
+        }
+        mainDirty = true;
+        if (writeToDisk()) {
+            legacy.edit().clear().commit();
+            Log.i(TAG, "Migrated " + values.size() + " settings from XML");
+        }
+    }
+
+    // Reading
+
+    @Override
+    public Map<String, ?> getAll() {
+        synchronized (lock) {
+            for (Map.Entry<String, Object> entry : values.entrySet()) {
+                if (entry.getValue() instanceof UnloadedSet) {
+                    entry.setValue(loadSegment(entry.getKey(), (UnloadedSet) entry.getValue()));
+                }
+            }
+            return new HashMap<>(values);
+        }
+    }
+
+    @Override
+    public String getString(String key, String defValue) {
+        synchronized (lock) {
+            String value = (String) values.get(key);
+            return value != null ? value : defValue;
+        }
+    }
+
+    /**
+     * The returned set must not be modified, as with SharedPreferences
+     */
+    @Override
+    public Set<String> getStringSet(String key, Set<String> defValues) {
+        synchronized (lock) {
+            Object value = values.get(key);
+            if (value instanceof UnloadedSet) {
+                value = loadSegment(key, (UnloadedSet) value);
+                values.put(key, value);
+            }
+            @SuppressWarnings("unchecked")
+            Set<String> set = (Set<String>) value;
+            return set != null ? set : defValues;
+        }
+    }
+
+    @Override
+    public int getInt(String key, int defValue) {
+        synchronized (lock) {
+            Integer value = (Integer) values.get(key);
+            return value != null ? value : defValue;
+        }
+    }
+
+    @Override
+    public long getLong(String key, long defValue) {
+        synchronized (lock) {
+            Long value = (Long) values.get(key);
+            return value != null ? value : defValue;
+        }
+    }
+
+    @Override
+    public float getFloat(String key, float defValue) {
+        synchronized (lock) {
+            Float value = (Float) values.get(key);
+            return value != null ? value : defValue;
+        }
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        synchronized (lock) {
+            Boolean value = (Boolean) values.get(key);
+            return value != null ? value : defValue;
+        }
+    }
+
+    @Override
+    public boolean contains(String key) {
+        synchronized (lock) {
+            return values.containsKey(key);
+        }
+    }
+
+    @Override
+    public Editor edit() {
+        return new BinaryEditor();
+    }
+
+    @Override
+    public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        synchronized (listeners) {
+            listeners.put(listener, Boolean.TRUE);
+        }
+    }
+
+    @Override
+    public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        synchronized (listeners) {
+            listeners.remove(listener);
+        }
+    }
+
+    /**
+     * Set from a segment file; a missing or damaged segment reads as an empty set
+     */
+    private Set<String> loadSegment(String key, UnloadedSet unloaded) {
+        File file = segmentFile(key, unloaded.generation);
+        try (CheckedInputStream checked = openChecked(file, SEGMENT_MAGIC)) {
+            DataInputStream in = new DataInputStream(checked);
+            checkVersion(in.readInt(), SEGMENT_VERSION, file);
+            int count = in.readInt();
+            Set<String> set = new HashSet<>(Math.max(16, count * 4 / 3 + 1));
+            for (int i = 0; i < count; i++) {
+                set.add(readString(in));
+            }
+            verifyChecksum(checked, in, file);
+            return Collections.unmodifiableSet(set);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to read " + file.getName(), e);
+            return Collections.unmodifiableSet(new HashSet<String>());
+        }
+    }
+
+    private void readMain() throws IOException {
+        try (CheckedInputStream checked = openChecked(mainFile, MAIN_MAGIC)) {
+            DataInputStream in = new DataInputStream(checked);
+            int version = checkVersion(in.readInt(), FILE_VERSION, mainFile);
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String key = readString(in);
+                byte type = in.readByte();
+                switch (type) {
+                    case TYPE_BOOLEAN:
+                        values.put(key, in.readBoolean());
+                        break;
+                    case TYPE_INT:
+                        values.put(key, in.readInt());
+                        break;
+                    case TYPE_LONG:
+                        values.put(key, in.readLong());
+                        break;
+                    case TYPE_FLOAT:
+                        values.put(key, in.readFloat());
+                        break;
+                    case TYPE_STRING:
+                        values.put(key, readString(in));
+                        break;
+                    case TYPE_STRING_SET:
+                        int size = in.readInt();
+                        long generation = version == 1 ? 0 : in.readLong();
+                        values.put(key, new UnloadedSet(size, generation));
+                        segmentGenerations.put(key, generation);
+                        nextGeneration = Math.max(nextGeneration, generation + 1);
+                        break;
+                    default:
+                        throw new IOException("Unknown value type " + type + " for " + key);
+                }
+            }
+            verifyChecksum(checked, in, mainFile);
+        }
+    }
+
+    // Writing
+
+    /**
+     * Applies an editor's changes to memory and returns the keys that changed
+     */
+    private List<String> commitToMemory(Map<String, Object> modified, boolean clear, Object removed) {
+        List<String> changed = new ArrayList<>();
+        synchronized (lock) {
+            if (clear && !values.isEmpty()) {
+                values.clear();
+                dirtySegments.clear();
+                mainDirty = true;
+            }
+
+            for (Map.Entry<String, Object> entry : modified.entrySet()) {
+                String key = entry.getKey();
+                Object value = entry.getValue();
+                Object previous = values.get(key);
+                if (value == removed || value == null) {
+                    if (previous == null) {
+                        continue;
+                    }
+                    values.remove(key);
+                    dirtySegments.remove(key);
+                } else {
+                    if (value.equals(previous)) {
+                        continue;
+                    }
+                    values.put(key, value);
+                    if (value instanceof Set) {
+                        dirtySegments.add(key);
+                    } else {
+                        dirtySegments.remove(key);
+                    }
+                }
+                mainDirty = true;
+                changed.add(key);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Queues a write unless one is already pending; later changes ride along with it
+     */
+    private void scheduleWrite() {
+        synchronized (lock) {
+            if (writeScheduled || !hasPendingChanges()) {
+                return;
+            }
+            writeScheduled = true;
+        }
+        writeExecutor.execute(this::writeToDisk);
+    }
+
+    /**
+     * Writes pending changes now instead of waiting for the background write
+     * @return false if a file could not be written
+     */
+    boolean flush() {
+        return writeToDisk();
+    }
+
+    private boolean hasPendingChanges() {
+        return mainDirty || !dirtySegments.isEmpty();
+    }
+
+    /**
+     * Writes every pending change: changed sets to new segments, then the main file naming them,
+     * then deletes the segments it no longer names
+     * @return false if a file could not be written; its changes stay pending
+     */
+    private boolean writeToDisk() {
+        synchronized (writeLock) {
+            Map<String, Object> main;
+            Map<String, Set<String>> segments = new HashMap<>();
+            synchronized (lock) {
+                writeScheduled = false;
+                if (!hasPendingChanges()) {
+                    return true;
+                }
+                main = new HashMap<>(values);
+                for (String key : dirtySegments) {
+                    @SuppressWarnings("unchecked")
+                    Set<String> set = (Set<String>) values.get(key);
+                    segments.put(key, set); // sets are immutable once stored
+                }
+                mainDirty = false;
+                dirtySegments.clear();
+            }
+
+            long start = System.nanoTime();
+            try {
+                if (!directory.exists() && !directory.mkdirs()) {
+                    throw new IOException("Cannot create " + directory);
+                }
+                Map<String, Long> generations = new HashMap<>();
+                for (Map.Entry<String, Object> entry : main.entrySet()) {
+                    String key = entry.getKey();
+                    Set<String> set = segments.get(key);
+                    if (set != null) {
+                        long generation = nextGeneration++;
+                        writeSegment(segmentFile(key, generation), set);
+                        generations.put(key, generation);
+                    } else if (entry.getValue() instanceof Set || entry.getValue() instanceof UnloadedSet) {
+                        generations.put(key, segmentGenerations.get(key));
+                    }
+                }
+                writeMain(main, generations);
+                segmentGenerations.clear();
+                segmentGenerations.putAll(generations);
+                deleteUnnamedSegments();
+                Log.d(TAG, "Wrote settings (" + segments.size() + " segments) in " +
+                      (System.nanoTime() - start) / 1000L + "us");
+                return true;
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to write settings", e);
+                synchronized (lock) {
+                    mainDirty = true;
+                    for (String key : segments.keySet()) {
+                        if (values.get(key) instanceof Set) {
+                            dirtySegments.add(key);
+                        }
+                    }
+                }
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Deletes segments of this store that the main file does not name: replaced or removed sets,
+     * and new segments left by a write that failed or crashed before its main file
+     */
+    private void deleteUnnamedSegments() {
+        Set<String> named = new HashSet<>();
+        for (Map.Entry<String, Long> entry : segmentGenerations.entrySet()) {
+            named.add(segmentFile(entry.getKey(), entry.getValue()).getName());
+        }
+        String prefix = name + ".";
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String fileName = file.getName();
+            if (fileName.startsWith(prefix) && fileName.endsWith(SEGMENT_SUFFIX) && !named.contains(fileName) &&
+                !file.delete()) {
+                Log.w(TAG, "Failed to delete " + fileName);
+            }
+        }
+    }
+
+    private void writeMain(Map<String, Object> main, Map<String, Long> generations) throws IOException {
+        File temp = new File(directory, mainFile.getName() + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(temp)) {
+            CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(file), new CRC32());
+            DataOutputStream out = new DataOutputStream(checked);
+            out.writeInt(MAIN_MAGIC);
+            out.writeInt(FILE_VERSION);
+            out.writeInt(main.size());
+            for (Map.Entry<String, Object> entry : main.entrySet()) {
+                writeString(out, entry.getKey());
+                Object value = entry.getValue();
+                if (value instanceof Boolean) {
+                    out.writeByte(TYPE_BOOLEAN);
+                    out.writeBoolean((Boolean) value);
+                } else if (value instanceof Integer) {
+                    out.writeByte(TYPE_INT);
+                    out.writeInt((Integer) value);
+                } else if (value instanceof Long) {
+                    out.writeByte(TYPE_LONG);
+                    out.writeLong((Long) value);
+                } else if (value instanceof Float) {
+                    out.writeByte(TYPE_FLOAT);
+                    out.writeFloat((Float) value);
+                } else if (value instanceof String) {
+                    out.writeByte(TYPE_STRING);
+                    writeString(out, (String) value);
+                } else {
+                    out.writeByte(TYPE_STRING_SET);
+                    out.writeInt(value instanceof UnloadedSet ? ((UnloadedSet) value).size : ((Set<?>) value).size());
+                    out.writeLong(generations.get(entry.getKey()));
+                }
+            }
+            out.writeLong(checked.getChecksum().getValue());
+            out.flush();
+            file.getFD().sync();
+        }
+        replace(temp, mainFile);
+    }
+
+    private void writeSegment(File target, Set<String> set) throws IOException {
+        File temp = new File(directory, target.getName() + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(temp)) {
+            CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(file, 16384), new CRC32());
+            DataOutputStream out = new DataOutputStream(checked);
+            out.writeInt(SEGMENT_MAGIC);
+            out.writeInt(SEGMENT_VERSION);
+            out.writeInt(set.size());
+            for (String value : set) {
+                writeString(out, value);
+            }
+            out.writeLong(checked.getChecksum().getValue());
+            out.flush();
+            file.getFD().sync();
+        }
+        replace(temp, target);
+    }
+
+    private static void replace(File temp, File target) throws IOException {
+        if (!temp.renameTo(target)) {
+            temp.delete();
+            throw new IOException("Failed to replace " + target.getName());
+        }
+    }
+
+    /**
+     * Segment holding one generation of a set; generation 0 is the unnumbered file of version 1
+     */
+    private File segmentFile(String key, long generation) {
+        String suffix = generation == 0 ? SEGMENT_SUFFIX : "." + generation + SEGMENT_SUFFIX;
+        return new File(directory, name + "." + key + suffix);
+    }
+
+    /**
+     * Opens a file and checks its magic number; the caller reads the version and the checksum
+     */
+    private static CheckedInputStream openChecked(File file, int magic) throws IOException {
+        CheckedInputStream checked = new CheckedInputStream(
+            new BufferedInputStream(new FileInputStream(file), 16384), new CRC32());
+        DataInputStream in = new DataInputStream(checked);
+        try {
+            if (in.readInt() != magic) {
+                throw new IOException("Not a settings file: " + file.getName());
+            }
+            return checked;
+        } catch (IOException e) {
+            checked.close();
+            throw e;
+        }
+    }
+
+    private static int checkVersion(int version, int latest, File file) throws IOException {
+        if (version < 1 || version > latest) {
+            throw new IOException("Unsupported version " + version + " of " + file.getName());
+        }
+        return version;
+    }
+
+    private static void verifyChecksum(CheckedInputStream checked, DataInputStream in, File file)
+            throws IOException {
+        long expected = checked.getChecksum().getValue();
+        if (in.readLong() != expected) {
+            throw new IOException("Checksum mismatch in " + file.getName());
+        }
+    }
+
+    // Length-prefixed UTF-8; writeUTF would limit templates and rules to 64 KB
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("Negative string length");
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Calls listeners on the main thread, as SharedPreferences does
+     */
+    private void notifyListeners(final List<String> keys, final boolean cleared) {
+        final List<OnSharedPreferenceChangeListener> targets;
+        synchronized (listeners) {
+            if (listeners.isEmpty()) {
+                return;
+            }
+            targets = new ArrayList<>(listeners.keySet());
+        }
+        Runnable notify = () -> {
+            if (cleared) {
+                for (OnSharedPreferenceChangeListener listener : targets) {
+                    listener.onSharedPreferenceChanged(this, null);
+                }
+            }
+            for (int i = keys.size() - 1; i >= 0; i--) {
+                for (OnSharedPreferenceChangeListener listener : targets) {
+                    listener.onSharedPreferenceChanged(this, keys.get(i));
+                }
+            }
+        };
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            notify.run();
+        } else {
+            mainHandler.post(notify);
+        }
+    }
+
+    private final class BinaryEditor implements Editor {
+        private final Map<String, Object> modified = new HashMap<>();
+        private boolean clear;
+
+        @Override
+        public Editor putString(String key, String value) {
+            synchronized (this) {
+                modified.put(key, value);
+                return this;
+            }
+        }
+
+        @Override
+        public Editor putStringSet(String key, Set<String> values) {
+            synchronized (this) {
+                modified.put(key, values == null ? null : Collections.unmodifiableSet(new HashSet<>(values)));
+                return this;
+            }
+        }
+
+        @Override
+        public Editor putInt(String key, int value) {
+            synchronized (this) {
+                modified.put(key, value);
+                return this;
+            }
+        }
+
+        @Override
+        public Editor putLong(String key, long value) {
+            synchronized (this) {
+                modified.put(key, value);
+                return this;
+            }
+        }
+
+        @Override
+        public Editor putFloat(String key, float value) {
+            synchronized (this) {
+                modified.put(key, value);
+                return this;
+            }
+        }
+
+        @Override
+        public Editor putBoolean(String key, boolean value) {
+            synchronized (this) {
+                modified.put(key, value);
+                return this;
+            }
+        }
+
+        @Override
+        public Editor remove(String key) {
+            synchronized (this) {
+                modified.put(key, this);
+                return this;
+            }
+        }
+
+        @Override
+        public Editor clear() {
+            synchronized (this) {
+                clear = true;
+                return this;
+            }
+        }
+
+        @Override
+        public boolean commit() {
+            List<String> changed;
+            boolean cleared;
+            synchronized (this) {
+                cleared = clear;
+                changed = commitToMemory(modified, clear, this);
+                modified.clear();
+                clear = false;
+            }
+            boolean written = writeToDisk();
+            notifyListeners(changed, cleared);
+            return written;
+        }
+
+        @Override
+        public void apply() {
+            List<String> changed;
+            boolean cleared;
+            synchronized (this) {
+                cleared = clear;
+                changed = commitToMemory(modified, clear, this);
+                modified.clear();
+                clear = false;
+            }
+            scheduleWrite();
+            notifyListeners(changed, cleared);
+        }
+    }
+}
@@ -0,0 +1,512 @@
+package com.smsemailforwarder.app.utils;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Large sender blocklist (shared spam feeds with millions of numbers) kept outside SharedPreferences
+ * Numbers are stored in two memory-mapped files: a Bloom filter answering "definitely not
+ * blocked" with a few memory reads, and a sorted table of E.164 numbers used to confirm
+ * Bloom hits exactly. Feed entries match exactly on the normalized number.
+ * Each import writes both files under a new generation number and then switches a small
+ * pointer file to it, so a crash never leaves a Bloom filter paired with another feed's table.
+ */
+public class BlocklistFeed {
+
+    private static final String TAG = "BlocklistFeed";
+
+    private static final String FILE_PREFIX = "blocklist_feed";
+    private static final String BLOOM_EXTENSION = ".bloom";
+    private static final String TABLE_EXTENSION = ".table";
+    // Holds the generation of the current file pair
+    private static final String POINTER_FILE = FILE_PREFIX + ".current";
+    // Generation of the unversioned files written before the pointer file existed
+    private static final long LEGACY_GENERATION = 0;
+
+    private static final int BLOOM_MAGIC = 0x534d4246; // "SMBF"
+    private static final int TABLE_MAGIC = 0x534d4254; // "SMBT"
+    private static final int FILE_VERSION = 1;
+
+    // magic, version, bit count, hash count, reserved, entry count
+    private static final int BLOOM_HEADER_SIZE = 32;
+    // magic, version, entry count
+    private static final int TABLE_HEADER_SIZE = 16;
+
+    public static final double DEFAULT_FALSE_POSITIVE_RATE = 0.001;
+
+    private static volatile BlocklistFeed instance;
+
+    private final File dir;
+    private final File pointerFile;
+    private final Object importLock = new Object();
+
+    // Currently mapped files, replaced as a whole after an import
+    private volatile Mapping mapping;
+    private volatile boolean opened;
+
+    /**
+     * Read-only view over both mapped files
+     */
+    private static final class Mapping {
+        final ByteBuffer bloomBits;
+        final long bitCount;
+        final int hashCount;
+        final LongBuffer table;
+        final long entryCount;
+
+        Mapping(ByteBuffer bloomBits, long bitCount, int hashCount, LongBuffer table, long entryCount) {
+            this.bloomBits = bloomBits;
+            this.bitCount = bitCount;
+            this.hashCount = hashCount;
+            this.table = table;
+            this.entryCount = entryCount;
+        }
+    }
+
+    /**
+     * Outcome of an import, for display and logs
+     */
+    public static class ImportResult {
+        public long linesRead;
+        public long numbersImported;
+        public long skipped;
+        public long bloomBytes;
+        public int hashCount;
+        public long durationMs;
+
+        @Override
+        public String toString() {
+            return "Imported " + numbersImported + " numbers from " + linesRead + " lines (" +
+                   skipped + " skipped) in " + durationMs + "ms, Bloom filter " +
+                   (bloomBytes / 1024) + " KB with " + hashCount + " hashes";
+        }
+    }
+
+    private BlocklistFeed(Context context) {
+        this(context.getFilesDir());
+    }
+
+    /**
+     * Feed stored in the given directory (the app's files dir outside tests)
+     */
+    BlocklistFeed(File dir) {
+        this.dir = dir;
+        this.pointerFile = new File(dir, POINTER_FILE);
+    }
+
+    public static BlocklistFeed getInstance(Context context) {
+        if (instance == null) {
+            synchronized (BlocklistFeed.class) {
+                if (instance == null) {
+                    instance = new BlocklistFeed(context.getApplicationContext());
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Checks a normalized number against the feed
+     * @param confirm Verify Bloom hits against the sorted table to rule out false positives
+     */
+    public boolean contains(String normalizedNumber, boolean confirm) {
+        Mapping current = getMapping();
+        if (current == null) {
+            return false;
+        }
+
+        long key = toKey(normalizedNumber);
+        if (key < 0) {
+            return false;
+        }
+
+        if (!mightContain(current, key)) {
+            return false;
+        }
+        return !confirm || tableContains(current, key);
+    }
+
+    /**
+     * Number of entries in the imported feed (0 if none)
+     */
+    public long size() {
+        Mapping current = getMapping();
+        return current != null ? current.entryCount : 0;
+    }
+
+    /**
+     * Imports a blocklist, one number per line; blank lines and lines starting with # are ignored
+     * Replaces the previous feed once the new files are completely written.
+     */
+    public ImportResult importFrom(InputStream input, double falsePositiveRate) throws IOException {
+        synchronized (importLock) {
+            long start = System.currentTimeMillis();
+            ImportResult result = new ImportResult();
+
+            long[] keys = readKeys(input, result);
+            Arrays.sort(keys);
+            int count = dedupe(keys);
+            result.numbersImported = count;
+
+            long bitCount = optimalBitCount(count, falsePositiveRate);
+            int hashCount = optimalHashCount(count, bitCount);
+
+            long generation = readGeneration() + 1;
+            File bloomFile = bloomFile(generation);
+            File tableFile = tableFile(generation);
+            try {
+                writeBloom(bloomFile, keys, count, bitCount, hashCount);
+                writeTable(tableFile, keys, count);
+                synchronized (this) {
+                    // Switching the pointer publishes both files at once
+                    writeGeneration(generation);
+                    mapping = load();
+                    opened = true;
+                }
+            } catch (IOException e) {
+                deleteFile(bloomFile);
+                deleteFile(tableFile);
+                throw e;
+            }
+            // Mappings of older generations stay valid after their files are deleted
+            deleteGenerationsExcept(generation);
+
+            result.hashCount = hashCount;
+            result.bloomBytes = bitCount / 8;
+            result.durationMs = System.currentTimeMillis() - start;
+            Log.i(TAG, result.toString());
+            return result;
+        }
+    }
+
+    /**
+     * Removes the imported feed
+     */
+    public void clear() {
+        synchronized (importLock) {
+            synchronized (this) {
+                mapping = null;
+                opened = true;
+                deleteFile(pointerFile);
+            }
+            deleteGenerationsExcept(-1);
+        }
+    }
+
+    /**
+     * Converts a normalized E.164 number to its numeric key, or -1 for anything else
+     */
+    static long toKey(String normalized) {
+        if (!PhoneNumberNormalizer.isE164(normalized) || normalized.length() > 19) {
+            return -1;
+        }
+        long key = 0;
+        for (int i = 1; i < normalized.length(); i++) {
+            char c = normalized.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            key = key * 10 + (c - '0');
+        }
+        return key;
+    }
+
+    private Mapping getMapping() {
+        if (!opened) {
+            synchronized (this) {
+                if (!opened) {
+                    mapping = load();
+                    opened = true;
+                }
+            }
+        }
+        return mapping;
+    }
+
+    private Mapping load() {
+        long generation;
+        try {
+            generation = readGeneration();
+        } catch (IOException e) {
+            Log.e(TAG, "Error reading blocklist feed pointer", e);
+            return null;
+        }
+        File bloomFile = bloomFile(generation);
+        File tableFile = tableFile(generation);
+        if (!bloomFile.exists() || !tableFile.exists()) {
+            return null;
+        }
+
+        try {
+            ByteBuffer bloom = map(bloomFile);
+            ByteBuffer table = map(tableFile);
+
+            if (bloom.getInt(0) != BLOOM_MAGIC || bloom.getInt(4) != FILE_VERSION ||
+                table.getInt(0) != TABLE_MAGIC || table.getInt(4) != FILE_VERSION) {
+                Log.w(TAG, "Unsupported blocklist feed files, ignoring");
+                return null;
+            }
+
+            long bitCount = bloom.getLong(8);
+            int hashCount = bloom.getInt(16);
+            long entryCount = table.getLong(8);
+
+            bloom.position(BLOOM_HEADER_SIZE);
+            table.position(TABLE_HEADER_SIZE);
+            Mapping loaded = new Mapping(bloom.slice(), bitCount, hashCount,
+                                         table.slice().asLongBuffer(), entryCount);
+            Log.d(TAG, "Blocklist feed mapped: " + entryCount + " numbers");
+            return loaded;
+
+        } catch (IOException e) {
+            Log.e(TAG, "Error mapping blocklist feed", e);
+            return null;
+        }
+    }
+
+    private File bloomFile(long generation) {
+        return new File(dir, fileName(generation, BLOOM_EXTENSION));
+    }
+
+    private File tableFile(long generation) {
+        return new File(dir, fileName(generation, TABLE_EXTENSION));
+    }
+
+    private static String fileName(long generation, String extension) {
+        return generation == LEGACY_GENERATION
+            ? FILE_PREFIX + extension
+            : FILE_PREFIX + "_" + generation + extension;
+    }
+
+    /**
+     * Generation named by the pointer file; the legacy pair when there is no pointer yet
+     */
+    private long readGeneration() throws IOException {
+        if (!pointerFile.exists()) {
+            return LEGACY_GENERATION;
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(pointerFile))) {
+            return in.readLong();
+        }
+    }
+
+    /**
+     * Writes the pointer to a temp file, syncs it and renames it over the old one
+     */
+    private void writeGeneration(long generation) throws IOException {
+        File temp = new File(dir, POINTER_FILE + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            DataOutputStream data = new DataOutputStream(out);
+            data.writeLong(generation);
+            data.flush();
+            out.getFD().sync();
+        }
+        if (!temp.renameTo(pointerFile)) {
+            deleteFile(temp);
+            throw new IOException("Failed to replace " + pointerFile);
+        }
+    }
+
+    /**
+     * Deletes feed files of every generation but the given one (-1 deletes all)
+     */
+    private void deleteGenerationsExcept(long keep) {
+        String keepBloom = keep >= 0 ? fileName(keep, BLOOM_EXTENSION) : null;
+        String keepTable = keep >= 0 ? fileName(keep, TABLE_EXTENSION) : null;
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.startsWith(FILE_PREFIX) || name.equals(POINTER_FILE)) {
+                continue;
+            }
+            if ((name.endsWith(BLOOM_EXTENSION) || name.endsWith(TABLE_EXTENSION))
+                    && !name.equals(keepBloom) && !name.equals(keepTable)) {
+                deleteFile(file);
+            }
+        }
+    }
+
+    private static void deleteFile(File file) {
+        if (file.exists() && !file.delete()) {
+            Log.w(TAG, "Failed to delete " + file);
+        }
+    }
+
+    private static MappedByteBuffer map(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            // The mapping stays valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    private static long[] readKeys(InputStream input, ImportResult result) throws IOException {
+        long[] keys = new long[1024];
+        int count = 0;
+
+        BufferedReader reader = new BufferedReader(
+            new InputStreamReader(input, StandardCharsets.UTF_8), 64 * 1024);
+        String line;
+        while ((line = reader.readLine()) != null) {
+            result.linesRead++;
+            line = line.trim();
+            if (line.isEmpty() || line.charAt(0) == '#') {
+                continue;
+            }
+
+            long key = toKey(PhoneNumberNormalizer.normalizeUncached(line));
+            if (key < 0) {
+                result.skipped++;
+                continue;
+            }
+
+            if (count == keys.length) {
+                keys = Arrays.copyOf(keys, keys.length * 2);
+            }
+            keys[count++] = key;
+        }
+        return Arrays.copyOf(keys, count);
+    }
+
+    /**
+     * Removes duplicates from a sorted array in place
+     * @return Number of distinct keys at the start of the array
+     */
+    private static int dedupe(long[] sorted) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int count = 1;
+        for (int i = 1; i < sorted.length; i++) {
+            if (sorted[i] != sorted[count - 1]) {
+                sorted[count++] = sorted[i];
+            }
+        }
+        return count;
+    }
+
+    private static void writeBloom(File file, long[] keys, int count, long bitCount, int hashCount)
+            throws IOException {
+        long size = BLOOM_HEADER_SIZE + bitCount / 8;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+             FileChannel channel = raf.getChannel()) {
+            raf.setLength(0);
+            raf.setLength(size);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+
+            buffer.putInt(0, BLOOM_MAGIC);
+            buffer.putInt(4, FILE_VERSION);
+            buffer.putLong(8, bitCount);
+            buffer.putInt(16, hashCount);
+            buffer.putLong(24, count);
+
+            for (int i = 0; i < count; i++) {
+                long h1 = mix(keys[i]);
+                long h2 = mix(h1) | 1L;
+                for (int k = 0; k < hashCount; k++) {
+                    long bit = ((h1 + k * h2) & Long.MAX_VALUE) % bitCount;
+                    int index = BLOOM_HEADER_SIZE + (int) (bit >>> 3);
+                    buffer.put(index, (byte) (buffer.get(index) | (1 << (bit & 7))));
+                }
+            }
+            buffer.force();
+        }
+    }
+
+    private static void writeTable(File file, long[] keys, int count) throws IOException {
+        long size = TABLE_HEADER_SIZE + (long) count * 8;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+             FileChannel channel = raf.getChannel()) {
+            raf.setLength(0);
+            raf.setLength(size);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+
+            buffer.putInt(0, TABLE_MAGIC);
+            buffer.putInt(4, FILE_VERSION);
+            buffer.putLong(8, count);
+            buffer.position(TABLE_HEADER_SIZE);
+            buffer.asLongBuffer().put(keys, 0, count);
+            buffer.force();
+        }
+    }
+
+    private static boolean mightContain(Mapping current, long key) {
+        long h1 = mix(key);
+        long h2 = mix(h1) | 1L;
+        for (int k = 0; k < current.hashCount; k++) {
+            long bit = ((h1 + k * h2) & Long.MAX_VALUE) % current.bitCount;
+            if ((current.bloomBits.get((int) (bit >>> 3)) & (1 << (bit & 7))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Binary search over the mapped sorted table
+     */
+    private static boolean tableContains(Mapping current, long key) {
+        long lo = 0;
+        long hi = current.entryCount - 1;
+        while (lo <= hi) {
+            long mid = (lo + hi) >>> 1;
+            long value = current.table.get((int) mid);
+            if (value < key) {
+                lo = mid + 1;
+            } else if (value > key) {
+                hi = mid - 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Bits needed for n entries at the given false positive rate: -n ln p / (ln 2)^2
+     * Rounded up to whole bytes, at least 64 bits
+     */
+    private static long optimalBitCount(long entries, double falsePositiveRate) {
+        double rate = Math.min(0.5, Math.max(1e-9, falsePositiveRate));
+        long bits = (long) Math.ceil(-Math.max(1, entries) * Math.log(rate) / (Math.log(2) * Math.log(2)));
+        return Math.max(64, (bits + 7) / 8 * 8);
+    }
+
+    /**
+     * Hash functions minimizing false positives: (m / n) ln 2
+     */
+    private static int optimalHashCount(long entries, long bitCount) {
+        int hashes = (int) Math.round((double) bitCount / Math.max(1, entries) * Math.log(2));
+        return Math.max(1, Math.min(30, hashes));
+    }
+
+    /**
+     * 64-bit finalizer (SplitMix64) to spread the numeric keys
+     */
+    private static long mix(long value) {
+        long z = value + 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,267 @@
+package com.smsemailforwarder.app.utils;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+/**
+ * Immutable copy of the typed settings read while handling an SMS
+ * The receiver, EmailService and NotificationHelper read plain final fields from the current
+ * snapshot instead of going through SharedPreferences for every value. A new snapshot is built
+ * whenever a setting is saved and published with a single volatile write. Filter settings and
+ * email templates have their own compiled snapshots (FilterSnapshot, EmailTemplates).
+ */
+public final class ConfigSnapshot {
+
+    private static final String TAG = "ConfigSnapshot";
+
+    private static volatile ConfigSnapshot current;
+
+    // SharedPreferences only keeps weak references to listeners, so hold it here
+    private static SharedPreferences.OnSharedPreferenceChangeListener preferenceListener;
+
+    private final long version;
+
+    // Email
+    private final boolean emailConfigured;
+    private final String smtpServer;
+    private final int smtpPort;
+    private final String emailUsername;
+    private final String fromEmail;
+    private final String toEmail;
+    private final boolean useTls;
+    private final boolean useSsl;
+
+    // Service
+    private final boolean serviceEnabled;
+    private final boolean autoStart;
+
+    // Duplicate collapsing
+    private final boolean duplicateCollapseEnabled;
+    private final int duplicateWindowMinutes;
+    private final int duplicateMaxDistance;
+
+    // Notifications
+    private final boolean notificationEnabled;
+    private final boolean notificationSound;
+    private final boolean notificationVibrate;
+    private final boolean notificationLed;
+    private final int notificationPriority;
+    private final boolean showEmailStatus;
+    private final boolean showSmsPreview;
+
+    // Advanced
+    private final int emailRetryCount;
+    private final int emailRetryDelay;
+    private final int connectionTimeout;
+    private final boolean debugMode;
+    private final boolean metricsExportEnabled;
+    private final int metricsExportPort;
+    private final boolean metricsExportLan;
+    private final int backlogAttachmentThresholdKb;
+    private final PreferencesManager.BacklogFormat backlogAttachmentFormat;
+
+    private ConfigSnapshot(long version, PreferencesManager preferencesManager) {
+        this.version = version;
+
+        this.smtpServer = preferencesManager.getSmtpServer();
+        this.smtpPort = preferencesManager.getSmtpPort();
+        this.emailUsername = preferencesManager.getEmailUsername();
+        this.fromEmail = preferencesManager.getFromEmail();
+        this.toEmail = preferencesManager.getToEmail();
+        this.useTls = preferencesManager.isUseTls();
+        this.useSsl = preferencesManager.isUseSsl();
+        this.emailConfigured = preferencesManager.isEmailConfigured();
+
+        this.serviceEnabled = preferencesManager.isServiceEnabled();
+        this.autoStart = preferencesManager.isAutoStart();
+
+        this.duplicateCollapseEnabled = preferencesManager.isDuplicateCollapseEnabled();
+        this.duplicateWindowMinutes = preferencesManager.getDuplicateWindowMinutes();
+        this.duplicateMaxDistance = preferencesManager.getDuplicateMaxDistance();
+
+        this.notificationEnabled = preferencesManager.isNotificationEnabled();
+        this.notificationSound = preferencesManager.isNotificationSound();
+        this.notificationVibrate = preferencesManager.isNotificationVibrate();
+        this.notificationLed = preferencesManager.isNotificationLed();
+        this.notificationPriority = preferencesManager.getNotificationPriority();
+        this.showEmailStatus = preferencesManager.isShowEmailStatus();
+        this.showSmsPreview = preferencesManager.isShowSmsPreview();
+
+        this.emailRetryCount = preferencesManager.getEmailRetryCount();
+        this.emailRetryDelay = preferencesManager.getEmailRetryDelay();
+        this.connectionTimeout = preferencesManager.getConnectionTimeout();
+        this.debugMode = preferencesManager.isDebugMode();
+        this.metricsExportEnabled = preferencesManager.isMetricsExportEnabled();
+        this.metricsExportPort = preferencesManager.getMetricsExportPort();
+        this.metricsExportLan = preferencesManager.isMetricsExportLan();
+        this.backlogAttachmentThresholdKb = preferencesManager.getBacklogAttachmentThresholdKb();
+        this.backlogAttachmentFormat = preferencesManager.getBacklogAttachmentFormat();
+    }
+
+    /**
+     * Gets the current snapshot, building the first one and subscribing to changes on first use
+     */
+    public static ConfigSnapshot get(Context context) {
+        ConfigSnapshot snapshot = current;
+        if (snapshot != null) {
+            return snapshot;
+        }
+
+        synchronized (ConfigSnapshot.class) {
+            if (current == null) {
+                final PreferencesManager preferencesManager = new PreferencesManager(context.getApplicationContext());
+
+                // Listeners run on the main thread right after apply() there, so settings
+                // screens read back their own changes; building a snapshot takes microseconds
+                preferenceListener = (preferences, key) -> {
+                    if (key == null || !PreferencesManager.isRuntimeStateKey(key)) {
+                        rebuild(preferencesManager);
+                    }
+                };
+                preferencesManager.registerOnChangeListener(preferenceListener);
+
+                current = new ConfigSnapshot(1, preferencesManager);
+            }
+            return current;
+        }
+    }
+
+    /**
+     * Forgets the current snapshot, so the next get() reads the settings again; for tests that
+     * switch settings or application
+     */
+    static synchronized void reset() {
+        current = null;
+        preferenceListener = null;
+    }
+
+    private static void rebuild(PreferencesManager preferencesManager) {
+        ConfigSnapshot snapshot;
+        synchronized (ConfigSnapshot.class) {
+            snapshot = new ConfigSnapshot(current != null ? current.version + 1 : 1, preferencesManager);
+            current = snapshot;
+        }
+        Log.d(TAG, "Rebuilt configuration snapshot v" + snapshot.version);
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public boolean isEmailConfigured() {
+        return emailConfigured;
+    }
+
+    public String getSmtpServer() {
+        return smtpServer;
+    }
+
+    public int getSmtpPort() {
+        return smtpPort;
+    }
+
+    public String getEmailUsername() {
+        return emailUsername;
+    }
+
+    public String getFromEmail() {
+        return fromEmail;
+    }
+
+    public String getToEmail() {
+        return toEmail;
+    }
+
+    public boolean isUseTls() {
+        return useTls;
+    }
+
+    public boolean isUseSsl() {
+        return useSsl;
+    }
+
+    public boolean isServiceEnabled() {
+        return serviceEnabled;
+    }
+
+    public boolean isAutoStart() {
+        return autoStart;
+    }
+
+    public boolean isDuplicateCollapseEnabled() {
+        return duplicateCollapseEnabled;
+    }
+
+    public int getDuplicateWindowMinutes() {
+        return duplicateWindowMinutes;
+    }
+
+    public int getDuplicateMaxDistance() {
+        return duplicateMaxDistance;
+    }
+
+    public boolean isNotificationEnabled() {
+        return notificationEnabled;
+    }
+
+    public boolean isNotificationSound() {
+        return notificationSound;
+    }
+
+    public boolean isNotificationVibrate() {
+        return notificationVibrate;
+    }
+
+    public boolean isNotificationLed() {
+        return notificationLed;
+    }
+
+    public int getNotificationPriority() {
+        return notificationPriority;
+    }
+
+    public boolean isShowEmailStatus() {
+        return showEmailStatus;
+    }
+
+    public boolean isShowSmsPreview() {
+        return showSmsPreview;
+    }
+
+    public int getEmailRetryCount() {
+        return emailRetryCount;
+    }
+
+    public int getEmailRetryDelay() {
+        return emailRetryDelay;
+    }
+
+    public int getConnectionTimeout() {
+        return connectionTimeout;
+    }
+
+    public boolean isDebugMode() {
+        return debugMode;
+    }
+
+    public boolean isMetricsExportEnabled() {
+        return metricsExportEnabled;
+    }
+
+    public int getMetricsExportPort() {
+        return metricsExportPort;
+    }
+
+    public boolean isMetricsExportLan() {
+        return metricsExportLan;
+    }
+
+    public int getBacklogAttachmentThresholdKb() {
+        return backlogAttachmentThresholdKb;
+    }
+
+    public PreferencesManager.BacklogFormat getBacklogAttachmentFormat() {
+        return backlogAttachmentFormat;
+    }
+}
@@ -7,13 +7,26 @@ import android.os.Environment;
 import android.text.TextUtils;
 import android.util.Log;
 import androidx.core.content.FileProvider;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Utility class for managing configuration backup, restore, import, and export
@@ -23,8 +36,13 @@ public class ConfigurationManager {
     
     private static final String TAG = "ConfigurationManager";
     private static final String BACKUP_DIR = "SMSEmailForwarder";
+    // Self-contained backups from before the backup index
     private static final String BACKUP_FILE_PREFIX = "sms_email_config_";
     private static final String BACKUP_FILE_EXTENSION = ".json";
+    // Manifests refer to lists in the list store, so they must never be read as the above
+    private static final String MANIFEST_FILE_PREFIX = "sms_email_manifest_";
+    private static final String SHARE_FILE_NAME = "sms_email_config.json";
+    private static final int BUFFER_SIZE = 16384;
     
     private final Context context;
     private final PreferencesManager preferencesManager;
@@ -36,6 +54,8 @@ public class ConfigurationManager {
     
     /**
      * Create a backup of current configuration
+     * Nothing is written when an identical backup exists; that backup becomes the newest one.
+     * Lists go to the shared list store, which only writes a list whose content changed.
      * @return File object of the backup file, or null if failed
      */
     public File createBackup() {
@@ -47,27 +67,40 @@ public class ConfigurationManager {
                 return null;
             }
             
-            // Generate backup filename with timestamp
-            String timestamp = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.getDefault()).format(new Date());
-            String filename = BACKUP_FILE_PREFIX + timestamp + BACKUP_FILE_EXTENSION;
-            File backupFile = new File(backupDir, filename);
-            
-            // Export settings to JSON
-            String configJson = preferencesManager.exportSettingsToJson();
-            if (TextUtils.isEmpty(configJson)) {
-                Log.e(TAG, "Failed to export settings to JSON");
-                return null;
-            }
-            
-            // Write to file
-            try (FileOutputStream fos = new FileOutputStream(backupFile)) {
-                fos.write(configJson.getBytes("UTF-8"));
-                fos.flush();
+            BackupStore store = getBackupStore();
+            synchronized (store) {
+                // Store each list, as a delta against the previous backup's copy where possible
+                BackupStore.Backup previous = store.getLatest();
+                Map<String, String> listRefs = new LinkedHashMap<>();
+                for (Map.Entry<String, Set<String>> list : preferencesManager.getSettingsLists().entrySet()) {
+                    String base = previous != null ? previous.lists.get(list.getKey()) : null;
+                    listRefs.put(list.getKey(), store.putList(list.getKey(), list.getValue(), base));
+                }
+                
+                // The manifest is small, so build it in memory and address it by its hash
+                ByteArrayOutputStream manifest = new ByteArrayOutputStream();
+                try (Writer writer = new OutputStreamWriter(manifest, StandardCharsets.UTF_8)) {
+                    preferencesManager.exportSettingsToJson(writer, listRefs);
+                }
+                byte[] content = manifest.toByteArray();
+                String hash = BackupStore.hash(content);
+                
+                BackupStore.Backup existing = store.findByHash(hash);
+                if (existing != null) {
+                    store.touch(existing);
+                    Log.i(TAG, "Configuration unchanged since backup " + existing.fileName);
+                    return store.getFile(existing);
+                }
+                
+                // Generate backup filename with timestamp and content hash
+                String timestamp = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.getDefault()).format(new Date());
+                String filename = MANIFEST_FILE_PREFIX + timestamp + "_" + hash.substring(0, 8) + BACKUP_FILE_EXTENSION;
+                File backupFile = store.addBackup(filename, hash, content, listRefs);
+                
+                Log.i(TAG, "Configuration backup created: " + backupFile.getAbsolutePath());
+                return backupFile;
             }
             
-            Log.i(TAG, "Configuration backup created: " + backupFile.getAbsolutePath());
-            return backupFile;
-            
         } catch (IOException e) {
             Log.e(TAG, "Error creating configuration backup", e);
             return null;
@@ -86,18 +119,27 @@ public class ConfigurationManager {
         }
         
         try {
-            // Read file content
-            StringBuilder content = new StringBuilder();
-            try (FileInputStream fis = new FileInputStream(backupFile)) {
-                byte[] buffer = new byte[1024];
-                int bytesRead;
-                while ((bytesRead = fis.read(buffer)) != -1) {
-                    content.append(new String(buffer, 0, bytesRead, "UTF-8"));
+            // Lists of indexed backups come from the list store; other files carry them inline
+            Map<String, Set<String>> lists = null;
+            if (backupFile.getParentFile() != null && backupFile.getParentFile().equals(getBackupDirectory())) {
+                BackupStore store = getBackupStore();
+                synchronized (store) {
+                    BackupStore.Backup backup = store.findByFileName(backupFile.getName());
+                    if (backup != null && !backup.lists.isEmpty()) {
+                        lists = new HashMap<>();
+                        for (Map.Entry<String, String> list : backup.lists.entrySet()) {
+                            lists.put(list.getKey(), store.getList(list.getValue()));
+                        }
+                    }
                 }
             }
             
-            // Import settings from JSON
-            boolean success = preferencesManager.importSettingsFromJson(content.toString());
+            // Decode and parse the file as a stream; the reader keeps multi-byte characters whole
+            boolean success;
+            try (Reader reader = new BufferedReader(
+                    new InputStreamReader(new FileInputStream(backupFile), StandardCharsets.UTF_8), BUFFER_SIZE)) {
+                success = preferencesManager.importSettingsFromJson(reader, lists);
+            }
             
             if (success) {
                 Log.i(TAG, "Configuration restored from: " + backupFile.getAbsolutePath());
@@ -118,8 +160,13 @@ public class ConfigurationManager {
      * @return Intent for sharing the configuration file, or null if failed
      */
     public Intent shareConfiguration() {
-        File backupFile = createBackup();
-        if (backupFile == null) {
+        // Backups refer to the shared list store, so share a self-contained export instead
+        File exportFile = new File(context.getCacheDir(), SHARE_FILE_NAME);
+        try (Writer writer = new BufferedWriter(
+                new OutputStreamWriter(new FileOutputStream(exportFile), StandardCharsets.UTF_8), BUFFER_SIZE)) {
+            preferencesManager.exportSettingsToJson(writer);
+        } catch (IOException e) {
+            Log.e(TAG, "Error exporting configuration for sharing", e);
             return null;
         }
         
@@ -128,7 +175,7 @@ public class ConfigurationManager {
             Uri fileUri = FileProvider.getUriForFile(
                 context,
                 context.getPackageName() + ".fileprovider",
-                backupFile
+                exportFile
             );
             
             Intent shareIntent = new Intent(Intent.ACTION_SEND);
@@ -200,46 +247,56 @@ public class ConfigurationManager {
     }
     
     /**
-     * Get list of available backup files
+     * Get list of available backup files, newest first
      * @return Array of backup files, or empty array if none found
      */
     public File[] getAvailableBackups() {
-        File backupDir = getBackupDirectory();
-        if (!backupDir.exists()) {
+        if (!getBackupDirectory().exists()) {
             return new File[0];
         }
         
-        File[] backupFiles = backupDir.listFiles((dir, name) -> 
-            name.startsWith(BACKUP_FILE_PREFIX) && name.endsWith(BACKUP_FILE_EXTENSION));
-        
-        return backupFiles != null ? backupFiles : new File[0];
+        BackupStore store = getBackupStore();
+        synchronized (store) {
+            try {
+                List<BackupStore.Backup> backups = store.getBackups();
+                File[] backupFiles = new File[backups.size()];
+                for (int i = 0; i < backupFiles.length; i++) {
+                    backupFiles[i] = store.getFile(backups.get(i));
+                }
+                return backupFiles;
+            } catch (IOException e) {
+                Log.e(TAG, "Error reading backup index", e);
+                return new File[0];
+            }
+        }
     }
     
     /**
      * Delete old backup files, keeping only the most recent ones
+     * Lists that no remaining backup uses are deleted with them.
      * @param keepCount Number of recent backups to keep
      * @return Number of files deleted
      */
     public int cleanupOldBackups(int keepCount) {
-        File[] backups = getAvailableBackups();
-        if (backups.length <= keepCount) {
-            return 0; // Nothing to delete
+        if (!getBackupDirectory().exists()) {
+            return 0;
         }
         
-        // Sort by last modified date (newest first)
-        java.util.Arrays.sort(backups, (f1, f2) -> 
-            Long.compare(f2.lastModified(), f1.lastModified()));
-        
-        int deletedCount = 0;
-        for (int i = keepCount; i < backups.length; i++) {
-            if (backups[i].delete()) {
-                deletedCount++;
-                Log.d(TAG, "Deleted old backup: " + backups[i].getName());
+        BackupStore store = getBackupStore();
+        synchronized (store) {
+            try {
+                int deletedCount = store.retain(keepCount);
+                Log.i(TAG, "Cleaned up " + deletedCount + " old backup files");
+                return deletedCount;
+            } catch (IOException e) {
+                Log.e(TAG, "Error cleaning up old backups", e);
+                return 0;
             }
         }
-        
-        Log.i(TAG, "Cleaned up " + deletedCount + " old backup files");
-        return deletedCount;
+    }
+    
+    private BackupStore getBackupStore() {
+        return BackupStore.get(getBackupDirectory(), BACKUP_FILE_PREFIX, BACKUP_FILE_EXTENSION);
     }
     
     /**
@@ -279,20 +336,25 @@ public class ConfigurationManager {
         summary.append("=== Configuration Summary ===\n\n");
         summary.append(preferencesManager.getConfigurationSummary());
         
-        // Add backup information
-        File[] backups = getAvailableBackups();
+        // Add backup information, all from the backup index
         summary.append("\n=== Backup Information ===\n");
-        summary.append("Available Backups: ").append(backups.length).append("\n");
-        
-        if (backups.length > 0) {
-            // Show most recent backup
-            java.util.Arrays.sort(backups, (f1, f2) -> 
-                Long.compare(f2.lastModified(), f1.lastModified()));
-            
-            File mostRecent = backups[0];
-            Date lastBackup = new Date(mostRecent.lastModified());
-            SimpleDateFormat sdf = new SimpleDateFormat("dd/MM/yyyy HH:mm:ss", Locale.getDefault());
-            summary.append("Last Backup: ").append(sdf.format(lastBackup)).append("\n");
+        if (getBackupDirectory().exists()) {
+            BackupStore store = getBackupStore();
+            synchronized (store) {
+                try {
+                    List<BackupStore.Backup> backups = store.getBackups();
+                    summary.append("Available Backups: ").append(backups.size()).append("\n");
+                    if (!backups.isEmpty()) {
+                        Date lastBackup = new Date(backups.get(0).created);
+                        SimpleDateFormat sdf = new SimpleDateFormat("dd/MM/yyyy HH:mm:ss", Locale.getDefault());
+                        summary.append("Last Backup: ").append(sdf.format(lastBackup)).append("\n");
+                    }
+                } catch (IOException e) {
+                    summary.append("Available Backups: unknown (").append(e.getMessage()).append(")\n");
+                }
+            }
+        } else {
+            summary.append("Available Backups: 0\n");
         }
         
         return summary.toString();
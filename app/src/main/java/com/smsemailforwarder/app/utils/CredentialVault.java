@@ -0,0 +1,302 @@
+package com.smsemailforwarder.app.utils;
+
+import android.content.Context;
+import android.security.keystore.KeyGenParameterSpec;
+import android.security.keystore.KeyProperties;
+import android.util.Base64;
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+/**
+ * Secrets (the SMTP password) encrypted at rest with an AES key held in the Android Keystore
+ * Each secret is stored as IV and AES-GCM ciphertext in the settings. A secret is decrypted
+ * once and then served from a process-wide cache, so sending an email costs a map lookup
+ * rather than a Keystore operation. ForwarderService clears the cache when it stops.
+ *
+ * Rotation creates a new Keystore key, re-encrypts every secret with it, saves the
+ * ciphertexts and key version together and then deletes the old key. ForwarderService
+ * rotates a key once it is older than KEY_MAX_AGE_MS.
+ */
+public final class CredentialVault {
+
+    private static final String TAG = "CredentialVault";
+
+    public static final String EMAIL_PASSWORD = "email_password";
+    private static final String[] SECRET_NAMES = {EMAIL_PASSWORD};
+
+    private static final String ANDROID_KEYSTORE = "AndroidKeyStore";
+    private static final String KEY_ALIAS_PREFIX = "sms_forwarder_vault_v";
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int GCM_TAG_BITS = 128;
+    private static final int KEY_SIZE_BITS = 256;
+    static final long KEY_MAX_AGE_MS = 90L * 24 * 60 * 60 * 1000;
+
+    private static final ExecutorService rotationExecutor = Executors.newSingleThreadExecutor();
+
+    private static volatile CredentialVault instance;
+
+    // Decrypted secrets for the lifetime of the process (or until clearCache)
+    private static final ConcurrentHashMap<String, String> cache = new ConcurrentHashMap<>();
+
+    private final PreferencesManager preferencesManager;
+
+    private CredentialVault(Context context) {
+        this.preferencesManager = new PreferencesManager(context);
+    }
+
+    public static CredentialVault getInstance(Context context) {
+        if (instance == null) {
+            synchronized (CredentialVault.class) {
+                if (instance == null) {
+                    instance = new CredentialVault(context.getApplicationContext());
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Drops all decrypted secrets; the next read decrypts again
+     */
+    public static void clearCache() {
+        cache.clear();
+    }
+
+    /**
+     * Rotates the key on a background thread if it is older than KEY_MAX_AGE_MS
+     */
+    public static void rotateIfDue(Context context) {
+        final CredentialVault vault = getInstance(context);
+        rotationExecutor.execute(() -> {
+            try {
+                if (vault.isRotationDue(System.currentTimeMillis())) {
+                    vault.rotate();
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "Error rotating vault key", e);
+            }
+        });
+    }
+
+    /**
+     * Whether a key exists and was created more than KEY_MAX_AGE_MS before now
+     * Keys from before the creation time was recorded count as due.
+     */
+    boolean isRotationDue(long now) {
+        if (preferencesManager.getVaultKeyVersion() <= 0) {
+            return false;
+        }
+        return now - preferencesManager.getVaultKeyCreated() >= KEY_MAX_AGE_MS;
+    }
+
+    /**
+     * Gets a secret, decrypting it only when it is not cached
+     * @return The secret, or "" when it is not set or cannot be decrypted
+     */
+    public String getSecret(String name) {
+        String secret = decrypted(name);
+        return secret != null ? secret : "";
+    }
+
+    /**
+     * The cached or freshly decrypted secret
+     * @return null if it is stored but cannot be decrypted; that is not cached, so a later
+     *         read tries again
+     */
+    private String decrypted(String name) {
+        String secret = cache.get(name);
+        if (secret != null) {
+            return secret;
+        }
+
+        synchronized (this) {
+            secret = cache.get(name);
+            if (secret == null) {
+                secret = load(name);
+                if (secret != null) {
+                    cache.put(name, secret);
+                }
+            }
+            return secret;
+        }
+    }
+
+    /**
+     * Encrypts and stores a secret; an empty value removes it
+     * @return false if the Keystore failed; the secret is not stored then
+     */
+    public synchronized boolean putSecret(String name, String secret) {
+        try {
+            int version = Math.max(1, preferencesManager.getVaultKeyVersion());
+            String encrypted = null;
+            if (secret != null && !secret.isEmpty()) {
+                encrypted = encrypt(getOrCreateKey(version), secret);
+            }
+            if (!preferencesManager.saveVault(singleton(name, encrypted), version)) {
+                Log.e(TAG, "Failed to save " + name);
+                cache.remove(name);
+                return false;
+            }
+            cache.put(name, secret != null ? secret : "");
+            return true;
+        } catch (GeneralSecurityException | IOException e) {
+            Log.e(TAG, "Failed to encrypt " + name, e);
+            return false;
+        }
+    }
+
+    /**
+     * Re-encrypts every secret under a new Keystore key and deletes the old key
+     * A secret that cannot be decrypted stops the rotation, so its ciphertext is never lost.
+     * @return false if the secrets still use the old key
+     */
+    public synchronized boolean rotate() {
+        int oldVersion = preferencesManager.getVaultKeyVersion();
+        Map<String, String> secrets = new HashMap<>();
+        for (String name : SECRET_NAMES) {
+            String secret = decrypted(name);
+            if (secret == null) {
+                Log.e(TAG, "Key rotation skipped, " + name + " cannot be decrypted with v" + oldVersion);
+                return false;
+            }
+            secrets.put(name, secret);
+        }
+
+        int newVersion = oldVersion + 1;
+        Map<String, String> encrypted = new HashMap<>();
+        try {
+            SecretKey newKey = createKey(newVersion);
+            for (Map.Entry<String, String> secret : secrets.entrySet()) {
+                String value = secret.getValue();
+                encrypted.put(secret.getKey(), value.isEmpty() ? null : encrypt(newKey, value));
+            }
+        } catch (GeneralSecurityException e) {
+            Log.e(TAG, "Key rotation failed, keeping v" + oldVersion, e);
+            deleteKeyQuietly(newVersion);
+            return false;
+        }
+
+        if (!preferencesManager.saveVault(encrypted, newVersion)) {
+            // The new ciphertexts are applied in memory and written later, so both keys stay
+            Log.e(TAG, "Failed to save secrets for v" + newVersion + ", keeping v" + oldVersion);
+            return false;
+        }
+        if (oldVersion > 0) {
+            deleteKeyQuietly(oldVersion);
+        }
+        Log.i(TAG, "Rotated vault key to v" + newVersion);
+        return true;
+    }
+
+    /**
+     * Reads and decrypts a secret; plaintext left by older versions is encrypted on the way
+     * @return The secret, "" if none is stored, or null if it cannot be decrypted
+     */
+    private String load(String name) {
+        String stored = preferencesManager.getEncryptedSecret(name);
+        if (stored == null) {
+            String legacy = EMAIL_PASSWORD.equals(name) ? preferencesManager.getLegacyEmailPassword() : null;
+            if (legacy != null && !legacy.isEmpty()) {
+                // Saving the encrypted copy removes the plaintext in the same commit
+                if (putSecret(name, legacy)) {
+                    Log.i(TAG, "Moved plaintext " + name + " into the vault");
+                }
+                return legacy;
+            }
+            return "";
+        }
+
+        long start = System.nanoTime();
+        try {
+            SecretKey key = getKey(preferencesManager.getVaultKeyVersion());
+            if (key == null) {
+                // Keystore keys do not survive a reinstall or a restore on another device
+                Log.e(TAG, "Vault key is missing; " + name + " must be entered again");
+                return null;
+            }
+            String secret = decrypt(key, stored);
+            Log.d(TAG, "Decrypted " + name + " in " + (System.nanoTime() - start) / 1000L + "us");
+            return secret;
+        } catch (GeneralSecurityException | IOException | IllegalArgumentException e) {
+            Log.e(TAG, "Failed to decrypt " + name, e);
+            return null;
+        }
+    }
+
+    private static String encrypt(SecretKey key, String secret) throws GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+        cipher.init(Cipher.ENCRYPT_MODE, key); // the Keystore picks a random IV
+        byte[] ciphertext = cipher.doFinal(secret.getBytes(StandardCharsets.UTF_8));
+        return Base64.encodeToString(cipher.getIV(), Base64.NO_WRAP) + ":" +
+               Base64.encodeToString(ciphertext, Base64.NO_WRAP);
+    }
+
+    private static String decrypt(SecretKey key, String stored) throws GeneralSecurityException {
+        int separator = stored.indexOf(':');
+        if (separator < 0) {
+            throw new IllegalArgumentException("Malformed vault entry");
+        }
+        byte[] iv = Base64.decode(stored.substring(0, separator), Base64.NO_WRAP);
+        byte[] ciphertext = Base64.decode(stored.substring(separator + 1), Base64.NO_WRAP);
+        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+        cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(GCM_TAG_BITS, iv));
+        return new String(cipher.doFinal(ciphertext), StandardCharsets.UTF_8);
+    }
+
+    private static SecretKey getOrCreateKey(int version) throws GeneralSecurityException, IOException {
+        SecretKey key = getKey(version);
+        return key != null ? key : createKey(version);
+    }
+
+    private static SecretKey getKey(int version) throws GeneralSecurityException, IOException {
+        if (version <= 0) {
+            return null;
+        }
+        return (SecretKey) loadKeyStore().getKey(KEY_ALIAS_PREFIX + version, null);
+    }
+
+    private static SecretKey createKey(int version) throws GeneralSecurityException {
+        KeyGenerator generator = KeyGenerator.getInstance(KeyProperties.KEY_ALGORITHM_AES, ANDROID_KEYSTORE);
+        generator.init(new KeyGenParameterSpec.Builder(KEY_ALIAS_PREFIX + version,
+                KeyProperties.PURPOSE_ENCRYPT | KeyProperties.PURPOSE_DECRYPT)
+            .setBlockModes(KeyProperties.BLOCK_MODE_GCM)
+            .setEncryptionPaddings(KeyProperties.ENCRYPTION_PADDING_NONE)
+            .setKeySize(KEY_SIZE_BITS)
+            .build());
+        return generator.generateKey();
+    }
+
+    private static KeyStore loadKeyStore() throws GeneralSecurityException, IOException {
+        KeyStore keyStore = KeyStore.getInstance(ANDROID_KEYSTORE);
+        keyStore.load(null);
+        return keyStore;
+    }
+
+    private static void deleteKeyQuietly(int version) {
+        try {
+            loadKeyStore().deleteEntry(KEY_ALIAS_PREFIX + version);
+        } catch (GeneralSecurityException | IOException e) {
+            Log.w(TAG, "Failed to delete vault key v" + version, e);
+        }
+    }
+
+    private static Map<String, String> singleton(String name, String value) {
+        Map<String, String> map = new HashMap<>();
+        map.put(name, value);
+        return map;
+    }
+}
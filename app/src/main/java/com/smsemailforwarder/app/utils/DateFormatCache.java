@@ -0,0 +1,64 @@
+package com.smsemailforwarder.app.utils;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Shared date formatters, one per pattern and thread
+ * SimpleDateFormat is expensive to build and not thread-safe, so each pattern gets a
+ * thread-local instance that is created on first use and reused for every later message.
+ * Formatters use the default locale in effect when they are created.
+ */
+final class DateFormatCache {
+
+    private static final ConcurrentHashMap<String, DateFormatCache> cache = new ConcurrentHashMap<>();
+
+    private final String pattern;
+    private final ThreadLocal<SimpleDateFormat> format;
+    private final ThreadLocal<Date> date = new ThreadLocal<Date>() {
+        @Override
+        protected Date initialValue() {
+            return new Date();
+        }
+    };
+
+    private DateFormatCache(final String pattern) {
+        // Fails here, on first lookup, for patterns SimpleDateFormat rejects
+        new SimpleDateFormat(pattern, Locale.getDefault());
+        this.pattern = pattern;
+        this.format = new ThreadLocal<SimpleDateFormat>() {
+            @Override
+            protected SimpleDateFormat initialValue() {
+                return new SimpleDateFormat(pattern, Locale.getDefault());
+            }
+        };
+    }
+
+    /**
+     * Formatter for the pattern
+     * @throws IllegalArgumentException if the pattern is invalid
+     */
+    static DateFormatCache forPattern(String pattern) {
+        DateFormatCache cached = cache.get(pattern);
+        if (cached == null) {
+            cached = new DateFormatCache(pattern);
+            DateFormatCache raced = cache.putIfAbsent(pattern, cached);
+            if (raced != null) {
+                cached = raced;
+            }
+        }
+        return cached;
+    }
+
+    String getPattern() {
+        return pattern;
+    }
+
+    String format(long timestamp) {
+        Date value = date.get();
+        value.setTime(timestamp);
+        return format.get().format(value);
+    }
+}
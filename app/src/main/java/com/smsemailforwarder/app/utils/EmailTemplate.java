@@ -0,0 +1,365 @@
+package com.smsemailforwarder.app.utils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Email subject/body template, parsed once into literal and placeholder segments
+ *
+ * Placeholders:
+ *   {sender}        cleaned sender number
+ *   {carrier}       carrier or country of the sender, empty when unknown
+ *   {date}          receive date in the configured date format
+ *   {time}          receive time in the configured time format
+ *   {time:pattern}  receive time in any SimpleDateFormat pattern ({date:pattern} is the same)
+ *   {body}          message text
+ *   {length}        message length in characters
+ *   {count}         number of the message among all forwarded ones, empty when not counted
+ *
+ * {{ and }} produce literal braces. A line whose placeholders all render empty
+ * is left out, so optional details such as "Carrier: {carrier}" need no conditionals.
+ * HTML templates escape every value and turn line breaks in the body into <br>.
+ */
+public final class EmailTemplate {
+
+    public static final String DEFAULT_DATE_PATTERN = "dd.MM.yyyy";
+    public static final String DEFAULT_TIME_PATTERN = "HH:mm";
+    private static final String UNKNOWN_CARRIER = "Unknown/International";
+
+    // Older subjects used String.format with the sender and this time format
+    private static final String LEGACY_SUBJECT_TIME_PATTERN = "dd.MM.yyyy HH:mm";
+    // Rendering buffers that grew past this are dropped instead of kept per thread
+    private static final int MAX_RETAINED_CAPACITY = 16 * 1024;
+
+    private static final int LITERAL = 0;
+    private static final int SENDER = 1;
+    private static final int CARRIER = 2;
+    private static final int TIME = 3;
+    private static final int BODY = 4;
+    private static final int LENGTH = 5;
+    private static final int COUNT = 6;
+    private static final int LINE_END = 7;
+
+    private static final ThreadLocal<StringBuilder> buffer = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(512);
+        }
+    };
+    private static final ThreadLocal<StringBuilder> lineBuffer = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(128);
+        }
+    };
+
+    /**
+     * Syntax error in a template
+     */
+    public static class TemplateException extends Exception {
+        TemplateException(String message) {
+            super(message);
+        }
+    }
+
+    private final String source;
+    private final boolean html;
+    private final int[] kinds;
+    private final String[] literals;
+    private final DateFormatCache[] formats;
+
+    private EmailTemplate(String source, boolean html, List<Integer> kinds, List<String> literals,
+                          List<DateFormatCache> formats) {
+        this.source = source;
+        this.html = html;
+        this.kinds = new int[kinds.size()];
+        for (int i = 0; i < this.kinds.length; i++) {
+            this.kinds[i] = kinds.get(i);
+        }
+        this.literals = literals.toArray(new String[0]);
+        this.formats = formats.toArray(new DateFormatCache[0]);
+    }
+
+    /**
+     * Parses a plain text template with the default date and time formats
+     */
+    public static EmailTemplate compile(String text) throws TemplateException {
+        return compile(text, DEFAULT_DATE_PATTERN, DEFAULT_TIME_PATTERN, false);
+    }
+
+    /**
+     * Parses a template
+     * @param datePattern Format of {date}
+     * @param timePattern Format of {time}
+     * @param html Whether values are escaped for HTML
+     * @throws TemplateException for unknown placeholders, unclosed braces or invalid date patterns
+     */
+    public static EmailTemplate compile(String text, String datePattern, String timePattern, boolean html)
+            throws TemplateException {
+        List<Integer> kinds = new ArrayList<>();
+        List<String> literals = new ArrayList<>();
+        List<DateFormatCache> formats = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+
+        int i = 0;
+        while (i < text.length()) {
+            char c = text.charAt(i);
+            if ((c == '{' || c == '}') && i + 1 < text.length() && text.charAt(i + 1) == c) {
+                literal.append(c);
+                i += 2;
+                continue;
+            }
+            if (c == '}') {
+                throw new TemplateException("Unmatched '}' at position " + (i + 1));
+            }
+            if (c == '\n') {
+                literal.append(c);
+                addSegment(kinds, literals, formats, LITERAL, literal.toString(), null);
+                addSegment(kinds, literals, formats, LINE_END, null, null);
+                literal.setLength(0);
+                i++;
+                continue;
+            }
+            if (c != '{') {
+                literal.append(c);
+                i++;
+                continue;
+            }
+
+            int close = text.indexOf('}', i);
+            if (close < 0) {
+                throw new TemplateException("Unclosed '{' at position " + (i + 1));
+            }
+            if (literal.length() > 0) {
+                addSegment(kinds, literals, formats, LITERAL, literal.toString(), null);
+                literal.setLength(0);
+            }
+            parsePlaceholder(text.substring(i + 1, close), datePattern, timePattern, kinds, literals, formats);
+            i = close + 1;
+        }
+        if (literal.length() > 0) {
+            addSegment(kinds, literals, formats, LITERAL, literal.toString(), null);
+        }
+        addSegment(kinds, literals, formats, LINE_END, null, null);
+
+        return new EmailTemplate(text, html, kinds, literals, formats);
+    }
+
+    /**
+     * Converts the older String.format subject ("%s" for sender, then time) to template syntax
+     * Text without '%' is returned unchanged.
+     */
+    public static String toTemplateSyntax(String format) {
+        if (format.indexOf('%') < 0) {
+            return format;
+        }
+
+        StringBuilder template = new StringBuilder(format.length() + 16);
+        int arguments = 0;
+        for (int i = 0; i < format.length(); i++) {
+            char c = format.charAt(i);
+            if (c == '%' && i + 1 < format.length()) {
+                char next = format.charAt(i + 1);
+                if (next == 's' && arguments < 2) {
+                    template.append(arguments++ == 0 ? "{sender}" : "{time:" + LEGACY_SUBJECT_TIME_PATTERN + "}");
+                    i++;
+                    continue;
+                }
+                if (next == '%') {
+                    template.append('%');
+                    i++;
+                    continue;
+                }
+            }
+            if (c == '{' || c == '}') {
+                template.append(c); // escaped as a literal brace
+            }
+            template.append(c);
+        }
+        return template.toString();
+    }
+
+    private static void parsePlaceholder(String name, String datePattern, String timePattern, List<Integer> kinds,
+                                         List<String> literals, List<DateFormatCache> formats)
+            throws TemplateException {
+        String pattern = null;
+        int colon = name.indexOf(':');
+        if (colon >= 0) {
+            pattern = name.substring(colon + 1);
+            name = name.substring(0, colon);
+        }
+        name = name.trim();
+
+        if (name.equals("date") || name.equals("time")) {
+            if (pattern == null) {
+                pattern = name.equals("date") ? datePattern : timePattern;
+            }
+            try {
+                addSegment(kinds, literals, formats, TIME, null, DateFormatCache.forPattern(pattern));
+            } catch (IllegalArgumentException e) {
+                throw new TemplateException("Invalid date pattern '" + pattern + "'");
+            }
+            return;
+        }
+        if (pattern != null) {
+            throw new TemplateException("{" + name + "} takes no pattern");
+        }
+
+        switch (name) {
+            case "sender":
+                addSegment(kinds, literals, formats, SENDER, null, null);
+                break;
+            case "carrier":
+                addSegment(kinds, literals, formats, CARRIER, null, null);
+                break;
+            case "body":
+                addSegment(kinds, literals, formats, BODY, null, null);
+                break;
+            case "length":
+                addSegment(kinds, literals, formats, LENGTH, null, null);
+                break;
+            case "count":
+                addSegment(kinds, literals, formats, COUNT, null, null);
+                break;
+            default:
+                throw new TemplateException("Unknown placeholder {" + name + "}");
+        }
+    }
+
+    private static void addSegment(List<Integer> kinds, List<String> literals, List<DateFormatCache> formats,
+                                   int kind, String literal, DateFormatCache format) {
+        kinds.add(kind);
+        literals.add(literal);
+        formats.add(format);
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public boolean isHtml() {
+        return html;
+    }
+
+    /**
+     * Renders the template for one message
+     */
+    public String render(String sender, String message, long timestamp) {
+        return render(sender, message, timestamp, 0);
+    }
+
+    /**
+     * Renders the template for one message
+     * @param count Value of {count}, or 0 to leave it empty
+     */
+    public String render(String sender, String message, long timestamp, long count) {
+        StringBuilder out = buffer.get();
+        out.setLength(0);
+        try {
+            renderTo(out, sender, message, timestamp, count);
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // StringBuilder does not throw
+        }
+        String result = out.toString();
+        if (out.capacity() > MAX_RETAINED_CAPACITY) {
+            buffer.remove();
+        }
+        return result;
+    }
+
+    /**
+     * Appends the rendered template to out one line at a time
+     * Only the current line is buffered, so out can be a stream writer.
+     */
+    public void renderTo(Appendable out, String sender, String message, long timestamp, long count)
+            throws IOException {
+        StringBuilder line = lineBuffer.get();
+        line.setLength(0);
+        boolean linePlaceholders = false;
+        boolean lineContent = false;
+
+        for (int i = 0; i < kinds.length; i++) {
+            int before = line.length();
+            switch (kinds[i]) {
+                case LITERAL:
+                    line.append(literals[i]);
+                    continue;
+                case LINE_END:
+                    // Drop lines whose placeholders were all empty
+                    if (!linePlaceholders || lineContent) {
+                        out.append(line);
+                    }
+                    line.setLength(0);
+                    linePlaceholders = false;
+                    lineContent = false;
+                    continue;
+                case SENDER:
+                    appendValue(line, SmsFormatter.formatSender(sender));
+                    break;
+                case CARRIER:
+                    String carrier = SmsFormatter.detectCarrier(sender);
+                    if (!UNKNOWN_CARRIER.equals(carrier)) {
+                        appendValue(line, carrier);
+                    }
+                    break;
+                case TIME:
+                    appendValue(line, formats[i].format(timestamp));
+                    break;
+                case BODY:
+                    appendValue(line, SmsFormatter.formatMessageContent(message));
+                    break;
+                case LENGTH:
+                    line.append(message != null ? message.length() : 0);
+                    break;
+                case COUNT:
+                    if (count > 0) {
+                        line.append(count);
+                    }
+                    break;
+            }
+            linePlaceholders = true;
+            lineContent |= line.length() > before;
+        }
+        if (line.capacity() > MAX_RETAINED_CAPACITY) {
+            lineBuffer.remove();
+        }
+    }
+
+    private void appendValue(StringBuilder out, String value) {
+        if (!html) {
+            out.append(value);
+            return;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '&':
+                    out.append("&amp;");
+                    break;
+                case '<':
+                    out.append("&lt;");
+                    break;
+                case '>':
+                    out.append("&gt;");
+                    break;
+                case '"':
+                    out.append("&quot;");
+                    break;
+                case '\'':
+                    out.append("&#39;");
+                    break;
+                case '\n':
+                    out.append("<br>\n");
+                    break;
+                default:
+                    out.append(c);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return source;
+    }
+}
@@ -0,0 +1,160 @@
+package com.smsemailforwarder.app.utils;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+/**
+ * Compiled subject and body templates for forwarded emails
+ * Built from the formatting preferences once and recompiled whenever one of them is saved,
+ * so sending an email only renders. User templates that fail to compile (e.g. after an
+ * import) are logged and replaced by the built-in layout.
+ */
+public final class EmailTemplates {
+
+    private static final String TAG = "EmailTemplates";
+
+    private static final String DEFAULT_SUBJECT_FORMAT = "SMS from %s - %s";
+
+    // Built-in body layout; optional lines are added per preferences
+    private static final String BODY_HEADER =
+        "📱 SMS Message Received\n" +
+        "════════════════════════════════════════\n\n";
+    private static final String BODY_SENDER =
+        "From: {sender}\n";
+    private static final String BODY_CARRIER =
+        "Carrier: {carrier}\n";
+    private static final String BODY_TIMESTAMP =
+        "Received: {date} {time}\n";
+    private static final String BODY_COUNT =
+        "Message #{count}\n";
+    private static final String BODY_CONTENT =
+        "\n" +
+        "Message:\n" +
+        "────────────────────────────────────────\n" +
+        "{body}\n" +
+        "────────────────────────────────────────\n\n" +
+        "Message length: {length} characters\n" +
+        "Forwarded by SMS-to-Email Forwarder\n";
+
+    private static volatile EmailTemplates current;
+
+    // SharedPreferences only keeps weak references to listeners, so hold it here
+    private static SharedPreferences.OnSharedPreferenceChangeListener preferenceListener;
+
+    private final EmailTemplate subject;
+    private final EmailTemplate textBody;
+    private final EmailTemplate htmlBody;
+    private final boolean countMessages;
+
+    private EmailTemplates(PreferencesManager preferencesManager) {
+        String datePattern = preferencesManager.getDateFormat();
+        String timePattern = preferencesManager.getTimeFormat();
+        try {
+            DateFormatCache.forPattern(datePattern);
+            DateFormatCache.forPattern(timePattern);
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "Invalid date or time format, using defaults: " + e.getMessage());
+            datePattern = EmailTemplate.DEFAULT_DATE_PATTERN;
+            timePattern = EmailTemplate.DEFAULT_TIME_PATTERN;
+        }
+
+        String subjectFormat = preferencesManager.getEmailSubjectFormat();
+        if (subjectFormat == null || subjectFormat.isEmpty()) {
+            subjectFormat = DEFAULT_SUBJECT_FORMAT;
+        }
+        this.subject = compileOrDefault("subject", EmailTemplate.toTemplateSyntax(subjectFormat),
+            EmailTemplate.toTemplateSyntax(DEFAULT_SUBJECT_FORMAT), datePattern, timePattern, false);
+
+        String defaultBody = BODY_HEADER +
+            (preferencesManager.isIncludeSender() ? BODY_SENDER : "") +
+            (preferencesManager.isIncludeSender() && preferencesManager.isIncludeCarrierInfo() ? BODY_CARRIER : "") +
+            (preferencesManager.isIncludeTimestamp() ? BODY_TIMESTAMP : "") +
+            (preferencesManager.isIncludeMessageCount() ? BODY_COUNT : "") +
+            BODY_CONTENT;
+        String textTemplate = preferencesManager.getEmailTextTemplate();
+        this.textBody = compileOrDefault("text body", textTemplate.isEmpty() ? defaultBody : textTemplate,
+            defaultBody, datePattern, timePattern, false);
+
+        String htmlTemplate = preferencesManager.getEmailHtmlTemplate();
+        this.htmlBody = htmlTemplate.isEmpty() ? null
+            : compileOrDefault("HTML body", htmlTemplate, null, datePattern, timePattern, true);
+
+        this.countMessages = preferencesManager.isIncludeMessageCount();
+    }
+
+    /**
+     * Gets the current templates, compiling them and subscribing to changes on first use
+     */
+    public static EmailTemplates get(Context context) {
+        EmailTemplates templates = current;
+        if (templates != null) {
+            return templates;
+        }
+
+        synchronized (EmailTemplates.class) {
+            if (current == null) {
+                final PreferencesManager preferencesManager = new PreferencesManager(context.getApplicationContext());
+
+                preferenceListener = (preferences, key) -> {
+                    if (key == null || PreferencesManager.isTemplateKey(key)) {
+                        current = new EmailTemplates(preferencesManager);
+                    }
+                };
+                preferencesManager.registerOnChangeListener(preferenceListener);
+
+                current = new EmailTemplates(preferencesManager);
+            }
+            return current;
+        }
+    }
+
+    /**
+     * Compiles a user body template with the configured date and time formats
+     * Used to reject invalid templates when they are saved.
+     */
+    public static EmailTemplate validate(String text, boolean html, PreferencesManager preferencesManager)
+            throws EmailTemplate.TemplateException {
+        return EmailTemplate.compile(text, preferencesManager.getDateFormat(),
+                                     preferencesManager.getTimeFormat(), html);
+    }
+
+    private static EmailTemplate compileOrDefault(String name, String text, String fallback,
+                                                  String datePattern, String timePattern, boolean html) {
+        try {
+            return EmailTemplate.compile(text, datePattern, timePattern, html);
+        } catch (EmailTemplate.TemplateException e) {
+            Log.e(TAG, "Ignoring invalid " + name + " template: " + e.getMessage());
+        }
+        if (fallback == null) {
+            return null;
+        }
+        try {
+            return EmailTemplate.compile(fallback, datePattern, timePattern, html);
+        } catch (EmailTemplate.TemplateException e) {
+            throw new IllegalStateException("Invalid built-in " + name + " template", e);
+        }
+    }
+
+    public EmailTemplate getSubject() {
+        return subject;
+    }
+
+    public EmailTemplate getTextBody() {
+        return textBody;
+    }
+
+    /**
+     * HTML alternative of the body, or null when no HTML template is configured
+     */
+    public EmailTemplate getHtmlBody() {
+        return htmlBody;
+    }
+
+    /**
+     * Whether {count} should be filled in
+     */
+    public boolean isCountMessages() {
+        return countMessages;
+    }
+}
@@ -0,0 +1,193 @@
+package com.smsemailforwarder.app.utils;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Always-on record of SmsFilter decisions
+ * Every live decision is stored as a compact record (verdict code, matched rule line, evaluation
+ * time) in a fixed-size ring of preallocated arrays, and every filter check adds its run time
+ * and outcome to per-check counters. This shows which checks cost the most time and drop the
+ * most messages without debug logging or re-running the filters. A forwarded message that is
+ * then collapsed as a near-duplicate has its record changed to COLLAPSED.
+ */
+public final class FilterDecisionLog {
+
+    private static final int RING_SIZE = 256;
+    private static final int RECENT_SHOWN = 20;
+    private static final int CHECK_COUNT = SmsFilter.VERDICT_RULE + 1;
+    // Outcome stored over VERDICT_FORWARD when the message was collapsed instead of sent
+    static final byte COLLAPSED = CHECK_COUNT;
+
+    private static final Object lock = new Object();
+
+    // Ring of decision records, one array per field
+    private static final long[] decidedAt = new long[RING_SIZE];
+    private static final byte[] verdicts = new byte[RING_SIZE];
+    private static final int[] ruleLines = new int[RING_SIZE];
+    private static final long[] evaluationNanos = new long[RING_SIZE];
+    private static long recorded;
+    private static long forwarded;
+    private static long collapsed;
+
+    // Per-check counters, indexed by the verdict code the check produces when it drops a message
+    private static final long[] checkRuns = new long[CHECK_COUNT];
+    private static final long[] checkDrops = new long[CHECK_COUNT];
+    private static final long[] checkNanos = new long[CHECK_COUNT];
+    private static final long[] checkMaxNanos = new long[CHECK_COUNT];
+    private static final Map<Integer, Long> ruleLineMatches = new HashMap<>();
+
+    private FilterDecisionLog() {
+    }
+
+    /**
+     * Adds one run of a filter check to its counters
+     * @param check VERDICT_* code of the check
+     */
+    static void recordCheck(byte check, long nanos, boolean dropped) {
+        synchronized (lock) {
+            checkRuns[check]++;
+            checkNanos[check] += nanos;
+            if (nanos > checkMaxNanos[check]) {
+                checkMaxNanos[check] = nanos;
+            }
+            if (dropped) {
+                checkDrops[check]++;
+            }
+        }
+    }
+
+    /**
+     * Stores the final decision for one message
+     * @param ruleLine Filter rule line that decided the message, or 0
+     * @return Record number, for markCollapsed
+     */
+    static long recordDecision(byte verdict, int ruleLine, long nanos) {
+        long now = System.currentTimeMillis();
+        synchronized (lock) {
+            long record = recorded++;
+            int slot = (int) (record % RING_SIZE);
+            decidedAt[slot] = now;
+            verdicts[slot] = verdict;
+            ruleLines[slot] = ruleLine;
+            evaluationNanos[slot] = nanos;
+            if (verdict == SmsFilter.VERDICT_FORWARD) {
+                forwarded++;
+            }
+            if (ruleLine > 0) {
+                Long matches = ruleLineMatches.get(ruleLine);
+                ruleLineMatches.put(ruleLine, matches != null ? matches + 1 : 1L);
+            }
+            return record;
+        }
+    }
+
+    /**
+     * Moves a forward decision to the collapsed count once the message was folded into an earlier one
+     * The totals change even after the record has left the ring; the record itself is only
+     * rewritten while it is still there.
+     * @param record Number returned by recordDecision, or a negative number for none
+     */
+    static void markCollapsed(long record) {
+        synchronized (lock) {
+            if (record < 0 || record >= recorded) {
+                return;
+            }
+            boolean inRing = recorded - record <= RING_SIZE;
+            int slot = (int) (record % RING_SIZE);
+            if (inRing && verdicts[slot] != SmsFilter.VERDICT_FORWARD) {
+                return;
+            }
+            forwarded--;
+            collapsed++;
+            if (inRing) {
+                verdicts[slot] = COLLAPSED;
+            }
+        }
+    }
+
+    public static void clear() {
+        synchronized (lock) {
+            recorded = 0;
+            forwarded = 0;
+            collapsed = 0;
+            for (int i = 0; i < CHECK_COUNT; i++) {
+                checkRuns[i] = 0;
+                checkDrops[i] = 0;
+                checkNanos[i] = 0;
+                checkMaxNanos[i] = 0;
+            }
+            ruleLineMatches.clear();
+        }
+    }
+
+    public static String getSummary() {
+        StringBuilder sb = new StringBuilder();
+        synchronized (lock) {
+            sb.append("=== Filter Checks ===\n");
+            sb.append("Decisions: ").append(recorded).append(", forwarded ")
+              .append(forwarded).append(", collapsed ")
+              .append(collapsed).append("\n");
+
+            // Most expensive checks first
+            List<Integer> checks = new ArrayList<>();
+            for (int check = SmsFilter.VERDICT_LENGTH; check < CHECK_COUNT; check++) {
+                if (checkRuns[check] > 0) {
+                    checks.add(check);
+                }
+            }
+            Collections.sort(checks, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    return Long.compare(checkNanos[b], checkNanos[a]);
+                }
+            });
+            for (int check : checks) {
+                sb.append(String.format(Locale.US, "%s: %d runs, %d drops, avg %.1fus, max %.1fus, total %.1fms\n",
+                    SmsFilter.getVerdictReason((byte) check), checkRuns[check], checkDrops[check],
+                    checkNanos[check] / 1000.0 / checkRuns[check], checkMaxNanos[check] / 1000.0,
+                    checkNanos[check] / 1000000.0));
+            }
+
+            if (!ruleLineMatches.isEmpty()) {
+                List<Integer> lines = new ArrayList<>(ruleLineMatches.keySet());
+                Collections.sort(lines);
+                sb.append("Rule Matches:");
+                for (int line : lines) {
+                    sb.append(" line ").append(line).append(" x").append(ruleLineMatches.get(line));
+                }
+                sb.append("\n");
+            }
+
+            sb.append("\n=== Recent Decisions ===\n");
+            long count = Math.min(recorded, Math.min(RING_SIZE, RECENT_SHOWN));
+            if (count == 0) {
+                sb.append("No messages filtered yet\n");
+            }
+            SimpleDateFormat timeFormat = new SimpleDateFormat("dd.MM HH:mm:ss", Locale.US);
+            for (long id = recorded - 1; id >= recorded - count; id--) {
+                int slot = (int) (id % RING_SIZE);
+                sb.append(timeFormat.format(new Date(decidedAt[slot]))).append(' ');
+                if (verdicts[slot] == SmsFilter.VERDICT_FORWARD) {
+                    sb.append("forward");
+                } else if (verdicts[slot] == COLLAPSED) {
+                    sb.append("collapsed");
+                } else {
+                    sb.append("drop: ").append(SmsFilter.getVerdictReason(verdicts[slot]));
+                }
+                if (ruleLines[slot] > 0) {
+                    sb.append(" (rule line ").append(ruleLines[slot]).append(")");
+                }
+                sb.append(String.format(Locale.US, " %.1fus\n", evaluationNanos[slot] / 1000.0));
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,492 @@
+package com.smsemailforwarder.app.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * User-defined filter rules, one per line, compiled into predicate trees
+ *
+ * Syntax:
+ *   action [if condition]
+ *   action:    forward | drop | route "address" | priority high|normal|low
+ *   condition: sender (=|!=|starts|ends|contains) "text"
+ *              carrier (=|contains) "text"
+ *              type = mobile|fixed|premium|toll_free|short_code|unknown
+ *              body contains "text" | body ~ "regex"
+ *              length (<|<=|>|>=|=|!=) number
+ *              time HH:MM-HH:MM
+ *              combined with not, and, or and parentheses
+ *
+ * Rules run top to bottom. The first matching forward or drop decides; route and
+ * priority rules only annotate the message and evaluation continues. Lines starting
+ * with # are comments. Rules apply even when the built-in filters are switched off.
+ *
+ * Sender conditions see the normalized E.164 number (+385981234567). "=" and "!="
+ * normalize the rule's number as well; starts, ends and contains match the text as
+ * written, so a prefix is written "+38598", not "098".
+ */
+public final class FilterRules {
+
+    public enum Action {
+        NONE, FORWARD, DROP
+    }
+
+    public enum Priority {
+        NORMAL, HIGH, LOW
+    }
+
+    /**
+     * Syntax error with the offending line number
+     */
+    public static class RuleParseException extends Exception {
+        public final int line;
+
+        RuleParseException(int line, String message) {
+            super("Line " + line + ": " + message);
+            this.line = line;
+        }
+    }
+
+    /**
+     * Outcome of evaluating the rules against one message
+     */
+    public static final class Decision {
+        public Action action = Action.NONE;
+        public String recipient;
+        public Priority priority = Priority.NORMAL;
+        public int matchedLine;
+        long logRecord = -1; // FilterDecisionLog record of a live decision
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(action);
+            if (matchedLine > 0) {
+                sb.append(" (line ").append(matchedLine).append(")");
+            }
+            if (recipient != null) {
+                sb.append(", route to ").append(recipient);
+            }
+            if (priority != Priority.NORMAL) {
+                sb.append(", priority ").append(priority.name().toLowerCase(Locale.US));
+            }
+            return sb.toString();
+        }
+    }
+
+    private enum RuleType {
+        FORWARD, DROP, ROUTE, PRIORITY
+    }
+
+    private static final class Rule {
+        final int line;
+        final RuleType type;
+        final String recipient;
+        final Priority priority;
+        final RulePredicate condition; // null means always
+
+        Rule(int line, RuleType type, String recipient, Priority priority, RulePredicate condition) {
+            this.line = line;
+            this.type = type;
+            this.recipient = recipient;
+            this.priority = priority;
+            this.condition = condition;
+        }
+
+        String describeAction() {
+            switch (type) {
+                case ROUTE:
+                    return "route " + RulePredicate.quote(recipient);
+                case PRIORITY:
+                    return "priority " + priority.name().toLowerCase(Locale.US);
+                default:
+                    return type.name().toLowerCase(Locale.US);
+            }
+        }
+    }
+
+    private static final FilterRules EMPTY = new FilterRules(new Rule[0]);
+
+    private final Rule[] rules;
+
+    private FilterRules(Rule[] rules) {
+        this.rules = rules;
+    }
+
+    /**
+     * Compiles rule text; blank input gives an empty rule set
+     */
+    public static FilterRules compile(String text) throws RuleParseException {
+        if (text == null || text.trim().isEmpty()) {
+            return EMPTY;
+        }
+
+        List<Rule> rules = new ArrayList<>();
+        String[] lines = text.split("\n");
+        for (int i = 0; i < lines.length; i++) {
+            String line = lines[i].trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            rules.add(new Parser(i + 1, line).parseRule());
+        }
+        return new FilterRules(rules.toArray(new Rule[0]));
+    }
+
+    public static FilterRules empty() {
+        return EMPTY;
+    }
+
+    public int size() {
+        return rules.length;
+    }
+
+    /**
+     * Evaluates the rules against a message
+     * @param sender Normalized sender number
+     * @param timestamp Time used for time-of-day conditions
+     */
+    public Decision evaluate(String sender, String body, long timestamp) {
+        Decision decision = new Decision();
+        if (rules.length == 0) {
+            return decision;
+        }
+
+        RulePredicate.Context context = new RulePredicate.Context(sender, body, timestamp);
+        for (Rule rule : rules) {
+            if (rule.condition != null && !rule.condition.test(context)) {
+                continue;
+            }
+            if (apply(rule, decision)) {
+                break;
+            }
+        }
+        return decision;
+    }
+
+    /**
+     * Evaluates like {@link #evaluate} and describes every step, including skipped branches
+     */
+    public String explain(String sender, String body, long timestamp) {
+        StringBuilder out = new StringBuilder();
+        Decision decision = new Decision();
+        RulePredicate.Context context = new RulePredicate.Context(sender, body, timestamp);
+
+        for (Rule rule : rules) {
+            out.append("Line ").append(rule.line).append(": ").append(rule.describeAction());
+            boolean matched;
+            if (rule.condition == null) {
+                out.append(" (always)\n");
+                matched = true;
+            } else {
+                out.append(" if\n");
+                matched = rule.condition.explain(context, out, 1);
+            }
+
+            if (matched && apply(rule, decision)) {
+                out.append("  -> decided, remaining rules skipped\n");
+                break;
+            }
+        }
+
+        out.append("Decision: ").append(decision).append('\n');
+        return out.toString();
+    }
+
+    /**
+     * Applies a matching rule to the decision
+     * @return true if the rule is final (forward or drop)
+     */
+    private static boolean apply(Rule rule, Decision decision) {
+        switch (rule.type) {
+            case ROUTE:
+                if (decision.recipient == null) {
+                    decision.recipient = rule.recipient;
+                }
+                return false;
+            case PRIORITY:
+                if (decision.priority == Priority.NORMAL) {
+                    decision.priority = rule.priority;
+                }
+                return false;
+            case FORWARD:
+                decision.action = Action.FORWARD;
+                decision.matchedLine = rule.line;
+                return true;
+            default:
+                decision.action = Action.DROP;
+                decision.matchedLine = rule.line;
+                return true;
+        }
+    }
+
+    /**
+     * Recursive descent parser for a single rule line
+     */
+    private static final class Parser {
+        private final int line;
+        private final List<String> tokens;
+        private final List<Boolean> quoted;
+        private int position;
+
+        Parser(int line, String text) throws RuleParseException {
+            this.line = line;
+            this.tokens = new ArrayList<>();
+            this.quoted = new ArrayList<>();
+            tokenize(text);
+        }
+
+        Rule parseRule() throws RuleParseException {
+            String action = nextWord("action");
+            RuleType type;
+            String recipient = null;
+            Priority priority = null;
+
+            switch (action) {
+                case "forward":
+                    type = RuleType.FORWARD;
+                    break;
+                case "drop":
+                    type = RuleType.DROP;
+                    break;
+                case "route":
+                    type = RuleType.ROUTE;
+                    recipient = nextString("recipient address");
+                    if (!recipient.contains("@")) {
+                        throw error("Invalid recipient address: " + recipient);
+                    }
+                    break;
+                case "priority":
+                    type = RuleType.PRIORITY;
+                    String level = nextWord("priority level");
+                    try {
+                        priority = Priority.valueOf(level.toUpperCase(Locale.US));
+                    } catch (IllegalArgumentException e) {
+                        throw error("Unknown priority: " + level);
+                    }
+                    break;
+                default:
+                    throw error("Unknown action: " + action);
+            }
+
+            RulePredicate condition = null;
+            if (position < tokens.size()) {
+                expectWord("if");
+                condition = parseOr();
+            }
+            if (position < tokens.size()) {
+                throw error("Unexpected '" + tokens.get(position) + "'");
+            }
+            return new Rule(line, type, recipient, priority, condition);
+        }
+
+        private RulePredicate parseOr() throws RuleParseException {
+            List<RulePredicate> children = new ArrayList<>();
+            children.add(parseAnd());
+            while (peekWord("or")) {
+                position++;
+                children.add(parseAnd());
+            }
+            return children.size() == 1 ? children.get(0) : new RulePredicate.Or(children);
+        }
+
+        private RulePredicate parseAnd() throws RuleParseException {
+            List<RulePredicate> children = new ArrayList<>();
+            children.add(parseUnary());
+            while (peekWord("and")) {
+                position++;
+                children.add(parseUnary());
+            }
+            return children.size() == 1 ? children.get(0) : new RulePredicate.And(children);
+        }
+
+        private RulePredicate parseUnary() throws RuleParseException {
+            if (peekWord("not")) {
+                position++;
+                return new RulePredicate.Not(parseUnary());
+            }
+            if (peekWord("(")) {
+                position++;
+                RulePredicate inner = parseOr();
+                expectWord(")");
+                return inner;
+            }
+            return parseCondition();
+        }
+
+        private RulePredicate parseCondition() throws RuleParseException {
+            String field = nextWord("condition");
+            switch (field) {
+                case "sender": {
+                    String op = nextWord("operator");
+                    for (RulePredicate.TextOp textOp : RulePredicate.TextOp.values()) {
+                        if (textOp.symbol.equals(op)) {
+                            return new RulePredicate.Sender(textOp, nextString("sender"));
+                        }
+                    }
+                    throw error("Unknown sender operator: " + op);
+                }
+                case "carrier": {
+                    String op = nextWord("operator");
+                    if (!op.equals("=") && !op.equals("contains")) {
+                        throw error("Unknown carrier operator: " + op);
+                    }
+                    return new RulePredicate.Carrier(op.equals("contains"), nextString("carrier"));
+                }
+                case "type": {
+                    expectWord("=");
+                    String type = nextWord("number type");
+                    try {
+                        return new RulePredicate.Type(
+                            NumberingPlan.NumberType.valueOf(type.toUpperCase(Locale.US)));
+                    } catch (IllegalArgumentException e) {
+                        throw error("Unknown number type: " + type);
+                    }
+                }
+                case "body": {
+                    String op = nextWord("operator");
+                    if (op.equals("contains")) {
+                        return new RulePredicate.BodyContains(nextString("text"));
+                    }
+                    if (op.equals("~")) {
+                        String regex = nextString("regular expression");
+                        try {
+                            return new RulePredicate.BodyRegex(Pattern.compile(regex));
+                        } catch (PatternSyntaxException e) {
+                            throw error("Invalid regular expression: " + e.getDescription());
+                        }
+                    }
+                    throw error("Unknown body operator: " + op);
+                }
+                case "length": {
+                    String op = nextWord("comparison");
+                    for (RulePredicate.Comparison comparison : RulePredicate.Comparison.values()) {
+                        if (comparison.symbol.equals(op)) {
+                            return new RulePredicate.Length(comparison, nextInt("length"));
+                        }
+                    }
+                    throw error("Unknown comparison: " + op);
+                }
+                case "time":
+                    return parseTimeRange(nextWord("time range"));
+                default:
+                    throw error("Unknown condition: " + field);
+            }
+        }
+
+        private RulePredicate parseTimeRange(String range) throws RuleParseException {
+            int dash = range.indexOf('-');
+            if (dash < 0) {
+                throw error("Time range must look like 22:00-06:00");
+            }
+            return new RulePredicate.TimeOfDay(
+                parseMinute(range.substring(0, dash)), parseMinute(range.substring(dash + 1)));
+        }
+
+        private int parseMinute(String time) throws RuleParseException {
+            int colon = time.indexOf(':');
+            try {
+                int hours = Integer.parseInt(colon < 0 ? time : time.substring(0, colon));
+                int minutes = colon < 0 ? 0 : Integer.parseInt(time.substring(colon + 1));
+                if (hours < 0 || hours > 24 || minutes < 0 || minutes > 59 || hours * 60 + minutes > 1440) {
+                    throw error("Invalid time: " + time);
+                }
+                return hours * 60 + minutes;
+            } catch (NumberFormatException e) {
+                throw error("Invalid time: " + time);
+            }
+        }
+
+        // ---- Token helpers ----
+
+        private void tokenize(String text) throws RuleParseException {
+            int i = 0;
+            while (i < text.length()) {
+                char c = text.charAt(i);
+                if (Character.isWhitespace(c)) {
+                    i++;
+                } else if (c == '"') {
+                    StringBuilder value = new StringBuilder();
+                    i++;
+                    while (i < text.length() && text.charAt(i) != '"') {
+                        if (text.charAt(i) == '\\' && i + 1 < text.length()) {
+                            i++;
+                        }
+                        value.append(text.charAt(i++));
+                    }
+                    if (i >= text.length()) {
+                        throw error("Unterminated string");
+                    }
+                    i++;
+                    add(value.toString(), true);
+                } else if (c == '(' || c == ')' || c == '~') {
+                    add(String.valueOf(c), false);
+                    i++;
+                } else if (c == '<' || c == '>' || c == '=' || c == '!') {
+                    int start = i++;
+                    if (i < text.length() && text.charAt(i) == '=') {
+                        i++;
+                    }
+                    add(text.substring(start, i), false);
+                } else {
+                    int start = i;
+                    while (i < text.length() && !Character.isWhitespace(text.charAt(i))
+                            && "()\"~<>=!".indexOf(text.charAt(i)) < 0) {
+                        i++;
+                    }
+                    add(text.substring(start, i).toLowerCase(Locale.US), false);
+                }
+            }
+        }
+
+        private void add(String token, boolean isQuoted) {
+            tokens.add(token);
+            quoted.add(isQuoted);
+        }
+
+        private boolean peekWord(String word) {
+            return position < tokens.size() && !quoted.get(position) && tokens.get(position).equals(word);
+        }
+
+        private void expectWord(String word) throws RuleParseException {
+            if (!peekWord(word)) {
+                throw error("Expected '" + word + "'" + found());
+            }
+            position++;
+        }
+
+        private String nextWord(String what) throws RuleParseException {
+            if (position >= tokens.size() || quoted.get(position)) {
+                throw error("Expected " + what + found());
+            }
+            return tokens.get(position++);
+        }
+
+        private String nextString(String what) throws RuleParseException {
+            if (position >= tokens.size() || !quoted.get(position)) {
+                throw error("Expected quoted " + what + found());
+            }
+            return tokens.get(position++);
+        }
+
+        private int nextInt(String what) throws RuleParseException {
+            String token = nextWord(what);
+            try {
+                return Integer.parseInt(token);
+            } catch (NumberFormatException e) {
+                throw error("Expected number for " + what + ", found '" + token + "'");
+            }
+        }
+
+        private String found() {
+            return position < tokens.size() ? ", found '" + tokens.get(position) + "'" : " at end of line";
+        }
+
+        private RuleParseException error(String message) {
+            return new RuleParseException(line, message);
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package com.smsemailforwarder.app.utils;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Immutable, precompiled view of the SMS filter settings
+ * SmsFilter reads everything it needs from the current snapshot, so filtering an SMS makes
+ * no preference reads. Each snapshot owns its number indexes; they are never updated
+ * once the snapshot is published. A new snapshot is compiled in the background whenever a filter
+ * preference changes and swapped in with a single volatile write.
+ */
+public final class FilterSnapshot {
+
+    private static final String TAG = "FilterSnapshot";
+
+    private static volatile FilterSnapshot current;
+
+    // SharedPreferences only keeps weak references to listeners, so hold it here
+    private static SharedPreferences.OnSharedPreferenceChangeListener preferenceListener;
+
+    private static final ExecutorService rebuildExecutor = Executors.newSingleThreadExecutor();
+    private static final AtomicBoolean rebuildPending = new AtomicBoolean();
+
+    private final long version;
+    private final boolean filterEnabled;
+    private final PreferencesManager.FilterMode filterMode;
+    private final int minMessageLength;
+    private final int maxMessageLength;
+    private final boolean filterSpam;
+    private final NumberIndex blockedNumbers;
+    private final NumberIndex allowedNumbers;
+    private final BlocklistFeed blocklistFeed;
+    private final boolean blocklistFeedConfirm;
+    private final Set<String> keywordSet;
+    private final KeywordMatcher keywordMatcher;
+    private final SpamRuleEngine spamEngine;
+    private final SpamClassifier spamClassifier;
+    private final double spamClassifierThreshold;
+    private final String rulesText;
+    private final FilterRules rules;
+
+    private FilterSnapshot(long version, Context context, PreferencesManager preferencesManager,
+                           FilterSnapshot previous) {
+        this.version = version;
+        this.filterEnabled = preferencesManager.isFilterEnabled();
+        this.filterMode = preferencesManager.getFilterMode();
+        this.minMessageLength = preferencesManager.getMinMessageLength();
+        this.maxMessageLength = preferencesManager.getMaxMessageLength();
+        this.filterSpam = preferencesManager.isFilterSpam();
+        this.spamEngine = SpamRuleEngine.getDefault();
+        // The classifier loads its model on first use, not here
+        this.spamClassifier = preferencesManager.isSpamClassifierEnabled()
+            ? SpamClassifier.getInstance(context) : null;
+        this.spamClassifierThreshold = preferencesManager.getSpamClassifierThreshold();
+
+        this.blockedNumbers = indexNumbers(preferencesManager.getBlockedNumbers(),
+            previous != null ? previous.blockedNumbers : null);
+        this.allowedNumbers = indexNumbers(preferencesManager.getAllowedNumbers(),
+            previous != null ? previous.allowedNumbers : null);
+        this.blocklistFeed = BlocklistFeed.getInstance(context);
+        this.blocklistFeedConfirm = preferencesManager.isBlocklistFeedConfirm();
+
+        // Recompiling thousands of keywords is the expensive part, so reuse it when unchanged
+        Set<String> keywords = preferencesManager.getFilterKeywords();
+        Set<String> keywordCopy = keywords != null
+            ? Collections.unmodifiableSet(new HashSet<>(keywords))
+            : Collections.<String>emptySet();
+        if (previous != null && previous.keywordSet.equals(keywordCopy)) {
+            this.keywordSet = previous.keywordSet;
+            this.keywordMatcher = previous.keywordMatcher;
+        } else {
+            this.keywordSet = keywordCopy;
+            this.keywordMatcher = KeywordMatcher.build(keywordCopy);
+        }
+
+        String rulesText = preferencesManager.getFilterRules();
+        this.rulesText = rulesText != null ? rulesText : "";
+        if (previous != null && previous.rulesText.equals(this.rulesText)) {
+            this.rules = previous.rules;
+        } else {
+            this.rules = compileRules(this.rulesText);
+        }
+    }
+
+    /**
+     * Compiles the rule text; invalid rules are ignored rather than blocking all filtering
+     */
+    private static FilterRules compileRules(String text) {
+        try {
+            return FilterRules.compile(text);
+        } catch (FilterRules.RuleParseException e) {
+            Log.e(TAG, "Ignoring invalid filter rules: " + e.getMessage());
+            return FilterRules.empty();
+        }
+    }
+
+    /**
+     * Index owned by this snapshot: the previous one when the list is unchanged, otherwise
+     * a copy of it updated with just the added and removed numbers
+     */
+    private static NumberIndex indexNumbers(Set<String> numbers, NumberIndex previous) {
+        if (previous == null) {
+            NumberIndex index = new NumberIndex();
+            index.update(numbers);
+            return index;
+        }
+        if (previous.isIndexOf(numbers)) {
+            return previous;
+        }
+        NumberIndex index = previous.copy();
+        index.update(numbers);
+        return index;
+    }
+
+    /**
+     * Gets the current snapshot, compiling the first one and subscribing to changes on first use
+     */
+    public static FilterSnapshot get(Context context) {
+        FilterSnapshot snapshot = current;
+        if (snapshot != null) {
+            return snapshot;
+        }
+
+        synchronized (FilterSnapshot.class) {
+            if (current == null) {
+                final Context appContext = context.getApplicationContext();
+                final PreferencesManager preferencesManager = new PreferencesManager(appContext);
+
+                preferenceListener = (preferences, key) -> {
+                    if (key == null || PreferencesManager.isFilterKey(key)) {
+                        scheduleRebuild(appContext, preferencesManager);
+                    }
+                };
+                preferencesManager.registerOnChangeListener(preferenceListener);
+
+                current = compile(appContext, preferencesManager, null);
+            }
+            return current;
+        }
+    }
+
+    /**
+     * Compiles the first snapshot in the background, so the first SMS does not pay for
+     * indexing the number lists and keywords on the receiver's main thread
+     */
+    public static void warmUp(Context context) {
+        if (current != null) {
+            return;
+        }
+        final Context appContext = context.getApplicationContext();
+        rebuildExecutor.execute(() -> {
+            try {
+                get(appContext);
+            } catch (Exception e) {
+                Log.e(TAG, "Error compiling filter snapshot", e);
+            }
+        });
+    }
+
+    /**
+     * Forgets the current snapshot once any queued rebuild has finished, so the next get()
+     * compiles from the settings again; for tests that switch settings or application
+     */
+    static void reset() throws InterruptedException, ExecutionException {
+        rebuildExecutor.submit(() -> { }).get();
+        synchronized (FilterSnapshot.class) {
+            current = null;
+            preferenceListener = null;
+        }
+    }
+
+    /**
+     * Queues a rebuild; several changes in quick succession collapse into one
+     */
+    private static void scheduleRebuild(final Context context, final PreferencesManager preferencesManager) {
+        if (!rebuildPending.compareAndSet(false, true)) {
+            return;
+        }
+        rebuildExecutor.execute(() -> {
+            // Cleared before compiling so a change made meanwhile schedules another pass
+            rebuildPending.set(false);
+            try {
+                current = compile(context, preferencesManager, current);
+            } catch (Exception e) {
+                Log.e(TAG, "Error rebuilding filter snapshot", e);
+            }
+        });
+    }
+
+    private static FilterSnapshot compile(Context context, PreferencesManager preferencesManager,
+                                          FilterSnapshot previous) {
+        long start = System.nanoTime();
+        long version = previous != null ? previous.version + 1 : 1;
+        FilterSnapshot snapshot = new FilterSnapshot(version, context, preferencesManager, previous);
+        Log.d(TAG, "Compiled filter snapshot v" + version + " in " +
+              (System.nanoTime() - start) / 1000000L + "ms");
+        return snapshot;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public boolean isFilterEnabled() {
+        return filterEnabled;
+    }
+
+    public PreferencesManager.FilterMode getFilterMode() {
+        return filterMode;
+    }
+
+    public int getMinMessageLength() {
+        return minMessageLength;
+    }
+
+    public int getMaxMessageLength() {
+        return maxMessageLength;
+    }
+
+    public boolean isFilterSpam() {
+        return filterSpam;
+    }
+
+    public NumberIndex getBlockedNumbers() {
+        return blockedNumbers;
+    }
+
+    public NumberIndex getAllowedNumbers() {
+        return allowedNumbers;
+    }
+
+    public BlocklistFeed getBlocklistFeed() {
+        return blocklistFeed;
+    }
+
+    public boolean isBlocklistFeedConfirm() {
+        return blocklistFeedConfirm;
+    }
+
+    public KeywordMatcher getKeywordMatcher() {
+        return keywordMatcher;
+    }
+
+    public SpamRuleEngine getSpamEngine() {
+        return spamEngine;
+    }
+
+    /**
+     * Learned classifier, or null when the user has not enabled it
+     */
+    public SpamClassifier getSpamClassifier() {
+        return spamClassifier;
+    }
+
+    public double getSpamClassifierThreshold() {
+        return spamClassifierThreshold;
+    }
+
+    public FilterRules getRules() {
+        return rules;
+    }
+}
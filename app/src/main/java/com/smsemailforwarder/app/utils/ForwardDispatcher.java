@@ -0,0 +1,85 @@
+package com.smsemailforwarder.app.utils;
+
+import android.content.Context;
+import android.content.Intent;
+import android.util.Log;
+
+import com.smsemailforwarder.app.EmailService;
+
+/**
+ * Hands messages that passed filtering to EmailService
+ * Shared by the live receiver and the inbox catch-up, so both send to the routed recipient with
+ * the rule priority and collapse near-duplicates the same way.
+ */
+public final class ForwardDispatcher {
+
+    private static final String TAG = "ForwardDispatcher";
+
+    private ForwardDispatcher() {
+    }
+
+    /**
+     * Offers the message to the near-duplicate detector when collapsing is enabled
+     * @return true if the message was collapsed into an earlier one and must not be sent
+     */
+    public static boolean collapse(Context context, ConfigSnapshot config, String sender, String body,
+                                   long timestamp, FilterRules.Decision decision) {
+        if (!config.isDuplicateCollapseEnabled()) {
+            return false;
+        }
+
+        boolean first = NearDuplicateDetector.getInstance().offer(
+            sender, body, timestamp,
+            config.getDuplicateWindowMinutes() * 60000L,
+            config.getDuplicateMaxDistance(),
+            collapsedListener(context.getApplicationContext(), decision));
+        if (first) {
+            return false;
+        }
+
+        Log.i(TAG, "SMS collapsed as near-duplicate - not forwarding");
+        FilterDecisionLog.markCollapsed(decision.logRecord);
+        MetricsRegistry.getInstance(context).recordFiltered(MetricsRegistry.REASON_DUPLICATE);
+        return true;
+    }
+
+    /**
+     * Email request for one message, addressed and prioritized by the filter decision
+     */
+    public static Intent createEmailIntent(Context context, String sender, String body, long timestamp,
+                                           FilterRules.Decision decision) {
+        Intent emailIntent = new Intent(context, EmailService.class);
+        emailIntent.putExtra("sender", sender);
+        emailIntent.putExtra("message", body);
+        emailIntent.putExtra("timestamp", timestamp);
+        emailIntent.putExtra("test_mode", false);
+        if (decision.recipient != null) {
+            emailIntent.putExtra("recipient", decision.recipient);
+        }
+        emailIntent.putExtra("priority", decision.priority.name());
+        return emailIntent;
+    }
+
+    /**
+     * Starts EmailService with the request and counts it as queued
+     */
+    public static void send(Context context, Intent emailIntent) {
+        context.startService(emailIntent);
+        MetricsRegistry.getInstance(context).gauge(MetricsRegistry.EMAIL_QUEUE_DEPTH).increment();
+    }
+
+    /**
+     * Sends one summary email for a cluster once its duplicate window closes
+     */
+    private static NearDuplicateDetector.Listener collapsedListener(Context context,
+                                                                    FilterRules.Decision decision) {
+        return cluster -> {
+            Intent emailIntent = createEmailIntent(context, cluster.sender, cluster.body,
+                                                   cluster.firstTimestamp, decision);
+            emailIntent.putExtra("duplicate_count", cluster.getDuplicates());
+            emailIntent.putExtra("duplicate_last_timestamp", cluster.getLastTimestamp());
+            send(context, emailIntent);
+            Log.i(TAG, "Forwarding summary of " + cluster.getDuplicates() + " collapsed messages");
+        };
+    }
+}
@@ -0,0 +1,218 @@
+package com.smsemailforwarder.app.utils;
+
+import android.content.Context;
+import android.content.Intent;
+import android.database.Cursor;
+import android.net.Uri;
+import android.util.Log;
+
+import com.smsemailforwarder.app.EmailService;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Re-filters the device SMS inbox with the current filter settings
+ * Shows what the filters would do to recent messages (e.g. after changing rules) and finds
+ * messages that arrived while the app was not receiving them, so they can be forwarded late.
+ */
+public class InboxScanner {
+
+    private static final String TAG = "InboxScanner";
+
+    private static final Uri INBOX_URI = Uri.parse("content://sms/inbox");
+    private static final String COLUMN_ADDRESS = "address";
+    private static final String COLUMN_BODY = "body";
+    private static final String COLUMN_DATE = "date";
+    private static final String COLUMN_DATE_SENT = "date_sent";
+
+    public static final int DEFAULT_SCAN_LIMIT = 1000;
+
+    /**
+     * Outcome of one scan
+     */
+    public static class Report {
+        public final List<SmsFilter.BatchMessage> messages;
+        public final byte[] verdicts;
+        public final long durationMs;
+        private final long lastProcessedTimestamp;
+
+        Report(List<SmsFilter.BatchMessage> messages, byte[] verdicts, long durationMs, long lastProcessedTimestamp) {
+            this.messages = messages;
+            this.verdicts = verdicts;
+            this.durationMs = durationMs;
+            this.lastProcessedTimestamp = lastProcessedTimestamp;
+        }
+
+        /**
+         * Messages newer than the last one the receiver handled that pass the filters
+         */
+        public List<SmsFilter.BatchMessage> getMissed() {
+            List<SmsFilter.BatchMessage> missed = new ArrayList<>();
+            if (lastProcessedTimestamp <= 0) {
+                return missed; // Nothing received yet, so there is no gap to catch up on
+            }
+            for (int i = 0; i < messages.size(); i++) {
+                if (verdicts[i] == SmsFilter.VERDICT_FORWARD && messages.get(i).timestamp > lastProcessedTimestamp) {
+                    missed.add(messages.get(i));
+                }
+            }
+            return missed;
+        }
+
+        public String getSummary() {
+            int[] counts = new int[SmsFilter.VERDICT_RULE + 1];
+            for (byte verdict : verdicts) {
+                counts[verdict]++;
+            }
+
+            StringBuilder sb = new StringBuilder();
+            sb.append("=== Inbox Scan ===\n");
+            sb.append("Messages: ").append(messages.size()).append(" (").append(durationMs).append("ms)\n");
+            sb.append("Would Forward: ").append(counts[SmsFilter.VERDICT_FORWARD]).append("\n");
+            sb.append("By Length: ").append(counts[SmsFilter.VERDICT_LENGTH]).append("\n");
+            sb.append("By Number: ").append(counts[SmsFilter.VERDICT_NUMBER]).append("\n");
+            sb.append("By Keyword: ").append(counts[SmsFilter.VERDICT_KEYWORD]).append("\n");
+            sb.append("By Spam: ").append(counts[SmsFilter.VERDICT_SPAM]).append("\n");
+            sb.append("By Rule: ").append(counts[SmsFilter.VERDICT_RULE]).append("\n");
+            sb.append("Missed: ").append(getMissed().size()).append("\n");
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Reads up to limit recent inbox messages and evaluates them in one batch
+     * Must not be called on the main thread.
+     */
+    public static Report scan(Context context, int limit) {
+        long start = System.currentTimeMillis();
+        List<SmsFilter.BatchMessage> messages = readInbox(context, limit);
+        byte[] verdicts = new SmsFilter(context).evaluateBatch(messages);
+        long duration = System.currentTimeMillis() - start;
+
+        Log.d(TAG, "Scanned " + messages.size() + " inbox messages in " + duration + "ms");
+        return new Report(messages, verdicts, duration,
+                          new PreferencesManager(context).getLastSmsTimestamp());
+    }
+
+    /**
+     * Forwards the messages the receiver missed
+     * A backlog larger than the configured threshold goes out as one email with a compressed
+     * attachment (see BacklogDigest). EmailService reads it from the inbox again when sending,
+     * so the messages don't have to fit into an Intent, and marks it processed once sent.
+     * A smaller backlog is forwarded and marked processed here, message by message.
+     * Must not be called on the main thread.
+     * @return Number of messages queued for sending
+     */
+    public static int forwardMissed(Context context, Report report) {
+        List<SmsFilter.BatchMessage> missed = report.getMissed();
+        PreferencesManager preferencesManager = new PreferencesManager(context);
+        long thresholdBytes = preferencesManager.getBacklogAttachmentThresholdKb() * 1024L;
+        if (thresholdBytes > 0 && missed.size() > 1 && BacklogDigest.estimateTextSize(missed) >= thresholdBytes) {
+            long newest = 0;
+            for (SmsFilter.BatchMessage message : missed) {
+                newest = Math.max(newest, message.timestamp);
+            }
+            Intent emailIntent = new Intent(context, EmailService.class);
+            emailIntent.putExtra(EmailService.EXTRA_BACKLOG_SINCE, report.lastProcessedTimestamp);
+            emailIntent.putExtra(EmailService.EXTRA_BACKLOG_UNTIL, newest);
+            emailIntent.putExtra("test_mode", false);
+            context.startService(emailIntent);
+            MetricsRegistry.getInstance(context).gauge(MetricsRegistry.EMAIL_QUEUE_DEPTH).increment();
+            Log.i(TAG, "Forwarding " + missed.size() + " missed messages as one digest");
+            return missed.size();
+        }
+
+        // The scan already filtered these at their own timestamps; rules still decide routing
+        // and priority, and duplicates collapse like live messages
+        SmsFilter smsFilter = new SmsFilter(context);
+        ConfigSnapshot config = ConfigSnapshot.get(context);
+        long newest = 0;
+        int queued = 0;
+        for (SmsFilter.BatchMessage message : missed) {
+            newest = Math.max(newest, message.timestamp);
+            String sender = PhoneNumberNormalizer.normalize(message.sender);
+            FilterRules.Decision decision = smsFilter.route(message);
+            if (ForwardDispatcher.collapse(context, config, sender, message.body, message.timestamp, decision)) {
+                continue;
+            }
+            ForwardDispatcher.send(context,
+                    ForwardDispatcher.createEmailIntent(context, sender, message.body, message.timestamp, decision));
+            queued++;
+        }
+
+        if (newest > 0) {
+            preferencesManager.updateLastSmsTimestamp(newest);
+        }
+        Log.i(TAG, "Forwarding " + queued + " of " + missed.size() + " missed messages");
+        return queued;
+    }
+
+    /**
+     * Reads the inbox again and returns the messages after since, up to and including until,
+     * that pass the current filters, oldest first
+     * Must not be called on the main thread.
+     */
+    public static List<SmsFilter.BatchMessage> readForwardable(Context context, long since, long until) {
+        List<SmsFilter.BatchMessage> messages = readInbox(context, DEFAULT_SCAN_LIMIT);
+        byte[] verdicts = new SmsFilter(context).evaluateBatch(messages);
+        List<SmsFilter.BatchMessage> forwardable = new ArrayList<>();
+        for (int i = 0; i < messages.size(); i++) {
+            long timestamp = messages.get(i).timestamp;
+            if (verdicts[i] == SmsFilter.VERDICT_FORWARD && timestamp > since && timestamp <= until) {
+                forwardable.add(messages.get(i));
+            }
+        }
+        return forwardable;
+    }
+
+    /**
+     * Reads the newest inbox messages, returned oldest first
+     * Messages are picked and ordered by service center time, which is what the receiver sees
+     * for live messages; the time the phone stored them stands in when that is missing.
+     */
+    private static List<SmsFilter.BatchMessage> readInbox(Context context, int limit) {
+        List<SmsFilter.BatchMessage> messages = new ArrayList<>();
+        String[] projection = {COLUMN_ADDRESS, COLUMN_BODY, COLUMN_DATE, COLUMN_DATE_SENT};
+
+        try (Cursor cursor = context.getContentResolver().query(
+                INBOX_URI, projection, null, null, COLUMN_DATE_SENT + " DESC")) {
+            if (cursor == null) {
+                return messages;
+            }
+
+            int addressColumn = cursor.getColumnIndex(COLUMN_ADDRESS);
+            int bodyColumn = cursor.getColumnIndex(COLUMN_BODY);
+            int dateColumn = cursor.getColumnIndex(COLUMN_DATE);
+            int dateSentColumn = cursor.getColumnIndex(COLUMN_DATE_SENT);
+
+            while (messages.size() < limit && cursor.moveToNext()) {
+                String address = cursor.getString(addressColumn);
+                String body = cursor.getString(bodyColumn);
+                if (address == null || body == null) {
+                    continue;
+                }
+                long timestamp = dateSentColumn >= 0 ? cursor.getLong(dateSentColumn) : 0;
+                if (timestamp <= 0) {
+                    timestamp = cursor.getLong(dateColumn);
+                }
+                // Same cleanup as the receiver, so verdicts match what live messages get
+                messages.add(new SmsFilter.BatchMessage(address, MessageNormalizer.normalize(body, true).text,
+                                                        timestamp));
+            }
+        } catch (SecurityException e) {
+            Log.e(TAG, "No permission to read the SMS inbox", e);
+        }
+
+        // Oldest first by the timestamp each message carries, including the stored-time fallback
+        Collections.sort(messages, new Comparator<SmsFilter.BatchMessage>() {
+            @Override
+            public int compare(SmsFilter.BatchMessage a, SmsFilter.BatchMessage b) {
+                return Long.compare(a.timestamp, b.timestamp);
+            }
+        });
+        return messages;
+    }
+}
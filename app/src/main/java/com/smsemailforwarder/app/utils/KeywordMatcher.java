@@ -0,0 +1,260 @@
+package com.smsemailforwarder.app.utils;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Aho-Corasick automaton for matching many filter keywords in one pass over a message
+ * Keywords and message text are case folded the same way, including the Croatian
+ * digraph letters (Ǆ, ǅ, ǆ, Ǉ, ǈ, ǉ, Ǌ, ǋ, ǌ) which fold to dž, lj and nj.
+ * Instances are immutable and safe to share between threads.
+ */
+public final class KeywordMatcher {
+
+    private static final int ROOT = 0;
+    private static final int NO_MATCH = -1;
+
+    // Original keywords, indexed by match id
+    private final String[] keywords;
+
+    // Trie edges in compressed form: edges of node n are [edgeStart[n], edgeStart[n + 1]), sorted by label
+    private final int[] edgeStart;
+    private final char[] edgeLabels;
+    private final int[] edgeTargets;
+
+    // Failure link and the keyword reported when a node is reached (own or inherited via failure links)
+    private final int[] fail;
+    private final int[] match;
+
+    private KeywordMatcher(String[] keywords, int[] edgeStart, char[] edgeLabels, int[] edgeTargets,
+                           int[] fail, int[] match) {
+        this.keywords = keywords;
+        this.edgeStart = edgeStart;
+        this.edgeLabels = edgeLabels;
+        this.edgeTargets = edgeTargets;
+        this.fail = fail;
+        this.match = match;
+    }
+
+    /**
+     * Compiles the keyword set into an automaton; empty keywords are ignored
+     */
+    public static KeywordMatcher build(Collection<String> keywordSet) {
+        // Sorted folded keywords (duplicates after folding collapse into one entry)
+        TreeMap<String, String> sorted = new TreeMap<>();
+        int totalLength = 0;
+        if (keywordSet != null) {
+            for (String keyword : keywordSet) {
+                if (keyword == null || keyword.isEmpty()) {
+                    continue;
+                }
+                String folded = fold(keyword);
+                if (sorted.put(folded, keyword) == null) {
+                    totalLength += folded.length();
+                }
+            }
+        }
+
+        String[] folded = new String[sorted.size()];
+        String[] originals = new String[sorted.size()];
+        int index = 0;
+        for (Map.Entry<String, String> entry : sorted.entrySet()) {
+            folded[index] = entry.getKey();
+            originals[index] = entry.getValue();
+            index++;
+        }
+
+        // Every trie node except the root consumes one keyword character
+        int maxNodes = totalLength + 1;
+        int[] edgeStart = new int[maxNodes + 1];
+        char[] edgeLabels = new char[totalLength];
+        int[] edgeTargets = new int[totalLength];
+        int[] depth = new int[maxNodes];
+        int[] rangeStart = new int[maxNodes];
+        int[] rangeEnd = new int[maxNodes];
+        int[] match = new int[maxNodes];
+        Arrays.fill(match, NO_MATCH);
+
+        // Breadth-first construction over sorted ranges: the keywords sharing a node's
+        // prefix are contiguous, so children are the runs of equal characters at its depth
+        rangeEnd[ROOT] = folded.length;
+        int nodeCount = 1;
+        int edgeCount = 0;
+        for (int node = 0; node < nodeCount; node++) {
+            edgeStart[node] = edgeCount;
+            int lo = rangeStart[node];
+            int hi = rangeEnd[node];
+            int d = depth[node];
+
+            // A keyword equal to the prefix sorts first in its range
+            if (lo < hi && folded[lo].length() == d) {
+                match[node] = lo;
+                lo++;
+            }
+
+            while (lo < hi) {
+                char label = folded[lo].charAt(d);
+                int runEnd = lo + 1;
+                while (runEnd < hi && folded[runEnd].charAt(d) == label) {
+                    runEnd++;
+                }
+
+                int child = nodeCount++;
+                depth[child] = d + 1;
+                rangeStart[child] = lo;
+                rangeEnd[child] = runEnd;
+                edgeLabels[edgeCount] = label;
+                edgeTargets[edgeCount] = child;
+                edgeCount++;
+                lo = runEnd;
+            }
+        }
+        edgeStart[nodeCount] = edgeCount;
+
+        // Node ids are in breadth-first order, so failure targets are always resolved first
+        int[] fail = new int[nodeCount];
+        for (int node = 0; node < nodeCount; node++) {
+            for (int edge = edgeStart[node]; edge < edgeStart[node + 1]; edge++) {
+                int child = edgeTargets[edge];
+                if (node == ROOT) {
+                    fail[child] = ROOT;
+                } else {
+                    fail[child] = next(edgeStart, edgeLabels, edgeTargets, fail, fail[node], edgeLabels[edge]);
+                }
+                if (match[child] == NO_MATCH) {
+                    match[child] = match[fail[child]];
+                }
+            }
+        }
+
+        return new KeywordMatcher(
+            originals,
+            Arrays.copyOf(edgeStart, nodeCount + 1),
+            edgeLabels,
+            edgeTargets,
+            fail,
+            Arrays.copyOf(match, nodeCount)
+        );
+    }
+
+    /**
+     * Scans the text once and returns the first keyword found, or null if none matches
+     */
+    public String findFirst(CharSequence text) {
+        if (text == null || keywords.length == 0) {
+            return null;
+        }
+
+        int state = ROOT;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            String expansion = digraph(c);
+            if (expansion == null) {
+                state = next(edgeStart, edgeLabels, edgeTargets, fail, state, foldChar(c));
+                if (match[state] != NO_MATCH) {
+                    return keywords[match[state]];
+                }
+            } else {
+                for (int j = 0; j < expansion.length(); j++) {
+                    state = next(edgeStart, edgeLabels, edgeTargets, fail, state, expansion.charAt(j));
+                    if (match[state] != NO_MATCH) {
+                        return keywords[match[state]];
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    public boolean containsAny(CharSequence text) {
+        return findFirst(text) != null;
+    }
+
+    /**
+     * Number of distinct keywords after case folding
+     */
+    public int size() {
+        return keywords.length;
+    }
+
+    /**
+     * Number of automaton states, for diagnostics
+     */
+    public int getStateCount() {
+        return fail.length;
+    }
+
+    /**
+     * Folds a string the same way message text is folded while scanning
+     */
+    public static String fold(CharSequence text) {
+        StringBuilder sb = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            String expansion = digraph(c);
+            if (expansion != null) {
+                sb.append(expansion);
+            } else {
+                sb.append(foldChar(c));
+            }
+        }
+        return sb.toString();
+    }
+
+    private static int next(int[] edgeStart, char[] edgeLabels, int[] edgeTargets, int[] fail,
+                            int state, char c) {
+        while (true) {
+            int lo = edgeStart[state];
+            int hi = edgeStart[state + 1] - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                char label = edgeLabels[mid];
+                if (label < c) {
+                    lo = mid + 1;
+                } else if (label > c) {
+                    hi = mid - 1;
+                } else {
+                    return edgeTargets[mid];
+                }
+            }
+            if (state == ROOT) {
+                return ROOT;
+            }
+            state = fail[state];
+        }
+    }
+
+    /**
+     * Locale-independent lower casing (avoids the Turkish dotless i problem of toLowerCase())
+     */
+    static char foldChar(char c) {
+        if (c < 128) {
+            return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+        }
+        return Character.toLowerCase(c);
+    }
+
+    /**
+     * Croatian/Serbian digraph code points fold to their two-letter spelling
+     */
+    private static String digraph(char c) {
+        switch (c) {
+            case 'Ǆ':
+            case 'ǅ':
+            case 'ǆ':
+                return "dž";
+            case 'Ǉ':
+            case 'ǈ':
+            case 'ǉ':
+                return "lj";
+            case 'Ǌ':
+            case 'ǋ':
+            case 'ǌ':
+                return "nj";
+            default:
+                return null;
+        }
+    }
+}
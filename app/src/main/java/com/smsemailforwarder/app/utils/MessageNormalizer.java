@@ -0,0 +1,153 @@
+package com.smsemailforwarder.app.utils;
+
+/**
+ * Single-pass cleanup of SMS text
+ * One scan over the characters trims the text, turns CRLF and CR into LF, collapses runs of
+ * more than two line breaks, optionally drops control characters and notes whether any letter
+ * or digit is present. Text that needs no changes is returned as is, without a copy.
+ */
+public final class MessageNormalizer {
+
+    // Longest message accepted as a real SMS
+    public static final int MAX_MESSAGE_LENGTH = 2000;
+
+    private static final int MAX_LINE_BREAKS = 2;
+
+    private static final ThreadLocal<char[]> buffer = new ThreadLocal<char[]>() {
+        @Override
+        protected char[] initialValue() {
+            return new char[256];
+        }
+    };
+
+    /**
+     * Normalized text and what the scan found in it
+     */
+    public static final class Result {
+        // Empty when nothing but whitespace was left
+        public final String text;
+        public final boolean hasContent;
+
+        Result(String text, boolean hasContent) {
+            this.text = text;
+            this.hasContent = hasContent;
+        }
+
+        /**
+         * Whether the text looks like a real message: some letters or digits, not overly long
+         */
+        public boolean isValid() {
+            return hasContent && text.length() <= MAX_MESSAGE_LENGTH;
+        }
+    }
+
+    private MessageNormalizer() {
+    }
+
+    /**
+     * Normalizes message text
+     * @param stripControl Also drop control characters other than line breaks and tabs
+     */
+    public static Result normalize(CharSequence message, boolean stripControl) {
+        if (message == null) {
+            return new Result("", false);
+        }
+
+        int length = message.length();
+        char[] chars = buffer.get();
+        if (chars.length < length) {
+            chars = new char[Math.max(length, chars.length * 2)];
+            buffer.set(chars);
+        }
+        if (message instanceof String) {
+            ((String) message).getChars(0, length, chars, 0);
+        } else {
+            for (int i = 0; i < length; i++) {
+                chars[i] = message.charAt(i);
+            }
+        }
+
+        // Leading whitespace and control characters, as String.trim() removes them; DEL too when
+        // stripping, or the spaces behind it would survive
+        int read = 0;
+        while (read < length && (chars[read] <= ' ' || stripControl && chars[read] == '\u007F')) {
+            read++;
+        }
+
+        // Compacts in place; the write position never passes the read position
+        int write = 0;
+        int end = 0; // just past the last character above ' ', where trailing trim cuts
+        int lineBreaks = 0;
+        boolean hasContent = false;
+        boolean changed = read > 0;
+
+        for (; read < length; read++) {
+            char c = chars[read];
+            if (c == '\r' || c == '\n') {
+                if (c == '\r') {
+                    changed = true;
+                    if (read + 1 < length && chars[read + 1] == '\n') {
+                        read++;
+                    }
+                }
+                if (++lineBreaks > MAX_LINE_BREAKS) {
+                    changed = true;
+                    continue;
+                }
+                chars[write++] = '\n';
+                continue;
+            }
+            if (stripControl && (c < ' ' && c != '\t' || c == '\u007F')) {
+                changed = true;
+                continue;
+            }
+
+            chars[write++] = c;
+            lineBreaks = 0;
+            if (c > ' ') {
+                end = write;
+                hasContent |= Character.isLetterOrDigit(c);
+            }
+        }
+        changed |= end < write;
+
+        String text;
+        if (!changed && message instanceof String) {
+            text = (String) message;
+        } else {
+            text = new String(chars, 0, end);
+        }
+        if (chars.length > MAX_MESSAGE_LENGTH * 8) {
+            buffer.remove(); // don't keep a huge buffer around for one oversized message
+        }
+        return new Result(text, hasContent);
+    }
+
+    /**
+     * Removes all control characters, including line breaks
+     */
+    public static String stripControlCharacters(String text) {
+        int length = text.length();
+        int i = 0;
+        while (i < length && !isControl(text.charAt(i))) {
+            i++;
+        }
+        if (i == length) {
+            return text;
+        }
+
+        StringBuilder sb = new StringBuilder(length);
+        sb.append(text, 0, i);
+        for (; i < length; i++) {
+            char c = text.charAt(i);
+            if (!isControl(c)) {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static boolean isControl(char c) {
+        return c < ' ' || c == '\u007F';
+    }
+}
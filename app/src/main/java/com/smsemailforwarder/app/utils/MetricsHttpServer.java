@@ -0,0 +1,315 @@
+package com.smsemailforwarder.app.utils;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+
+/**
+ * Minimal non-blocking HTTP server exposing GET /metrics in Prometheus format
+ * Runs a single selector thread that sleeps in select() until a scrape arrives,
+ * and reuses one text builder and one output buffer across scrapes
+ */
+public class MetricsHttpServer {
+
+    private static final String TAG = "MetricsHttpServer";
+
+    private static final int MAX_REQUEST_BYTES = 4096;
+    private static final String METRICS_PATH = "/metrics";
+
+    private final MetricsRegistry registry;
+    private final InetAddress bindAddress;
+    private final int port;
+
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private Thread serverThread;
+    private volatile boolean running;
+
+    // Reused between scrapes (only touched by the selector thread)
+    private final StringBuilder bodyBuilder = new StringBuilder(4096);
+    private ByteBuffer responseBuffer = ByteBuffer.allocate(8192);
+
+    /**
+     * Per-connection state: request bytes read so far and any unwritten response
+     */
+    private static final class Connection {
+        final ByteBuffer request = ByteBuffer.allocate(MAX_REQUEST_BYTES);
+        ByteBuffer pendingResponse;
+    }
+
+    /**
+     * @param lanAccess true to listen on all interfaces, false for loopback only
+     */
+    public MetricsHttpServer(MetricsRegistry registry, boolean lanAccess, int port) throws IOException {
+        this.registry = registry;
+        this.bindAddress = lanAccess ? InetAddress.getByName("0.0.0.0") : InetAddress.getByName("127.0.0.1");
+        this.port = port;
+    }
+
+    /**
+     * Binds the socket and starts the selector thread
+     */
+    public synchronized void start() throws IOException {
+        if (running) {
+            return;
+        }
+
+        try {
+            selector = Selector.open();
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.configureBlocking(false);
+            serverChannel.socket().setReuseAddress(true);
+            serverChannel.socket().bind(new InetSocketAddress(bindAddress, port));
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            // e.g. port already in use; don't leak the selector or channel
+            closeStartupResources();
+            throw e;
+        }
+
+        running = true;
+        serverThread = new Thread(this::runLoop, "MetricsHttpServer");
+        serverThread.setDaemon(true);
+        serverThread.start();
+
+        Log.i(TAG, "Metrics endpoint listening on " + bindAddress.getHostAddress() + ":" + getPort());
+    }
+
+    /**
+     * Stops the selector thread and closes all sockets
+     */
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        selector.wakeup();
+
+        try {
+            serverThread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        Log.i(TAG, "Metrics endpoint stopped");
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Actual listening port (useful when started with port 0)
+     */
+    public int getPort() {
+        return serverChannel != null ? serverChannel.socket().getLocalPort() : port;
+    }
+
+    private void runLoop() {
+        try {
+            while (running) {
+                selector.select();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    try {
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            accept();
+                        } else if (key.isReadable()) {
+                            read(key);
+                        } else if (key.isWritable()) {
+                            write(key);
+                        }
+                    } catch (IOException e) {
+                        Log.d(TAG, "Connection error: " + e.getMessage());
+                        closeQuietly(key);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Metrics server loop failed", e);
+        } finally {
+            closeAll();
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel client = serverChannel.accept();
+        if (client == null) {
+            return;
+        }
+        client.configureBlocking(false);
+        client.register(selector, SelectionKey.OP_READ, new Connection());
+    }
+
+    private void read(SelectionKey key) throws IOException {
+        SocketChannel client = (SocketChannel) key.channel();
+        Connection connection = (Connection) key.attachment();
+
+        int read = client.read(connection.request);
+        if (read < 0) {
+            closeQuietly(key);
+            return;
+        }
+
+        if (!hasCompleteHeaders(connection.request)) {
+            if (!connection.request.hasRemaining()) {
+                respond(key, "431 Request Header Fields Too Large", "text/plain", null);
+            }
+            return;
+        }
+
+        if (isRequestFor(connection.request, "GET", METRICS_PATH)) {
+            bodyBuilder.setLength(0);
+            PrometheusFormatter.write(registry, bodyBuilder);
+            respond(key, "200 OK", PrometheusFormatter.CONTENT_TYPE, bodyBuilder);
+        } else {
+            respond(key, "404 Not Found", "text/plain", null);
+        }
+    }
+
+    private void write(SelectionKey key) throws IOException {
+        SocketChannel client = (SocketChannel) key.channel();
+        Connection connection = (Connection) key.attachment();
+
+        client.write(connection.pendingResponse);
+        if (!connection.pendingResponse.hasRemaining()) {
+            closeQuietly(key);
+        }
+    }
+
+    /**
+     * Encodes the response into the shared buffer and writes as much as the socket accepts
+     * Only a partial write copies the remainder into a per-connection buffer
+     */
+    private void respond(SelectionKey key, String status, String contentType, CharSequence body)
+            throws IOException {
+        int bodyLength = body != null ? body.length() : 0;
+
+        StringBuilder head = new StringBuilder(128);
+        head.append("HTTP/1.1 ").append(status).append("\r\n");
+        head.append("Content-Type: ").append(contentType).append("\r\n");
+        head.append("Content-Length: ").append(bodyLength).append("\r\n");
+        head.append("Connection: close\r\n\r\n");
+
+        int total = head.length() + bodyLength;
+        if (responseBuffer.capacity() < total) {
+            responseBuffer = ByteBuffer.allocate(Math.max(total, responseBuffer.capacity() * 2));
+        }
+        responseBuffer.clear();
+        putAscii(responseBuffer, head);
+        if (body != null) {
+            putAscii(responseBuffer, body);
+        }
+        responseBuffer.flip();
+
+        SocketChannel client = (SocketChannel) key.channel();
+        client.write(responseBuffer);
+
+        if (responseBuffer.hasRemaining()) {
+            Connection connection = (Connection) key.attachment();
+            ByteBuffer remaining = ByteBuffer.allocate(responseBuffer.remaining());
+            remaining.put(responseBuffer);
+            remaining.flip();
+            connection.pendingResponse = remaining;
+            key.interestOps(SelectionKey.OP_WRITE);
+        } else {
+            closeQuietly(key);
+        }
+    }
+
+    /**
+     * Metric names and values are ASCII, so chars map directly to bytes
+     */
+    private static void putAscii(ByteBuffer buffer, CharSequence text) {
+        for (int i = 0; i < text.length(); i++) {
+            buffer.put((byte) text.charAt(i));
+        }
+    }
+
+    private static boolean hasCompleteHeaders(ByteBuffer request) {
+        int end = request.position();
+        for (int i = 3; i < end; i++) {
+            if (request.get(i - 3) == '\r' && request.get(i - 2) == '\n'
+                    && request.get(i - 1) == '\r' && request.get(i) == '\n') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Matches the request line "METHOD PATH[?query] HTTP/x.y" without decoding it to a String
+     */
+    private static boolean isRequestFor(ByteBuffer request, String method, String path) {
+        int index = 0;
+        for (int i = 0; i < method.length(); i++, index++) {
+            if (request.get(index) != method.charAt(i)) {
+                return false;
+            }
+        }
+        if (request.get(index++) != ' ') {
+            return false;
+        }
+        for (int i = 0; i < path.length(); i++, index++) {
+            if (request.get(index) != path.charAt(i)) {
+                return false;
+            }
+        }
+        byte next = request.get(index);
+        return next == ' ' || next == '?';
+    }
+
+    private static void closeQuietly(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException ignored) {
+            // Nothing useful to do
+        }
+    }
+
+    private void closeStartupResources() {
+        if (serverChannel != null) {
+            try {
+                serverChannel.close();
+            } catch (IOException ignored) {
+                // Nothing useful to do
+            }
+            serverChannel = null;
+        }
+        if (selector != null) {
+            try {
+                selector.close();
+            } catch (IOException ignored) {
+                // Nothing useful to do
+            }
+            selector = null;
+        }
+    }
+
+    private void closeAll() {
+        for (SelectionKey key : selector.keys()) {
+            closeQuietly(key);
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to close selector", e);
+        }
+    }
+}
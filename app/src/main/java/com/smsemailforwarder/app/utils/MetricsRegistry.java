@@ -0,0 +1,480 @@
+package com.smsemailforwarder.app.utils;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * In-process metrics registry with lock-free counters, gauges and latency histograms
+ * Counters and histograms are snapshotted to a small binary file so they survive process death
+ */
+public class MetricsRegistry {
+
+    private static final String TAG = "MetricsRegistry";
+    private static final String SNAPSHOT_FILE = "metrics.bin";
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final long SNAPSHOT_INTERVAL_MS = 30000; // 30 seconds
+
+    // Metric names
+    public static final String SMS_RECEIVED = "sms_received";
+    public static final String SMS_FILTERED = "sms_filtered";
+    public static final String SMS_FORWARDED = "sms_forwarded";
+    public static final String SMS_FAILED = "sms_failed";
+    public static final String EMAIL_RETRIED = "email_retried";
+    public static final String EMAIL_QUEUE_DEPTH = "email_queue_depth";
+    public static final String EMAIL_SEND_LATENCY = "email_send_latency_us";
+
+    // Filter reasons (used as SMS_FILTERED label)
+    public static final String LABEL_REASON = "reason";
+    public static final String REASON_LENGTH = "length";
+    public static final String REASON_NUMBER = "number";
+    public static final String REASON_KEYWORD = "keyword";
+    public static final String REASON_SPAM = "spam";
+    public static final String REASON_RULE = "rule";
+    public static final String REASON_DUPLICATE = "duplicate";
+
+    private static volatile MetricsRegistry instance;
+
+    private final File snapshotFile;
+    private final ConcurrentHashMap<String, Counter> counters = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Gauge> gauges = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+    private final AtomicLong lastSnapshotAt = new AtomicLong(0);
+    private final AtomicBoolean snapshotPending = new AtomicBoolean(false);
+    private final ScheduledExecutorService snapshotExecutor = Executors.newSingleThreadScheduledExecutor();
+
+    /**
+     * Monotonic counter
+     */
+    public static final class Counter {
+        private final AtomicLong value = new AtomicLong();
+
+        public void increment() {
+            value.incrementAndGet();
+        }
+
+        public void add(long delta) {
+            value.addAndGet(delta);
+        }
+
+        public long get() {
+            return value.get();
+        }
+    }
+
+    /**
+     * Point-in-time value that can go up and down (not persisted)
+     */
+    public static final class Gauge {
+        private final AtomicLong value = new AtomicLong();
+
+        public void increment() {
+            value.incrementAndGet();
+        }
+
+        public void decrement() {
+            // Never report a negative depth if the process restarted mid-queue
+            long current;
+            do {
+                current = value.get();
+                if (current <= 0) {
+                    return;
+                }
+            } while (!value.compareAndSet(current, current - 1));
+        }
+
+        public void set(long newValue) {
+            value.set(newValue);
+        }
+
+        public long get() {
+            return value.get();
+        }
+    }
+
+    /**
+     * Log-bucketed histogram in the style of HdrHistogram
+     * Each power of two is split into 8 linear sub-buckets, so recorded values keep
+     * a relative error below 12.5% with a fixed 312-slot array and no allocation.
+     */
+    public static final class Histogram {
+        private static final int SUB_BUCKET_BITS = 3;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        private static final int MAX_VALUE_BITS = 40;
+        private static final long MAX_VALUE = (1L << MAX_VALUE_BITS) - 1;
+        static final int BUCKET_COUNT = (MAX_VALUE_BITS - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong sum = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        public void record(long value) {
+            if (value < 0) {
+                value = 0;
+            } else if (value > MAX_VALUE) {
+                value = MAX_VALUE;
+            }
+            buckets.incrementAndGet(bucketIndex(value));
+            count.incrementAndGet();
+            sum.addAndGet(value);
+
+            long currentMax;
+            do {
+                currentMax = max.get();
+            } while (value > currentMax && !max.compareAndSet(currentMax, value));
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        public long getSum() {
+            return sum.get();
+        }
+
+        public long getMax() {
+            return max.get();
+        }
+
+        public long getMean() {
+            long n = count.get();
+            return n == 0 ? 0 : sum.get() / n;
+        }
+
+        public int getBucketCount() {
+            return BUCKET_COUNT;
+        }
+
+        public long getBucket(int index) {
+            return buckets.get(index);
+        }
+
+        /**
+         * Highest value that falls into the given bucket
+         */
+        public static long bucketUpperBound(int index) {
+            return bucketLowerBound(index + 1) - 1;
+        }
+
+        /**
+         * Value at the given percentile (0-100), reported as the bucket's upper bound
+         */
+        public long getPercentile(double percentile) {
+            long total = count.get();
+            if (total == 0) {
+                return 0;
+            }
+            long target = (long) Math.ceil(percentile / 100.0 * total);
+            if (target < 1) {
+                target = 1;
+            }
+            long seen = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                seen += buckets.get(i);
+                if (seen >= target) {
+                    return Math.min(bucketUpperBound(i), max.get());
+                }
+            }
+            return max.get();
+        }
+
+        static int bucketIndex(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            int msb = 63 - Long.numberOfLeadingZeros(value);
+            int group = msb - SUB_BUCKET_BITS + 1;
+            int sub = (int) ((value >>> (msb - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1));
+            return group * SUB_BUCKETS + sub;
+        }
+
+        static long bucketLowerBound(int index) {
+            int group = index / SUB_BUCKETS;
+            int sub = index % SUB_BUCKETS;
+            if (group == 0) {
+                return sub;
+            }
+            return ((long) (SUB_BUCKETS + sub)) << (group - 1);
+        }
+
+        void restore(long[] bucketValues, long restoredCount, long restoredSum, long restoredMax) {
+            for (int i = 0; i < bucketValues.length && i < BUCKET_COUNT; i++) {
+                buckets.set(i, bucketValues[i]);
+            }
+            count.set(restoredCount);
+            sum.set(restoredSum);
+            max.set(restoredMax);
+        }
+    }
+
+    private MetricsRegistry(Context context) {
+        snapshotFile = new File(context.getFilesDir(), SNAPSHOT_FILE);
+        loadSnapshot();
+    }
+
+    /**
+     * Gets the process-wide registry, restoring the last snapshot on first use
+     */
+    public static MetricsRegistry getInstance(Context context) {
+        MetricsRegistry registry = instance;
+        if (registry == null) {
+            synchronized (MetricsRegistry.class) {
+                registry = instance;
+                if (registry == null) {
+                    registry = new MetricsRegistry(context.getApplicationContext());
+                    instance = registry;
+                }
+            }
+        }
+        return registry;
+    }
+
+    public Counter counter(String name) {
+        Counter counter = counters.get(name);
+        if (counter == null) {
+            Counter created = new Counter();
+            counter = counters.putIfAbsent(name, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        return counter;
+    }
+
+    /**
+     * Counter with a single label, stored as name{labelName="labelValue"}
+     */
+    public Counter counter(String name, String labelName, String labelValue) {
+        return counter(name + "{" + labelName + "=\"" + labelValue + "\"}");
+    }
+
+    /**
+     * Counter of messages filtered for the given reason
+     */
+    public Counter filteredCounter(String reason) {
+        return counter(SMS_FILTERED, LABEL_REASON, reason);
+    }
+
+    public Gauge gauge(String name) {
+        Gauge gauge = gauges.get(name);
+        if (gauge == null) {
+            Gauge created = new Gauge();
+            gauge = gauges.putIfAbsent(name, created);
+            if (gauge == null) {
+                gauge = created;
+            }
+        }
+        return gauge;
+    }
+
+    public Histogram histogram(String name) {
+        Histogram histogram = histograms.get(name);
+        if (histogram == null) {
+            Histogram created = new Histogram();
+            histogram = histograms.putIfAbsent(name, created);
+            if (histogram == null) {
+                histogram = created;
+            }
+        }
+        return histogram;
+    }
+
+    // Convenience methods for the forwarding pipeline
+
+    public void recordReceived() {
+        counter(SMS_RECEIVED).increment();
+        scheduleSnapshot();
+    }
+
+    public void recordFiltered(String reason) {
+        counter(SMS_FILTERED).increment();
+        filteredCounter(reason).increment();
+        scheduleSnapshot();
+    }
+
+    public void recordForwarded(long sendLatencyMicros) {
+        counter(SMS_FORWARDED).increment();
+        histogram(EMAIL_SEND_LATENCY).record(sendLatencyMicros);
+        scheduleSnapshot();
+    }
+
+    public void recordFailed() {
+        counter(SMS_FAILED).increment();
+        scheduleSnapshot();
+    }
+
+    public void recordRetry() {
+        counter(EMAIL_RETRIED).increment();
+    }
+
+    /**
+     * Sorted names of all registered counters
+     */
+    public List<String> getCounterNames() {
+        List<String> names = new ArrayList<>(counters.keySet());
+        Collections.sort(names);
+        return names;
+    }
+
+    public List<String> getGaugeNames() {
+        List<String> names = new ArrayList<>(gauges.keySet());
+        Collections.sort(names);
+        return names;
+    }
+
+    public List<String> getHistogramNames() {
+        List<String> names = new ArrayList<>(histograms.keySet());
+        Collections.sort(names);
+        return names;
+    }
+
+    /**
+     * Gets a human readable metrics summary for status screens
+     */
+    public String getSummary() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Received: ").append(counter(SMS_RECEIVED).get()).append("\n");
+        sb.append("Forwarded: ").append(counter(SMS_FORWARDED).get()).append("\n");
+        sb.append("Failed: ").append(counter(SMS_FAILED).get()).append("\n");
+        sb.append("Retried: ").append(counter(EMAIL_RETRIED).get()).append("\n");
+        sb.append("Filtered: ").append(counter(SMS_FILTERED).get());
+        sb.append(" (length ").append(filteredCounter(REASON_LENGTH).get());
+        sb.append(", number ").append(filteredCounter(REASON_NUMBER).get());
+        sb.append(", keyword ").append(filteredCounter(REASON_KEYWORD).get());
+        sb.append(", spam ").append(filteredCounter(REASON_SPAM).get());
+        sb.append(", rule ").append(filteredCounter(REASON_RULE).get());
+        sb.append(", duplicate ").append(filteredCounter(REASON_DUPLICATE).get()).append(")\n");
+        sb.append("Queue Depth: ").append(gauge(EMAIL_QUEUE_DEPTH).get()).append("\n");
+
+        Histogram latency = histogram(EMAIL_SEND_LATENCY);
+        if (latency.getCount() > 0) {
+            sb.append("Send Latency: p50 ").append(latency.getPercentile(50) / 1000).append("ms");
+            sb.append(", p95 ").append(latency.getPercentile(95) / 1000).append("ms");
+            sb.append(", p99 ").append(latency.getPercentile(99) / 1000).append("ms");
+            sb.append(", max ").append(latency.getMax() / 1000).append("ms\n");
+        } else {
+            sb.append("Send Latency: no data\n");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Writes a snapshot on the background thread at most once per interval
+     * An update inside the interval schedules a trailing write for when it ends, so the last
+     * changes of a burst are not left unsaved.
+     */
+    private void scheduleSnapshot() {
+        if (!snapshotPending.compareAndSet(false, true)) {
+            return;
+        }
+        long elapsed = System.currentTimeMillis() - lastSnapshotAt.get();
+        long delay = Math.max(0, SNAPSHOT_INTERVAL_MS - elapsed);
+        snapshotExecutor.schedule(() -> {
+            snapshotPending.set(false);
+            saveSnapshot();
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Persists counters and histograms immediately (e.g. when the service stops)
+     */
+    public void flush() {
+        snapshotExecutor.execute(this::saveSnapshot);
+    }
+
+    private void saveSnapshot() {
+        lastSnapshotAt.set(System.currentTimeMillis());
+        File tempFile = new File(snapshotFile.getPath() + ".tmp");
+
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            out.writeInt(SNAPSHOT_VERSION);
+
+            List<String> counterNames = getCounterNames();
+            out.writeInt(counterNames.size());
+            for (String name : counterNames) {
+                out.writeUTF(name);
+                out.writeLong(counter(name).get());
+            }
+
+            List<String> histogramNames = getHistogramNames();
+            out.writeInt(histogramNames.size());
+            for (String name : histogramNames) {
+                Histogram histogram = histogram(name);
+                out.writeUTF(name);
+                out.writeLong(histogram.getCount());
+                out.writeLong(histogram.getSum());
+                out.writeLong(histogram.getMax());
+                out.writeInt(Histogram.BUCKET_COUNT);
+                for (int i = 0; i < Histogram.BUCKET_COUNT; i++) {
+                    out.writeLong(histogram.getBucket(i));
+                }
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write metrics snapshot", e);
+            return;
+        }
+
+        if (!tempFile.renameTo(snapshotFile)) {
+            Log.w(TAG, "Failed to replace metrics snapshot");
+        }
+    }
+
+    private void loadSnapshot() {
+        if (!snapshotFile.exists()) {
+            return;
+        }
+
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(snapshotFile)))) {
+            if (in.readInt() != SNAPSHOT_VERSION) {
+                Log.w(TAG, "Ignoring metrics snapshot with unknown version");
+                return;
+            }
+
+            int counterCount = in.readInt();
+            for (int i = 0; i < counterCount; i++) {
+                String name = in.readUTF();
+                counter(name).add(in.readLong());
+            }
+
+            int histogramCount = in.readInt();
+            for (int i = 0; i < histogramCount; i++) {
+                String name = in.readUTF();
+                long count = in.readLong();
+                long sum = in.readLong();
+                long max = in.readLong();
+                long[] bucketValues = new long[in.readInt()];
+                for (int b = 0; b < bucketValues.length; b++) {
+                    bucketValues[b] = in.readLong();
+                }
+                histogram(name).restore(bucketValues, count, sum, max);
+            }
+
+            Log.d(TAG, "Restored metrics snapshot: " + counterCount + " counters, " +
+                  histogramCount + " histograms");
+
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to read metrics snapshot", e);
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package com.smsemailforwarder.app.utils;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collapses floods of near-identical SMS into one email per time window
+ * The first message of a campaign is forwarded right away; later messages whose SimHash is
+ * within the configured Hamming distance and whose one-time codes are identical are only
+ * counted. When the window closes, the listener receives the cluster so a single summary email
+ * can report the count.
+ *
+ * Candidates are found with a banded index: with d allowed differing bits the fingerprint is
+ * split into d + 1 bands, and any fingerprint within distance d shares at least one band exactly.
+ */
+public final class NearDuplicateDetector {
+
+    private static final String TAG = "NearDuplicateDetector";
+
+    // Bands of at least 8 bits keep the buckets selective
+    public static final int MAX_DISTANCE = 7;
+
+    /**
+     * Receives clusters that collected duplicates, once their window has closed
+     */
+    public interface Listener {
+        void onCollapsed(Cluster cluster);
+    }
+
+    /**
+     * First message of a campaign and the number of near-duplicates collapsed into it
+     */
+    public static final class Cluster {
+        public final String sender;
+        public final String body;
+        public final long firstTimestamp;
+        final long fingerprint;
+        final long codes;
+        final Listener listener;
+        private int duplicates;
+        private long lastTimestamp;
+
+        Cluster(String sender, String body, long timestamp, long fingerprint, long codes,
+                Listener listener) {
+            this.sender = sender;
+            this.body = body;
+            this.firstTimestamp = timestamp;
+            this.lastTimestamp = timestamp;
+            this.fingerprint = fingerprint;
+            this.codes = codes;
+            this.listener = listener;
+        }
+
+        /**
+         * Messages collapsed into this cluster, not counting the first one
+         */
+        public int getDuplicates() {
+            return duplicates;
+        }
+
+        public long getLastTimestamp() {
+            return lastTimestamp;
+        }
+    }
+
+    private static final NearDuplicateDetector instance = new NearDuplicateDetector();
+
+    private final Map<Long, List<Cluster>> buckets = new HashMap<>();
+    private final ScheduledExecutorService windowExecutor = Executors.newSingleThreadScheduledExecutor();
+    private int bands;
+    private int clusterCount;
+
+    private NearDuplicateDetector() {
+    }
+
+    public static NearDuplicateDetector getInstance() {
+        return instance;
+    }
+
+    /**
+     * Records a message that passed filtering
+     * @param windowMs How long a cluster collects duplicates after its first message
+     * @param maxDistance Largest Hamming distance treated as a duplicate (0 to MAX_DISTANCE)
+     * @param listener Notified when the window closes, if duplicates were collapsed
+     * @return true if the message starts a new cluster and should be forwarded
+     */
+    public boolean offer(String sender, String body, long timestamp, long windowMs, int maxDistance,
+                         Listener listener) {
+        long fingerprint = SimHash.fingerprint(body);
+        if (fingerprint == 0) {
+            return true;
+        }
+        long codes = SimHash.codes(body);
+
+        int distance = Math.max(0, Math.min(MAX_DISTANCE, maxDistance));
+        final Cluster cluster;
+        synchronized (this) {
+            if (bands != distance + 1) {
+                // Band layout depends on the distance; clusters already counting keep their timers
+                buckets.clear();
+                clusterCount = 0;
+                bands = distance + 1;
+            }
+
+            Cluster match = findMatch(fingerprint, codes, distance);
+            if (match != null) {
+                match.duplicates++;
+                match.lastTimestamp = Math.max(match.lastTimestamp, timestamp);
+                Log.d(TAG, "Collapsed near-duplicate into cluster from " + match.sender +
+                      " (" + match.duplicates + " so far)");
+                return false;
+            }
+
+            cluster = new Cluster(sender, body, timestamp, fingerprint, codes, listener);
+            for (int band = 0; band < bands; band++) {
+                Long key = bandKey(fingerprint, band);
+                List<Cluster> bucket = buckets.get(key);
+                if (bucket == null) {
+                    bucket = new ArrayList<>(2);
+                    buckets.put(key, bucket);
+                }
+                bucket.add(cluster);
+            }
+            clusterCount++;
+        }
+
+        windowExecutor.schedule(() -> close(cluster), windowMs, TimeUnit.MILLISECONDS);
+        return true;
+    }
+
+    /**
+     * Number of clusters currently collecting duplicates
+     */
+    public synchronized int getActiveClusters() {
+        return clusterCount;
+    }
+
+    private Cluster findMatch(long fingerprint, long codes, int distance) {
+        Cluster best = null;
+        int bestDistance = distance + 1;
+        for (int band = 0; band < bands; band++) {
+            List<Cluster> bucket = buckets.get(bandKey(fingerprint, band));
+            if (bucket == null) {
+                continue;
+            }
+            for (int i = 0; i < bucket.size(); i++) {
+                Cluster candidate = bucket.get(i);
+                if (candidate.codes != codes) {
+                    continue;
+                }
+                int candidateDistance = SimHash.distance(fingerprint, candidate.fingerprint);
+                if (candidateDistance < bestDistance) {
+                    best = candidate;
+                    bestDistance = candidateDistance;
+                }
+            }
+        }
+        return best;
+    }
+
+    private void close(Cluster cluster) {
+        synchronized (this) {
+            boolean removed = false;
+            for (int band = 0; band < bands; band++) {
+                Long key = bandKey(cluster.fingerprint, band);
+                List<Cluster> bucket = buckets.get(key);
+                if (bucket != null && bucket.remove(cluster)) {
+                    removed = true;
+                    if (bucket.isEmpty()) {
+                        buckets.remove(key);
+                    }
+                }
+            }
+            if (removed) {
+                clusterCount--;
+            }
+        }
+
+        if (cluster.duplicates > 0 && cluster.listener != null) {
+            try {
+                cluster.listener.onCollapsed(cluster);
+            } catch (Exception e) {
+                Log.e(TAG, "Error reporting collapsed messages", e);
+            }
+        }
+    }
+
+    /**
+     * Bits of one band tagged with the band number; the last band takes any leftover bits
+     */
+    private long bandKey(long fingerprint, int band) {
+        int width = 64 / bands;
+        int shift = band * width;
+        long bits = fingerprint >>> shift;
+        if (band < bands - 1) {
+            bits &= (1L << width) - 1;
+        }
+        return bits * 31 + band;
+    }
+}
@@ -39,15 +39,20 @@ public class NotificationHelper {
     
     private final Context context;
     private final NotificationManager notificationManager;
-    private final PreferencesManager preferencesManager;
     
     public NotificationHelper(Context context) {
         this.context = context;
         this.notificationManager = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
-        this.preferencesManager = new PreferencesManager(context);
         createNotificationChannels();
     }
     
+    /**
+     * Current settings; read on each use so long-lived helpers see changes
+     */
+    private ConfigSnapshot config() {
+        return ConfigSnapshot.get(context);
+    }
+    
     /**
      * Creates notification channels for Android 8.0+
      */
@@ -104,17 +109,17 @@ public class NotificationHelper {
      */
     private void configureChannelSettings(NotificationChannel channel) {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-            channel.enableLights(preferencesManager.isNotificationLed());
-            channel.enableVibration(preferencesManager.isNotificationVibrate());
+            channel.enableLights(config().isNotificationLed());
+            channel.enableVibration(config().isNotificationVibrate());
             
-            if (preferencesManager.isNotificationSound()) {
+            if (config().isNotificationSound()) {
                 Uri defaultSoundUri = RingtoneManager.getDefaultUri(RingtoneManager.TYPE_NOTIFICATION);
                 channel.setSound(defaultSoundUri, null);
             } else {
                 channel.setSound(null, null);
             }
             
-            if (preferencesManager.isNotificationLed()) {
+            if (config().isNotificationLed()) {
                 channel.setLightColor(0xFF00FF00); // Green
             }
         }
@@ -125,7 +130,7 @@ public class NotificationHelper {
      */
     private int getNotificationImportance() {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-            int priority = preferencesManager.getNotificationPriority();
+            int priority = config().getNotificationPriority();
             switch (priority) {
                 case NotificationCompat.PRIORITY_HIGH:
                     return NotificationManager.IMPORTANCE_HIGH;
@@ -164,7 +169,7 @@ public class NotificationHelper {
      * Shows notification when SMS is received and processed
      */
     public void showSmsReceivedNotification(String sender, String messagePreview) {
-        if (!preferencesManager.isNotificationEnabled()) {
+        if (!config().isNotificationEnabled()) {
             return;
         }
         
@@ -187,7 +192,7 @@ public class NotificationHelper {
                 .setSmallIcon(R.drawable.ic_notification)
                 .setContentIntent(pendingIntent)
                 .setAutoCancel(true)
-                .setPriority(preferencesManager.getNotificationPriority());
+                .setPriority(config().getNotificationPriority());
         
         // Apply notification preferences
         applyNotificationPreferences(builder);
@@ -199,7 +204,7 @@ public class NotificationHelper {
      * Shows notification when email is successfully sent
      */
     public void showEmailSentNotification(String recipient) {
-        if (!preferencesManager.isNotificationEnabled() || !preferencesManager.isShowEmailStatus()) {
+        if (!config().isNotificationEnabled() || !config().isShowEmailStatus()) {
             return;
         }
         
@@ -218,7 +223,7 @@ public class NotificationHelper {
                 .setPriority(NotificationCompat.PRIORITY_LOW);
         
         // Apply minimal notification preferences for status updates
-        if (preferencesManager.isNotificationSound()) {
+        if (config().isNotificationSound()) {
             builder.setDefaults(NotificationCompat.DEFAULT_SOUND);
         }
         
@@ -253,7 +258,7 @@ public class NotificationHelper {
      * Shows general information notification
      */
     public void showInfoNotification(String title, String message) {
-        if (!preferencesManager.isNotificationEnabled()) {
+        if (!config().isNotificationEnabled()) {
             return;
         }
         
@@ -272,7 +277,7 @@ public class NotificationHelper {
                 .setPriority(NotificationCompat.PRIORITY_LOW);
         
         // Apply minimal notification preferences for info messages
-        if (preferencesManager.isNotificationSound()) {
+        if (config().isNotificationSound()) {
             builder.setDefaults(NotificationCompat.DEFAULT_SOUND);
         }
         
@@ -283,7 +288,7 @@ public class NotificationHelper {
      * Shows notification when SMS is filtered
      */
     public void showFilteredNotification(String sender, String reason) {
-        if (!preferencesManager.isNotificationEnabled() || !preferencesManager.isDebugMode()) {
+        if (!config().isNotificationEnabled() || !config().isDebugMode()) {
             return;
         }
         
@@ -310,15 +315,15 @@ public class NotificationHelper {
     private void applyNotificationPreferences(NotificationCompat.Builder builder) {
         int defaults = 0;
         
-        if (preferencesManager.isNotificationSound()) {
+        if (config().isNotificationSound()) {
             defaults |= NotificationCompat.DEFAULT_SOUND;
         }
         
-        if (preferencesManager.isNotificationVibrate()) {
+        if (config().isNotificationVibrate()) {
             defaults |= NotificationCompat.DEFAULT_VIBRATE;
         }
         
-        if (preferencesManager.isNotificationLed()) {
+        if (config().isNotificationLed()) {
             defaults |= NotificationCompat.DEFAULT_LIGHTS;
         }
         
@@ -368,13 +373,13 @@ public class NotificationHelper {
         StringBuilder sb = new StringBuilder();
         sb.append("=== Notification Settings ===\n");
         sb.append("System Enabled: ").append(areNotificationsEnabled()).append("\n");
-        sb.append("App Enabled: ").append(preferencesManager.isNotificationEnabled()).append("\n");
-        sb.append("Sound: ").append(preferencesManager.isNotificationSound()).append("\n");
-        sb.append("Vibrate: ").append(preferencesManager.isNotificationVibrate()).append("\n");
-        sb.append("LED: ").append(preferencesManager.isNotificationLed()).append("\n");
-        sb.append("Priority: ").append(preferencesManager.getNotificationPriority()).append("\n");
-        sb.append("Show Email Status: ").append(preferencesManager.isShowEmailStatus()).append("\n");
-        sb.append("Show SMS Preview: ").append(preferencesManager.isShowSmsPreview()).append("\n");
+        sb.append("App Enabled: ").append(config().isNotificationEnabled()).append("\n");
+        sb.append("Sound: ").append(config().isNotificationSound()).append("\n");
+        sb.append("Vibrate: ").append(config().isNotificationVibrate()).append("\n");
+        sb.append("LED: ").append(config().isNotificationLed()).append("\n");
+        sb.append("Priority: ").append(config().getNotificationPriority()).append("\n");
+        sb.append("Show Email Status: ").append(config().isShowEmailStatus()).append("\n");
+        sb.append("Show SMS Preview: ").append(config().isShowSmsPreview()).append("\n");
         return sb.toString();
     }
 } 
\ No newline at end of file
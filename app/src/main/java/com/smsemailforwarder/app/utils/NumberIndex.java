@@ -0,0 +1,249 @@
+package com.smsemailforwarder.app.utils;
+
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Lookup index over a blocked or allowed number list
+ * Keeps a hash of the normalized numbers for exact matches and a trie of the reversed
+ * numbers for the partial (suffix) matches SmsFilter has always allowed, so a lookup
+ * costs O(number length) no matter how many numbers are stored.
+ * Updates are applied incrementally from the difference to the previous list.
+ * FilterSnapshot updates a {@link #copy} of the previous snapshot's index, so an index
+ * that a snapshot has published is never modified again.
+ */
+public class NumberIndex {
+
+    private static final String TAG = "NumberIndex";
+
+    private static final int NO_NODE = -1;
+    private static final int INITIAL_CAPACITY = 256;
+
+    // Raw numbers as stored in preferences, used to diff updates
+    private Set<String> rawNumbers = new HashSet<>();
+
+    // Normalized number -> how many raw numbers normalize to it
+    private final Map<String, Integer> normalizedCounts = new HashMap<>();
+
+    // Reversed trie in first-child/next-sibling form; a node is live while passCount > 0
+    private char[] label = new char[INITIAL_CAPACITY];
+    private int[] firstChild = new int[INITIAL_CAPACITY];
+    private int[] nextSibling = new int[INITIAL_CAPACITY];
+    private int[] passCount = new int[INITIAL_CAPACITY];
+    private int[] terminalCount = new int[INITIAL_CAPACITY];
+    private int nodeCount;
+    private int deadNodes;
+
+    private boolean loaded;
+
+    public NumberIndex() {
+        clearTrie();
+    }
+
+    private NumberIndex(NumberIndex source) {
+        // update() replaces rawNumbers instead of modifying it, so the set can be shared
+        rawNumbers = source.rawNumbers;
+        normalizedCounts.putAll(source.normalizedCounts);
+        label = Arrays.copyOf(source.label, source.nodeCount);
+        firstChild = Arrays.copyOf(source.firstChild, source.nodeCount);
+        nextSibling = Arrays.copyOf(source.nextSibling, source.nodeCount);
+        passCount = Arrays.copyOf(source.passCount, source.nodeCount);
+        terminalCount = Arrays.copyOf(source.terminalCount, source.nodeCount);
+        nodeCount = source.nodeCount;
+        deadNodes = source.deadNodes;
+        loaded = source.loaded;
+    }
+
+    /**
+     * Independent copy that can be updated without affecting readers of this index
+     */
+    public synchronized NumberIndex copy() {
+        return new NumberIndex(this);
+    }
+
+    /**
+     * Whether the index was last updated with exactly these raw numbers
+     */
+    public synchronized boolean isIndexOf(Set<String> numbers) {
+        return loaded && rawNumbers.equals(numbers != null ? numbers : Collections.<String>emptySet());
+    }
+
+    /**
+     * Replaces the indexed list, touching only numbers that were added or removed
+     */
+    public synchronized void update(Set<String> numbers) {
+        Set<String> newNumbers = numbers != null ? new HashSet<>(numbers) : new HashSet<String>();
+
+        int removed = 0;
+        for (String raw : rawNumbers) {
+            if (!newNumbers.contains(raw)) {
+                remove(PhoneNumberNormalizer.normalize(raw));
+                removed++;
+            }
+        }
+
+        int added = 0;
+        for (String raw : newNumbers) {
+            if (!rawNumbers.contains(raw)) {
+                add(PhoneNumberNormalizer.normalize(raw));
+                added++;
+            }
+        }
+
+        rawNumbers = newNumbers;
+        loaded = true;
+
+        // Removed branches stay allocated so they can be revived; compact once they dominate
+        if (deadNodes > INITIAL_CAPACITY && deadNodes > nodeCount / 2) {
+            rebuild();
+        }
+
+        if (added > 0 || removed > 0) {
+            Log.d(TAG, "Index updated: +" + added + " -" + removed + ", " + normalizedCounts.size() + " numbers");
+        }
+    }
+
+    /**
+     * Whether {@link #update} has been called since the process started
+     */
+    public synchronized boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * Number of distinct normalized numbers
+     */
+    public synchronized int size() {
+        return normalizedCounts.size();
+    }
+
+    /**
+     * Checks a normalized number against the list
+     * Matches exactly, or when either number ends with the other (country code missing on one side)
+     */
+    public synchronized boolean matches(String normalizedNumber) {
+        if (normalizedNumber == null || normalizedCounts.isEmpty()) {
+            return false;
+        }
+
+        if (normalizedCounts.containsKey(normalizedNumber)) {
+            return true;
+        }
+
+        // Walk the incoming number from its last digit; a terminal on the way is a stored suffix of it
+        int node = 0;
+        if (terminalCount[node] > 0) {
+            return true;
+        }
+        for (int i = normalizedNumber.length() - 1; i >= 0; i--) {
+            node = findChild(node, normalizedNumber.charAt(i));
+            if (node == NO_NODE || passCount[node] == 0) {
+                return false;
+            }
+            if (terminalCount[node] > 0) {
+                return true;
+            }
+        }
+
+        // Whole number consumed on a live path: it is a suffix of some stored number
+        return true;
+    }
+
+    private void add(String normalized) {
+        Integer count = normalizedCounts.get(normalized);
+        normalizedCounts.put(normalized, count == null ? 1 : count + 1);
+        if (count == null) {
+            insert(normalized);
+        }
+    }
+
+    private void remove(String normalized) {
+        Integer count = normalizedCounts.get(normalized);
+        if (count == null) {
+            return;
+        }
+        if (count > 1) {
+            normalizedCounts.put(normalized, count - 1);
+            return;
+        }
+        normalizedCounts.remove(normalized);
+        delete(normalized);
+    }
+
+    private void insert(String normalized) {
+        int node = 0;
+        passCount[node]++;
+        for (int i = normalized.length() - 1; i >= 0; i--) {
+            char c = normalized.charAt(i);
+            int child = findChild(node, c);
+            if (child == NO_NODE) {
+                child = newNode(c);
+                nextSibling[child] = firstChild[node];
+                firstChild[node] = child;
+            } else if (passCount[child] == 0) {
+                deadNodes--;
+            }
+            passCount[child]++;
+            node = child;
+        }
+        terminalCount[node]++;
+    }
+
+    private void delete(String normalized) {
+        int node = 0;
+        passCount[node]--;
+        for (int i = normalized.length() - 1; i >= 0; i--) {
+            node = findChild(node, normalized.charAt(i));
+            if (--passCount[node] == 0) {
+                deadNodes++;
+            }
+        }
+        terminalCount[node]--;
+    }
+
+    private int findChild(int node, char c) {
+        for (int child = firstChild[node]; child != NO_NODE; child = nextSibling[child]) {
+            if (label[child] == c) {
+                return child;
+            }
+        }
+        return NO_NODE;
+    }
+
+    private int newNode(char c) {
+        if (nodeCount == label.length) {
+            int capacity = label.length * 2;
+            label = Arrays.copyOf(label, capacity);
+            firstChild = Arrays.copyOf(firstChild, capacity);
+            nextSibling = Arrays.copyOf(nextSibling, capacity);
+            passCount = Arrays.copyOf(passCount, capacity);
+            terminalCount = Arrays.copyOf(terminalCount, capacity);
+        }
+        int node = nodeCount++;
+        label[node] = c;
+        firstChild[node] = NO_NODE;
+        nextSibling[node] = NO_NODE;
+        passCount[node] = 0;
+        terminalCount[node] = 0;
+        return node;
+    }
+
+    private void clearTrie() {
+        nodeCount = 0;
+        deadNodes = 0;
+        newNode('\0');
+    }
+
+    private void rebuild() {
+        clearTrie();
+        for (String normalized : normalizedCounts.keySet()) {
+            insert(normalized);
+        }
+    }
+}
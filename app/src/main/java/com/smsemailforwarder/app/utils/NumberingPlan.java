@@ -0,0 +1,332 @@
+package com.smsemailforwarder.app.utils;
+
+/**
+ * Number range lookup for carrier, country and number type
+ * Loads a compact bundled numbering-plan table into a digit trie once,
+ * so each lookup walks at most one node per digit and allocates nothing
+ */
+public class NumberingPlan {
+
+    private static final String UNKNOWN_DISPLAY_NAME = "Unknown/International";
+    private static final int MAX_SHORT_CODE_LENGTH = 6;
+    private static final int MIN_EMBEDDED_NUMBER_DIGITS = 6;
+    private static final String DEFAULT_COUNTRY_CODE = "385";
+
+    /**
+     * Number types distinguished by the numbering plan
+     */
+    public enum NumberType {
+        UNKNOWN, MOBILE, FIXED, PREMIUM, TOLL_FREE, SHORT_CODE
+    }
+
+    /**
+     * Immutable lookup result, shared between all numbers in the same range
+     */
+    public static final class NumberInfo {
+        public final String prefix;
+        public final String country;
+        public final String carrier;
+        public final NumberType type;
+        private final String displayName;
+
+        NumberInfo(String prefix, String country, String carrier, NumberType type) {
+            this.prefix = prefix;
+            this.country = country;
+            this.carrier = carrier;
+            this.type = type;
+
+            if (carrier != null) {
+                displayName = carrier;
+            } else if (type == NumberType.SHORT_CODE) {
+                displayName = "Short code";
+            } else if (country != null) {
+                displayName = country + " (Other carrier)";
+            } else {
+                displayName = UNKNOWN_DISPLAY_NAME;
+            }
+        }
+
+        /**
+         * Carrier name for display, falling back to country and then "Unknown/International"
+         */
+        public String getDisplayName() {
+            return displayName;
+        }
+
+        public boolean isKnown() {
+            return type != NumberType.UNKNOWN || country != null;
+        }
+
+        @Override
+        public String toString() {
+            return displayName + " [" + type + (country != null ? ", " + country : "") + "]";
+        }
+    }
+
+    public static final NumberInfo UNKNOWN = new NumberInfo(null, null, null, NumberType.UNKNOWN);
+    public static final NumberInfo SHORT_CODE = new NumberInfo(null, null, null, NumberType.SHORT_CODE);
+
+    // Bundled numbering plan: E.164 prefix;country;carrier;type (empty carrier = not carrier specific)
+    private static final String[] PLAN_TABLE = {
+        // Croatia
+        "385;Croatia;;UNKNOWN",
+        "3851;Croatia;;FIXED",
+        "38520;Croatia;;FIXED", "38521;Croatia;;FIXED", "38522;Croatia;;FIXED", "38523;Croatia;;FIXED",
+        "38531;Croatia;;FIXED", "38532;Croatia;;FIXED", "38533;Croatia;;FIXED", "38534;Croatia;;FIXED",
+        "38535;Croatia;;FIXED", "38540;Croatia;;FIXED", "38542;Croatia;;FIXED", "38543;Croatia;;FIXED",
+        "38544;Croatia;;FIXED", "38547;Croatia;;FIXED", "38548;Croatia;;FIXED", "38549;Croatia;;FIXED",
+        "38551;Croatia;;FIXED", "38552;Croatia;;FIXED", "38553;Croatia;;FIXED",
+        "38560;Croatia;;PREMIUM", "38561;Croatia;;PREMIUM", "38564;Croatia;;PREMIUM",
+        "38565;Croatia;;PREMIUM", "38569;Croatia;;PREMIUM",
+        "385800;Croatia;;TOLL_FREE",
+        "38591;Croatia;A1 Croatia;MOBILE",
+        "38592;Croatia;A1 Croatia;MOBILE",
+        "38595;Croatia;Tele2 Croatia;MOBILE",
+        "38597;Croatia;Hrvatski Telekom (HT);MOBILE",
+        "38598;Croatia;Hrvatski Telekom (HT);MOBILE",
+        "38599;Croatia;Hrvatski Telekom (HT);MOBILE",
+
+        // Slovenia
+        "386;Slovenia;;UNKNOWN",
+        "38630;Slovenia;A1 Slovenija;MOBILE", "38640;Slovenia;A1 Slovenija;MOBILE",
+        "38631;Slovenia;Telekom Slovenije;MOBILE", "38641;Slovenia;Telekom Slovenije;MOBILE",
+        "38651;Slovenia;Telekom Slovenije;MOBILE", "38664;Slovenia;T-2;MOBILE",
+        "38670;Slovenia;Telemach;MOBILE", "38668;Slovenia;Telemach;MOBILE",
+        "386090;Slovenia;;PREMIUM", "386080;Slovenia;;TOLL_FREE",
+
+        // Bosnia and Herzegovina
+        "387;Bosnia and Herzegovina;;UNKNOWN",
+        "38761;Bosnia and Herzegovina;BH Telecom;MOBILE", "38762;Bosnia and Herzegovina;BH Telecom;MOBILE",
+        "38763;Bosnia and Herzegovina;HT Eronet;MOBILE",
+        "38765;Bosnia and Herzegovina;m:tel;MOBILE", "38766;Bosnia and Herzegovina;m:tel;MOBILE",
+
+        // Serbia
+        "381;Serbia;;UNKNOWN",
+        "38160;Serbia;A1 Srbija;MOBILE", "38161;Serbia;A1 Srbija;MOBILE",
+        "38162;Serbia;Yettel;MOBILE", "38163;Serbia;Yettel;MOBILE", "38169;Serbia;Yettel;MOBILE",
+        "38164;Serbia;mts;MOBILE", "38165;Serbia;mts;MOBILE", "38166;Serbia;mts;MOBILE",
+        "38190;Serbia;;PREMIUM",
+
+        // Montenegro
+        "382;Montenegro;;UNKNOWN",
+        "38267;Montenegro;Crnogorski Telekom;MOBILE", "38268;Montenegro;m:tel;MOBILE",
+        "38269;Montenegro;One;MOBILE",
+
+        // Hungary
+        "36;Hungary;;UNKNOWN",
+        "3620;Hungary;Yettel;MOBILE", "3630;Hungary;Magyar Telekom;MOBILE", "3670;Hungary;One;MOBILE",
+        "3690;Hungary;;PREMIUM",
+
+        // Austria
+        "43;Austria;;UNKNOWN",
+        "43650;Austria;Magenta Telekom;MOBILE", "43676;Austria;Magenta Telekom;MOBILE",
+        "43660;Austria;Drei;MOBILE", "43699;Austria;Drei;MOBILE",
+        "43664;Austria;A1 Telekom Austria;MOBILE",
+        "43900;Austria;;PREMIUM", "43930;Austria;;PREMIUM", "43800;Austria;;TOLL_FREE",
+
+        // Germany
+        "49;Germany;;UNKNOWN",
+        "49151;Germany;Telekom Deutschland;MOBILE", "49160;Germany;Telekom Deutschland;MOBILE",
+        "49170;Germany;Telekom Deutschland;MOBILE", "49171;Germany;Telekom Deutschland;MOBILE",
+        "49152;Germany;Vodafone;MOBILE", "49162;Germany;Vodafone;MOBILE",
+        "49172;Germany;Vodafone;MOBILE", "49173;Germany;Vodafone;MOBILE", "49174;Germany;Vodafone;MOBILE",
+        "49157;Germany;O2 Telefonica;MOBILE", "49159;Germany;O2 Telefonica;MOBILE", "49176;Germany;O2 Telefonica;MOBILE",
+        "49177;Germany;O2 Telefonica;MOBILE", "49178;Germany;O2 Telefonica;MOBILE", "49179;Germany;O2 Telefonica;MOBILE",
+        "49900;Germany;;PREMIUM", "49800;Germany;;TOLL_FREE",
+
+        // Italy
+        "39;Italy;;UNKNOWN",
+        "393;Italy;;MOBILE", "39899;Italy;;PREMIUM", "39800;Italy;;TOLL_FREE",
+
+        // United Kingdom
+        "44;United Kingdom;;UNKNOWN",
+        "447;United Kingdom;;MOBILE", "4490;United Kingdom;;PREMIUM", "4491;United Kingdom;;PREMIUM",
+        "4498;United Kingdom;;PREMIUM", "44800;United Kingdom;;TOLL_FREE", "44808;United Kingdom;;TOLL_FREE"
+    };
+
+    // Trie storage: 10 child slots per node (0 = no child, root is never a child)
+    private static int[] children;
+    private static NumberInfo[] infos;
+    private static int nodeCount;
+    private static final int ROOT = 0;
+    private static final int DEFAULT_COUNTRY_NODE;
+
+    static {
+        children = new int[64 * 10];
+        infos = new NumberInfo[64];
+        nodeCount = 1;
+
+        for (String row : PLAN_TABLE) {
+            String[] fields = row.split(";", -1);
+            String carrier = fields[2].isEmpty() ? null : fields[2];
+            insert(fields[0], new NumberInfo(fields[0], fields[1], carrier, NumberType.valueOf(fields[3])));
+        }
+
+        int node = ROOT;
+        for (int i = 0; i < DEFAULT_COUNTRY_CODE.length() && node >= 0; i++) {
+            node = child(node, DEFAULT_COUNTRY_CODE.charAt(i));
+        }
+        DEFAULT_COUNTRY_NODE = node;
+    }
+
+    private NumberingPlan() {
+    }
+
+    /**
+     * Looks up a normalized number (see {@link PhoneNumberNormalizer#normalize})
+     * @return Info for the longest matching range, {@link #SHORT_CODE} for short
+     *         digit-only senders, or {@link #UNKNOWN}
+     */
+    public static NumberInfo lookup(String normalizedNumber) {
+        if (normalizedNumber == null || normalizedNumber.isEmpty()) {
+            return UNKNOWN;
+        }
+
+        if (!PhoneNumberNormalizer.isE164(normalizedNumber)) {
+            return isShortCode(normalizedNumber) ? SHORT_CODE : UNKNOWN;
+        }
+
+        NumberInfo best = UNKNOWN;
+        int node = ROOT;
+        for (int i = 1; i < normalizedNumber.length(); i++) {
+            node = child(node, normalizedNumber.charAt(i));
+            if (node < 0) {
+                break;
+            }
+            if (infos[node] != null) {
+                best = infos[node];
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Finds the first phone number of the given type written inside free text
+     * Understands +385..., 00385... and national 0xx... notation, with single
+     * spaces, dashes, dots or slashes between digit groups
+     * @return Info of the matched range, or null if no such number is present
+     */
+    public static NumberInfo findEmbeddedNumber(CharSequence text, NumberType type) {
+        if (text == null) {
+            return null;
+        }
+
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            char c = text.charAt(i);
+            boolean atBoundary = i == 0 || !Character.isLetterOrDigit(text.charAt(i - 1));
+            if (!atBoundary || (c != '+' && c != '0')) {
+                i++;
+                continue;
+            }
+
+            // Work out where the significant digits start and which node to walk from
+            int start;
+            int node;
+            if (c == '+') {
+                start = i + 1;
+                node = ROOT;
+            } else if (i + 1 < length && text.charAt(i + 1) == '0') {
+                start = i + 2;
+                node = ROOT;
+            } else {
+                start = i + 1;
+                node = DEFAULT_COUNTRY_NODE;
+            }
+
+            NumberInfo best = node > ROOT ? infos[node] : null;
+            int digits = 0;
+            int j = start;
+            while (j < length) {
+                char d = text.charAt(j);
+                if (d >= '0' && d <= '9') {
+                    digits++;
+                    if (node >= 0) {
+                        node = child(node, d);
+                        if (node >= 0 && infos[node] != null) {
+                            best = infos[node];
+                        }
+                    }
+                    j++;
+                } else if (isGroupSeparator(d) && j + 1 < length && isDigit(text.charAt(j + 1)) && digits > 0) {
+                    j++;
+                } else {
+                    break;
+                }
+            }
+
+            boolean endsAtBoundary = j >= length || !Character.isLetterOrDigit(text.charAt(j));
+            if (endsAtBoundary && digits >= MIN_EMBEDDED_NUMBER_DIGITS && best != null && best.type == type) {
+                return best;
+            }
+            i = Math.max(j, i + 1);
+        }
+        return null;
+    }
+
+    /**
+     * Number of ranges in the bundled table (for diagnostics)
+     */
+    public static int getRangeCount() {
+        return PLAN_TABLE.length;
+    }
+
+    private static boolean isShortCode(String number) {
+        int length = number.length();
+        if (length > MAX_SHORT_CODE_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (!isDigit(number.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isGroupSeparator(char c) {
+        return c == ' ' || c == '-' || c == '.' || c == '/';
+    }
+
+    /**
+     * Returns the child node for a digit, or -1 if there is none
+     */
+    private static int child(int node, char digit) {
+        if (digit < '0' || digit > '9') {
+            return -1;
+        }
+        int next = children[node * 10 + (digit - '0')];
+        return next == 0 ? -1 : next;
+    }
+
+    private static void insert(String prefix, NumberInfo info) {
+        int node = ROOT;
+        for (int i = 0; i < prefix.length(); i++) {
+            int slot = node * 10 + (prefix.charAt(i) - '0');
+            if (children[slot] == 0) {
+                ensureCapacity(nodeCount + 1);
+                children[slot] = nodeCount++;
+            }
+            node = children[slot];
+        }
+        infos[node] = info;
+    }
+
+    private static void ensureCapacity(int nodes) {
+        if (nodes <= infos.length) {
+            return;
+        }
+        int capacity = infos.length * 2;
+        int[] newChildren = new int[capacity * 10];
+        System.arraycopy(children, 0, newChildren, 0, children.length);
+        NumberInfo[] newInfos = new NumberInfo[capacity];
+        System.arraycopy(infos, 0, newInfos, 0, infos.length);
+        children = newChildren;
+        infos = newInfos;
+    }
+}
@@ -0,0 +1,169 @@
+package com.smsemailforwarder.app.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Single normalizer for sender phone numbers
+ * Produces a canonical E.164 form (+385911234567) using a hand-written scanner
+ * instead of regex replacement, with a small LRU cache for repeat senders
+ */
+public class PhoneNumberNormalizer {
+
+    // Croatian numbering defaults
+    private static final String DEFAULT_COUNTRY_CODE = "385";
+    private static final char TRUNK_PREFIX = '0';
+    private static final int MIN_NATIONAL_LENGTH = 8;
+    private static final int MAX_LOCAL_LENGTH = 9;
+
+    // Cache configuration
+    private static final int CACHE_SIZE = 128;
+
+    private static final Map<String, String> cache =
+        new LinkedHashMap<String, String>(CACHE_SIZE, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > CACHE_SIZE;
+            }
+        };
+
+    private PhoneNumberNormalizer() {
+    }
+
+    /**
+     * Normalizes a phone number to canonical E.164 form
+     * Croatian national (09x...) and local numbers get the +385 prefix,
+     * 00-prefixed international numbers are rewritten to +.
+     * Short codes are reduced to their digits and alphanumeric sender IDs
+     * (e.g. "HT", "A1 Info") are returned unchanged.
+     * @param phoneNumber Raw number as received or entered by the user
+     * @return Canonical number, or null if the input was null
+     */
+    public static String normalize(String phoneNumber) {
+        if (phoneNumber == null) {
+            return null;
+        }
+
+        synchronized (cache) {
+            String cached = cache.get(phoneNumber);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        String normalized = parse(phoneNumber);
+
+        synchronized (cache) {
+            cache.put(phoneNumber, normalized);
+        }
+        return normalized;
+    }
+
+    /**
+     * Normalizes without touching the LRU cache, for bulk imports of one-off numbers
+     */
+    public static String normalizeUncached(String phoneNumber) {
+        return phoneNumber != null ? parse(phoneNumber) : null;
+    }
+
+    /**
+     * Checks if a normalized number is in E.164 form (leading + followed by digits)
+     */
+    public static boolean isE164(String normalized) {
+        return normalized != null && normalized.length() > 1 && normalized.charAt(0) == '+';
+    }
+
+    /**
+     * Clears the normalization cache (for diagnostics)
+     */
+    public static void clearCache() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Scans the input once, collecting digits and rejecting alphanumeric sender IDs
+     */
+    private static String parse(String phoneNumber) {
+        int length = phoneNumber.length();
+        char[] digits = new char[length];
+        int count = 0;
+        boolean leadingPlus = false;
+
+        for (int i = 0; i < length; i++) {
+            char c = phoneNumber.charAt(i);
+            if (c >= '0' && c <= '9') {
+                digits[count++] = c;
+            } else if (c == '+') {
+                if (count == 0) {
+                    leadingPlus = true;
+                }
+            } else if (Character.isLetter(c)) {
+                // Alphanumeric sender ID - nothing to normalize
+                return phoneNumber.trim();
+            }
+            // Separators (space, dash, dot, slash, brackets) are skipped
+        }
+
+        if (count == 0) {
+            return phoneNumber.trim();
+        }
+
+        // International format: +xxxxxxxx
+        if (leadingPlus) {
+            return toE164(digits, 0, count);
+        }
+
+        // International with 00 prefix: 00xxxxxxxx -> +xxxxxxxx
+        if (count > 4 && digits[0] == '0' && digits[1] == '0') {
+            return toE164(digits, 2, count - 2);
+        }
+
+        // International without +: 385xxxxxxxxx
+        if (startsWithCountryCode(digits, count)) {
+            return toE164(digits, 0, count);
+        }
+
+        // National format: 0xxxxxxxxx -> +385xxxxxxxxx
+        if (digits[0] == TRUNK_PREFIX && count >= MIN_NATIONAL_LENGTH) {
+            return withDefaultCountry(digits, 1, count - 1);
+        }
+
+        // Local format without leading 0: xxxxxxxxx -> +385xxxxxxxxx
+        if (digits[0] != TRUNK_PREFIX && count >= MIN_NATIONAL_LENGTH && count <= MAX_LOCAL_LENGTH) {
+            return withDefaultCountry(digits, 0, count);
+        }
+
+        // Short code or special number - keep the digits only
+        return new String(digits, 0, count);
+    }
+
+    private static boolean startsWithCountryCode(char[] digits, int count) {
+        if (count < DEFAULT_COUNTRY_CODE.length()) {
+            return false;
+        }
+        for (int i = 0; i < DEFAULT_COUNTRY_CODE.length(); i++) {
+            if (digits[i] != DEFAULT_COUNTRY_CODE.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String toE164(char[] digits, int offset, int count) {
+        char[] out = new char[count + 1];
+        out[0] = '+';
+        System.arraycopy(digits, offset, out, 1, count);
+        return new String(out);
+    }
+
+    private static String withDefaultCountry(char[] digits, int offset, int count) {
+        int prefixLength = DEFAULT_COUNTRY_CODE.length() + 1;
+        char[] out = new char[prefixLength + count];
+        out[0] = '+';
+        DEFAULT_COUNTRY_CODE.getChars(0, DEFAULT_COUNTRY_CODE.length(), out, 1);
+        System.arraycopy(digits, offset, out, prefixLength, count);
+        return new String(out);
+    }
+}
@@ -0,0 +1,315 @@
+package com.smsemailforwarder.app.utils;
+
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Lightweight end-to-end latency tracing for the SMS-to-email pipeline
+ * Each SMS gets a trace id that travels from SmsReceiver to EmailService in the intent.
+ * The last traces are kept in a fixed-size ring buffer of preallocated slots.
+ */
+public class PipelineTracer {
+
+    private static final String TAG = "PipelineTracer";
+
+    public static final long NO_TRACE = -1;
+    public static final String EXTRA_TRACE_ID = "trace_id";
+
+    // Outcomes
+    public static final String OUTCOME_FORWARDED = "forwarded";
+    public static final String OUTCOME_FILTERED = "filtered";
+    public static final String OUTCOME_COLLAPSED = "collapsed";
+    public static final String OUTCOME_FAILED = "failed";
+    public static final String OUTCOME_DROPPED = "dropped";
+
+    private static final int RING_SIZE = 128;
+
+    // Ids start from the wall clock so traces exported or queued by an earlier process
+    // never share an id with this one (room for 1024 traces per millisecond of uptime)
+    private static final int ID_SEED_SHIFT = 10;
+
+    /**
+     * Pipeline stages in the order they are reached
+     */
+    public enum Stage {
+        RECEIVED("Broadcast received"),
+        PDU_DECODED("PDU decode"),
+        FILTERED("Filtering"),
+        DEQUEUED("EmailService dequeue"),
+        FORMATTED("Formatting"),
+        CONNECTED("SMTP connect"),
+        TLS("TLS handshake"),
+        AUTHENTICATED("SMTP auth"),
+        DATA_SENT("DATA"),
+        ACCEPTED("250 OK");
+
+        public final String label;
+
+        Stage(String label) {
+            this.label = label;
+        }
+    }
+
+    private static final Stage[] STAGES = Stage.values();
+
+    /**
+     * One ring buffer slot, reused for every RING_SIZE-th trace
+     */
+    private static final class Trace {
+        long id = NO_TRACE;
+        long startedAt;
+        final long[] marks = new long[STAGES.length];
+        String outcome;
+
+        void reset(long newId) {
+            id = newId;
+            startedAt = System.currentTimeMillis();
+            Arrays.fill(marks, 0L);
+            outcome = null;
+        }
+
+        /**
+         * Duration of a stage: time since the closest earlier stage that was reached
+         */
+        long stageNanos(int stage) {
+            if (marks[stage] == 0L) {
+                return -1;
+            }
+            for (int previous = stage - 1; previous >= 0; previous--) {
+                if (marks[previous] != 0L) {
+                    return marks[stage] - marks[previous];
+                }
+            }
+            return 0;
+        }
+    }
+
+    private static final Trace[] ring = new Trace[RING_SIZE];
+    private static long nextId = System.currentTimeMillis() << ID_SEED_SHIFT;
+
+    // Trace handled by the current EmailService worker thread
+    private static final ThreadLocal<Long> currentTrace = new ThreadLocal<>();
+
+    static {
+        for (int i = 0; i < RING_SIZE; i++) {
+            ring[i] = new Trace();
+        }
+    }
+
+    private PipelineTracer() {
+    }
+
+    /**
+     * Starts a new trace and marks the RECEIVED stage
+     * @return Trace id to pass along with the SMS
+     */
+    public static long begin() {
+        long now = System.nanoTime();
+        synchronized (ring) {
+            long id = nextId++;
+            Trace trace = ring[(int) (id % RING_SIZE)];
+            trace.reset(id);
+            trace.marks[Stage.RECEIVED.ordinal()] = now;
+            return id;
+        }
+    }
+
+    /**
+     * Records that a stage was reached; ignored if the trace was already overwritten
+     */
+    public static void mark(long traceId, Stage stage) {
+        if (traceId == NO_TRACE) {
+            return;
+        }
+        long now = System.nanoTime();
+        synchronized (ring) {
+            Trace trace = slot(traceId);
+            if (trace != null) {
+                trace.marks[stage.ordinal()] = now;
+            }
+        }
+    }
+
+    /**
+     * Completes a trace with the given outcome
+     */
+    public static void finish(long traceId, String outcome) {
+        if (traceId == NO_TRACE) {
+            return;
+        }
+        synchronized (ring) {
+            Trace trace = slot(traceId);
+            if (trace != null && trace.outcome == null) {
+                trace.outcome = outcome;
+            }
+        }
+    }
+
+    /**
+     * Binds a trace to the calling thread so deeper layers (SMTP transport) can mark it
+     */
+    public static void attach(long traceId) {
+        if (traceId == NO_TRACE) {
+            currentTrace.remove();
+        } else {
+            currentTrace.set(traceId);
+        }
+    }
+
+    public static void detach() {
+        currentTrace.remove();
+    }
+
+    public static long current() {
+        Long traceId = currentTrace.get();
+        return traceId != null ? traceId : NO_TRACE;
+    }
+
+    public static void markCurrent(Stage stage) {
+        mark(current(), stage);
+    }
+
+    /**
+     * Per-stage latency percentiles over the completed traces in the ring buffer
+     */
+    public static class StageStats {
+        public final Stage stage;
+        public final int samples;
+        public final long p50Nanos;
+        public final long p95Nanos;
+        public final long p99Nanos;
+
+        StageStats(Stage stage, long[] sortedNanos, int samples) {
+            this.stage = stage;
+            this.samples = samples;
+            this.p50Nanos = percentile(sortedNanos, samples, 50);
+            this.p95Nanos = percentile(sortedNanos, samples, 95);
+            this.p99Nanos = percentile(sortedNanos, samples, 99);
+        }
+    }
+
+    /**
+     * Computes p50/p95/p99 for every stage
+     */
+    public static StageStats[] getStageStats() {
+        long[][] durations = new long[STAGES.length][RING_SIZE];
+        int[] counts = new int[STAGES.length];
+
+        synchronized (ring) {
+            for (Trace trace : ring) {
+                if (trace.id == NO_TRACE || trace.outcome == null) {
+                    continue;
+                }
+                for (int stage = 1; stage < STAGES.length; stage++) {
+                    long nanos = trace.stageNanos(stage);
+                    if (nanos >= 0) {
+                        durations[stage][counts[stage]++] = nanos;
+                    }
+                }
+            }
+        }
+
+        StageStats[] stats = new StageStats[STAGES.length - 1];
+        for (int stage = 1; stage < STAGES.length; stage++) {
+            Arrays.sort(durations[stage], 0, counts[stage]);
+            stats[stage - 1] = new StageStats(STAGES[stage], durations[stage], counts[stage]);
+        }
+        return stats;
+    }
+
+    /**
+     * Gets a human readable latency table for display
+     */
+    public static String getLatencySummary() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("=== Pipeline Latency (last ").append(RING_SIZE).append(" SMS) ===\n");
+        sb.append("Stage: p50 / p95 / p99 (samples)\n\n");
+
+        for (StageStats stats : getStageStats()) {
+            sb.append(stats.stage.label).append(": ");
+            if (stats.samples == 0) {
+                sb.append("no data\n");
+                continue;
+            }
+            sb.append(formatMillis(stats.p50Nanos)).append(" / ")
+              .append(formatMillis(stats.p95Nanos)).append(" / ")
+              .append(formatMillis(stats.p99Nanos))
+              .append(" (").append(stats.samples).append(")\n");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Exports the buffered traces and stage percentiles as JSON
+     */
+    public static String exportToJson() {
+        try {
+            JSONObject json = new JSONObject();
+            JSONArray traces = new JSONArray();
+
+            synchronized (ring) {
+                for (Trace trace : ring) {
+                    if (trace.id == NO_TRACE) {
+                        continue;
+                    }
+                    JSONObject item = new JSONObject();
+                    item.put("id", trace.id);
+                    item.put("started_at", trace.startedAt);
+                    item.put("outcome", trace.outcome != null ? trace.outcome : "in_progress");
+
+                    JSONObject stages = new JSONObject();
+                    for (int stage = 1; stage < STAGES.length; stage++) {
+                        long nanos = trace.stageNanos(stage);
+                        if (nanos >= 0) {
+                            stages.put(STAGES[stage].name().toLowerCase(Locale.ROOT), nanos / 1000L);
+                        }
+                    }
+                    item.put("stages_us", stages);
+                    traces.put(item);
+                }
+            }
+
+            JSONObject percentiles = new JSONObject();
+            for (StageStats stats : getStageStats()) {
+                JSONObject item = new JSONObject();
+                item.put("samples", stats.samples);
+                item.put("p50_us", stats.p50Nanos / 1000L);
+                item.put("p95_us", stats.p95Nanos / 1000L);
+                item.put("p99_us", stats.p99Nanos / 1000L);
+                percentiles.put(stats.stage.name().toLowerCase(Locale.ROOT), item);
+            }
+
+            json.put("percentiles", percentiles);
+            json.put("traces", traces);
+            return json.toString(2);
+
+        } catch (JSONException e) {
+            Log.e(TAG, "Error exporting traces to JSON", e);
+            return null;
+        }
+    }
+
+    private static Trace slot(long traceId) {
+        Trace trace = ring[(int) (traceId % RING_SIZE)];
+        return trace.id == traceId ? trace : null;
+    }
+
+    private static long percentile(long[] sorted, int count, int percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(percentile / 100.0 * count);
+        return sorted[Math.max(0, Math.min(count - 1, rank - 1))];
+    }
+
+    private static String formatMillis(long nanos) {
+        long tenths = nanos / 100_000L;
+        return (tenths / 10) + "." + (tenths % 10) + " ms";
+    }
+}
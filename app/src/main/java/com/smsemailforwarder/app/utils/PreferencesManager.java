@@ -3,12 +3,23 @@ package com.smsemailforwarder.app.utils;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.text.TextUtils;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.JsonWriter;
 import android.util.Log;
-import org.json.JSONObject;
-import org.json.JSONException;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Set;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Arrays;
+import java.util.Map;
 
 /**
  * Enhanced utility class for managing app preferences and settings
@@ -42,6 +53,8 @@ public class PreferencesManager {
     private static final String KEY_INCLUDE_MESSAGE_COUNT = "include_message_count";
     private static final String KEY_DATE_FORMAT = "date_format";
     private static final String KEY_TIME_FORMAT = "time_format";
+    private static final String KEY_EMAIL_TEXT_TEMPLATE = "email_text_template";
+    private static final String KEY_EMAIL_HTML_TEMPLATE = "email_html_template";
     
     // SMS Filtering Keys
     private static final String KEY_FILTER_ENABLED = "filter_enabled";
@@ -52,6 +65,14 @@ public class PreferencesManager {
     private static final String KEY_FILTER_SPAM = "filter_spam";
     private static final String KEY_MIN_MESSAGE_LENGTH = "min_message_length";
     private static final String KEY_MAX_MESSAGE_LENGTH = "max_message_length";
+    private static final String KEY_BLOCKLIST_FEED_FPR = "blocklist_feed_fpr";
+    private static final String KEY_BLOCKLIST_FEED_CONFIRM = "blocklist_feed_confirm";
+    private static final String KEY_FILTER_RULES = "filter_rules";
+    private static final String KEY_SPAM_CLASSIFIER_ENABLED = "spam_classifier_enabled";
+    private static final String KEY_SPAM_CLASSIFIER_THRESHOLD = "spam_classifier_threshold";
+    private static final String KEY_DUPLICATE_COLLAPSE_ENABLED = "duplicate_collapse_enabled";
+    private static final String KEY_DUPLICATE_WINDOW_MINUTES = "duplicate_window_minutes";
+    private static final String KEY_DUPLICATE_MAX_DISTANCE = "duplicate_max_distance";
     
     // Notification Settings Keys
     private static final String KEY_NOTIFICATION_ENABLED = "notification_enabled";
@@ -70,6 +91,22 @@ public class PreferencesManager {
     private static final String KEY_BATTERY_OPTIMIZATION_WARNED = "battery_optimization_warned";
     private static final String KEY_FIRST_RUN = "first_run";
     private static final String KEY_APP_VERSION = "app_version";
+    private static final String KEY_LAST_SMS_TIMESTAMP = "last_sms_timestamp";
+    private static final String KEY_FORWARDED_COUNT = "forwarded_count";
+    private static final String KEY_METRICS_EXPORT_ENABLED = "metrics_export_enabled";
+    private static final String KEY_METRICS_EXPORT_PORT = "metrics_export_port";
+    private static final String KEY_METRICS_EXPORT_LAN = "metrics_export_lan";
+    private static final String KEY_BACKLOG_ATTACHMENT_THRESHOLD_KB = "backlog_attachment_threshold_kb";
+    private static final String KEY_BACKLOG_ATTACHMENT_FORMAT = "backlog_attachment_format";
+    private static final String KEY_VAULT_KEY_VERSION = "vault_key_version";
+    private static final String KEY_VAULT_KEY_CREATED = "vault_key_created";
+    private static final String KEY_VAULT_PREFIX = "vault_";
+    
+    // Exported settings files
+    private static final String KEY_SCHEMA_VERSION = "schema_version";
+    private static final String KEY_LIST_REFS = "list_refs";
+    // 2: adds schema_version and the blocked/allowed number and keyword lists
+    public static final int SETTINGS_SCHEMA_VERSION = 2;
     
     // Default Values
     private static final String DEFAULT_SUBJECT_FORMAT = "SMS from %s - %s";
@@ -82,16 +119,105 @@ public class PreferencesManager {
     private static final int DEFAULT_CONNECTION_TIMEOUT = 30000; // 30 seconds
     private static final int DEFAULT_MIN_MESSAGE_LENGTH = 1;
     private static final int DEFAULT_MAX_MESSAGE_LENGTH = 1000;
+    private static final int DEFAULT_METRICS_EXPORT_PORT = 9464;
+    private static final int DEFAULT_DUPLICATE_WINDOW_MINUTES = 10;
+    private static final int DEFAULT_DUPLICATE_MAX_DISTANCE = 4;
+    private static final int DEFAULT_BACKLOG_ATTACHMENT_THRESHOLD_KB = 256;
     
     // Filter modes
     public enum FilterMode {
         NONE, BLACKLIST, WHITELIST
     }
     
-    private final SharedPreferences preferences;
+    // Attachment formats for a compressed backlog digest
+    public enum BacklogFormat {
+        CSV_GZIP, JSONL_GZIP, CSV_ZIP, JSONL_ZIP
+    }
+    
+    private final Context context;
+    private final BinaryPreferences preferences;
     
     public PreferencesManager(Context context) {
-        preferences = context.getSharedPreferences(PREF_NAME, Context.MODE_PRIVATE);
+        this.context = context.getApplicationContext();
+        // Binary store shared by all instances; migrates the old XML file on first use
+        preferences = BinaryPreferences.get(context, PREF_NAME);
+    }
+    
+    /**
+     * Writes settings changed with apply() to disk now (e.g. when a service stops)
+     */
+    public void flush() {
+        preferences.flush();
+    }
+    
+    /**
+     * Registers a change listener; the caller must keep a strong reference to it
+     */
+    public void registerOnChangeListener(SharedPreferences.OnSharedPreferenceChangeListener listener) {
+        preferences.registerOnSharedPreferenceChangeListener(listener);
+    }
+    
+    public void unregisterOnChangeListener(SharedPreferences.OnSharedPreferenceChangeListener listener) {
+        preferences.unregisterOnSharedPreferenceChangeListener(listener);
+    }
+    
+    /**
+     * Whether a preference key holds app state rather than a setting (e.g. the last SMS time)
+     */
+    public static boolean isRuntimeStateKey(String key) {
+        switch (key) {
+            case KEY_LAST_SMS_TIMESTAMP:
+            case KEY_FORWARDED_COUNT:
+            case KEY_FIRST_RUN:
+            case KEY_BATTERY_OPTIMIZATION_WARNED:
+            case KEY_APP_VERSION:
+                return true;
+            default:
+                return false;
+        }
+    }
+    
+    /**
+     * Whether a preference key affects SMS filtering
+     */
+    public static boolean isFilterKey(String key) {
+        switch (key) {
+            case KEY_FILTER_ENABLED:
+            case KEY_FILTER_MODE:
+            case KEY_BLOCKED_NUMBERS:
+            case KEY_ALLOWED_NUMBERS:
+            case KEY_FILTER_KEYWORDS:
+            case KEY_FILTER_SPAM:
+            case KEY_MIN_MESSAGE_LENGTH:
+            case KEY_MAX_MESSAGE_LENGTH:
+            case KEY_BLOCKLIST_FEED_CONFIRM:
+            case KEY_FILTER_RULES:
+            case KEY_SPAM_CLASSIFIER_ENABLED:
+            case KEY_SPAM_CLASSIFIER_THRESHOLD:
+                return true;
+            default:
+                return false;
+        }
+    }
+    
+    /**
+     * Whether a preference key affects the email subject or body templates
+     */
+    public static boolean isTemplateKey(String key) {
+        switch (key) {
+            case KEY_INCLUDE_TIMESTAMP:
+            case KEY_INCLUDE_SENDER:
+            case KEY_EMAIL_SUBJECT_FORMAT:
+            case KEY_INCLUDE_CARRIER_INFO:
+            case KEY_INCLUDE_MESSAGE_COUNT:
+            case KEY_DATE_FORMAT:
+            case KEY_TIME_FORMAT:
+            case KEY_EMAIL_TEXT_TEMPLATE:
+            case KEY_EMAIL_HTML_TEMPLATE:
+                return true;
+            default:
+                return false;
+        }
     }
     
     // Email Configuration Methods
@@ -102,13 +228,13 @@ public class PreferencesManager {
         editor.putString(KEY_SMTP_SERVER, smtpServer);
         editor.putInt(KEY_SMTP_PORT, smtpPort);
         editor.putString(KEY_EMAIL_USERNAME, username);
-        editor.putString(KEY_EMAIL_PASSWORD, password);
         editor.putString(KEY_FROM_EMAIL, fromEmail);
         editor.putString(KEY_TO_EMAIL, toEmail);
         editor.putBoolean(KEY_USE_TLS, useTls);
         editor.putBoolean(KEY_USE_SSL, useSsl);
         editor.putBoolean(KEY_EMAIL_CONFIGURED, true);
         editor.apply();
+        setEmailPassword(password);
     }
     
     public boolean isEmailConfigured() {
@@ -130,8 +256,62 @@ public class PreferencesManager {
         return preferences.getString(KEY_EMAIL_USERNAME, "");
     }
     
+    /**
+     * Decrypted from the credential vault on first use, then cached for the process
+     */
     public String getEmailPassword() {
-        return preferences.getString(KEY_EMAIL_PASSWORD, "");
+        return CredentialVault.getInstance(context).getSecret(CredentialVault.EMAIL_PASSWORD);
+    }
+    
+    public void setEmailPassword(String password) {
+        if (!CredentialVault.getInstance(context).putSecret(CredentialVault.EMAIL_PASSWORD, password)) {
+            Log.e(TAG, "Email password could not be saved");
+        }
+    }
+
+    // Encrypted secrets, only read and written by CredentialVault
+    String getEncryptedSecret(String name) {
+        return preferences.getString(KEY_VAULT_PREFIX + name, null);
+    }
+    
+    int getVaultKeyVersion() {
+        return preferences.getInt(KEY_VAULT_KEY_VERSION, 0);
+    }
+    
+    /**
+     * When the current vault key version was first saved, or 0 if not recorded
+     */
+    long getVaultKeyCreated() {
+        return preferences.getLong(KEY_VAULT_KEY_CREATED, 0);
+    }
+    
+    /**
+     * Stores ciphertexts (null removes one) and the key version they use in one commit
+     * Any plaintext password left by older versions is removed in the same commit, and a new
+     * key version records its creation time.
+     */
+    boolean saveVault(Map<String, String> encryptedSecrets, int keyVersion) {
+        SharedPreferences.Editor editor = preferences.edit();
+        for (Map.Entry<String, String> entry : encryptedSecrets.entrySet()) {
+            if (entry.getValue() != null) {
+                editor.putString(KEY_VAULT_PREFIX + entry.getKey(), entry.getValue());
+            } else {
+                editor.remove(KEY_VAULT_PREFIX + entry.getKey());
+            }
+        }
+        if (keyVersion != getVaultKeyVersion()) {
+            editor.putLong(KEY_VAULT_KEY_CREATED, System.currentTimeMillis());
+        }
+        editor.putInt(KEY_VAULT_KEY_VERSION, keyVersion);
+        editor.remove(KEY_EMAIL_PASSWORD);
+        return editor.commit();
+    }
+    
+    /**
+     * Plaintext password stored by versions before the vault, or null
+     */
+    String getLegacyEmailPassword() {
+        return preferences.getString(KEY_EMAIL_PASSWORD, null);
     }
     
     public String getFromEmail() {
@@ -246,6 +426,28 @@ public class PreferencesManager {
         return preferences.getString(KEY_TIME_FORMAT, DEFAULT_TIME_FORMAT);
     }
     
+    /**
+     * Plain text body template; empty for the built-in layout
+     */
+    public void setEmailTextTemplate(String template) {
+        preferences.edit().putString(KEY_EMAIL_TEXT_TEMPLATE, template).apply();
+    }
+    
+    public String getEmailTextTemplate() {
+        return preferences.getString(KEY_EMAIL_TEXT_TEMPLATE, "");
+    }
+    
+    /**
+     * HTML body template sent as an alternative to the text body; empty for text only
+     */
+    public void setEmailHtmlTemplate(String template) {
+        preferences.edit().putString(KEY_EMAIL_HTML_TEMPLATE, template).apply();
+    }
+    
+    public String getEmailHtmlTemplate() {
+        return preferences.getString(KEY_EMAIL_HTML_TEMPLATE, "");
+    }
+    
     // SMS Filtering Methods
     public void setFilterEnabled(boolean enabled) {
         preferences.edit().putBoolean(KEY_FILTER_ENABLED, enabled).apply();
@@ -316,6 +518,74 @@ public class PreferencesManager {
         return preferences.getInt(KEY_MAX_MESSAGE_LENGTH, DEFAULT_MAX_MESSAGE_LENGTH);
     }
     
+    // Imported blocklist feed (see BlocklistFeed)
+    public void setBlocklistFeedFalsePositiveRate(float rate) {
+        preferences.edit().putFloat(KEY_BLOCKLIST_FEED_FPR, rate).apply();
+    }
+    
+    public float getBlocklistFeedFalsePositiveRate() {
+        return preferences.getFloat(KEY_BLOCKLIST_FEED_FPR, (float) BlocklistFeed.DEFAULT_FALSE_POSITIVE_RATE);
+    }
+    
+    public void setBlocklistFeedConfirm(boolean confirm) {
+        preferences.edit().putBoolean(KEY_BLOCKLIST_FEED_CONFIRM, confirm).apply();
+    }
+    
+    public boolean isBlocklistFeedConfirm() {
+        return preferences.getBoolean(KEY_BLOCKLIST_FEED_CONFIRM, true);
+    }
+    
+    // User-defined filter rules (see FilterRules)
+    public void setFilterRules(String rules) {
+        preferences.edit().putString(KEY_FILTER_RULES, rules).apply();
+    }
+    
+    public String getFilterRules() {
+        return preferences.getString(KEY_FILTER_RULES, "");
+    }
+    
+    // Learned spam classifier (see SpamClassifier)
+    public void setSpamClassifierEnabled(boolean enabled) {
+        preferences.edit().putBoolean(KEY_SPAM_CLASSIFIER_ENABLED, enabled).apply();
+    }
+    
+    public boolean isSpamClassifierEnabled() {
+        return preferences.getBoolean(KEY_SPAM_CLASSIFIER_ENABLED, false);
+    }
+    
+    public void setSpamClassifierThreshold(float threshold) {
+        preferences.edit().putFloat(KEY_SPAM_CLASSIFIER_THRESHOLD, threshold).apply();
+    }
+    
+    public float getSpamClassifierThreshold() {
+        return preferences.getFloat(KEY_SPAM_CLASSIFIER_THRESHOLD, (float) SpamClassifier.DEFAULT_THRESHOLD);
+    }
+    
+    // Near-duplicate collapsing (see NearDuplicateDetector)
+    public void setDuplicateCollapseEnabled(boolean enabled) {
+        preferences.edit().putBoolean(KEY_DUPLICATE_COLLAPSE_ENABLED, enabled).apply();
+    }
+    
+    public boolean isDuplicateCollapseEnabled() {
+        return preferences.getBoolean(KEY_DUPLICATE_COLLAPSE_ENABLED, false);
+    }
+    
+    public void setDuplicateWindowMinutes(int minutes) {
+        preferences.edit().putInt(KEY_DUPLICATE_WINDOW_MINUTES, minutes).apply();
+    }
+    
+    public int getDuplicateWindowMinutes() {
+        return preferences.getInt(KEY_DUPLICATE_WINDOW_MINUTES, DEFAULT_DUPLICATE_WINDOW_MINUTES);
+    }
+    
+    public void setDuplicateMaxDistance(int bits) {
+        preferences.edit().putInt(KEY_DUPLICATE_MAX_DISTANCE, bits).apply();
+    }
+    
+    public int getDuplicateMaxDistance() {
+        return preferences.getInt(KEY_DUPLICATE_MAX_DISTANCE, DEFAULT_DUPLICATE_MAX_DISTANCE);
+    }
+    
     // Notification Settings Methods
     public void setNotificationEnabled(boolean enabled) {
         preferences.edit().putBoolean(KEY_NOTIFICATION_ENABLED, enabled).apply();
@@ -430,6 +700,77 @@ public class PreferencesManager {
         return preferences.getString(KEY_APP_VERSION, "1.0.0");
     }
     
+    /**
+     * Records the newest SMS timestamp handled so far; older values are ignored
+     */
+    public void updateLastSmsTimestamp(long timestamp) {
+        if (timestamp > getLastSmsTimestamp()) {
+            preferences.edit().putLong(KEY_LAST_SMS_TIMESTAMP, timestamp).apply();
+        }
+    }
+    
+    public long getLastSmsTimestamp() {
+        return preferences.getLong(KEY_LAST_SMS_TIMESTAMP, 0);
+    }
+    
+    // Messages forwarded so far, numbered by {count}; unlike the metrics it is never reset
+    public long getForwardedCount() {
+        return preferences.getLong(KEY_FORWARDED_COUNT, 0);
+    }
+    
+    public void addForwardedCount(int messages) {
+        synchronized (PreferencesManager.class) {
+            preferences.edit().putLong(KEY_FORWARDED_COUNT, getForwardedCount() + messages).apply();
+        }
+    }
+    
+    // Prometheus metrics endpoint (off by default, loopback only unless LAN access is enabled)
+    public void setMetricsExportEnabled(boolean enabled) {
+        preferences.edit().putBoolean(KEY_METRICS_EXPORT_ENABLED, enabled).apply();
+    }
+    
+    public boolean isMetricsExportEnabled() {
+        return preferences.getBoolean(KEY_METRICS_EXPORT_ENABLED, false);
+    }
+    
+    public void setMetricsExportPort(int port) {
+        preferences.edit().putInt(KEY_METRICS_EXPORT_PORT, port).apply();
+    }
+    
+    public int getMetricsExportPort() {
+        return preferences.getInt(KEY_METRICS_EXPORT_PORT, DEFAULT_METRICS_EXPORT_PORT);
+    }
+    
+    public void setMetricsExportLan(boolean lan) {
+        preferences.edit().putBoolean(KEY_METRICS_EXPORT_LAN, lan).apply();
+    }
+    
+    public boolean isMetricsExportLan() {
+        return preferences.getBoolean(KEY_METRICS_EXPORT_LAN, false);
+    }
+    
+    // Backlog digests (see BacklogDigest); a threshold of 0 always sends one email per message
+    public void setBacklogAttachmentThresholdKb(int kilobytes) {
+        preferences.edit().putInt(KEY_BACKLOG_ATTACHMENT_THRESHOLD_KB, kilobytes).apply();
+    }
+    
+    public int getBacklogAttachmentThresholdKb() {
+        return preferences.getInt(KEY_BACKLOG_ATTACHMENT_THRESHOLD_KB, DEFAULT_BACKLOG_ATTACHMENT_THRESHOLD_KB);
+    }
+    
+    public void setBacklogAttachmentFormat(BacklogFormat format) {
+        preferences.edit().putString(KEY_BACKLOG_ATTACHMENT_FORMAT, format.name()).apply();
+    }
+    
+    public BacklogFormat getBacklogAttachmentFormat() {
+        String format = preferences.getString(KEY_BACKLOG_ATTACHMENT_FORMAT, BacklogFormat.CSV_GZIP.name());
+        try {
+            return BacklogFormat.valueOf(format);
+        } catch (IllegalArgumentException e) {
+            return BacklogFormat.CSV_GZIP;
+        }
+    }
+    
     // Quick setup methods for common email providers
     public void setupGmail(String username, String password, String toEmail) {
         saveEmailConfiguration(
@@ -460,6 +801,7 @@ public class PreferencesManager {
     // Clear all settings
     public void clearAllSettings() {
         preferences.edit().clear().apply();
+        CredentialVault.clearCache();
     }
     
     // Export settings for backup (returns a simple string representation)
@@ -479,114 +821,294 @@ public class PreferencesManager {
     // Enhanced backup and restore methods
     public String exportSettingsToJson() {
         try {
-            JSONObject json = new JSONObject();
-            
-            // Email settings
-            json.put("smtp_server", getSmtpServer());
-            json.put("smtp_port", getSmtpPort());
-            json.put("email_username", getEmailUsername());
-            json.put("to_email", getToEmail());
-            json.put("use_tls", isUseTls());
-            json.put("use_ssl", isUseSsl());
-            
-            // Service settings
-            json.put("service_enabled", isServiceEnabled());
-            json.put("auto_start", isAutoStart());
-            
-            // Message formatting
-            json.put("include_timestamp", isIncludeTimestamp());
-            json.put("include_sender", isIncludeSender());
-            json.put("include_carrier_info", isIncludeCarrierInfo());
-            json.put("include_message_count", isIncludeMessageCount());
-            json.put("email_subject_format", getEmailSubjectFormat());
-            json.put("date_format", getDateFormat());
-            json.put("time_format", getTimeFormat());
-            
-            // SMS filtering
-            json.put("filter_enabled", isFilterEnabled());
-            json.put("filter_mode", getFilterMode().name());
-            json.put("filter_spam", isFilterSpam());
-            json.put("min_message_length", getMinMessageLength());
-            json.put("max_message_length", getMaxMessageLength());
-            
-            // Notification settings
-            json.put("notification_enabled", isNotificationEnabled());
-            json.put("notification_sound", isNotificationSound());
-            json.put("notification_vibrate", isNotificationVibrate());
-            json.put("notification_led", isNotificationLed());
-            json.put("show_email_status", isShowEmailStatus());
-            json.put("show_sms_preview", isShowSmsPreview());
-            
-            // Advanced settings
-            json.put("email_retry_count", getEmailRetryCount());
-            json.put("email_retry_delay", getEmailRetryDelay());
-            json.put("connection_timeout", getConnectionTimeout());
-            json.put("debug_mode", isDebugMode());
-            
-            return json.toString(2); // Pretty print with 2-space indentation
-            
-        } catch (JSONException e) {
+            StringWriter out = new StringWriter();
+            exportSettingsToJson(out);
+            return out.toString();
+        } catch (IOException e) {
             Log.e(TAG, "Error exporting settings to JSON", e);
             return null;
         }
     }
     
+    /**
+     * Writes all settings, including the number and keyword lists, as JSON to out
+     * Values are streamed one at a time, so large lists are never built into a JSON tree.
+     * Lists are sorted so the same settings always export to the same bytes. out is flushed,
+     * not closed.
+     */
+    public void exportSettingsToJson(Writer out) throws IOException {
+        exportSettingsToJson(out, null);
+    }
+    
+    /**
+     * @param listRefs If set, lists are written as these references instead of their entries
+     */
+    void exportSettingsToJson(Writer out, Map<String, String> listRefs) throws IOException {
+        JsonWriter json = new JsonWriter(out);
+        json.setIndent("  ");
+        json.beginObject();
+        json.name(KEY_SCHEMA_VERSION).value(SETTINGS_SCHEMA_VERSION);
+        
+        // Email settings
+        writeString(json, KEY_SMTP_SERVER, getSmtpServer());
+        json.name(KEY_SMTP_PORT).value(getSmtpPort());
+        writeString(json, KEY_EMAIL_USERNAME, getEmailUsername());
+        writeString(json, KEY_TO_EMAIL, getToEmail());
+        json.name(KEY_USE_TLS).value(isUseTls());
+        json.name(KEY_USE_SSL).value(isUseSsl());
+        
+        // Service settings
+        json.name(KEY_SERVICE_ENABLED).value(isServiceEnabled());
+        json.name(KEY_AUTO_START).value(isAutoStart());
+        
+        // Message formatting
+        json.name(KEY_INCLUDE_TIMESTAMP).value(isIncludeTimestamp());
+        json.name(KEY_INCLUDE_SENDER).value(isIncludeSender());
+        json.name(KEY_INCLUDE_CARRIER_INFO).value(isIncludeCarrierInfo());
+        json.name(KEY_INCLUDE_MESSAGE_COUNT).value(isIncludeMessageCount());
+        writeString(json, KEY_EMAIL_SUBJECT_FORMAT, getEmailSubjectFormat());
+        writeString(json, KEY_DATE_FORMAT, getDateFormat());
+        writeString(json, KEY_TIME_FORMAT, getTimeFormat());
+        writeString(json, KEY_EMAIL_TEXT_TEMPLATE, getEmailTextTemplate());
+        writeString(json, KEY_EMAIL_HTML_TEMPLATE, getEmailHtmlTemplate());
+        
+        // SMS filtering
+        json.name(KEY_FILTER_ENABLED).value(isFilterEnabled());
+        json.name(KEY_FILTER_MODE).value(getFilterMode().name());
+        json.name(KEY_FILTER_SPAM).value(isFilterSpam());
+        json.name(KEY_MIN_MESSAGE_LENGTH).value(getMinMessageLength());
+        json.name(KEY_MAX_MESSAGE_LENGTH).value(getMaxMessageLength());
+        json.name(KEY_BLOCKLIST_FEED_FPR).value(Float.valueOf(getBlocklistFeedFalsePositiveRate()));
+        json.name(KEY_BLOCKLIST_FEED_CONFIRM).value(isBlocklistFeedConfirm());
+        writeString(json, KEY_FILTER_RULES, getFilterRules());
+        json.name(KEY_SPAM_CLASSIFIER_ENABLED).value(isSpamClassifierEnabled());
+        json.name(KEY_SPAM_CLASSIFIER_THRESHOLD).value(Float.valueOf(getSpamClassifierThreshold()));
+        json.name(KEY_DUPLICATE_COLLAPSE_ENABLED).value(isDuplicateCollapseEnabled());
+        json.name(KEY_DUPLICATE_WINDOW_MINUTES).value(getDuplicateWindowMinutes());
+        json.name(KEY_DUPLICATE_MAX_DISTANCE).value(getDuplicateMaxDistance());
+        
+        // Notification settings
+        json.name(KEY_NOTIFICATION_ENABLED).value(isNotificationEnabled());
+        json.name(KEY_NOTIFICATION_SOUND).value(isNotificationSound());
+        json.name(KEY_NOTIFICATION_VIBRATE).value(isNotificationVibrate());
+        json.name(KEY_NOTIFICATION_LED).value(isNotificationLed());
+        json.name(KEY_SHOW_EMAIL_STATUS).value(isShowEmailStatus());
+        json.name(KEY_SHOW_SMS_PREVIEW).value(isShowSmsPreview());
+        
+        // Advanced settings
+        json.name(KEY_EMAIL_RETRY_COUNT).value(getEmailRetryCount());
+        json.name(KEY_EMAIL_RETRY_DELAY).value(getEmailRetryDelay());
+        json.name(KEY_CONNECTION_TIMEOUT).value(getConnectionTimeout());
+        json.name(KEY_DEBUG_MODE).value(isDebugMode());
+        json.name(KEY_METRICS_EXPORT_ENABLED).value(isMetricsExportEnabled());
+        json.name(KEY_METRICS_EXPORT_PORT).value(getMetricsExportPort());
+        json.name(KEY_METRICS_EXPORT_LAN).value(isMetricsExportLan());
+        json.name(KEY_BACKLOG_ATTACHMENT_THRESHOLD_KB).value(getBacklogAttachmentThresholdKb());
+        json.name(KEY_BACKLOG_ATTACHMENT_FORMAT).value(getBacklogAttachmentFormat().name());
+        
+        // Lists last, so the scalar settings stay at the top of the file
+        if (listRefs != null) {
+            json.name(KEY_LIST_REFS).beginObject();
+            for (Map.Entry<String, String> ref : listRefs.entrySet()) {
+                json.name(ref.getKey()).value(ref.getValue());
+            }
+            json.endObject();
+        } else {
+            for (Map.Entry<String, Set<String>> list : getSettingsLists().entrySet()) {
+                writeStringList(json, list.getKey(), list.getValue());
+            }
+        }
+        
+        json.endObject();
+        json.flush();
+    }
+    
     public boolean importSettingsFromJson(String jsonString) {
+        return importSettingsFromJson(new StringReader(jsonString));
+    }
+    
+    /**
+     * Reads settings written by exportSettingsToJson (any schema version up to the current one)
+     * Everything in the file is staged in one editor and committed together, so a malformed
+     * or truncated file changes nothing. Settings missing from the file keep their values.
+     * in is not closed.
+     */
+    public boolean importSettingsFromJson(Reader in) {
+        return importSettingsFromJson(in, null);
+    }
+    
+    /**
+     * @param lists Lists stored outside the file (see list_refs), staged in the same commit;
+     *              the import fails if the file refers to a list missing here
+     */
+    boolean importSettingsFromJson(Reader in, Map<String, Set<String>> lists) {
         try {
-            JSONObject json = new JSONObject(jsonString);
+            JsonReader json = new JsonReader(in);
             SharedPreferences.Editor editor = preferences.edit();
+            int schemaVersion = 1; // files from before the version field
+            Set<String> listRefs = null;
             
-            // Email settings (excluding password for security)
-            if (json.has("smtp_server")) editor.putString(KEY_SMTP_SERVER, json.getString("smtp_server"));
-            if (json.has("smtp_port")) editor.putInt(KEY_SMTP_PORT, json.getInt("smtp_port"));
-            if (json.has("email_username")) editor.putString(KEY_EMAIL_USERNAME, json.getString("email_username"));
-            if (json.has("to_email")) editor.putString(KEY_TO_EMAIL, json.getString("to_email"));
-            if (json.has("use_tls")) editor.putBoolean(KEY_USE_TLS, json.getBoolean("use_tls"));
-            if (json.has("use_ssl")) editor.putBoolean(KEY_USE_SSL, json.getBoolean("use_ssl"));
-            
-            // Service settings
-            if (json.has("auto_start")) editor.putBoolean(KEY_AUTO_START, json.getBoolean("auto_start"));
-            
-            // Message formatting
-            if (json.has("include_timestamp")) editor.putBoolean(KEY_INCLUDE_TIMESTAMP, json.getBoolean("include_timestamp"));
-            if (json.has("include_sender")) editor.putBoolean(KEY_INCLUDE_SENDER, json.getBoolean("include_sender"));
-            if (json.has("include_carrier_info")) editor.putBoolean(KEY_INCLUDE_CARRIER_INFO, json.getBoolean("include_carrier_info"));
-            if (json.has("include_message_count")) editor.putBoolean(KEY_INCLUDE_MESSAGE_COUNT, json.getBoolean("include_message_count"));
-            if (json.has("email_subject_format")) editor.putString(KEY_EMAIL_SUBJECT_FORMAT, json.getString("email_subject_format"));
-            if (json.has("date_format")) editor.putString(KEY_DATE_FORMAT, json.getString("date_format"));
-            if (json.has("time_format")) editor.putString(KEY_TIME_FORMAT, json.getString("time_format"));
+            json.beginObject();
+            while (json.hasNext()) {
+                String name = json.nextName();
+                if (json.peek() == JsonToken.NULL) {
+                    json.nextNull();
+                    continue;
+                }
+                switch (name) {
+                    case KEY_SCHEMA_VERSION:
+                        schemaVersion = json.nextInt();
+                        break;
+                    
+                    // Email settings (excluding password for security); service_enabled is
+                    // left alone so an import never starts or stops forwarding
+                    case KEY_SMTP_SERVER:
+                    case KEY_EMAIL_USERNAME:
+                    case KEY_TO_EMAIL:
+                    case KEY_EMAIL_SUBJECT_FORMAT:
+                    case KEY_DATE_FORMAT:
+                    case KEY_TIME_FORMAT:
+                    case KEY_EMAIL_TEXT_TEMPLATE:
+                    case KEY_EMAIL_HTML_TEMPLATE:
+                    case KEY_FILTER_MODE:
+                    case KEY_FILTER_RULES:
+                    case KEY_BACKLOG_ATTACHMENT_FORMAT:
+                        editor.putString(name, json.nextString());
+                        break;
+                    
+                    case KEY_SMTP_PORT:
+                    case KEY_MIN_MESSAGE_LENGTH:
+                    case KEY_MAX_MESSAGE_LENGTH:
+                    case KEY_DUPLICATE_WINDOW_MINUTES:
+                    case KEY_DUPLICATE_MAX_DISTANCE:
+                    case KEY_EMAIL_RETRY_COUNT:
+                    case KEY_EMAIL_RETRY_DELAY:
+                    case KEY_CONNECTION_TIMEOUT:
+                    case KEY_METRICS_EXPORT_PORT:
+                    case KEY_BACKLOG_ATTACHMENT_THRESHOLD_KB:
+                        editor.putInt(name, json.nextInt());
+                        break;
+                    
+                    case KEY_USE_TLS:
+                    case KEY_USE_SSL:
+                    case KEY_AUTO_START:
+                    case KEY_INCLUDE_TIMESTAMP:
+                    case KEY_INCLUDE_SENDER:
+                    case KEY_INCLUDE_CARRIER_INFO:
+                    case KEY_INCLUDE_MESSAGE_COUNT:
+                    case KEY_FILTER_ENABLED:
+                    case KEY_FILTER_SPAM:
+                    case KEY_BLOCKLIST_FEED_CONFIRM:
+                    case KEY_SPAM_CLASSIFIER_ENABLED:
+                    case KEY_DUPLICATE_COLLAPSE_ENABLED:
+                    case KEY_NOTIFICATION_ENABLED:
+                    case KEY_NOTIFICATION_SOUND:
+                    case KEY_NOTIFICATION_VIBRATE:
+                    case KEY_NOTIFICATION_LED:
+                    case KEY_SHOW_EMAIL_STATUS:
+                    case KEY_SHOW_SMS_PREVIEW:
+                    case KEY_DEBUG_MODE:
+                    case KEY_METRICS_EXPORT_ENABLED:
+                    case KEY_METRICS_EXPORT_LAN:
+                        editor.putBoolean(name, json.nextBoolean());
+                        break;
+                    
+                    case KEY_BLOCKLIST_FEED_FPR:
+                    case KEY_SPAM_CLASSIFIER_THRESHOLD:
+                        editor.putFloat(name, (float) json.nextDouble());
+                        break;
+                    
+                    case KEY_BLOCKED_NUMBERS:
+                    case KEY_ALLOWED_NUMBERS:
+                    case KEY_FILTER_KEYWORDS:
+                        editor.putStringSet(name, readStringList(json));
+                        break;
+                    
+                    case KEY_LIST_REFS:
+                        listRefs = new HashSet<>();
+                        json.beginObject();
+                        while (json.hasNext()) {
+                            listRefs.add(json.nextName());
+                            json.skipValue();
+                        }
+                        json.endObject();
+                        break;
+                    
+                    default:
+                        json.skipValue();
+                }
+            }
+            json.endObject();
             
-            // SMS filtering
-            if (json.has("filter_enabled")) editor.putBoolean(KEY_FILTER_ENABLED, json.getBoolean("filter_enabled"));
-            if (json.has("filter_mode")) editor.putString(KEY_FILTER_MODE, json.getString("filter_mode"));
-            if (json.has("filter_spam")) editor.putBoolean(KEY_FILTER_SPAM, json.getBoolean("filter_spam"));
-            if (json.has("min_message_length")) editor.putInt(KEY_MIN_MESSAGE_LENGTH, json.getInt("min_message_length"));
-            if (json.has("max_message_length")) editor.putInt(KEY_MAX_MESSAGE_LENGTH, json.getInt("max_message_length"));
+            // A backup manifest without its lists would silently keep the current ones
+            if (listRefs != null) {
+                for (String list : listRefs) {
+                    if (lists == null || !lists.containsKey(list)) {
+                        Log.e(TAG, "Settings file refers to stored list " + list + ", which was not supplied");
+                        return false;
+                    }
+                }
+            }
+            if (lists != null) {
+                for (Map.Entry<String, Set<String>> list : lists.entrySet()) {
+                    editor.putStringSet(list.getKey(), list.getValue());
+                }
+            }
             
-            // Notification settings
-            if (json.has("notification_enabled")) editor.putBoolean(KEY_NOTIFICATION_ENABLED, json.getBoolean("notification_enabled"));
-            if (json.has("notification_sound")) editor.putBoolean(KEY_NOTIFICATION_SOUND, json.getBoolean("notification_sound"));
-            if (json.has("notification_vibrate")) editor.putBoolean(KEY_NOTIFICATION_VIBRATE, json.getBoolean("notification_vibrate"));
-            if (json.has("notification_led")) editor.putBoolean(KEY_NOTIFICATION_LED, json.getBoolean("notification_led"));
-            if (json.has("show_email_status")) editor.putBoolean(KEY_SHOW_EMAIL_STATUS, json.getBoolean("show_email_status"));
-            if (json.has("show_sms_preview")) editor.putBoolean(KEY_SHOW_SMS_PREVIEW, json.getBoolean("show_sms_preview"));
-            
-            // Advanced settings
-            if (json.has("email_retry_count")) editor.putInt(KEY_EMAIL_RETRY_COUNT, json.getInt("email_retry_count"));
-            if (json.has("email_retry_delay")) editor.putInt(KEY_EMAIL_RETRY_DELAY, json.getInt("email_retry_delay"));
-            if (json.has("connection_timeout")) editor.putInt(KEY_CONNECTION_TIMEOUT, json.getInt("connection_timeout"));
-            if (json.has("debug_mode")) editor.putBoolean(KEY_DEBUG_MODE, json.getBoolean("debug_mode"));
-            
-            editor.apply();
-            Log.i(TAG, "Settings imported successfully from JSON");
+            if (schemaVersion > SETTINGS_SCHEMA_VERSION) {
+                Log.e(TAG, "Settings file uses schema " + schemaVersion + ", newer than this app");
+                return false;
+            }
+            if (!editor.commit()) {
+                Log.e(TAG, "Failed to save imported settings");
+                return false;
+            }
+            Log.i(TAG, "Settings imported successfully from JSON (schema " + schemaVersion + ")");
             return true;
             
-        } catch (JSONException e) {
+        } catch (IOException | IllegalStateException | NumberFormatException e) {
             Log.e(TAG, "Error importing settings from JSON", e);
             return false;
         }
     }
     
+    /**
+     * The large string lists, by key, in export order
+     */
+    Map<String, Set<String>> getSettingsLists() {
+        Map<String, Set<String>> lists = new LinkedHashMap<>();
+        lists.put(KEY_BLOCKED_NUMBERS, getBlockedNumbers());
+        lists.put(KEY_ALLOWED_NUMBERS, getAllowedNumbers());
+        lists.put(KEY_FILTER_KEYWORDS, getFilterKeywords());
+        return lists;
+    }
+    
+    private static void writeString(JsonWriter json, String name, String value) throws IOException {
+        if (value != null) {
+            json.name(name).value(value);
+        }
+    }
+    
+    private static void writeStringList(JsonWriter json, String name, Set<String> values) throws IOException {
+        List<String> sorted = new ArrayList<>(values);
+        Collections.sort(sorted);
+        json.name(name).beginArray();
+        for (String value : sorted) {
+            json.value(value);
+        }
+        json.endArray();
+    }
+    
+    private static Set<String> readStringList(JsonReader json) throws IOException {
+        Set<String> values = new HashSet<>();
+        json.beginArray();
+        while (json.hasNext()) {
+            values.add(json.nextString());
+        }
+        json.endArray();
+        return values;
+    }
+    
     // Configuration validation
     public boolean validateConfiguration() {
         return isEmailConfigured() && 
@@ -616,18 +1138,49 @@ public class PreferencesManager {
         sb.append("Include Timestamp: ").append(isIncludeTimestamp()).append("\n");
         sb.append("Include Sender: ").append(isIncludeSender()).append("\n");
         sb.append("Include Carrier: ").append(isIncludeCarrierInfo()).append("\n");
-        sb.append("Subject Format: ").append(getEmailSubjectFormat()).append("\n\n");
+        sb.append("Include Message Count: ").append(isIncludeMessageCount()).append("\n");
+        sb.append("Date/Time Format: ").append(getDateFormat()).append(" ").append(getTimeFormat()).append("\n");
+        sb.append("Subject Format: ").append(getEmailSubjectFormat()).append("\n");
+        sb.append("Body Template: ").append(getEmailTextTemplate().isEmpty() ? "default" : "custom").append("\n");
+        sb.append("HTML Template: ").append(getEmailHtmlTemplate().isEmpty() ? "none" : "custom").append("\n\n");
         
         sb.append("=== SMS Filtering ===\n");
         sb.append("Filter Enabled: ").append(isFilterEnabled()).append("\n");
         sb.append("Filter Mode: ").append(getFilterMode()).append("\n");
-        sb.append("Filter Spam: ").append(isFilterSpam()).append("\n\n");
+        sb.append("Filter Spam: ").append(isFilterSpam()).append("\n");
+        sb.append("Spam Classifier: ").append(isSpamClassifierEnabled());
+        if (isSpamClassifierEnabled()) {
+            sb.append(" (threshold ").append(getSpamClassifierThreshold()).append(")");
+        }
+        sb.append("\n");
+        sb.append("Feed Confirm: ").append(isBlocklistFeedConfirm()).append("\n");
+        sb.append("Filter Rules: ").append(getFilterRules().isEmpty() ? "none" : "custom").append("\n");
+        sb.append("Collapse Duplicates: ").append(isDuplicateCollapseEnabled());
+        if (isDuplicateCollapseEnabled()) {
+            sb.append(" (").append(getDuplicateWindowMinutes()).append(" min, ")
+              .append(getDuplicateMaxDistance()).append(" bits)");
+        }
+        sb.append("\n\n");
         
         sb.append("=== Advanced Settings ===\n");
         sb.append("Retry Count: ").append(getEmailRetryCount()).append("\n");
         sb.append("Retry Delay: ").append(getEmailRetryDelay()).append("ms\n");
         sb.append("Connection Timeout: ").append(getConnectionTimeout()).append("ms\n");
         sb.append("Debug Mode: ").append(isDebugMode()).append("\n");
+        sb.append("Metrics Export: ").append(isMetricsExportEnabled());
+        if (isMetricsExportEnabled()) {
+            sb.append(" (port ").append(getMetricsExportPort())
+              .append(isMetricsExportLan() ? ", LAN" : ", loopback").append(")");
+        }
+        sb.append("\n");
+        sb.append("Backlog Attachment: ");
+        if (getBacklogAttachmentThresholdKb() > 0) {
+            sb.append("over ").append(getBacklogAttachmentThresholdKb()).append(" KB as ")
+              .append(getBacklogAttachmentFormat());
+        } else {
+            sb.append("off");
+        }
+        sb.append("\n");
         
         return sb.toString();
     }
@@ -0,0 +1,128 @@
+package com.smsemailforwarder.app.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Serializes the metrics registry in Prometheus text exposition format (version 0.0.4)
+ * Writes into a caller-supplied StringBuilder so a scrape loop can reuse one buffer
+ */
+public class PrometheusFormatter {
+
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final String PREFIX = "smsforwarder_";
+    private static final String MICROS_SUFFIX = "_us";
+    private static final String SECONDS_SUFFIX = "_seconds";
+
+    // Histogram bucket boundaries exposed to Prometheus (microseconds)
+    private static final long[] LATENCY_BOUNDS_US = {
+        1000L, 5000L, 10000L, 50000L, 100000L, 250000L, 500000L,
+        1000000L, 2500000L, 5000000L, 10000000L, 30000000L, 60000000L
+    };
+
+    private PrometheusFormatter() {
+    }
+
+    /**
+     * Appends all counters, gauges and histograms to the builder
+     */
+    public static void write(MetricsRegistry registry, StringBuilder out) {
+        writeCounters(registry, out);
+        writeGauges(registry, out);
+        writeHistograms(registry, out);
+    }
+
+    private static void writeCounters(MetricsRegistry registry, StringBuilder out) {
+        // Group series under their base name, e.g. sms_filtered and sms_filtered{reason="spam"}
+        Map<String, List<String>> families = new TreeMap<>();
+        for (String name : registry.getCounterNames()) {
+            int labelStart = name.indexOf('{');
+            String family = labelStart < 0 ? name : name.substring(0, labelStart);
+            List<String> series = families.get(family);
+            if (series == null) {
+                series = new ArrayList<>();
+                families.put(family, series);
+            }
+            series.add(name);
+        }
+
+        for (Map.Entry<String, List<String>> entry : families.entrySet()) {
+            String family = entry.getKey();
+            List<String> series = entry.getValue();
+            out.append("# TYPE ").append(PREFIX).append(family).append("_total counter\n");
+
+            for (String name : series) {
+                int labelStart = name.indexOf('{');
+
+                // Skip the unlabeled total when labeled series exist, so sum() does not double count
+                if (labelStart < 0 && series.size() > 1) {
+                    continue;
+                }
+
+                out.append(PREFIX).append(family).append("_total");
+                if (labelStart >= 0) {
+                    out.append(name, labelStart, name.length());
+                }
+                out.append(' ').append(registry.counter(name).get()).append('\n');
+            }
+        }
+    }
+
+    private static void writeGauges(MetricsRegistry registry, StringBuilder out) {
+        for (String name : registry.getGaugeNames()) {
+            out.append("# TYPE ").append(PREFIX).append(name).append(" gauge\n");
+            out.append(PREFIX).append(name).append(' ').append(registry.gauge(name).get()).append('\n');
+        }
+    }
+
+    private static void writeHistograms(MetricsRegistry registry, StringBuilder out) {
+        for (String name : registry.getHistogramNames()) {
+            MetricsRegistry.Histogram histogram = registry.histogram(name);
+            boolean micros = name.endsWith(MICROS_SUFFIX);
+            String family = micros
+                ? name.substring(0, name.length() - MICROS_SUFFIX.length()) + SECONDS_SUFFIX
+                : name;
+
+            out.append("# TYPE ").append(PREFIX).append(family).append(" histogram\n");
+
+            // Fold the fine-grained log buckets into the exported cumulative buckets
+            int bucket = 0;
+            long cumulative = 0;
+            for (long bound : LATENCY_BOUNDS_US) {
+                while (bucket < histogram.getBucketCount()
+                        && MetricsRegistry.Histogram.bucketUpperBound(bucket) <= bound) {
+                    cumulative += histogram.getBucket(bucket);
+                    bucket++;
+                }
+                out.append(PREFIX).append(family).append("_bucket{le=\"");
+                appendValue(out, bound, micros);
+                out.append("\"} ").append(cumulative).append('\n');
+            }
+            out.append(PREFIX).append(family).append("_bucket{le=\"+Inf\"} ")
+               .append(histogram.getCount()).append('\n');
+
+            out.append(PREFIX).append(family).append("_sum ");
+            appendValue(out, histogram.getSum(), micros);
+            out.append('\n');
+            out.append(PREFIX).append(family).append("_count ").append(histogram.getCount()).append('\n');
+        }
+    }
+
+    /**
+     * Appends a value, converting microseconds to seconds without going through double
+     */
+    private static void appendValue(StringBuilder out, long value, boolean micros) {
+        if (!micros) {
+            out.append(value);
+            return;
+        }
+        out.append(value / 1000000L).append('.');
+        long fraction = value % 1000000L;
+        for (long scale = 100000L; scale > 0; scale /= 10) {
+            out.append((char) ('0' + (fraction / scale) % 10));
+        }
+    }
+}
@@ -0,0 +1,549 @@
+package com.smsemailforwarder.app.utils;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Node of a compiled filter rule condition (see {@link FilterRules})
+ * Every node carries an estimated evaluation cost and selectivity (probability of being true)
+ * so AND/OR nodes can order their children to short-circuit as early and cheaply as possible.
+ */
+abstract class RulePredicate {
+
+    /**
+     * Message being evaluated; derived values are computed once and only if a rule needs them
+     */
+    static final class Context {
+        final String sender;
+        final String body;
+        final long timestamp;
+
+        private NumberingPlan.NumberInfo numberInfo;
+        private int minuteOfDay = -1;
+
+        Context(String sender, String body, long timestamp) {
+            this.sender = sender != null ? sender : "";
+            this.body = body != null ? body : "";
+            this.timestamp = timestamp;
+        }
+
+        NumberingPlan.NumberInfo numberInfo() {
+            if (numberInfo == null) {
+                numberInfo = NumberingPlan.lookup(sender);
+            }
+            return numberInfo;
+        }
+
+        int minuteOfDay() {
+            if (minuteOfDay < 0) {
+                Calendar calendar = Calendar.getInstance();
+                calendar.setTimeInMillis(timestamp);
+                minuteOfDay = calendar.get(Calendar.HOUR_OF_DAY) * 60 + calendar.get(Calendar.MINUTE);
+            }
+            return minuteOfDay;
+        }
+    }
+
+    abstract boolean test(Context context);
+
+    /**
+     * Expected cost of one evaluation, in rough units (a length check is 1)
+     */
+    abstract double cost();
+
+    /**
+     * Estimated probability that the predicate is true
+     */
+    abstract double selectivity();
+
+    /**
+     * Evaluates like {@link #test} while writing each step to the builder
+     */
+    boolean explain(Context context, StringBuilder out, int depth) {
+        boolean result = test(context);
+        indent(out, depth).append(result ? "[yes] " : "[no]  ").append(this).append('\n');
+        return result;
+    }
+
+    static StringBuilder indent(StringBuilder out, int depth) {
+        for (int i = 0; i < depth; i++) {
+            out.append("    ");
+        }
+        return out;
+    }
+
+    static String quote(String value) {
+        return '"' + value.replace("\\", "\\\\").replace("\"", "\\\"") + '"';
+    }
+
+    // ---- Composite nodes ----
+
+    static final class And extends RulePredicate {
+        private final RulePredicate[] children;
+
+        And(List<RulePredicate> children) {
+            // Cheapest way to reach a "false": low cost, high chance of failing
+            List<RulePredicate> sorted = new ArrayList<>(children);
+            Collections.sort(sorted, new Comparator<RulePredicate>() {
+                @Override
+                public int compare(RulePredicate a, RulePredicate b) {
+                    return Double.compare(rank(a), rank(b));
+                }
+
+                private double rank(RulePredicate p) {
+                    double failure = 1.0 - p.selectivity();
+                    return failure <= 0 ? Double.MAX_VALUE : p.cost() / failure;
+                }
+            });
+            this.children = sorted.toArray(new RulePredicate[0]);
+        }
+
+        @Override
+        boolean test(Context context) {
+            for (RulePredicate child : children) {
+                if (!child.test(context)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        double cost() {
+            double cost = 0;
+            double reach = 1;
+            for (RulePredicate child : children) {
+                cost += reach * child.cost();
+                reach *= child.selectivity();
+            }
+            return cost;
+        }
+
+        @Override
+        double selectivity() {
+            double selectivity = 1;
+            for (RulePredicate child : children) {
+                selectivity *= child.selectivity();
+            }
+            return selectivity;
+        }
+
+        @Override
+        boolean explain(Context context, StringBuilder out, int depth) {
+            indent(out, depth).append("all of:\n");
+            boolean result = true;
+            for (RulePredicate child : children) {
+                if (!result) {
+                    indent(out, depth + 1).append("[skip] ").append(child).append('\n');
+                } else if (!child.explain(context, out, depth + 1)) {
+                    result = false;
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return "(" + join(children, " and ") + ")";
+        }
+    }
+
+    static final class Or extends RulePredicate {
+        private final RulePredicate[] children;
+
+        Or(List<RulePredicate> children) {
+            // Cheapest way to reach a "true": low cost, high chance of matching
+            List<RulePredicate> sorted = new ArrayList<>(children);
+            Collections.sort(sorted, new Comparator<RulePredicate>() {
+                @Override
+                public int compare(RulePredicate a, RulePredicate b) {
+                    return Double.compare(rank(a), rank(b));
+                }
+
+                private double rank(RulePredicate p) {
+                    double success = p.selectivity();
+                    return success <= 0 ? Double.MAX_VALUE : p.cost() / success;
+                }
+            });
+            this.children = sorted.toArray(new RulePredicate[0]);
+        }
+
+        @Override
+        boolean test(Context context) {
+            for (RulePredicate child : children) {
+                if (child.test(context)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        double cost() {
+            double cost = 0;
+            double reach = 1;
+            for (RulePredicate child : children) {
+                cost += reach * child.cost();
+                reach *= 1.0 - child.selectivity();
+            }
+            return cost;
+        }
+
+        @Override
+        double selectivity() {
+            double none = 1;
+            for (RulePredicate child : children) {
+                none *= 1.0 - child.selectivity();
+            }
+            return 1.0 - none;
+        }
+
+        @Override
+        boolean explain(Context context, StringBuilder out, int depth) {
+            indent(out, depth).append("any of:\n");
+            boolean result = false;
+            for (RulePredicate child : children) {
+                if (result) {
+                    indent(out, depth + 1).append("[skip] ").append(child).append('\n');
+                } else if (child.explain(context, out, depth + 1)) {
+                    result = true;
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return "(" + join(children, " or ") + ")";
+        }
+    }
+
+    static final class Not extends RulePredicate {
+        private final RulePredicate child;
+
+        Not(RulePredicate child) {
+            this.child = child;
+        }
+
+        @Override
+        boolean test(Context context) {
+            return !child.test(context);
+        }
+
+        @Override
+        double cost() {
+            return child.cost();
+        }
+
+        @Override
+        double selectivity() {
+            return 1.0 - child.selectivity();
+        }
+
+        @Override
+        boolean explain(Context context, StringBuilder out, int depth) {
+            indent(out, depth).append("not:\n");
+            return !child.explain(context, out, depth + 1);
+        }
+
+        @Override
+        public String toString() {
+            return "not " + child;
+        }
+    }
+
+    // ---- Conditions ----
+
+    enum TextOp {
+        EQUALS("="), NOT_EQUALS("!="), STARTS("starts"), ENDS("ends"), CONTAINS("contains");
+
+        final String symbol;
+
+        TextOp(String symbol) {
+            this.symbol = symbol;
+        }
+    }
+
+    static final class Sender extends RulePredicate {
+        private final TextOp op;
+        private final String value;
+
+        Sender(TextOp op, String value) {
+            this.op = op;
+            // The sender is always the normalized number. Exact comparisons normalize the value
+            // too, so "098..." matches "+38598..."; starts/ends/contains compare the text as
+            // written, so prefixes must be given in E.164 form ("+38598", not "098").
+            this.value = op == TextOp.EQUALS || op == TextOp.NOT_EQUALS
+                ? PhoneNumberNormalizer.normalize(value) : value;
+        }
+
+        @Override
+        boolean test(Context context) {
+            switch (op) {
+                case EQUALS:
+                    return context.sender.equals(value);
+                case NOT_EQUALS:
+                    return !context.sender.equals(value);
+                case STARTS:
+                    return context.sender.startsWith(value);
+                case ENDS:
+                    return context.sender.endsWith(value);
+                default:
+                    return context.sender.contains(value);
+            }
+        }
+
+        @Override
+        double cost() {
+            return op == TextOp.CONTAINS ? 4 : 2;
+        }
+
+        @Override
+        double selectivity() {
+            switch (op) {
+                case EQUALS:
+                    return 0.01;
+                case NOT_EQUALS:
+                    return 0.99;
+                default:
+                    return 0.1;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "sender " + op.symbol + " " + quote(value);
+        }
+    }
+
+    static final class Carrier extends RulePredicate {
+        private final boolean contains;
+        private final String value;
+        private final KeywordMatcher matcher;
+
+        Carrier(boolean contains, String value) {
+            this.contains = contains;
+            this.value = value;
+            this.matcher = KeywordMatcher.build(Collections.singletonList(value));
+        }
+
+        @Override
+        boolean test(Context context) {
+            String carrier = context.numberInfo().getDisplayName();
+            return contains ? matcher.containsAny(carrier) : carrier.equalsIgnoreCase(value);
+        }
+
+        @Override
+        double cost() {
+            return 8;
+        }
+
+        @Override
+        double selectivity() {
+            return 0.3;
+        }
+
+        @Override
+        public String toString() {
+            return "carrier " + (contains ? "contains " : "= ") + quote(value);
+        }
+    }
+
+    static final class Type extends RulePredicate {
+        private final NumberingPlan.NumberType type;
+
+        Type(NumberingPlan.NumberType type) {
+            this.type = type;
+        }
+
+        @Override
+        boolean test(Context context) {
+            return context.numberInfo().type == type;
+        }
+
+        @Override
+        double cost() {
+            return 8;
+        }
+
+        @Override
+        double selectivity() {
+            return 0.3;
+        }
+
+        @Override
+        public String toString() {
+            return "type = " + type.name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    static final class BodyContains extends RulePredicate {
+        private final String value;
+        private final KeywordMatcher matcher;
+
+        BodyContains(String value) {
+            this.value = value;
+            this.matcher = KeywordMatcher.build(Collections.singletonList(value));
+        }
+
+        @Override
+        boolean test(Context context) {
+            return matcher.containsAny(context.body);
+        }
+
+        @Override
+        double cost() {
+            return 20;
+        }
+
+        @Override
+        double selectivity() {
+            return 0.1;
+        }
+
+        @Override
+        public String toString() {
+            return "body contains " + quote(value);
+        }
+    }
+
+    static final class BodyRegex extends RulePredicate {
+        private final Pattern pattern;
+
+        BodyRegex(Pattern pattern) {
+            this.pattern = pattern;
+        }
+
+        @Override
+        boolean test(Context context) {
+            return pattern.matcher(context.body).find();
+        }
+
+        @Override
+        double cost() {
+            return 100;
+        }
+
+        @Override
+        double selectivity() {
+            return 0.1;
+        }
+
+        @Override
+        public String toString() {
+            return "body ~ " + quote(pattern.pattern());
+        }
+    }
+
+    enum Comparison {
+        LT("<"), LE("<="), GT(">"), GE(">="), EQ("="), NE("!=");
+
+        final String symbol;
+
+        Comparison(String symbol) {
+            this.symbol = symbol;
+        }
+
+        boolean apply(int left, int right) {
+            switch (this) {
+                case LT:
+                    return left < right;
+                case LE:
+                    return left <= right;
+                case GT:
+                    return left > right;
+                case GE:
+                    return left >= right;
+                case EQ:
+                    return left == right;
+                default:
+                    return left != right;
+            }
+        }
+    }
+
+    static final class Length extends RulePredicate {
+        private final Comparison comparison;
+        private final int value;
+
+        Length(Comparison comparison, int value) {
+            this.comparison = comparison;
+            this.value = value;
+        }
+
+        @Override
+        boolean test(Context context) {
+            return comparison.apply(context.body.length(), value);
+        }
+
+        @Override
+        double cost() {
+            return 1;
+        }
+
+        @Override
+        double selectivity() {
+            return comparison == Comparison.EQ ? 0.05 : comparison == Comparison.NE ? 0.95 : 0.5;
+        }
+
+        @Override
+        public String toString() {
+            return "length " + comparison.symbol + " " + value;
+        }
+    }
+
+    static final class TimeOfDay extends RulePredicate {
+        private final int fromMinute;
+        private final int toMinute;
+
+        /**
+         * Inclusive start, exclusive end; ranges past midnight (22:00-06:00) wrap around
+         */
+        TimeOfDay(int fromMinute, int toMinute) {
+            this.fromMinute = fromMinute;
+            this.toMinute = toMinute;
+        }
+
+        @Override
+        boolean test(Context context) {
+            int minute = context.minuteOfDay();
+            if (fromMinute <= toMinute) {
+                return minute >= fromMinute && minute < toMinute;
+            }
+            return minute >= fromMinute || minute < toMinute;
+        }
+
+        @Override
+        double cost() {
+            return 3;
+        }
+
+        @Override
+        double selectivity() {
+            int span = toMinute >= fromMinute ? toMinute - fromMinute : 1440 - fromMinute + toMinute;
+            return span / 1440.0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "time %02d:%02d-%02d:%02d",
+                fromMinute / 60, fromMinute % 60, toMinute / 60, toMinute % 60);
+        }
+    }
+
+    private static String join(RulePredicate[] parts, String separator) {
+        StringBuilder sb = new StringBuilder();
+        for (RulePredicate part : parts) {
+            if (sb.length() > 0) {
+                sb.append(separator);
+            }
+            sb.append(part);
+        }
+        return sb.toString();
+    }
+}
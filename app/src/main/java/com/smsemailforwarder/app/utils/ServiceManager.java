@@ -155,6 +155,11 @@ public class ServiceManager {
         String overallStatus = getServiceStatusText(context);
         status.append("Overall Status: ").append(overallStatus).append("\n");
         
+        // Forwarding metrics
+        status.append("\nForwarding Metrics:\n");
+        status.append("═══════════════════════════════════\n");
+        status.append(MetricsRegistry.getInstance(context).getSummary());
+        
         return status.toString();
     }
     
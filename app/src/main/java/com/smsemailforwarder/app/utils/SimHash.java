@@ -0,0 +1,142 @@
+package com.smsemailforwarder.app.utils;
+
+/**
+ * 64-bit SimHash fingerprints of message bodies
+ * Similar texts get fingerprints that differ in few bits, so campaign messages that only vary
+ * in a name or code can be matched by Hamming distance. Features are the case-folded words of
+ * the body; words containing digits (codes, amounts, links) all count as the same word.
+ * Because of that, two messages that differ only in a one-time code get the same fingerprint;
+ * {@link #codes} tells them apart.
+ */
+public final class SimHash {
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final long CODE_WORD = 0x2323232323232323L;
+    // Bit planes of the per-position counters; enough for 65535 words
+    private static final int COUNTER_PLANES = 16;
+    private static final int MAX_FEATURES = (1 << COUNTER_PLANES) - 1;
+    // All-digit words of this length are treated as one-time codes; longer runs are phone numbers
+    private static final int MIN_CODE_LENGTH = 4;
+    private static final int MAX_CODE_LENGTH = 8;
+
+    private SimHash() {
+    }
+
+    /**
+     * Fingerprint of the normalized body; 0 for text without words
+     */
+    public static long fingerprint(CharSequence text) {
+        if (text == null) {
+            return 0;
+        }
+
+        // Counts how many features set each of the 64 bits, as 64 parallel binary counters
+        // stored bit-sliced: planes[k] holds bit k of every position's count
+        long[] planes = new long[COUNTER_PLANES];
+        int features = 0;
+        int length = text.length();
+        int i = 0;
+
+        while (i < length && features < MAX_FEATURES) {
+            char c = text.charAt(i);
+            if (!Character.isLetterOrDigit(c)) {
+                i++;
+                continue;
+            }
+
+            long word = FNV_OFFSET;
+            boolean code = false;
+            while (i < length && Character.isLetterOrDigit(c = text.charAt(i))) {
+                c = KeywordMatcher.foldChar(c);
+                word = (word ^ c) * FNV_PRIME;
+                code |= c >= '0' && c <= '9';
+                i++;
+            }
+
+            long carry = mix(code ? CODE_WORD : word);
+            for (int k = 0; carry != 0; k++) {
+                long next = planes[k] & carry;
+                planes[k] ^= carry;
+                carry = next;
+            }
+            features++;
+        }
+
+        if (features == 0) {
+            return 0;
+        }
+
+        // A bit is set when more than half of the features set it
+        int usedPlanes = 32 - Integer.numberOfLeadingZeros(features);
+        long fingerprint = 0;
+        for (int bit = 0; bit < 64; bit++) {
+            int count = 0;
+            for (int k = 0; k < usedPlanes; k++) {
+                count |= (int) ((planes[k] >>> bit) & 1L) << k;
+            }
+            if (count * 2 > features) {
+                fingerprint |= 1L << bit;
+            }
+        }
+        return fingerprint;
+    }
+
+    /**
+     * Hash of the one-time codes in the text, in order; 0 when it has none
+     * Codes are words of MIN_CODE_LENGTH to MAX_CODE_LENGTH digits, the shape of OTPs and
+     * verification PINs. Messages with different codes must never be treated as duplicates.
+     */
+    public static long codes(CharSequence text) {
+        if (text == null) {
+            return 0;
+        }
+
+        long hash = 0;
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            if (!Character.isLetterOrDigit(text.charAt(i))) {
+                i++;
+                continue;
+            }
+
+            int start = i;
+            boolean digits = true;
+            char c;
+            while (i < length && Character.isLetterOrDigit(c = text.charAt(i))) {
+                digits &= c >= '0' && c <= '9';
+                i++;
+            }
+
+            int wordLength = i - start;
+            if (digits && wordLength >= MIN_CODE_LENGTH && wordLength <= MAX_CODE_LENGTH) {
+                if (hash == 0) {
+                    hash = FNV_OFFSET;
+                }
+                for (int j = start; j < i; j++) {
+                    hash = (hash ^ text.charAt(j)) * FNV_PRIME;
+                }
+                // Separator, so "1234 5678" and "12345 678" differ
+                hash = (hash ^ ' ') * FNV_PRIME;
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Number of differing bits between two fingerprints
+     */
+    public static int distance(long a, long b) {
+        return Long.bitCount(a ^ b);
+    }
+
+    /**
+     * splitmix64 finalizer, so every fingerprint bit depends on the whole feature
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
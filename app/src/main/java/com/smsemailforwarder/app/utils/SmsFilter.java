@@ -3,55 +3,52 @@ package com.smsemailforwarder.app.utils;
 import android.content.Context;
 import android.text.TextUtils;
 import android.util.Log;
-import java.util.Set;
-import java.util.regex.Pattern;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * Utility class for filtering SMS messages based on user preferences
  * Supports blacklist/whitelist filtering, keyword filtering, and spam detection
+ * Settings come from the precompiled {@link FilterSnapshot}, not from preferences
  */
 public class SmsFilter {
     
     private static final String TAG = "SmsFilter";
     
-    private final PreferencesManager preferencesManager;
+    // Verdict codes, one byte per message in batch results
+    public static final byte VERDICT_FORWARD = 0;
+    public static final byte VERDICT_LENGTH = 1;
+    public static final byte VERDICT_NUMBER = 2;
+    public static final byte VERDICT_KEYWORD = 3;
+    public static final byte VERDICT_SPAM = 4;
+    public static final byte VERDICT_RULE = 5;
     
-    // Common spam patterns (Croatian context)
-    private static final String[] SPAM_PATTERNS = {
-        "(?i).*besplat.*",           // Free/gratis
-        "(?i).*nagrada.*",           // Prize/reward
-        "(?i).*pobjednik.*",         // Winner
-        "(?i).*kredit.*",            // Credit
-        "(?i).*poziv.*sada.*",       // Call now
-        "(?i).*hitno.*",             // Urgent
-        "(?i).*ograničen.*",         // Limited
-        "(?i).*ekskluziv.*",         // Exclusive
-        "(?i).*bonus.*",             // Bonus
-        "(?i).*promocij.*",          // Promotion
-        "(?i).*klik.*link.*",        // Click link
-        "(?i).*registruj.*",         // Register
-        "(?i).*potvrdi.*",           // Confirm
-        "(?i).*www\\.",              // Web links
-        "(?i).*http.*",              // HTTP links
-        "(?i).*bit\\.ly.*",          // Shortened URLs
-        "(?i).*tinyurl.*",           // Shortened URLs
-        "(?i).*\\d{4,}.*€.*",        // Large amounts with Euro
-        "(?i).*\\d{4,}.*kn.*",       // Large amounts with Kuna
-        "(?i).*\\d{4,}.*din.*"       // Large amounts with Dinar
+    // Metrics reason for each verdict code
+    private static final String[] VERDICT_REASONS = {
+        "forward",
+        MetricsRegistry.REASON_LENGTH,
+        MetricsRegistry.REASON_NUMBER,
+        MetricsRegistry.REASON_KEYWORD,
+        MetricsRegistry.REASON_SPAM,
+        MetricsRegistry.REASON_RULE
     };
     
-    // Compiled patterns for performance
-    private static Pattern[] compiledSpamPatterns;
+    // Batches at least this large are split across the fork-join pool
+    private static final int PARALLEL_BATCH_SIZE = 512;
+    private static final int BATCH_SLICE_SIZE = 128;
     
-    static {
-        compiledSpamPatterns = new Pattern[SPAM_PATTERNS.length];
-        for (int i = 0; i < SPAM_PATTERNS.length; i++) {
-            compiledSpamPatterns[i] = Pattern.compile(SPAM_PATTERNS[i]);
-        }
-    }
+    // Own pool because ForkJoinPool.commonPool() needs API 24; workers start on first use
+    private static final ForkJoinPool batchPool = new ForkJoinPool();
+    
+    private final Context context;
+    private final MetricsRegistry metricsRegistry;
     
     public SmsFilter(Context context) {
-        this.preferencesManager = new PreferencesManager(context);
+        this.context = context;
+        this.metricsRegistry = MetricsRegistry.getInstance(context);
     }
     
     /**
@@ -61,208 +58,309 @@ public class SmsFilter {
      * @return true if the message should be forwarded, false if it should be filtered out
      */
     public boolean shouldForwardMessage(String senderNumber, String messageBody) {
-        if (!preferencesManager.isFilterEnabled()) {
-            Log.d(TAG, "Filtering disabled, forwarding message");
-            return true;
-        }
+        return decide(senderNumber, messageBody).action == FilterRules.Action.FORWARD;
+    }
+    
+    /**
+     * Full filtering decision, including the recipient and priority set by filter rules
+     * @return Decision whose action is always FORWARD or DROP
+     */
+    public FilterRules.Decision decide(String senderNumber, String messageBody) {
+        long start = System.nanoTime();
+        FilterSnapshot snapshot = FilterSnapshot.get(context);
         
         // Normalize phone number for comparison
-        String normalizedNumber = SmsFormatter.normalizePhoneNumber(senderNumber);
+        String normalizedNumber = PhoneNumberNormalizer.normalize(senderNumber);
         
         Log.d(TAG, "Filtering message from: " + normalizedNumber);
         
-        // Check message length constraints
-        if (!checkMessageLength(messageBody)) {
-            Log.d(TAG, "Message filtered: length constraints");
-            return false;
+        // User rules come first, even with the built-in filters off, so route and priority
+        // rules keep working; a forward or drop rule overrides the built-in filters
+        long checkStart = System.nanoTime();
+        FilterRules.Decision decision = snapshot.getRules()
+            .evaluate(normalizedNumber, messageBody, System.currentTimeMillis());
+        long now = System.nanoTime();
+        if (snapshot.getRules().size() > 0) {
+            FilterDecisionLog.recordCheck(VERDICT_RULE, now - checkStart,
+                                          decision.action == FilterRules.Action.DROP);
+        }
+        if (decision.action == FilterRules.Action.DROP) {
+            Log.d(TAG, "Message filtered: rule on line " + decision.matchedLine);
+            metricsRegistry.recordFiltered(MetricsRegistry.REASON_RULE);
+            decision.logRecord = FilterDecisionLog.recordDecision(VERDICT_RULE, decision.matchedLine,
+                                                                  now - start);
+            return decision;
+        }
+        if (decision.action == FilterRules.Action.FORWARD) {
+            Log.d(TAG, "Message forwarded by rule on line " + decision.matchedLine);
+            decision.logRecord = FilterDecisionLog.recordDecision(VERDICT_FORWARD, decision.matchedLine,
+                                                                  now - start);
+            return decision;
         }
         
-        // Check number-based filtering (blacklist/whitelist)
-        if (!checkNumberFilter(normalizedNumber)) {
-            Log.d(TAG, "Message filtered: number filter");
-            return false;
+        if (!snapshot.isFilterEnabled()) {
+            Log.d(TAG, "Filtering disabled, forwarding message");
+            decision.logRecord = FilterDecisionLog.recordDecision(VERDICT_FORWARD, 0, now - start);
+            decision.action = FilterRules.Action.FORWARD;
+            return decision;
         }
         
-        // Check keyword filtering
-        if (!checkKeywordFilter(messageBody)) {
-            Log.d(TAG, "Message filtered: keyword filter");
-            return false;
+        // Same checks as checkBuiltInFilters, timed one by one for the decision log
+        byte verdict = VERDICT_FORWARD;
+        for (byte check = VERDICT_LENGTH; check <= VERDICT_SPAM; check++) {
+            checkStart = now;
+            boolean passed = passesCheck(check, snapshot, normalizedNumber, messageBody);
+            now = System.nanoTime();
+            FilterDecisionLog.recordCheck(check, now - checkStart, !passed);
+            if (!passed) {
+                verdict = check;
+                break;
+            }
         }
+        decision.logRecord = FilterDecisionLog.recordDecision(verdict, 0, now - start);
         
-        // Check spam filtering
-        if (!checkSpamFilter(messageBody)) {
-            Log.d(TAG, "Message filtered: spam filter");
-            return false;
+        if (verdict != VERDICT_FORWARD) {
+            Log.d(TAG, "Message filtered: " + getVerdictReason(verdict) + " filter");
+            metricsRegistry.recordFiltered(getVerdictReason(verdict));
+            decision.action = FilterRules.Action.DROP;
+            return decision;
         }
         
         Log.d(TAG, "Message passed all filters, forwarding");
-        return true;
+        decision.action = FilterRules.Action.FORWARD;
+        return decision;
     }
     
     /**
-     * Check if message length is within configured constraints
+     * Message for batch evaluation
      */
-    private boolean checkMessageLength(String messageBody) {
-        if (TextUtils.isEmpty(messageBody)) {
-            return false;
+    public static class BatchMessage {
+        public final String sender;
+        public final String body;
+        public final long timestamp;
+        
+        public BatchMessage(String sender, String body, long timestamp) {
+            this.sender = sender;
+            this.body = body;
+            this.timestamp = timestamp;
         }
-        
-        int length = messageBody.length();
-        int minLength = preferencesManager.getMinMessageLength();
-        int maxLength = preferencesManager.getMaxMessageLength();
-        
-        return length >= minLength && length <= maxLength;
     }
     
     /**
-     * Check number-based filtering (blacklist/whitelist)
+     * Evaluates many messages against one filter snapshot, e.g. to re-check the inbox after a rule change
+     * Large batches run on a fork-join pool. Nothing is recorded in the metrics.
+     * @return One VERDICT_* code per message, in input order
      */
-    private boolean checkNumberFilter(String normalizedNumber) {
-        PreferencesManager.FilterMode filterMode = preferencesManager.getFilterMode();
-        
-        switch (filterMode) {
-            case BLACKLIST:
-                return !isNumberInSet(normalizedNumber, preferencesManager.getBlockedNumbers());
-                
-            case WHITELIST:
-                return isNumberInSet(normalizedNumber, preferencesManager.getAllowedNumbers());
-                
-            case NONE:
-            default:
-                return true;
+    public byte[] evaluateBatch(List<BatchMessage> messages) {
+        FilterSnapshot snapshot = FilterSnapshot.get(context);
+        byte[] verdicts = new byte[messages.size()];
+        
+        BatchTask task = new BatchTask(snapshot, messages, verdicts, 0, verdicts.length);
+        if (verdicts.length < PARALLEL_BATCH_SIZE) {
+            task.compute();
+        } else {
+            batchPool.invoke(task);
         }
+        return verdicts;
     }
     
     /**
-     * Check if a number matches any number in the given set
-     * Supports partial matching for flexibility
+     * Recipient and priority for a message evaluateBatch let through
+     * Rules are evaluated at the message's own timestamp, as in the batch, and nothing is
+     * recorded in the metrics or the decision log.
+     * @return Decision whose action is always FORWARD
      */
-    private boolean isNumberInSet(String normalizedNumber, Set<String> numberSet) {
-        if (numberSet == null || numberSet.isEmpty()) {
-            return false;
+    public FilterRules.Decision route(BatchMessage message) {
+        FilterRules.Decision decision = FilterSnapshot.get(context).getRules()
+            .evaluate(PhoneNumberNormalizer.normalize(message.sender), message.body, message.timestamp);
+        decision.action = FilterRules.Action.FORWARD;
+        return decision;
+    }
+    
+    /**
+     * Metrics reason name for a verdict code ("forward" for VERDICT_FORWARD)
+     */
+    public static String getVerdictReason(byte verdict) {
+        return VERDICT_REASONS[verdict];
+    }
+    
+    private byte evaluateOne(FilterSnapshot snapshot, BatchMessage message) {
+        // Uncached: a bulk pass would only evict the live senders from the normalizer cache
+        String normalizedNumber = PhoneNumberNormalizer.normalizeUncached(message.sender);
+        FilterRules.Action action = snapshot.getRules()
+            .evaluate(normalizedNumber, message.body, message.timestamp).action;
+        if (action == FilterRules.Action.DROP) {
+            return VERDICT_RULE;
         }
-        
-        for (String filterNumber : numberSet) {
-            String normalizedFilterNumber = SmsFormatter.normalizePhoneNumber(filterNumber);
-            
-            // Exact match
-            if (normalizedNumber.equals(normalizedFilterNumber)) {
-                return true;
-            }
-            
-            // Partial match (for cases where country code might be missing)
-            if (normalizedNumber.endsWith(normalizedFilterNumber) || 
-                normalizedFilterNumber.endsWith(normalizedNumber)) {
-                return true;
-            }
+        if (action == FilterRules.Action.FORWARD || !snapshot.isFilterEnabled()) {
+            return VERDICT_FORWARD;
         }
-        
-        return false;
+        return checkBuiltInFilters(snapshot, normalizedNumber, message.body);
     }
     
     /**
-     * Check keyword-based filtering
+     * Splits a batch range in halves until slices are small enough to run directly
      */
-    private boolean checkKeywordFilter(String messageBody) {
-        Set<String> filterKeywords = preferencesManager.getFilterKeywords();
-        
-        if (filterKeywords == null || filterKeywords.isEmpty()) {
-            return true; // No keywords to filter
+    private class BatchTask extends RecursiveAction {
+        private final FilterSnapshot snapshot;
+        private final List<BatchMessage> messages;
+        private final byte[] verdicts;
+        private final int from;
+        private final int to;
+        
+        BatchTask(FilterSnapshot snapshot, List<BatchMessage> messages, byte[] verdicts, int from, int to) {
+            this.snapshot = snapshot;
+            this.messages = messages;
+            this.verdicts = verdicts;
+            this.from = from;
+            this.to = to;
         }
         
-        String lowerCaseMessage = messageBody.toLowerCase();
-        
-        for (String keyword : filterKeywords) {
-            if (!TextUtils.isEmpty(keyword) && 
-                lowerCaseMessage.contains(keyword.toLowerCase())) {
-                Log.d(TAG, "Message contains filtered keyword: " + keyword);
-                return false;
+        @Override
+        protected void compute() {
+            if (to - from <= BATCH_SLICE_SIZE) {
+                for (int i = from; i < to; i++) {
+                    verdicts[i] = evaluateOne(snapshot, messages.get(i));
+                }
+                return;
             }
+            int middle = (from + to) >>> 1;
+            invokeAll(new BatchTask(snapshot, messages, verdicts, from, middle),
+                      new BatchTask(snapshot, messages, verdicts, middle, to));
         }
-        
-        return true;
     }
     
     /**
-     * Check spam filtering using predefined patterns
+     * Runs the built-in checks in order and reports the first one that rejects the message
      */
-    private boolean checkSpamFilter(String messageBody) {
-        if (!preferencesManager.isFilterSpam()) {
-            return true; // Spam filtering disabled
-        }
-        
-        // Check against spam patterns
-        for (Pattern pattern : compiledSpamPatterns) {
-            if (pattern.matcher(messageBody).matches()) {
-                Log.d(TAG, "Message matched spam pattern: " + pattern.pattern());
-                return false;
+    private byte checkBuiltInFilters(FilterSnapshot snapshot, String normalizedNumber, String messageBody) {
+        for (byte check = VERDICT_LENGTH; check <= VERDICT_SPAM; check++) {
+            if (!passesCheck(check, snapshot, normalizedNumber, messageBody)) {
+                return check;
             }
         }
-        
-        // Additional heuristic checks
-        if (isLikelySpam(messageBody)) {
-            Log.d(TAG, "Message flagged as spam by heuristics");
-            return false;
+        return VERDICT_FORWARD;
+    }
+    
+    /**
+     * Runs the built-in check that reports the given verdict code
+     */
+    private boolean passesCheck(byte check, FilterSnapshot snapshot, String normalizedNumber, String messageBody) {
+        switch (check) {
+            case VERDICT_LENGTH:
+                return checkMessageLength(snapshot, messageBody);
+            case VERDICT_NUMBER:
+                return checkNumberFilter(snapshot, normalizedNumber);
+            case VERDICT_KEYWORD:
+                return checkKeywordFilter(snapshot, messageBody);
+            case VERDICT_SPAM:
+                return checkSpamFilter(snapshot, messageBody);
+            default:
+                return true;
         }
-        
-        return true;
     }
     
     /**
-     * Heuristic spam detection
+     * Check if message length is within configured constraints
      */
-    private boolean isLikelySpam(String messageBody) {
+    private boolean checkMessageLength(FilterSnapshot snapshot, String messageBody) {
         if (TextUtils.isEmpty(messageBody)) {
             return false;
         }
         
-        String lowerCase = messageBody.toLowerCase();
-        
-        // Check for excessive capitalization
-        long upperCaseCount = messageBody.chars().filter(Character::isUpperCase).count();
-        double upperCaseRatio = (double) upperCaseCount / messageBody.length();
-        if (upperCaseRatio > 0.7 && messageBody.length() > 20) {
-            return true;
+        int length = messageBody.length();
+        return length >= snapshot.getMinMessageLength() && length <= snapshot.getMaxMessageLength();
+    }
+    
+    /**
+     * Check number-based filtering (blacklist/whitelist)
+     */
+    private boolean checkNumberFilter(FilterSnapshot snapshot, String normalizedNumber) {
+        switch (snapshot.getFilterMode()) {
+            case BLACKLIST:
+                // Imported feed first: its Bloom filter rejects most numbers with a few memory reads
+                if (snapshot.getBlocklistFeed().contains(normalizedNumber, snapshot.isBlocklistFeedConfirm())) {
+                    return false;
+                }
+                return !snapshot.getBlockedNumbers().matches(normalizedNumber);
+                
+            case WHITELIST:
+                return snapshot.getAllowedNumbers().matches(normalizedNumber);
+                
+            case NONE:
+            default:
+                return true;
         }
-        
-        // Check for excessive exclamation marks
-        long exclamationCount = messageBody.chars().filter(c -> c == '!').count();
-        if (exclamationCount > 3) {
-            return true;
+    }
+    
+    /**
+     * Check keyword-based filtering
+     */
+    private boolean checkKeywordFilter(FilterSnapshot snapshot, String messageBody) {
+        String keyword = snapshot.getKeywordMatcher().findFirst(messageBody);
+        if (keyword != null) {
+            Log.d(TAG, "Message contains filtered keyword: " + keyword);
+            return false;
+        }
+        return true;
+    }
+    
+    /**
+     * Check spam filtering using the learned classifier once trained, otherwise the built-in spam rules
+     */
+    private boolean checkSpamFilter(FilterSnapshot snapshot, String messageBody) {
+        if (!snapshot.isFilterSpam()) {
+            return true; // Spam filtering disabled
         }
         
-        // Check for suspicious number patterns (like premium rate numbers)
-        if (lowerCase.matches(".*\\b(090|091|092|093|094|095|096|097|098|099)\\d{6,7}\\b.*")) {
+        SpamClassifier classifier = snapshot.getSpamClassifier();
+        if (classifier != null && classifier.isTrained()) {
+            double score = classifier.score(messageBody);
+            if (score >= snapshot.getSpamClassifierThreshold()) {
+                Log.d(TAG, "Message classified as spam, score " + score);
+                return false;
+            }
             return true;
         }
         
-        // Check for multiple consecutive special characters
-        if (lowerCase.matches(".*[!@#$%^&*()_+={}\\[\\]|\\\\:;\"'<>,.?/~`]{3,}.*")) {
-            return true;
+        long matchedRules = snapshot.getSpamEngine().evaluate(messageBody);
+        if (matchedRules != 0) {
+            Log.d(TAG, "Message matched spam rules: " + snapshot.getSpamEngine().describe(matchedRules));
+            return false;
         }
         
-        return false;
+        return true;
     }
     
     /**
      * Get filtering statistics for diagnostics
      */
     public String getFilteringStats() {
+        FilterSnapshot snapshot = FilterSnapshot.get(context);
+        
         StringBuilder sb = new StringBuilder();
         sb.append("=== SMS Filtering Configuration ===\n");
-        sb.append("Filter Enabled: ").append(preferencesManager.isFilterEnabled()).append("\n");
-        sb.append("Filter Mode: ").append(preferencesManager.getFilterMode()).append("\n");
-        sb.append("Spam Filter: ").append(preferencesManager.isFilterSpam()).append("\n");
-        sb.append("Min Message Length: ").append(preferencesManager.getMinMessageLength()).append("\n");
-        sb.append("Max Message Length: ").append(preferencesManager.getMaxMessageLength()).append("\n");
-        
-        Set<String> blockedNumbers = preferencesManager.getBlockedNumbers();
-        Set<String> allowedNumbers = preferencesManager.getAllowedNumbers();
-        Set<String> keywords = preferencesManager.getFilterKeywords();
-        
-        sb.append("Blocked Numbers: ").append(blockedNumbers != null ? blockedNumbers.size() : 0).append("\n");
-        sb.append("Allowed Numbers: ").append(allowedNumbers != null ? allowedNumbers.size() : 0).append("\n");
-        sb.append("Filter Keywords: ").append(keywords != null ? keywords.size() : 0).append("\n");
+        sb.append("Filter Enabled: ").append(snapshot.isFilterEnabled()).append("\n");
+        sb.append("Filter Mode: ").append(snapshot.getFilterMode()).append("\n");
+        sb.append("Spam Filter: ").append(snapshot.isFilterSpam()).append("\n");
+        sb.append("Spam Classifier: ").append(snapshot.getSpamClassifier() == null ? "off"
+            : snapshot.getSpamClassifier().isTrained() ? "on" : "on (needs training)").append("\n");
+        sb.append("Min Message Length: ").append(snapshot.getMinMessageLength()).append("\n");
+        sb.append("Max Message Length: ").append(snapshot.getMaxMessageLength()).append("\n");
+        sb.append("Blocked Numbers: ").append(snapshot.getBlockedNumbers().size()).append("\n");
+        sb.append("Blocklist Feed Numbers: ").append(snapshot.getBlocklistFeed().size()).append("\n");
+        sb.append("Allowed Numbers: ").append(snapshot.getAllowedNumbers().size()).append("\n");
+        sb.append("Filter Keywords: ").append(snapshot.getKeywordMatcher().size()).append("\n");
+        sb.append("Filter Rules: ").append(snapshot.getRules().size()).append("\n");
+        sb.append("Snapshot Version: ").append(snapshot.getVersion()).append("\n");
+        
+        sb.append("\n=== SMS Filtering Statistics ===\n");
+        sb.append("Total Filtered: ").append(metricsRegistry.counter(MetricsRegistry.SMS_FILTERED).get()).append("\n");
+        sb.append("By Length: ").append(metricsRegistry.filteredCounter(MetricsRegistry.REASON_LENGTH).get()).append("\n");
+        sb.append("By Number: ").append(metricsRegistry.filteredCounter(MetricsRegistry.REASON_NUMBER).get()).append("\n");
+        sb.append("By Keyword: ").append(metricsRegistry.filteredCounter(MetricsRegistry.REASON_KEYWORD).get()).append("\n");
+        sb.append("By Spam: ").append(metricsRegistry.filteredCounter(MetricsRegistry.REASON_SPAM).get()).append("\n");
+        sb.append("By Rule: ").append(metricsRegistry.filteredCounter(MetricsRegistry.REASON_RULE).get()).append("\n");
         
         return sb.toString();
     }
@@ -273,35 +371,64 @@ public class SmsFilter {
     public FilterResult testMessage(String senderNumber, String messageBody) {
         FilterResult result = new FilterResult();
         result.originalSender = senderNumber;
-        result.normalizedSender = SmsFormatter.normalizePhoneNumber(senderNumber);
+        result.normalizedSender = PhoneNumberNormalizer.normalize(senderNumber);
         result.messageBody = messageBody;
         result.shouldForward = true;
         result.filterReasons = new StringBuilder();
         
-        if (!preferencesManager.isFilterEnabled()) {
+        FilterSnapshot snapshot = FilterSnapshot.get(context);
+        
+        FilterRules rules = snapshot.getRules();
+        if (rules.size() > 0) {
+            long now = System.currentTimeMillis();
+            result.filterReasons.append(rules.explain(result.normalizedSender, messageBody, now));
+            FilterRules.Decision decision = rules.evaluate(result.normalizedSender, messageBody, now);
+            if (decision.action == FilterRules.Action.DROP) {
+                result.shouldForward = false;
+                return result;
+            }
+            if (decision.action == FilterRules.Action.FORWARD) {
+                return result;
+            }
+        }
+        
+        if (!snapshot.isFilterEnabled()) {
             result.filterReasons.append("Filtering disabled\n");
             return result;
         }
         
         // Test each filter
-        if (!checkMessageLength(messageBody)) {
+        if (!checkMessageLength(snapshot, messageBody)) {
             result.shouldForward = false;
             result.filterReasons.append("Message length out of range\n");
         }
         
-        if (!checkNumberFilter(result.normalizedSender)) {
+        if (!checkNumberFilter(snapshot, result.normalizedSender)) {
             result.shouldForward = false;
             result.filterReasons.append("Number filtered (blacklist/whitelist)\n");
         }
         
-        if (!checkKeywordFilter(messageBody)) {
+        String keyword = snapshot.getKeywordMatcher().findFirst(messageBody);
+        if (keyword != null) {
             result.shouldForward = false;
-            result.filterReasons.append("Contains filtered keyword\n");
+            result.filterReasons.append("Contains filtered keyword: ").append(keyword).append("\n");
         }
         
-        if (!checkSpamFilter(messageBody)) {
-            result.shouldForward = false;
-            result.filterReasons.append("Detected as spam\n");
+        SpamClassifier classifier = snapshot.getSpamClassifier();
+        if (snapshot.isFilterSpam() && classifier != null && classifier.isTrained()) {
+            double score = classifier.score(messageBody);
+            result.filterReasons.append(String.format(Locale.US, "Spam classifier score: %.3f\n", score));
+            if (score >= snapshot.getSpamClassifierThreshold()) {
+                result.shouldForward = false;
+                result.filterReasons.append("Classified as spam\n");
+            }
+        } else if (snapshot.isFilterSpam()) {
+            long matchedRules = snapshot.getSpamEngine().evaluate(messageBody);
+            if (matchedRules != 0) {
+                result.shouldForward = false;
+                result.filterReasons.append("Detected as spam: ")
+                    .append(snapshot.getSpamEngine().describe(matchedRules)).append("\n");
+            }
         }
         
         if (result.shouldForward) {
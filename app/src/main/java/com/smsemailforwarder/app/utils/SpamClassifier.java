@@ -0,0 +1,460 @@
+package com.smsemailforwarder.app.utils;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Naive-Bayes spam classifier over hashed message tokens
+ * Learns from the user's "spam / not spam" feedback and persists the token counts in a compact
+ * binary file. The model is loaded on first use; until it exists it is seeded from the bundled
+ * labeled corpus (assets/spam_corpus.tsv). Scoring walks the message once and allocates nothing.
+ */
+public final class SpamClassifier {
+
+    private static final String TAG = "SpamClassifier";
+
+    private static final String MODEL_FILE = "spam_model.bin";
+    private static final String CORPUS_ASSET = "spam_corpus.tsv";
+    private static final int MODEL_MAGIC = 0x534D4E42; // "SMNB"
+    private static final int MODEL_VERSION = 2;
+    private static final int MODEL_VERSION_UNLABELED = 1;
+
+    // Both classes need this many user-labeled examples before the classifier is trusted;
+    // the bundled corpus only seeds the counts and never counts toward the gate
+    public static final int MIN_TRAINING_MESSAGES = 10;
+    public static final double DEFAULT_THRESHOLD = 0.9;
+
+    private static final int MIN_TOKEN_LENGTH = 2;
+    private static final int MAX_TOKEN_LENGTH = 24;
+    private static final int NUMBER_TOKEN_LENGTH = 4;
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    // Digit runs of NUMBER_TOKEN_LENGTH or more (codes, amounts, phone numbers) share one token
+    private static final long NUMBER_TOKEN = 0x6e756d6265727321L;
+
+    private static volatile SpamClassifier instance;
+
+    private final Context context;
+    private final File modelFile;
+    private final ExecutorService saveExecutor = Executors.newSingleThreadExecutor();
+    private final AtomicBoolean savePending = new AtomicBoolean(false);
+
+    private boolean loaded;
+    private TokenCountTable table = new TokenCountTable(1024);
+    private int spamMessages;
+    private int hamMessages;
+    private int labeledSpamMessages;
+    private int labeledHamMessages;
+    private long spamTokens;
+    private long hamTokens;
+    private int cursor; // tokenizer position, guarded by this
+
+    private SpamClassifier(Context context) {
+        this(context, context.getFilesDir());
+    }
+
+    SpamClassifier(Context context, File dir) {
+        this.context = context;
+        this.modelFile = new File(dir, MODEL_FILE);
+    }
+
+    public static SpamClassifier getInstance(Context context) {
+        SpamClassifier classifier = instance;
+        if (classifier == null) {
+            synchronized (SpamClassifier.class) {
+                classifier = instance;
+                if (classifier == null) {
+                    classifier = new SpamClassifier(context.getApplicationContext());
+                    instance = classifier;
+                }
+            }
+        }
+        return classifier;
+    }
+
+    /**
+     * Probability that the message is spam, between 0 and 1
+     */
+    public synchronized double score(CharSequence message) {
+        ensureLoaded();
+        if (message == null || spamMessages == 0 || hamMessages == 0) {
+            return 0.5;
+        }
+
+        // Laplace-smoothed log likelihood ratio; tokens never seen carry no evidence
+        double vocabulary = table.size();
+        double spamDenominator = Math.log(spamTokens + vocabulary);
+        double hamDenominator = Math.log(hamTokens + vocabulary);
+        double logRatio = Math.log(spamMessages) - Math.log(hamMessages);
+
+        cursor = 0;
+        while (cursor < message.length()) {
+            long token = nextToken(message);
+            if (token == 0) {
+                continue;
+            }
+            int slot = table.find(token);
+            if (slot < 0) {
+                continue;
+            }
+            logRatio += Math.log(table.spamCounts[slot] + 1) - spamDenominator
+                      - Math.log(table.hamCounts[slot] + 1) + hamDenominator;
+        }
+
+        return 1.0 / (1.0 + Math.exp(-logRatio));
+    }
+
+    /**
+     * Whether the model has seen enough of both classes to be used instead of the built-in rules
+     */
+    public synchronized boolean isTrained() {
+        ensureLoaded();
+        return labeledSpamMessages >= MIN_TRAINING_MESSAGES
+                && labeledHamMessages >= MIN_TRAINING_MESSAGES;
+    }
+
+    /**
+     * Adds one labeled message to the model and saves it in the background
+     */
+    public void train(CharSequence message, boolean spam) {
+        synchronized (this) {
+            ensureLoaded();
+            if (learn(message, spam)) {
+                if (spam) {
+                    labeledSpamMessages++;
+                } else {
+                    labeledHamMessages++;
+                }
+            }
+        }
+        scheduleSave();
+    }
+
+    /**
+     * Forgets all training, including the bundled corpus
+     */
+    public void reset() {
+        synchronized (this) {
+            table = new TokenCountTable(1024);
+            spamMessages = 0;
+            hamMessages = 0;
+            labeledSpamMessages = 0;
+            labeledHamMessages = 0;
+            spamTokens = 0;
+            hamTokens = 0;
+            loaded = true;
+        }
+        scheduleSave();
+    }
+
+    public synchronized String getSummary() {
+        ensureLoaded();
+        return "Spam Messages: " + spamMessages + "\n" +
+               "Ham Messages: " + hamMessages + "\n" +
+               "Labeled by You: " + labeledSpamMessages + " spam, " + labeledHamMessages + " ham\n" +
+               "Tokens: " + table.size() + "\n" +
+               "Model Size: " + (modelFile.exists() ? modelFile.length() : 0) + " bytes\n";
+    }
+
+    // ---- Training ----
+
+    /**
+     * @return Whether the message was counted
+     */
+    private boolean learn(CharSequence message, boolean spam) {
+        if (message == null) {
+            return false;
+        }
+
+        cursor = 0;
+        while (cursor < message.length()) {
+            long token = nextToken(message);
+            if (token == 0) {
+                continue;
+            }
+            table.increment(token, spam);
+            if (spam) {
+                spamTokens++;
+            } else {
+                hamTokens++;
+            }
+        }
+
+        if (spam) {
+            spamMessages++;
+        } else {
+            hamMessages++;
+        }
+        return true;
+    }
+
+    /**
+     * Hashes the next run of letters and digits starting at the cursor and moves past it
+     * @return Token key, or 0 for tokens too short to carry meaning
+     */
+    private long nextToken(CharSequence message) {
+        int length = message.length();
+        long hash = FNV_OFFSET;
+        int tokenLength = 0;
+        boolean digits = true;
+        while (cursor < length && Character.isLetterOrDigit(message.charAt(cursor))) {
+            char c = KeywordMatcher.foldChar(message.charAt(cursor++));
+            if (tokenLength < MAX_TOKEN_LENGTH) {
+                hash = (hash ^ c) * FNV_PRIME;
+            }
+            digits &= c >= '0' && c <= '9';
+            tokenLength++;
+        }
+        cursor++;
+
+        if (tokenLength < MIN_TOKEN_LENGTH) {
+            return 0;
+        }
+        if (digits) {
+            return tokenLength >= NUMBER_TOKEN_LENGTH ? NUMBER_TOKEN : 0;
+        }
+        return hash != 0 ? hash : 1;
+    }
+
+    // ---- Persistence ----
+
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+
+        long start = System.nanoTime();
+        if (modelFile.exists()) {
+            loadModel();
+        } else {
+            seedFromCorpus();
+        }
+        Log.d(TAG, "Spam model ready in " + (System.nanoTime() - start) / 1000000L + "ms: " +
+              spamMessages + " spam, " + hamMessages + " ham, " + table.size() + " tokens");
+    }
+
+    private void seedFromCorpus() {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                context.getAssets().open(CORPUS_ASSET), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int tab = line.indexOf('\t');
+                if (tab < 0 || line.startsWith("#")) {
+                    continue;
+                }
+                learn(line.substring(tab + 1), line.startsWith("spam"));
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to read bundled spam corpus", e);
+        }
+    }
+
+    /**
+     * Reads the whole file before replacing the in-memory model, so a truncated or unreadable
+     * file leaves nothing half-loaded; the model then starts again from the bundled corpus
+     */
+    private void loadModel() {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(modelFile)))) {
+            int version = in.readInt() == MODEL_MAGIC ? in.readInt() : -1;
+            if (version != MODEL_VERSION && version != MODEL_VERSION_UNLABELED) {
+                Log.w(TAG, "Ignoring spam model with unknown format");
+                seedFromCorpus();
+                return;
+            }
+
+            int newSpamMessages = in.readInt();
+            int newHamMessages = in.readInt();
+            // Older models did not separate user labels from the seed; the user has to label again
+            int newLabeledSpam = 0;
+            int newLabeledHam = 0;
+            if (version == MODEL_VERSION) {
+                newLabeledSpam = in.readInt();
+                newLabeledHam = in.readInt();
+            }
+            long newSpamTokens = in.readLong();
+            long newHamTokens = in.readLong();
+            int entries = in.readInt();
+            if (entries < 0) {
+                throw new IOException("Invalid token count " + entries);
+            }
+            TokenCountTable newTable = new TokenCountTable(entries);
+            for (int i = 0; i < entries; i++) {
+                newTable.put(in.readLong(), in.readInt(), in.readInt());
+            }
+
+            table = newTable;
+            spamMessages = newSpamMessages;
+            hamMessages = newHamMessages;
+            labeledSpamMessages = newLabeledSpam;
+            labeledHamMessages = newLabeledHam;
+            spamTokens = newSpamTokens;
+            hamTokens = newHamTokens;
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to read spam model, starting from the bundled corpus", e);
+            seedFromCorpus();
+        }
+    }
+
+    private void scheduleSave() {
+        if (!savePending.compareAndSet(false, true)) {
+            return;
+        }
+        saveExecutor.execute(() -> {
+            savePending.set(false);
+            saveModel();
+        });
+    }
+
+    private void saveModel() {
+        File tempFile = new File(modelFile.getPath() + ".tmp");
+
+        // Hold the lock only while serializing; training is rare and the file is small
+        synchronized (this) {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+                out.writeInt(MODEL_MAGIC);
+                out.writeInt(MODEL_VERSION);
+                out.writeInt(spamMessages);
+                out.writeInt(hamMessages);
+                out.writeInt(labeledSpamMessages);
+                out.writeInt(labeledHamMessages);
+                out.writeLong(spamTokens);
+                out.writeLong(hamTokens);
+                out.writeInt(table.size());
+                for (int slot = 0; slot < table.keys.length; slot++) {
+                    if (table.keys[slot] != 0) {
+                        out.writeLong(table.keys[slot]);
+                        out.writeInt(table.spamCounts[slot]);
+                        out.writeInt(table.hamCounts[slot]);
+                    }
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to write spam model", e);
+                return;
+            }
+        }
+
+        if (!tempFile.renameTo(modelFile)) {
+            Log.w(TAG, "Failed to replace spam model");
+        }
+    }
+
+    /**
+     * Open-addressing map from token hash to per-class counts, kept in parallel primitive arrays
+     * Key 0 marks an empty slot.
+     */
+    static final class TokenCountTable {
+        long[] keys;
+        int[] spamCounts;
+        int[] hamCounts;
+        private int size;
+
+        TokenCountTable(int expectedEntries) {
+            int capacity = 16;
+            while (capacity * 2 < expectedEntries * 3) {
+                capacity <<= 1;
+            }
+            allocate(capacity);
+        }
+
+        int size() {
+            return size;
+        }
+
+        /**
+         * Slot holding the key, or -1 if absent
+         */
+        int find(long key) {
+            int mask = keys.length - 1;
+            int slot = spread(key) & mask;
+            while (true) {
+                long current = keys[slot];
+                if (current == key) {
+                    return slot;
+                }
+                if (current == 0) {
+                    return -1;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        void increment(long key, boolean spam) {
+            int slot = insert(key);
+            if (spam) {
+                spamCounts[slot]++;
+            } else {
+                hamCounts[slot]++;
+            }
+        }
+
+        void put(long key, int spamCount, int hamCount) {
+            int slot = insert(key);
+            spamCounts[slot] = spamCount;
+            hamCounts[slot] = hamCount;
+        }
+
+        private int insert(long key) {
+            // Keep the load factor under 2/3 so probe chains stay short
+            if ((size + 1) * 3 > keys.length * 2) {
+                rehash(keys.length << 1);
+            }
+            int mask = keys.length - 1;
+            int slot = spread(key) & mask;
+            while (keys[slot] != 0 && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            if (keys[slot] == 0) {
+                keys[slot] = key;
+                size++;
+            }
+            return slot;
+        }
+
+        private void rehash(int capacity) {
+            long[] oldKeys = keys;
+            int[] oldSpam = spamCounts;
+            int[] oldHam = hamCounts;
+            allocate(capacity);
+            int mask = capacity - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != 0) {
+                    int slot = spread(oldKeys[i]) & mask;
+                    while (keys[slot] != 0) {
+                        slot = (slot + 1) & mask;
+                    }
+                    keys[slot] = oldKeys[i];
+                    spamCounts[slot] = oldSpam[i];
+                    hamCounts[slot] = oldHam[i];
+                }
+            }
+        }
+
+        private void allocate(int capacity) {
+            keys = new long[capacity];
+            spamCounts = new int[capacity];
+            hamCounts = new int[capacity];
+        }
+
+        private static int spread(long key) {
+            return (int) (key ^ (key >>> 32));
+        }
+    }
+}
@@ -0,0 +1,320 @@
+package com.smsemailforwarder.app.utils;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Evaluates all built-in spam rules in a single pass over the message
+ * Each pattern rule is an ordered sequence of fragments ("poziv" ... "sada"). Fragments are
+ * probed only at positions whose folded character matches their first character, and rule
+ * progress is advanced greedily, so no backtracking is needed. The caps, exclamation and
+ * special-character heuristics are counted in the same pass.
+ * Results are bitmasks of rule indices, so evaluation does not allocate per match.
+ *
+ * Fragments are found anywhere in the text, which deliberately matches more than the
+ * whole-message regexes this replaced: those used "." without DOTALL, so a message with a
+ * line break never matched any pattern rule or the special-character heuristic; "www." only
+ * matched at the very end of the message; and case folding was ASCII only.
+ */
+public final class SpamRuleEngine {
+
+    // Fragment that matches a run of at least 4 digits (regex \d{4,})
+    private static final String DIGIT_RUN = "\\d{4,}";
+    private static final int DIGIT_RUN_LENGTH = 4;
+
+    private static final String SPECIAL_CHARS = "!@#$%^&*()_+={}[]|\\:;\"'<>,.?/~`";
+
+    /**
+     * A spam rule: an id for diagnostics and the fragments that must appear in order
+     */
+    public static final class Rule {
+        public final String id;
+        final String[] fragments;
+
+        Rule(String id, String... fragments) {
+            this.id = id;
+            this.fragments = fragments;
+        }
+    }
+
+    // Common spam patterns (Croatian context)
+    private static final Rule[] PATTERN_RULES = {
+        new Rule("free", "besplat"),                   // Free/gratis
+        new Rule("prize", "nagrada"),                  // Prize/reward
+        new Rule("winner", "pobjednik"),               // Winner
+        new Rule("credit", "kredit"),                  // Credit
+        new Rule("call_now", "poziv", "sada"),         // Call now
+        new Rule("urgent", "hitno"),                   // Urgent
+        new Rule("limited", "ograničen"),              // Limited
+        new Rule("exclusive", "ekskluziv"),            // Exclusive
+        new Rule("bonus", "bonus"),                    // Bonus
+        new Rule("promotion", "promocij"),             // Promotion
+        new Rule("click_link", "klik", "link"),        // Click link
+        new Rule("register", "registruj"),             // Register
+        new Rule("confirm", "potvrdi"),                // Confirm
+        new Rule("web_link", "www."),                  // Web links
+        new Rule("http_link", "http"),                 // HTTP links
+        new Rule("bitly", "bit.ly"),                   // Shortened URLs
+        new Rule("tinyurl", "tinyurl"),                // Shortened URLs
+        new Rule("amount_eur", DIGIT_RUN, "€"),        // Large amounts with Euro
+        new Rule("amount_kn", DIGIT_RUN, "kn"),        // Large amounts with Kuna
+        new Rule("amount_din", DIGIT_RUN, "din")       // Large amounts with Dinar
+    };
+
+    // Heuristic rules, evaluated from counters collected during the same pass
+    public static final String RULE_EXCESSIVE_CAPS = "excessive_caps";
+    public static final String RULE_EXCESSIVE_EXCLAMATION = "excessive_exclamation";
+    public static final String RULE_SPECIAL_CHARS = "special_chars";
+    public static final String RULE_PREMIUM_NUMBER = "premium_number";
+
+    private static final SpamRuleEngine DEFAULT = new SpamRuleEngine(PATTERN_RULES);
+
+    private final String[] ruleIds;
+    private final int[] ruleLengths;
+
+    // Distinct fragments and, for each, the (rule, step) pairs waiting on it encoded as rule << 8 | step
+    private final String[] fragments;
+    private final int[][] fragmentWaiters;
+    private final int digitRunFragment;
+
+    // Literal prefilter: fragments by folded first character (ASCII), and the rest
+    private final int[][] fragmentsByFirstChar = new int[128][];
+    private final int[] nonAsciiFragments;
+
+    private final int capsBit;
+    private final int exclamationBit;
+    private final int specialCharsBit;
+    private final int premiumNumberBit;
+
+    private SpamRuleEngine(Rule[] patternRules) {
+        int ruleCount = patternRules.length + 4;
+        if (ruleCount > 64) {
+            throw new IllegalArgumentException("At most 64 rules are supported");
+        }
+
+        ruleIds = new String[ruleCount];
+        ruleLengths = new int[ruleCount];
+
+        Map<String, List<Integer>> waiters = new LinkedHashMap<>();
+        for (int rule = 0; rule < patternRules.length; rule++) {
+            ruleIds[rule] = patternRules[rule].id;
+            ruleLengths[rule] = patternRules[rule].fragments.length;
+            for (int step = 0; step < patternRules[rule].fragments.length; step++) {
+                String fragment = patternRules[rule].fragments[step];
+                String key = DIGIT_RUN.equals(fragment) ? DIGIT_RUN : KeywordMatcher.fold(fragment);
+                List<Integer> list = waiters.get(key);
+                if (list == null) {
+                    list = new ArrayList<>();
+                    waiters.put(key, list);
+                }
+                list.add(rule << 8 | step);
+            }
+        }
+
+        capsBit = patternRules.length;
+        exclamationBit = capsBit + 1;
+        specialCharsBit = capsBit + 2;
+        premiumNumberBit = capsBit + 3;
+        ruleIds[capsBit] = RULE_EXCESSIVE_CAPS;
+        ruleIds[exclamationBit] = RULE_EXCESSIVE_EXCLAMATION;
+        ruleIds[specialCharsBit] = RULE_SPECIAL_CHARS;
+        ruleIds[premiumNumberBit] = RULE_PREMIUM_NUMBER;
+
+        fragments = new String[waiters.size()];
+        fragmentWaiters = new int[waiters.size()][];
+        int digitRun = -1;
+        List<Integer> nonAscii = new ArrayList<>();
+        List<List<Integer>> byFirstChar = new ArrayList<>();
+        for (int i = 0; i < 128; i++) {
+            byFirstChar.add(null);
+        }
+
+        int index = 0;
+        for (Map.Entry<String, List<Integer>> entry : waiters.entrySet()) {
+            fragments[index] = entry.getKey();
+            fragmentWaiters[index] = toArray(entry.getValue());
+
+            if (DIGIT_RUN.equals(entry.getKey())) {
+                digitRun = index;
+            } else {
+                char first = entry.getKey().charAt(0);
+                if (first < 128) {
+                    if (byFirstChar.get(first) == null) {
+                        byFirstChar.set(first, new ArrayList<Integer>());
+                    }
+                    byFirstChar.get(first).add(index);
+                } else {
+                    nonAscii.add(index);
+                }
+            }
+            index++;
+        }
+        digitRunFragment = digitRun;
+
+        for (int c = 0; c < 128; c++) {
+            if (byFirstChar.get(c) != null) {
+                fragmentsByFirstChar[c] = toArray(byFirstChar.get(c));
+            }
+        }
+        nonAsciiFragments = toArray(nonAscii);
+    }
+
+    /**
+     * Engine with the built-in rule set
+     */
+    public static SpamRuleEngine getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Evaluates every rule against the message
+     * @return Bitmask of matched rule indices (0 if the message looks clean)
+     */
+    public long evaluate(CharSequence text) {
+        if (text == null || text.length() == 0) {
+            return 0L;
+        }
+
+        long matched = 0L;
+        int[] progress = new int[ruleIds.length];
+        int[] nextStart = new int[ruleIds.length];
+
+        int length = text.length();
+        int upperCase = 0;
+        int exclamations = 0;
+        int specialRun = 0;
+        int digitRun = 0;
+
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+
+            if (Character.isUpperCase(c)) {
+                upperCase++;
+            }
+            if (c == '!') {
+                exclamations++;
+            }
+            if (SPECIAL_CHARS.indexOf(c) >= 0) {
+                if (++specialRun >= 3) {
+                    matched |= 1L << specialCharsBit;
+                }
+            } else {
+                specialRun = 0;
+            }
+
+            if (c >= '0' && c <= '9') {
+                if (++digitRun == DIGIT_RUN_LENGTH && digitRunFragment >= 0) {
+                    matched |= advance(digitRunFragment, i - DIGIT_RUN_LENGTH + 1, i + 1, progress, nextStart);
+                }
+            } else {
+                digitRun = 0;
+            }
+
+            char folded = KeywordMatcher.foldChar(c);
+            int[] candidates = folded < 128 ? fragmentsByFirstChar[folded] : nonAsciiFragments;
+            if (candidates == null) {
+                continue;
+            }
+            for (int fragment : candidates) {
+                if (matchesAt(text, i, fragments[fragment])) {
+                    matched |= advance(fragment, i, i + fragments[fragment].length(), progress, nextStart);
+                }
+            }
+        }
+
+        if (length > 20 && (double) upperCase / length > 0.7) {
+            matched |= 1L << capsBit;
+        }
+        if (exclamations > 3) {
+            matched |= 1L << exclamationBit;
+        }
+        if (NumberingPlan.findEmbeddedNumber(text, NumberingPlan.NumberType.PREMIUM) != null) {
+            matched |= 1L << premiumNumberBit;
+        }
+
+        return matched;
+    }
+
+    /**
+     * Convenience check for callers that only need a yes/no answer
+     */
+    public boolean isSpam(CharSequence text) {
+        return evaluate(text) != 0L;
+    }
+
+    /**
+     * Ids of the rules set in a bitmask returned by {@link #evaluate}
+     */
+    public List<String> getRuleIds(long matched) {
+        List<String> ids = new ArrayList<>();
+        for (int rule = 0; rule < ruleIds.length; rule++) {
+            if ((matched & (1L << rule)) != 0) {
+                ids.add(ruleIds[rule]);
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Comma separated rule ids for logs and diagnostics
+     */
+    public String describe(long matched) {
+        StringBuilder sb = new StringBuilder();
+        for (String id : getRuleIds(matched)) {
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            sb.append(id);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Number of rules (pattern rules plus heuristics)
+     */
+    public int getRuleCount() {
+        return ruleIds.length;
+    }
+
+    /**
+     * Advances every rule waiting on the fragment found at [start, end)
+     * @return Bits of the rules completed by this fragment
+     */
+    private long advance(int fragment, int start, int end, int[] progress, int[] nextStart) {
+        long completed = 0L;
+        for (int waiter : fragmentWaiters[fragment]) {
+            int rule = waiter >>> 8;
+            int step = waiter & 0xFF;
+            if (progress[rule] == step && start >= nextStart[rule]) {
+                progress[rule] = step + 1;
+                nextStart[rule] = end;
+                if (progress[rule] == ruleLengths[rule]) {
+                    completed |= 1L << rule;
+                }
+            }
+        }
+        return completed;
+    }
+
+    private static boolean matchesAt(CharSequence text, int offset, String foldedFragment) {
+        if (offset + foldedFragment.length() > text.length()) {
+            return false;
+        }
+        for (int i = 0; i < foldedFragment.length(); i++) {
+            if (KeywordMatcher.foldChar(text.charAt(offset + i)) != foldedFragment.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int[] toArray(List<Integer> values) {
+        int[] array = new int[values.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = values.get(i);
+        }
+        return array;
+    }
+}
@@ -0,0 +1,422 @@
+package com.smsemailforwarder.app.utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.mail.Address;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MailDateFormat;
+import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeUtility;
+
+/**
+ * MimeMessage that renders its body while it is being written to the SMTP DATA stream
+ * The body is produced by a {@link BodyWriter} (usually a template) straight through a
+ * quoted-printable encoder, so no body String or encoded copy is built in memory. Header
+ * lines that only depend on the configured addresses are encoded once and reused. An optional
+ * binary attachment is streamed the same way through a base64 encoder.
+ *
+ * Lines never start with '.', so the output needs no dot-stuffing; the SMTP transport
+ * stream still applies its own, which leaves such output unchanged.
+ */
+public class StreamingMimeMessage extends MimeMessage {
+
+    /**
+     * Writes one body part as text
+     */
+    public interface BodyWriter {
+        void write(Writer out) throws IOException;
+    }
+
+    /**
+     * Binary attachment written while the message is sent
+     */
+    public static final class Attachment {
+        final String fileName;
+        final String contentType;
+        final AttachmentWriter writer;
+
+        /**
+         * @param fileName ASCII file name shown to the recipient
+         */
+        public Attachment(String fileName, String contentType, AttachmentWriter writer) {
+            this.fileName = fileName;
+            this.contentType = contentType;
+            this.writer = writer;
+        }
+    }
+
+    /**
+     * Writes the raw bytes of an attachment; must not close the stream
+     */
+    public interface AttachmentWriter {
+        void write(OutputStream out) throws IOException;
+    }
+
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] MIME_VERSION = ascii("MIME-Version: 1.0\r\n");
+    private static final byte[] TEXT_PART_HEADERS = ascii(
+        "Content-Type: text/plain; charset=UTF-8\r\n" +
+        "Content-Transfer-Encoding: quoted-printable\r\n");
+    private static final byte[] HTML_PART_HEADERS = ascii(
+        "Content-Type: text/html; charset=UTF-8\r\n" +
+        "Content-Transfer-Encoding: quoted-printable\r\n");
+
+    private static final AtomicLong sequence = new AtomicLong();
+    private static final ThreadLocal<MailDateFormat> dateFormat = new ThreadLocal<MailDateFormat>() {
+        @Override
+        protected MailDateFormat initialValue() {
+            return new MailDateFormat();
+        }
+    };
+
+    // From/To header lines of the last addresses used; they rarely change
+    private static volatile AddressHeaders addressHeaders;
+
+    private final String subject;
+    private final String extraHeaders;
+    private final BodyWriter textBody;
+    private final BodyWriter htmlBody;
+    private final Attachment attachment;
+
+    /**
+     * @param extraHeaders Additional header lines, each ending in CRLF, or null
+     * @param htmlBody HTML alternative, or null for a text/plain message
+     */
+    public StreamingMimeMessage(Session session, String from, String to, String subject, String extraHeaders,
+                                BodyWriter textBody, BodyWriter htmlBody) throws MessagingException {
+        this(session, from, to, subject, extraHeaders, textBody, htmlBody, null);
+    }
+
+    /**
+     * @param attachment Sent after the body as multipart/mixed, or null for none
+     */
+    public StreamingMimeMessage(Session session, String from, String to, String subject, String extraHeaders,
+                                BodyWriter textBody, BodyWriter htmlBody, Attachment attachment)
+            throws MessagingException {
+        super(session);
+        // The envelope (MAIL FROM / RCPT TO) is still taken from these headers
+        setFrom(new InternetAddress(from));
+        setRecipients(RecipientType.TO, InternetAddress.parse(to));
+        this.subject = subject;
+        this.extraHeaders = extraHeaders;
+        this.textBody = textBody;
+        this.htmlBody = htmlBody;
+        this.attachment = attachment;
+    }
+
+    /**
+     * Headers are generated in writeTo; there is no stored content to derive them from
+     */
+    @Override
+    protected void updateHeaders() {
+    }
+
+    @Override
+    public void writeTo(OutputStream os, String[] ignoreList) throws IOException, MessagingException {
+        String from = getHeader("From", ",");
+        String to = getHeader("To", ",");
+        os.write(getAddressHeaders(from, to));
+
+        StringBuilder headers = new StringBuilder(256);
+        headers.append("Date: ").append(dateFormat.get().format(new Date())).append("\r\n");
+        headers.append("Message-ID: <").append(System.currentTimeMillis()).append('.')
+               .append(sequence.incrementAndGet()).append(".smsforwarder@")
+               .append(domainOf(from)).append(">\r\n");
+        headers.append("Subject: ")
+               .append(MimeUtility.fold(9, MimeUtility.encodeText(subject, "UTF-8", null))).append("\r\n");
+        if (extraHeaders != null) {
+            headers.append(extraHeaders);
+        }
+        os.write(ascii(headers.toString()));
+        os.write(MIME_VERSION);
+
+        if (attachment == null) {
+            writeBody(os);
+            os.write(CRLF);
+            os.flush();
+            return;
+        }
+
+        String boundary = newBoundary();
+        os.write(ascii("Content-Type: multipart/mixed;\r\n\tboundary=\"" + boundary + "\"\r\n\r\n"));
+        byte[] delimiter = ascii("\r\n--" + boundary + "\r\n");
+        os.write(delimiter, 2, delimiter.length - 2);
+        writeBody(os);
+        os.write(delimiter);
+        os.write(ascii("Content-Type: " + attachment.contentType + "; name=\"" + attachment.fileName + "\"\r\n" +
+                       "Content-Transfer-Encoding: base64\r\n" +
+                       "Content-Disposition: attachment; filename=\"" + attachment.fileName + "\"\r\n\r\n"));
+        Base64OutputStream encoder = new Base64OutputStream(os);
+        attachment.writer.write(encoder);
+        encoder.finish();
+        os.write(ascii("\r\n--" + boundary + "--\r\n"));
+        os.flush();
+    }
+
+    /**
+     * Writes the text entity, or the text/HTML alternatives, without a final line break
+     */
+    private void writeBody(OutputStream os) throws IOException {
+        if (htmlBody == null) {
+            os.write(TEXT_PART_HEADERS);
+            os.write(CRLF);
+            writePart(os, textBody);
+            return;
+        }
+
+        String boundary = newBoundary();
+        os.write(ascii("Content-Type: multipart/alternative;\r\n\tboundary=\"" + boundary + "\"\r\n\r\n"));
+        byte[] delimiter = ascii("\r\n--" + boundary + "\r\n");
+        os.write(delimiter, 2, delimiter.length - 2);
+        os.write(TEXT_PART_HEADERS);
+        os.write(CRLF);
+        writePart(os, textBody);
+        os.write(delimiter);
+        os.write(HTML_PART_HEADERS);
+        os.write(CRLF);
+        writePart(os, htmlBody);
+        os.write(ascii("\r\n--" + boundary + "--"));
+    }
+
+    private static String newBoundary() {
+        return "----=_Part_" + Long.toHexString(System.nanoTime()) + "_" + sequence.incrementAndGet();
+    }
+
+    private static void writePart(OutputStream os, BodyWriter body) throws IOException {
+        QuotedPrintableOutputStream encoder = new QuotedPrintableOutputStream(os);
+        Writer writer = new OutputStreamWriter(encoder, StandardCharsets.UTF_8);
+        body.write(writer);
+        writer.flush();
+        encoder.finish();
+    }
+
+    private static byte[] getAddressHeaders(String from, String to) throws MessagingException {
+        AddressHeaders cached = addressHeaders;
+        if (cached != null && cached.from.equals(from) && cached.to.equals(to)) {
+            return cached.encoded;
+        }
+        cached = new AddressHeaders(from, to);
+        addressHeaders = cached;
+        return cached.encoded;
+    }
+
+    private static String domainOf(String address) {
+        int at = address != null ? address.lastIndexOf('@') : -1;
+        if (at < 0) {
+            return "localhost";
+        }
+        int end = address.indexOf('>', at);
+        return address.substring(at + 1, end > at ? end : address.length()).trim();
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Encoded From and To header lines for one pair of address lists
+     */
+    private static final class AddressHeaders {
+        final String from;
+        final String to;
+        final byte[] encoded;
+
+        AddressHeaders(String from, String to) throws MessagingException {
+            this.from = from;
+            this.to = to;
+            Address[] fromAddresses = InternetAddress.parse(from);
+            Address[] toAddresses = InternetAddress.parse(to);
+            this.encoded = ascii("From: " + InternetAddress.toString(fromAddresses, 6) + "\r\n" +
+                                 "To: " + InternetAddress.toString(toAddresses, 4) + "\r\n");
+        }
+    }
+
+    /**
+     * Base64 encoder for attachments (RFC 2045)
+     * Every 57 input bytes become one 76 character line ending in CRLF.
+     */
+    static final class Base64OutputStream extends OutputStream {
+        private static final int LINE_INPUT = 57;
+        private static final byte[] ALPHABET =
+            ascii("ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/");
+
+        private final OutputStream out;
+        private final byte[] input = new byte[LINE_INPUT];
+        private final byte[] line = new byte[LINE_INPUT / 3 * 4 + 2];
+        private int length;
+
+        Base64OutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            input[length++] = (byte) b;
+            if (length == LINE_INPUT) {
+                encodeLine();
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                int count = Math.min(len, LINE_INPUT - length);
+                System.arraycopy(b, off, input, length, count);
+                length += count;
+                off += count;
+                len -= count;
+                if (length == LINE_INPUT) {
+                    encodeLine();
+                }
+            }
+        }
+
+        /**
+         * Encodes the last partial line with padding; does not close the stream
+         */
+        void finish() throws IOException {
+            if (length > 0) {
+                encodeLine();
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            // Like the quoted-printable encoder, only whole lines are written before finish()
+        }
+
+        private void encodeLine() throws IOException {
+            int pos = 0;
+            int i = 0;
+            for (; i + 3 <= length; i += 3) {
+                int bits = (input[i] & 0xFF) << 16 | (input[i + 1] & 0xFF) << 8 | input[i + 2] & 0xFF;
+                line[pos++] = ALPHABET[bits >>> 18];
+                line[pos++] = ALPHABET[bits >>> 12 & 0x3F];
+                line[pos++] = ALPHABET[bits >>> 6 & 0x3F];
+                line[pos++] = ALPHABET[bits & 0x3F];
+            }
+            if (i < length) {
+                int bits = (input[i] & 0xFF) << 16 | (i + 1 < length ? (input[i + 1] & 0xFF) << 8 : 0);
+                line[pos++] = ALPHABET[bits >>> 18];
+                line[pos++] = ALPHABET[bits >>> 12 & 0x3F];
+                line[pos++] = i + 1 < length ? ALPHABET[bits >>> 6 & 0x3F] : (byte) '=';
+                line[pos++] = '=';
+            }
+            line[pos++] = '\r';
+            line[pos++] = '\n';
+            out.write(line, 0, pos);
+            length = 0;
+        }
+    }
+
+    /**
+     * Quoted-printable encoder for UTF-8 text (RFC 2045)
+     * LF becomes a CRLF line break, CR is dropped, long lines get soft breaks, and whitespace
+     * before a line break or a '.' at the start of a line is encoded. Output is written a
+     * line at a time.
+     */
+    static final class QuotedPrintableOutputStream extends OutputStream {
+        private static final int MAX_LINE = 76;
+        private static final byte[] HEX = ascii("0123456789ABCDEF");
+
+        private final OutputStream out;
+        private final byte[] line = new byte[MAX_LINE + 2];
+        private int length;
+        private int pendingSpace = -1; // space or tab held back until we know what follows
+
+        QuotedPrintableOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            b &= 0xFF;
+            if (b == '\r') {
+                return;
+            }
+            if (b == '\n') {
+                if (pendingSpace >= 0) {
+                    writeEncoded(pendingSpace);
+                    pendingSpace = -1;
+                }
+                endLine(false);
+                return;
+            }
+            if (pendingSpace >= 0) {
+                writeLiteral(pendingSpace);
+                pendingSpace = -1;
+            }
+            if (b == ' ' || b == '\t') {
+                pendingSpace = b;
+            } else if (b > ' ' && b < 127 && b != '=' && !(b == '.' && length == 0)) {
+                writeLiteral(b);
+            } else {
+                writeEncoded(b);
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            for (int i = off; i < off + len; i++) {
+                write(b[i]);
+            }
+        }
+
+        /**
+         * Writes held-back whitespace and the last partial line; does not close the stream
+         */
+        void finish() throws IOException {
+            if (pendingSpace >= 0) {
+                writeEncoded(pendingSpace);
+                pendingSpace = -1;
+            }
+            if (length > 0) {
+                out.write(line, 0, length);
+                length = 0;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            // Partial lines stay buffered until finish(); only whole lines reach the transport
+        }
+
+        private void writeLiteral(int b) throws IOException {
+            if (length + 1 > MAX_LINE - 1) {
+                endLine(true);
+            }
+            if (b == '.' && length == 0) {
+                writeEncoded(b);
+                return;
+            }
+            line[length++] = (byte) b;
+        }
+
+        private void writeEncoded(int b) throws IOException {
+            if (length + 3 > MAX_LINE - 1) {
+                endLine(true);
+            }
+            line[length++] = '=';
+            line[length++] = HEX[b >> 4];
+            line[length++] = HEX[b & 0xF];
+        }
+
+        private void endLine(boolean soft) throws IOException {
+            if (soft) {
+                line[length++] = '=';
+            }
+            line[length++] = '\r';
+            line[length++] = '\n';
+            out.write(line, 0, length);
+            length = 0;
+        }
+    }
+}
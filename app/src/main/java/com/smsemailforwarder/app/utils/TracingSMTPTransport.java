@@ -0,0 +1,70 @@
+package com.smsemailforwarder.app.utils;
+
+import com.sun.mail.smtp.SMTPTransport;
+
+import java.io.IOException;
+
+import javax.mail.MessagingException;
+import javax.mail.Provider;
+import javax.mail.Session;
+import javax.mail.URLName;
+
+/**
+ * SMTP transport that marks connect, TLS (STARTTLS or SSL), auth, DATA and 250 OK on the
+ * trace attached to the sending thread (see {@link PipelineTracer#attach})
+ */
+public class TracingSMTPTransport extends SMTPTransport {
+
+    /**
+     * Provider to register with {@link Session#setProvider} so Transport.send uses this class
+     */
+    public static final Provider PROVIDER = new Provider(
+        Provider.Type.TRANSPORT,
+        "smtp",
+        TracingSMTPTransport.class.getName(),
+        "SMS-to-Email Forwarder",
+        "1.0"
+    );
+
+    private boolean connectMarked;
+
+    public TracingSMTPTransport(Session session, URLName urlname) {
+        super(session, urlname);
+    }
+
+    @Override
+    protected synchronized boolean protocolConnect(String host, int port, String user, String password)
+            throws MessagingException {
+        connectMarked = false;
+        boolean connected = super.protocolConnect(host, port, user, password);
+        if (connected) {
+            PipelineTracer.markCurrent(PipelineTracer.Stage.AUTHENTICATED);
+        }
+        return connected;
+    }
+
+    @Override
+    protected boolean ehlo(String domain) throws MessagingException {
+        // First EHLO is sent right after the server greeting, so the socket is up.
+        // With implicit TLS (SSL, port 465) the handshake ran while the greeting was read,
+        // so the TLS stage covers the TCP connect as well.
+        if (!connectMarked) {
+            connectMarked = true;
+            PipelineTracer.markCurrent(isSSL() ? PipelineTracer.Stage.TLS : PipelineTracer.Stage.CONNECTED);
+        }
+        return super.ehlo(domain);
+    }
+
+    @Override
+    protected void startTLS() throws MessagingException {
+        super.startTLS();
+        PipelineTracer.markCurrent(PipelineTracer.Stage.TLS);
+    }
+
+    @Override
+    protected void finishData() throws IOException, MessagingException {
+        PipelineTracer.markCurrent(PipelineTracer.Stage.DATA_SENT);
+        super.finishData();
+        PipelineTracer.markCurrent(PipelineTracer.Stage.ACCEPTED);
+    }
+}
@@ -0,0 +1,96 @@
+package com.smsemailforwarder.app.utils;
+
+import org.junit.Test;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compression speed of a 3000-message backlog attachment against the bytes it saves
+ * The compressed share of the plain text is printed once per configuration.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class BacklogDigestBenchmark {
+
+    private static final String[] SENDERS = {"0911234567", "+385 98 765 4321", "HT Info", "13909", "A1"};
+    private static final String[] WORDS = {
+        "Postovani", "korisnice", "vas", "racun", "za", "ozujak", "iznosi", "EUR", "kod", "prijava",
+        "stizem", "sutra", "u", "popust", "akcija", "paket", "dostava", "hvala", "nazovi", "molim"
+    };
+
+    @Param({"1", "6", "9"})
+    public int level;
+
+    @Param({"CSV_GZIP", "JSONL_ZIP"})
+    public String format;
+
+    private BacklogDigest digest;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Random random = new Random(45);
+        List<SmsFilter.BatchMessage> messages = new ArrayList<>();
+        long timestamp = 1700000000000L;
+        for (int i = 0; i < 3000; i++) {
+            StringBuilder body = new StringBuilder();
+            int words = 8 + random.nextInt(20);
+            for (int w = 0; w < words; w++) {
+                body.append(WORDS[random.nextInt(WORDS.length)]).append(w % 7 == 6 ? ", " : " ");
+            }
+            body.append(random.nextInt(1000000));
+            timestamp += random.nextInt(600000);
+            messages.add(new SmsFilter.BatchMessage(SENDERS[random.nextInt(SENDERS.length)], body.toString(),
+                                                    timestamp));
+        }
+        digest = new BacklogDigest(messages, PreferencesManager.BacklogFormat.valueOf(format));
+
+        CountingStream plain = new CountingStream();
+        digest.writeAttachment(plain, 0);
+        CountingStream compressed = new CountingStream();
+        digest.writeAttachment(compressed, level);
+        System.out.println(String.format(Locale.US, "%n%s level %d: %d KB stored, %d KB compressed (%.1f%%)",
+            format, level, plain.count / 1024, compressed.count / 1024, 100.0 * compressed.count / plain.count));
+    }
+
+    @Benchmark
+    public long attachment() throws IOException {
+        CountingStream out = new CountingStream();
+        digest.writeAttachment(out, level);
+        return out.count;
+    }
+
+    @Test
+    public void run() throws Exception {
+        Benchmarks.run(BacklogDigestBenchmark.class);
+    }
+
+    private static final class CountingStream extends OutputStream {
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
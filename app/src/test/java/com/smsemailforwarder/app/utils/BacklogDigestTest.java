@@ -0,0 +1,107 @@
+package com.smsemailforwarder.app.utils;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BacklogDigestTest {
+
+    private static final List<SmsFilter.BatchMessage> MESSAGES = Arrays.asList(
+        new SmsFilter.BatchMessage("0911234567", "Bok, stizem u 5", 1700000000000L),
+        new SmsFilter.BatchMessage("HT Info", "Racun: 23,40 \"EUR\"\nRok 15.4.", 1700000060000L));
+
+    @Test
+    public void csvGzipHoldsQuotedRows() throws IOException {
+        BacklogDigest digest = new BacklogDigest(MESSAGES, PreferencesManager.BacklogFormat.CSV_GZIP);
+
+        String csv = read(new GZIPInputStream(new ByteArrayInputStream(attachment(digest))));
+
+        String[] lines = csv.split("\r\n");
+        assertEquals("received,timestamp,sender,message", lines[0]);
+        assertTrue(lines[1], lines[1].endsWith(",1700000000000,+385911234567,\"Bok, stizem u 5\""));
+        assertTrue(csv, csv.endsWith(",1700000060000,HT Info,\"Racun: 23,40 \"\"EUR\"\"\nRok 15.4.\"\r\n"));
+    }
+
+    @Test
+    public void jsonLinesZipHasOneEntryNamedAfterTheFile() throws IOException {
+        BacklogDigest digest = new BacklogDigest(MESSAGES, PreferencesManager.BacklogFormat.JSONL_ZIP);
+        String fileName = digest.getAttachment().fileName;
+        assertTrue(fileName, fileName.startsWith("sms-backlog-") && fileName.endsWith(".jsonl.zip"));
+
+        ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(attachment(digest)));
+        ZipEntry entry = zip.getNextEntry();
+        assertEquals(fileName.substring(0, fileName.length() - ".zip".length()), entry.getName());
+        String[] lines = read(zip).split("\n");
+        assertNull(zip.getNextEntry());
+
+        assertEquals(2, lines.length);
+        assertTrue(lines[0], lines[0].endsWith(
+            ",\"timestamp\":1700000000000,\"sender\":\"+385911234567\",\"message\":\"Bok, stizem u 5\"}"));
+        assertTrue(lines[1], lines[1].endsWith("\"message\":\"Racun: 23,40 \\\"EUR\\\"\\nRok 15.4.\"}"));
+    }
+
+    @Test
+    public void summaryCountsMessagesAndSenders() throws IOException {
+        List<SmsFilter.BatchMessage> messages = new ArrayList<>(MESSAGES);
+        messages.add(new SmsFilter.BatchMessage("+385 91 123 4567", "Jos jedna", 1700000120000L));
+        BacklogDigest digest = new BacklogDigest(messages, PreferencesManager.BacklogFormat.CSV_ZIP);
+
+        StringBuilder summary = new StringBuilder();
+        digest.writeSummary(new java.io.Writer() {
+            @Override
+            public void write(char[] buffer, int offset, int length) {
+                summary.append(buffer, offset, length);
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+
+        assertEquals("SMS backlog: 3 missed messages", digest.getSubject());
+        assertTrue(summary.toString(), summary.toString().contains("3 messages arrived"));
+        assertTrue(summary.toString(), summary.toString().contains("Senders: 2\n  +385911234567: 2\n  HT Info: 1\n"));
+        assertFalse(summary.toString(), summary.toString().contains("one JSON object per line"));
+    }
+
+    @Test
+    public void estimateGrowsWithContent() {
+        assertTrue(BacklogDigest.estimateTextSize(MESSAGES) > "Bok, stizem u 5".length());
+        assertEquals(0, BacklogDigest.estimateTextSize(new ArrayList<SmsFilter.BatchMessage>()));
+    }
+
+    private static byte[] attachment(BacklogDigest digest) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        digest.writeAttachment(out);
+        return out.toByteArray();
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) > 0) {
+            out.write(buffer, 0, read);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
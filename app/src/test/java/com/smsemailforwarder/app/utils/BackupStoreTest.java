@@ -0,0 +1,72 @@
+package com.smsemailforwarder.app.utils;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+@RunWith(RobolectricTestRunner.class)
+public class BackupStoreTest {
+
+    private static final String LEGACY_PREFIX = "sms_email_config_";
+    private static final String EXTENSION = ".json";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void rebuiltIndexSkipsManifests() throws IOException {
+        File directory = folder.getRoot();
+        write(new File(directory, "sms_email_config_20240101_120000.json"), "{\"smtp_server\": \"smtp.example.com\"}");
+        write(new File(directory, "sms_email_manifest_20240102_120000_0123abcd.json"),
+              "{\"schema_version\": 2, \"list_refs\": {\"blocked_numbers\": \"0123\"}}");
+        write(new File(directory, "list_0123.json"), "{\"list\": \"blocked_numbers\", \"values\": []}");
+
+        BackupStore store = BackupStore.get(directory, LEGACY_PREFIX, EXTENSION);
+        synchronized (store) {
+            List<BackupStore.Backup> backups = store.getBackups();
+            assertEquals(1, backups.size());
+            assertEquals("sms_email_config_20240101_120000.json", backups.get(0).fileName);
+            assertNull(store.findByFileName("sms_email_manifest_20240102_120000_0123abcd.json"));
+        }
+    }
+
+    @Test
+    public void indexedManifestKeepsItsListRefs() throws IOException {
+        File directory = folder.getRoot();
+        BackupStore store = BackupStore.get(directory, LEGACY_PREFIX, EXTENSION);
+        synchronized (store) {
+            String hash = store.putList("blocked_numbers",
+                                        new HashSet<>(Arrays.asList("+385911234567", "+385981234567")), null);
+            Map<String, String> lists = new LinkedHashMap<>();
+            lists.put("blocked_numbers", hash);
+            byte[] manifest = "{\"schema_version\": 2}".getBytes(StandardCharsets.UTF_8);
+            store.addBackup("sms_email_manifest_20240102_120000_abcdef01.json", BackupStore.hash(manifest),
+                            manifest, lists);
+
+            BackupStore.Backup latest = store.getLatest();
+            assertEquals(hash, latest.lists.get("blocked_numbers"));
+            assertEquals(new HashSet<>(Arrays.asList("+385911234567", "+385981234567")), store.getList(hash));
+        }
+    }
+
+    private static void write(File file, String content) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
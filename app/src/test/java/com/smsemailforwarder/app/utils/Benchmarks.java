@@ -0,0 +1,50 @@
+package com.smsemailforwarder.app.utils;
+
+import org.junit.Assume;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+import java.util.Collection;
+
+/**
+ * Runs JMH benchmarks from unit tests
+ * Skipped unless the build is started with -Pbenchmarks, e.g.
+ * ./gradlew testDebugUnitTest -Pbenchmarks --tests '*Benchmark'
+ */
+final class Benchmarks {
+
+    private Benchmarks() {
+    }
+
+    static Collection<RunResult> run(Class<?> benchmark) throws RunnerException {
+        return run(benchmark, 1);
+    }
+
+    /**
+     * Runs the benchmark inside the calling test's JVM, for benchmarks that need the
+     * Robolectric application of a test annotated with RobolectricTestRunner
+     * Without a fork JIT state is shared with the test run, so compare such results with each other only.
+     */
+    static Collection<RunResult> runInProcess(Class<?> benchmark) throws RunnerException {
+        return run(benchmark, 0);
+    }
+
+    private static Collection<RunResult> run(Class<?> benchmark, int forks) throws RunnerException {
+        Assume.assumeTrue("Benchmarks run with -Pbenchmarks", Boolean.getBoolean("benchmarks"));
+
+        Options options = new OptionsBuilder()
+            .include(benchmark.getName() + "\\.")
+            .forks(forks)
+            .jvmArgsAppend("-Dfile.encoding=UTF-8")
+            .warmupIterations(3)
+            .warmupTime(TimeValue.seconds(1))
+            .measurementIterations(5)
+            .measurementTime(TimeValue.seconds(1))
+            .build();
+        return new Runner(options).run();
+    }
+}
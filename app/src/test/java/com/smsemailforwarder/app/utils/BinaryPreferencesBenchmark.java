@@ -0,0 +1,89 @@
+package com.smsemailforwarder.app.utils;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cold load of a large configuration: the main file is read up front, a number list on first use
+ */
+@RunWith(RobolectricTestRunner.class)
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BinaryPreferencesBenchmark {
+
+    private static final String NAME = "BenchmarkPrefs";
+
+    private Context context;
+    private File directory;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        context = RuntimeEnvironment.getApplication();
+        directory = Files.createTempDirectory("prefs").toFile();
+
+        BinaryPreferences preferences = new BinaryPreferences(context, directory, NAME);
+        SharedPreferences.Editor editor = preferences.edit();
+        for (int i = 0; i < 60; i++) {
+            editor.putString("setting_" + i, "value " + i);
+        }
+        editor.putStringSet("blocked_numbers", numbers(20000));
+        editor.putStringSet("allowed_numbers", numbers(5000));
+        editor.commit();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Benchmark
+    public String mainFile() {
+        return new BinaryPreferences(context, directory, NAME).getString("setting_0", null);
+    }
+
+    @Benchmark
+    public Set<String> mainFileAndSegment() {
+        return new BinaryPreferences(context, directory, NAME).getStringSet("blocked_numbers", null);
+    }
+
+    @Test
+    public void run() throws Exception {
+        Benchmarks.runInProcess(BinaryPreferencesBenchmark.class);
+    }
+
+    private static Set<String> numbers(int count) {
+        Set<String> numbers = new HashSet<>();
+        for (int i = 0; i < count; i++) {
+            numbers.add("+3859" + (1000000 + i));
+        }
+        return numbers;
+    }
+}
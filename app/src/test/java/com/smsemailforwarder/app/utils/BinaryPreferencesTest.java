@@ -0,0 +1,192 @@
+package com.smsemailforwarder.app.utils;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class BinaryPreferencesTest {
+
+    private static final String NAME = "TestPrefs";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Context context;
+    private File directory;
+
+    @Before
+    public void setUp() {
+        context = RuntimeEnvironment.getApplication();
+        context.getSharedPreferences(NAME, Context.MODE_PRIVATE).edit().clear().commit();
+        directory = new File(folder.getRoot(), "config");
+    }
+
+    @Test
+    public void applyReachesDiskWithoutFlush() throws InterruptedException {
+        BinaryPreferences preferences = new BinaryPreferences(context, directory, NAME);
+        preferences.edit().putString("email", "user@example.com").apply();
+
+        File mainFile = new File(directory, NAME + ".bin");
+        long deadline = System.currentTimeMillis() + 2000;
+        while (!mainFile.exists() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue(mainFile.exists());
+    }
+
+    @Test
+    public void flushWritesAppliedChanges() {
+        BinaryPreferences preferences = new BinaryPreferences(context, directory, NAME);
+        preferences.edit().putInt("port", 465).putBoolean("enabled", true).apply();
+        assertTrue(preferences.flush());
+
+        BinaryPreferences reopened = new BinaryPreferences(context, directory, NAME);
+        assertEquals(465, reopened.getInt("port", 0));
+        assertTrue(reopened.getBoolean("enabled", false));
+    }
+
+    @Test
+    public void setsAreStoredInTheirOwnSegment() {
+        BinaryPreferences preferences = new BinaryPreferences(context, directory, NAME);
+        Set<String> numbers = numbers(1000);
+        preferences.edit().putStringSet("blocked_numbers", numbers).putString("subject", "SMS").commit();
+
+        assertArrayEquals(new String[] {NAME + ".blocked_numbers.1.set"}, segments());
+        BinaryPreferences reopened = new BinaryPreferences(context, directory, NAME);
+        assertEquals("SMS", reopened.getString("subject", null));
+        assertEquals(numbers, reopened.getStringSet("blocked_numbers", null));
+
+        reopened.edit().putStringSet("blocked_numbers", numbers(10)).commit();
+        assertArrayEquals(new String[] {NAME + ".blocked_numbers.2.set"}, segments());
+
+        reopened.edit().remove("blocked_numbers").commit();
+        assertEquals(0, segments().length);
+    }
+
+    @Test
+    public void failedWriteKeepsTheOldSetsAndCleansUpAfterwards() {
+        BinaryPreferences preferences = new BinaryPreferences(context, directory, NAME);
+        preferences.edit().putStringSet("blocked_numbers", numbers(5)).commit();
+
+        // The new segment is written, then the main file cannot be: as if the process died in between
+        File mainTemp = new File(directory, NAME + ".bin.tmp");
+        assertTrue(mainTemp.mkdir());
+        assertFalse(preferences.edit().putStringSet("blocked_numbers", numbers(8)).commit());
+        assertEquals(2, segments().length);
+
+        assertEquals(numbers(5), new BinaryPreferences(context, directory, NAME).getStringSet("blocked_numbers", null));
+
+        assertTrue(mainTemp.delete());
+        assertTrue(preferences.flush());
+        assertArrayEquals(new String[] {NAME + ".blocked_numbers.3.set"}, segments());
+        assertEquals(numbers(8), new BinaryPreferences(context, directory, NAME).getStringSet("blocked_numbers", null));
+    }
+
+    @Test
+    public void readsVersionOneFiles() throws IOException {
+        assertTrue(directory.mkdirs());
+        ByteArrayOutputStream segment = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(segment);
+        out.writeInt(0x534d4353);
+        out.writeInt(1);
+        out.writeInt(2);
+        writeString(out, "akcija");
+        writeString(out, "popust");
+        writeChecked(new File(directory, NAME + ".keywords.set"), segment.toByteArray());
+
+        ByteArrayOutputStream main = new ByteArrayOutputStream();
+        out = new DataOutputStream(main);
+        out.writeInt(0x534d4350);
+        out.writeInt(1);
+        out.writeInt(2);
+        writeString(out, "subject");
+        out.writeByte(5);
+        writeString(out, "SMS");
+        writeString(out, "keywords");
+        out.writeByte(6);
+        out.writeInt(2);
+        writeChecked(new File(directory, NAME + ".bin"), main.toByteArray());
+
+        BinaryPreferences preferences = new BinaryPreferences(context, directory, NAME);
+        assertEquals("SMS", preferences.getString("subject", null));
+        assertEquals(new HashSet<>(Arrays.asList("akcija", "popust")), preferences.getStringSet("keywords", null));
+
+        // Rewriting the main file in the current version keeps naming the unchanged old segment
+        preferences.edit().putString("subject", "Poruka").commit();
+        BinaryPreferences reopened = new BinaryPreferences(context, directory, NAME);
+        assertEquals("Poruka", reopened.getString("subject", null));
+        assertEquals(new HashSet<>(Arrays.asList("akcija", "popust")), reopened.getStringSet("keywords", null));
+    }
+
+    @Test
+    public void migratesXmlSettingsOnFirstOpen() {
+        SharedPreferences legacy = context.getSharedPreferences(NAME, Context.MODE_PRIVATE);
+        legacy.edit().putString("email", "user@example.com").putStringSet("keywords", numbers(3)).commit();
+
+        BinaryPreferences preferences = new BinaryPreferences(context, directory, NAME);
+
+        assertEquals("user@example.com", preferences.getString("email", null));
+        assertEquals(numbers(3), preferences.getStringSet("keywords", null));
+        assertTrue(legacy.getAll().isEmpty());
+        assertEquals("user@example.com", new BinaryPreferences(context, directory, NAME).getString("email", null));
+    }
+
+    private String[] segments() {
+        String[] names = directory.list(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(".set");
+            }
+        });
+        Arrays.sort(names);
+        return names;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static void writeChecked(File file, byte[] contents) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(contents);
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+            out.write(contents);
+            out.writeLong(crc.getValue());
+        }
+    }
+
+    private static Set<String> numbers(int count) {
+        Set<String> numbers = new HashSet<>();
+        for (int i = 0; i < count; i++) {
+            numbers.add("+3859" + (1000000 + i));
+        }
+        return numbers;
+    }
+}
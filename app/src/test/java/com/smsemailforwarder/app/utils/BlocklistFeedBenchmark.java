@@ -0,0 +1,77 @@
+package com.smsemailforwarder.app.utils;
+
+import org.junit.Test;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Import of a 2M-line feed and exact lookups against it, half of them hits
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class BlocklistFeedBenchmark {
+
+    private static final int FEED_SIZE = 2000000;
+
+    private File directory;
+    private byte[] input;
+    private BlocklistFeed feed;
+    private String[] lookups;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        StringBuilder lines = new StringBuilder(FEED_SIZE * 14);
+        for (int i = 0; i < FEED_SIZE; i++) {
+            lines.append("+3859").append(10000000 + i * 2).append('\n');
+        }
+        input = lines.toString().getBytes(StandardCharsets.UTF_8);
+
+        directory = Files.createTempDirectory("blocklist").toFile();
+        feed = new BlocklistFeed(directory);
+        feed.importFrom(new ByteArrayInputStream(input), BlocklistFeed.DEFAULT_FALSE_POSITIVE_RATE);
+
+        lookups = new String[4096];
+        for (int i = 0; i < lookups.length; i++) {
+            lookups[i] = "+3859" + (10000000 + i * 977);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        feed.clear();
+        directory.delete();
+    }
+
+    @Benchmark
+    public boolean lookup() {
+        next = (next + 1) & (lookups.length - 1);
+        return feed.contains(lookups[next], true);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public BlocklistFeed.ImportResult importFeed() throws IOException {
+        return feed.importFrom(new ByteArrayInputStream(input), BlocklistFeed.DEFAULT_FALSE_POSITIVE_RATE);
+    }
+
+    @Test
+    public void run() throws Exception {
+        Benchmarks.run(BlocklistFeedBenchmark.class);
+    }
+}
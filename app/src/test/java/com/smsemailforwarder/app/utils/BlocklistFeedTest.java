@@ -0,0 +1,129 @@
+package com.smsemailforwarder.app.utils;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BlocklistFeedTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private BlocklistFeed feed;
+    private File filesDir;
+
+    @Before
+    public void setUp() {
+        filesDir = folder.getRoot();
+        feed = new BlocklistFeed(filesDir);
+    }
+
+    @Test
+    public void importedNumbersMatchExactly() throws IOException {
+        BlocklistFeed.ImportResult result = importLines(
+            "# spam feed", "", "+385 91 111 1111", "0922222222", "not a number", "0922222222");
+
+        assertEquals(6, result.linesRead);
+        assertEquals(2, result.numbersImported);
+        assertEquals(1, result.skipped);
+        assertEquals(2, feed.size());
+        assertTrue(feed.contains("+385911111111", true));
+        assertTrue(feed.contains("+385922222222", true));
+        assertFalse(feed.contains("+385933333333", true));
+        assertFalse(feed.contains("13909", true));
+    }
+
+    @Test
+    public void reimportSwitchesBothFilesTogether() throws IOException {
+        importLines("0911111111");
+        importLines("0922222222", "0933333333");
+
+        assertEquals(2, feed.size());
+        assertFalse(feed.contains("+385911111111", true));
+        assertTrue(feed.contains("+385933333333", true));
+
+        // One generation plus the pointer remain
+        assertEquals(Arrays.asList("blocklist_feed.current", "blocklist_feed_2.bloom", "blocklist_feed_2.table"),
+                     feedFiles());
+    }
+
+    @Test
+    public void readsUnversionedFilesFromBeforeThePointer() throws IOException {
+        importLines("0911111111");
+        assertTrue(new File(filesDir, "blocklist_feed_1.bloom").renameTo(new File(filesDir, "blocklist_feed.bloom")));
+        assertTrue(new File(filesDir, "blocklist_feed_1.table").renameTo(new File(filesDir, "blocklist_feed.table")));
+        assertTrue(new File(filesDir, "blocklist_feed.current").delete());
+
+        BlocklistFeed upgraded = new BlocklistFeed(filesDir);
+        assertTrue(upgraded.contains("+385911111111", true));
+
+        upgraded.importFrom(new ByteArrayInputStream("0922222222".getBytes(StandardCharsets.UTF_8)),
+                            BlocklistFeed.DEFAULT_FALSE_POSITIVE_RATE);
+        assertTrue(upgraded.contains("+385922222222", true));
+        assertEquals(Arrays.asList("blocklist_feed.current", "blocklist_feed_1.bloom", "blocklist_feed_1.table"),
+                     feedFiles());
+    }
+
+    @Test
+    public void clearRemovesPointerAndFiles() throws IOException {
+        importLines("0911111111");
+        feed.clear();
+
+        assertEquals(0, feed.size());
+        assertFalse(feed.contains("+385911111111", true));
+        assertTrue(feedFiles().isEmpty());
+    }
+
+    @Test
+    public void falsePositiveRateStaysNearTarget() throws IOException {
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            lines.append("+38591").append(1000000 + i).append('\n');
+        }
+        feed.importFrom(new ByteArrayInputStream(lines.toString().getBytes(StandardCharsets.UTF_8)), 0.01);
+
+        int falsePositives = 0;
+        for (int i = 0; i < 100000; i++) {
+            assertTrue(feed.contains("+38591" + (1000000 + i), true));
+            if (feed.contains("+38598" + (1000000 + i), false)) {
+                falsePositives++;
+            }
+            assertFalse(feed.contains("+38598" + (1000000 + i), true));
+        }
+        assertTrue("False positives: " + falsePositives, falsePositives < 1500);
+    }
+
+    private BlocklistFeed.ImportResult importLines(String... lines) throws IOException {
+        String text = String.join("\n", lines);
+        return feed.importFrom(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)),
+                               BlocklistFeed.DEFAULT_FALSE_POSITIVE_RATE);
+    }
+
+    private List<String> feedFiles() {
+        List<String> names = new ArrayList<>();
+        String[] files = filesDir.list();
+        if (files != null) {
+            for (String name : files) {
+                if (name.startsWith("blocklist_feed")) {
+                    names.add(name);
+                }
+            }
+        }
+        Collections.sort(names);
+        return names;
+    }
+}
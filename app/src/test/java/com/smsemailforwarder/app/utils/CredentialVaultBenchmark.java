@@ -0,0 +1,69 @@
+package com.smsemailforwarder.app.utils;
+
+import android.content.Context;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Password read per send: plaintext preferences before the vault, cached vault read after,
+ * and the one-off decrypt after the cache is cleared
+ * Keys come from FakeAndroidKeyStore, so this shows the vault's own overhead, not the secure hardware.
+ */
+@RunWith(RobolectricTestRunner.class)
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CredentialVaultBenchmark {
+
+    private static final String PASSWORD = "correct horse battery staple";
+
+    private PreferencesManager preferencesManager;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        FakeAndroidKeyStore.install();
+        Context context = RuntimeEnvironment.getApplication();
+        preferencesManager = new PreferencesManager(context);
+        preferencesManager.clearAllSettings();
+        BinaryPreferences.get(context, "SMSEmailForwarderPrefs").edit()
+            .putString("email_password", PASSWORD).commit();
+        // The first vault read moves the plaintext password into the vault; put it back for plaintext()
+        preferencesManager.getEmailPassword();
+        BinaryPreferences.get(context, "SMSEmailForwarderPrefs").edit()
+            .putString("email_password", PASSWORD).commit();
+    }
+
+    @Benchmark
+    public String plaintext() {
+        return preferencesManager.getLegacyEmailPassword();
+    }
+
+    @Benchmark
+    public String vaultCached() {
+        return preferencesManager.getEmailPassword();
+    }
+
+    @Benchmark
+    public String vaultAfterClearCache() {
+        CredentialVault.clearCache();
+        return preferencesManager.getEmailPassword();
+    }
+
+    @Test
+    public void run() throws Exception {
+        Benchmarks.runInProcess(CredentialVaultBenchmark.class);
+    }
+}
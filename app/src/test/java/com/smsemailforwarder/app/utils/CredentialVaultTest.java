@@ -0,0 +1,121 @@
+package com.smsemailforwarder.app.utils;
+
+import android.content.Context;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import javax.crypto.SecretKey;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class CredentialVaultTest {
+
+    private static final String PASSWORD = "correct horse battery staple";
+
+    private Context context;
+    private PreferencesManager preferencesManager;
+    private CredentialVault vault;
+
+    @Before
+    public void setUp() {
+        FakeAndroidKeyStore.install();
+        context = RuntimeEnvironment.getApplication();
+        preferencesManager = new PreferencesManager(context);
+        preferencesManager.clearAllSettings();
+        vault = CredentialVault.getInstance(context);
+    }
+
+    @Test
+    public void secretIsEncryptedAtRestAndDecryptedOnce() {
+        assertTrue(vault.putSecret(CredentialVault.EMAIL_PASSWORD, PASSWORD));
+        String stored = preferencesManager.getEncryptedSecret(CredentialVault.EMAIL_PASSWORD);
+        assertNotNull(stored);
+        assertFalse(stored.contains(PASSWORD));
+
+        CredentialVault.clearCache();
+        assertEquals(PASSWORD, vault.getSecret(CredentialVault.EMAIL_PASSWORD));
+
+        // Served from the cache even after the key is gone
+        FakeAndroidKeyStore.keys.clear();
+        assertEquals(PASSWORD, vault.getSecret(CredentialVault.EMAIL_PASSWORD));
+    }
+
+    @Test
+    public void plaintextPasswordIsMovedIntoTheVault() {
+        BinaryPreferences.get(context, "SMSEmailForwarderPrefs").edit()
+            .putString("email_password", PASSWORD).commit();
+
+        assertEquals(PASSWORD, vault.getSecret(CredentialVault.EMAIL_PASSWORD));
+        assertNull(preferencesManager.getLegacyEmailPassword());
+        assertNotNull(preferencesManager.getEncryptedSecret(CredentialVault.EMAIL_PASSWORD));
+    }
+
+    @Test
+    public void decryptFailureIsNotCachedAndBlocksRotation() {
+        vault.putSecret(CredentialVault.EMAIL_PASSWORD, PASSWORD);
+        String stored = preferencesManager.getEncryptedSecret(CredentialVault.EMAIL_PASSWORD);
+        SecretKey key = FakeAndroidKeyStore.keys.remove("sms_forwarder_vault_v1");
+        CredentialVault.clearCache();
+
+        assertEquals("", vault.getSecret(CredentialVault.EMAIL_PASSWORD));
+        assertFalse(vault.rotate());
+        assertEquals(1, preferencesManager.getVaultKeyVersion());
+        assertEquals(stored, preferencesManager.getEncryptedSecret(CredentialVault.EMAIL_PASSWORD));
+
+        // The key comes back (e.g. the Keystore was briefly unavailable): the secret is readable again
+        FakeAndroidKeyStore.keys.put("sms_forwarder_vault_v1", key);
+        assertEquals(PASSWORD, vault.getSecret(CredentialVault.EMAIL_PASSWORD));
+    }
+
+    @Test
+    public void rotationReplacesTheKeyAfterSaving() {
+        vault.putSecret(CredentialVault.EMAIL_PASSWORD, PASSWORD);
+        String stored = preferencesManager.getEncryptedSecret(CredentialVault.EMAIL_PASSWORD);
+
+        assertTrue(vault.rotate());
+
+        assertEquals(2, preferencesManager.getVaultKeyVersion());
+        assertFalse(FakeAndroidKeyStore.keys.containsKey("sms_forwarder_vault_v1"));
+        assertTrue(FakeAndroidKeyStore.keys.containsKey("sms_forwarder_vault_v2"));
+        assertFalse(stored.equals(preferencesManager.getEncryptedSecret(CredentialVault.EMAIL_PASSWORD)));
+        CredentialVault.clearCache();
+        assertEquals(PASSWORD, vault.getSecret(CredentialVault.EMAIL_PASSWORD));
+    }
+
+    @Test
+    public void failingToDeleteTheOldKeyKeepsTheNewOne() {
+        vault.putSecret(CredentialVault.EMAIL_PASSWORD, PASSWORD);
+        FakeAndroidKeyStore.failDelete = true;
+
+        assertTrue(vault.rotate());
+
+        assertEquals(2, preferencesManager.getVaultKeyVersion());
+        assertTrue(FakeAndroidKeyStore.keys.containsKey("sms_forwarder_vault_v2"));
+        CredentialVault.clearCache();
+        assertEquals(PASSWORD, vault.getSecret(CredentialVault.EMAIL_PASSWORD));
+    }
+
+    @Test
+    public void rotationIsDueOnceTheKeyIsOld() {
+        assertFalse(vault.isRotationDue(System.currentTimeMillis()));
+
+        vault.putSecret(CredentialVault.EMAIL_PASSWORD, PASSWORD);
+        long created = preferencesManager.getVaultKeyCreated();
+        assertTrue(created > 0);
+        assertFalse(vault.isRotationDue(created + CredentialVault.KEY_MAX_AGE_MS - 1));
+        assertTrue(vault.isRotationDue(created + CredentialVault.KEY_MAX_AGE_MS));
+
+        // Saving again under the same key keeps its age
+        vault.putSecret(CredentialVault.EMAIL_PASSWORD, "new password");
+        assertEquals(created, preferencesManager.getVaultKeyCreated());
+    }
+}
@@ -0,0 +1,62 @@
+package com.smsemailforwarder.app.utils;
+
+import org.junit.Test;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Subject plus body for one message, compiled once versus parsed for every message
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EmailTemplateBenchmark {
+
+    private static final String SUBJECT = "SMS from {sender} - {time:dd.MM.yyyy HH:mm}";
+    private static final String BODY =
+        "From: {sender}\n" +
+        "Carrier: {carrier}\n" +
+        "Received: {date} {time}\n" +
+        "\n" +
+        "Message:\n" +
+        "{body}\n" +
+        "Message length: {length} characters\n";
+
+    private static final String SENDER = "+49 151 2345678";
+    private static final String MESSAGE = "Your parcel 4711 will be delivered today between 10:00 and 12:00. "
+        + "Track it at https://example.com/t/4711";
+    private static final long TIMESTAMP = 1700000000000L;
+
+    private EmailTemplate subject;
+    private EmailTemplate body;
+
+    @Setup
+    public void setUp() throws EmailTemplate.TemplateException {
+        subject = EmailTemplate.compile(SUBJECT);
+        body = EmailTemplate.compile(BODY);
+    }
+
+    @Benchmark
+    public int compiled() {
+        return subject.render(SENDER, MESSAGE, TIMESTAMP).length()
+            + body.render(SENDER, MESSAGE, TIMESTAMP).length();
+    }
+
+    @Benchmark
+    public int parsedPerMessage() throws EmailTemplate.TemplateException {
+        return EmailTemplate.compile(SUBJECT).render(SENDER, MESSAGE, TIMESTAMP).length()
+            + EmailTemplate.compile(BODY).render(SENDER, MESSAGE, TIMESTAMP).length();
+    }
+
+    @Test
+    public void run() throws Exception {
+        Benchmarks.run(EmailTemplateBenchmark.class);
+    }
+}
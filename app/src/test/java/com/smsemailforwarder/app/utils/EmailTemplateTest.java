@@ -0,0 +1,39 @@
+package com.smsemailforwarder.app.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class EmailTemplateTest {
+
+    private static final long TIMESTAMP = 1700000000000L;
+
+    @Test
+    public void convertsLegacySubjectFormat() {
+        assertEquals("SMS from {sender} - {time:dd.MM.yyyy HH:mm}",
+            EmailTemplate.toTemplateSyntax("SMS from %s - %s"));
+        assertEquals("100% {{ok}} {sender}", EmailTemplate.toTemplateSyntax("100%% {ok} %s"));
+        assertEquals("Plain {sender}", EmailTemplate.toTemplateSyntax("Plain {sender}"));
+    }
+
+    @Test
+    public void dropsLinesWhosePlaceholdersAreEmpty() throws Exception {
+        EmailTemplate template = EmailTemplate.compile("A\n#{count}\nB {body}\n");
+
+        assertEquals("A\nB hi\n", template.render("123", "hi", TIMESTAMP));
+        assertEquals("A\n#7\nB hi\n", template.render("123", "hi", TIMESTAMP, 7));
+    }
+
+    @Test
+    public void escapesHtmlValues() throws Exception {
+        EmailTemplate template = EmailTemplate.compile("<p>{body}</p>", EmailTemplate.DEFAULT_DATE_PATTERN,
+            EmailTemplate.DEFAULT_TIME_PATTERN, true);
+
+        assertEquals("<p>a &lt;b&gt; &amp; c</p>", template.render("123", "a <b> & c", TIMESTAMP));
+    }
+
+    @Test(expected = EmailTemplate.TemplateException.class)
+    public void rejectsUnknownPlaceholder() throws Exception {
+        EmailTemplate.compile("{nope}");
+    }
+}
@@ -0,0 +1,168 @@
+package com.smsemailforwarder.app.utils;
+
+import android.security.keystore.KeyGenParameterSpec;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.Key;
+import java.security.KeyStoreException;
+import java.security.KeyStoreSpi;
+import java.security.Provider;
+import java.security.SecureRandom;
+import java.security.Security;
+import java.security.cert.Certificate;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.crypto.KeyGeneratorSpi;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * In-memory "AndroidKeyStore" provider for tests on the JVM
+ * Keys are plain AES keys, so timings show the vault's own overhead, not the secure hardware.
+ */
+final class FakeAndroidKeyStore extends Provider {
+
+    static final Map<String, SecretKey> keys = new ConcurrentHashMap<>();
+    static volatile boolean failDelete;
+
+    private FakeAndroidKeyStore() {
+        super("AndroidKeyStore", 1.0, "In-memory AndroidKeyStore for tests");
+        put("KeyStore.AndroidKeyStore", Store.class.getName());
+        put("KeyGenerator.AES", Generator.class.getName());
+    }
+
+    /**
+     * Registers the provider once and empties the store
+     */
+    static synchronized void install() {
+        if (Security.getProvider("AndroidKeyStore") == null) {
+            Security.addProvider(new FakeAndroidKeyStore());
+        }
+        keys.clear();
+        failDelete = false;
+    }
+
+    public static final class Generator extends KeyGeneratorSpi {
+        private final SecureRandom random = new SecureRandom();
+        private KeyGenParameterSpec spec;
+
+        @Override
+        protected void engineInit(SecureRandom random) {
+            throw new UnsupportedOperationException("A KeyGenParameterSpec is required");
+        }
+
+        @Override
+        protected void engineInit(AlgorithmParameterSpec params, SecureRandom random)
+                throws InvalidAlgorithmParameterException {
+            if (!(params instanceof KeyGenParameterSpec)) {
+                throw new InvalidAlgorithmParameterException("Expected a KeyGenParameterSpec");
+            }
+            spec = (KeyGenParameterSpec) params;
+        }
+
+        @Override
+        protected void engineInit(int keySize, SecureRandom random) {
+            throw new UnsupportedOperationException("A KeyGenParameterSpec is required");
+        }
+
+        @Override
+        protected SecretKey engineGenerateKey() {
+            byte[] bytes = new byte[spec.getKeySize() / 8];
+            random.nextBytes(bytes);
+            SecretKey key = new SecretKeySpec(bytes, "AES");
+            keys.put(spec.getKeystoreAlias(), key);
+            return key;
+        }
+    }
+
+    public static final class Store extends KeyStoreSpi {
+        @Override
+        public Key engineGetKey(String alias, char[] password) {
+            return keys.get(alias);
+        }
+
+        @Override
+        public void engineDeleteEntry(String alias) throws KeyStoreException {
+            if (failDelete) {
+                throw new KeyStoreException("Delete failed for " + alias);
+            }
+            keys.remove(alias);
+        }
+
+        @Override
+        public boolean engineContainsAlias(String alias) {
+            return keys.containsKey(alias);
+        }
+
+        @Override
+        public Enumeration<String> engineAliases() {
+            return Collections.enumeration(keys.keySet());
+        }
+
+        @Override
+        public int engineSize() {
+            return keys.size();
+        }
+
+        @Override
+        public boolean engineIsKeyEntry(String alias) {
+            return keys.containsKey(alias);
+        }
+
+        @Override
+        public void engineLoad(InputStream stream, char[] password) {
+        }
+
+        @Override
+        public Certificate[] engineGetCertificateChain(String alias) {
+            return null;
+        }
+
+        @Override
+        public Certificate engineGetCertificate(String alias) {
+            return null;
+        }
+
+        @Override
+        public Date engineGetCreationDate(String alias) {
+            return null;
+        }
+
+        @Override
+        public void engineSetKeyEntry(String alias, Key key, char[] password, Certificate[] chain) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void engineSetKeyEntry(String alias, byte[] key, Certificate[] chain) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void engineSetCertificateEntry(String alias, Certificate cert) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean engineIsCertificateEntry(String alias) {
+            return false;
+        }
+
+        @Override
+        public String engineGetCertificateAlias(Certificate cert) {
+            return null;
+        }
+
+        @Override
+        public void engineStore(OutputStream stream, char[] password) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
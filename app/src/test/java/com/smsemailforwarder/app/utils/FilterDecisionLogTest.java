@@ -0,0 +1,68 @@
+package com.smsemailforwarder.app.utils;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FilterDecisionLogTest {
+
+    @Before
+    public void setUp() {
+        FilterDecisionLog.clear();
+    }
+
+    @Test
+    public void collapsedForwardIsNotCountedAsForwarded() {
+        FilterDecisionLog.recordDecision(SmsFilter.VERDICT_FORWARD, 0, 1000);
+        long record = FilterDecisionLog.recordDecision(SmsFilter.VERDICT_FORWARD, 0, 1000);
+        FilterDecisionLog.recordDecision(SmsFilter.VERDICT_KEYWORD, 0, 1000);
+
+        FilterDecisionLog.markCollapsed(record);
+
+        String summary = FilterDecisionLog.getSummary();
+        assertTrue(summary, summary.contains("Decisions: 3, forwarded 1, collapsed 1"));
+        String recent = summary.substring(summary.indexOf("=== Recent Decisions ==="));
+        assertTrue(recent, recent.contains("collapsed"));
+        assertTrue(recent, recent.contains("forward "));
+        assertTrue(recent, recent.contains("drop: keyword"));
+    }
+
+    @Test
+    public void evictedRecordStillCountsAsCollapsed() {
+        long evicted = FilterDecisionLog.recordDecision(SmsFilter.VERDICT_FORWARD, 0, 1000);
+        for (int i = 0; i < 300; i++) {
+            FilterDecisionLog.recordDecision(SmsFilter.VERDICT_FORWARD, 0, 1000);
+        }
+
+        FilterDecisionLog.markCollapsed(evicted);
+
+        String summary = FilterDecisionLog.getSummary();
+        assertTrue(summary, summary.contains("Decisions: 301, forwarded 300, collapsed 1"));
+    }
+
+    @Test
+    public void onlyForwardDecisionsAreRewritten() {
+        long dropped = FilterDecisionLog.recordDecision(SmsFilter.VERDICT_SPAM, 0, 1000);
+
+        FilterDecisionLog.markCollapsed(dropped);
+
+        String recent = FilterDecisionLog.getSummary();
+        recent = recent.substring(recent.indexOf("=== Recent Decisions ==="));
+        assertTrue(recent, recent.contains("drop: spam"));
+        assertFalse(recent, recent.contains("collapsed"));
+        assertTrue(FilterDecisionLog.getSummary().contains("Decisions: 1, forwarded 0, collapsed 0"));
+    }
+
+    @Test
+    public void decisionsThatWereNeverRecordedAreIgnored() {
+        FilterDecisionLog.recordDecision(SmsFilter.VERDICT_FORWARD, 0, 1000);
+
+        FilterDecisionLog.markCollapsed(-1);
+        FilterDecisionLog.markCollapsed(5);
+
+        String summary = FilterDecisionLog.getSummary();
+        assertTrue(summary, summary.contains("Decisions: 1, forwarded 1, collapsed 0"));
+    }
+}
@@ -0,0 +1,70 @@
+package com.smsemailforwarder.app.utils;
+
+import org.junit.Test;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * A "regex and contains and length" rule in cost order against the same conditions in written order
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FilterRulesBenchmark {
+
+    private static final String REGEX = "(\\w+\\s+){3,}\\d{4,}";
+    private static final String RULE = "drop if body ~ \"" + REGEX.replace("\\", "\\\\") + "\" "
+        + "and body contains \"nagrada\" and length < 80";
+    private static final int BODIES = 1024;
+
+    private final String[] bodies = new String[BODIES];
+    private FilterRules rules;
+    private RulePredicate regex;
+    private RulePredicate contains;
+    private RulePredicate length;
+    private int next;
+
+    @Setup
+    public void setUp() throws FilterRules.RuleParseException {
+        Random random = new Random(5);
+        String[] words = {"vasa", "posiljka", "stize", "danas", "nagrada", "broj", "4711", "sati", "hvala"};
+        for (int i = 0; i < BODIES; i++) {
+            StringBuilder body = new StringBuilder();
+            int target = 20 + random.nextInt(300);
+            while (body.length() < target) {
+                body.append(words[random.nextInt(words.length)]).append(' ');
+            }
+            bodies[i] = body.toString();
+        }
+        rules = FilterRules.compile(RULE);
+        regex = new RulePredicate.BodyRegex(Pattern.compile(REGEX));
+        contains = new RulePredicate.BodyContains("nagrada");
+        length = new RulePredicate.Length(RulePredicate.Comparison.LT, 80);
+    }
+
+    @Benchmark
+    public FilterRules.Action costOrder() {
+        String body = bodies[next++ & (BODIES - 1)];
+        return rules.evaluate("+385911234567", body, 0L).action;
+    }
+
+    @Benchmark
+    public boolean writtenOrder() {
+        RulePredicate.Context context = new RulePredicate.Context("+385911234567", bodies[next++ & (BODIES - 1)], 0L);
+        return regex.test(context) && contains.test(context) && length.test(context);
+    }
+
+    @Test
+    public void run() throws Exception {
+        Benchmarks.run(FilterRulesBenchmark.class);
+    }
+}
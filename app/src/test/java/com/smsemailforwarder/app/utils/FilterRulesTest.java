@@ -0,0 +1,79 @@
+package com.smsemailforwarder.app.utils;
+
+import org.junit.Test;
+
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FilterRulesTest {
+
+    private static final long NOON = 12 * 3600000L;
+
+    @Test
+    public void firstForwardOrDropDecides() throws Exception {
+        FilterRules rules = FilterRules.compile(
+            "# comment\n" +
+            "forward if sender = \"0911234567\"\n" +
+            "drop if body contains \"nagrada\"\n" +
+            "forward\n");
+
+        assertEquals(FilterRules.Action.FORWARD, rules.evaluate("+385911234567", "nagrada", NOON).action);
+        FilterRules.Decision decision = rules.evaluate("+385921234567", "Vasa NAGRADA", NOON);
+        assertEquals(FilterRules.Action.DROP, decision.action);
+        assertEquals(3, decision.matchedLine);
+        assertEquals(FilterRules.Action.FORWARD, rules.evaluate("+385921234567", "bok", NOON).action);
+    }
+
+    @Test
+    public void routeAndPriorityAnnotateWithoutDeciding() throws Exception {
+        FilterRules rules = FilterRules.compile(
+            "route \"work@example.com\" if sender starts \"+38598\"\n" +
+            "priority high if body ~ \"\\\\d{6}\" and length < 80\n");
+
+        FilterRules.Decision decision = rules.evaluate("+385981234567", "Kod: 123456", NOON);
+        assertEquals(FilterRules.Action.NONE, decision.action);
+        assertEquals("work@example.com", decision.recipient);
+        assertEquals(FilterRules.Priority.HIGH, decision.priority);
+
+        decision = rules.evaluate("+385911234567", "Kod: 12345", NOON);
+        assertNull(decision.recipient);
+        assertEquals(FilterRules.Priority.NORMAL, decision.priority);
+    }
+
+    @Test
+    public void senderPrefixesCompareTheNormalizedNumber() throws Exception {
+        FilterRules rules = FilterRules.compile(
+            "drop if sender starts \"+38598\"\n" +
+            "drop if sender starts \"091\"\n");
+
+        assertEquals(FilterRules.Action.DROP, rules.evaluate("+385981234567", "x", NOON).action);
+        // National prefixes never match: the sender is always in +385 form
+        assertEquals(FilterRules.Action.NONE, rules.evaluate("+385911234567", "x", NOON).action);
+    }
+
+    @Test
+    public void typeConditionPrintsIndependentOfLocale() throws Exception {
+        Locale defaultLocale = Locale.getDefault();
+        Locale.setDefault(new Locale("tr", "TR"));
+        try {
+            FilterRules rules = FilterRules.compile("drop if type = mobile");
+            assertTrue(rules.explain("+385911234567", "x", NOON).contains("type = mobile"));
+        } finally {
+            Locale.setDefault(defaultLocale);
+        }
+    }
+
+    @Test
+    public void reportsLineOfSyntaxErrors() {
+        try {
+            FilterRules.compile("forward\ndrop if body nope \"x\"\n");
+            fail("Expected a parse error");
+        } catch (FilterRules.RuleParseException e) {
+            assertEquals(2, e.line);
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package com.smsemailforwarder.app.utils;
+
+import android.app.Application;
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.content.Intent;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+
+import com.smsemailforwarder.app.EmailService;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowApplication;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(RobolectricTestRunner.class)
+public class InboxScannerTest {
+
+    private static final String CAMPAIGN_FIRST = "Postovani Ivan, proljetna rasprodaja: 40% popusta na "
+        + "jakne u svim trgovinama. Kupon AB12C vrijedi do petka.";
+    private static final String CAMPAIGN_SECOND = "Postovani Petar, proljetna rasprodaja: 40% popusta na "
+        + "jakne u svim trgovinama. Kupon QW34E vrijedi do petka.";
+
+    @Test
+    public void missedMessagesAreRoutedAndCollapsedLikeLiveOnes() throws Exception {
+        Application application = RuntimeEnvironment.getApplication();
+        PreferencesManager preferencesManager = new PreferencesManager(application);
+        preferencesManager.clearAllSettings();
+        preferencesManager.setFilterRules(
+            "route \"work@example.com\" if sender starts \"+38598\"\n" +
+            "priority high if body contains \"hitno\"\n" +
+            "drop if body contains \"odjava\"\n");
+        preferencesManager.setDuplicateCollapseEnabled(true);
+        preferencesManager.setDuplicateMaxDistance(NearDuplicateDetector.MAX_DISTANCE);
+        preferencesManager.updateLastSmsTimestamp(1000);
+        FilterSnapshot.reset();
+        ConfigSnapshot.reset();
+
+        List<SmsFilter.BatchMessage> messages = new ArrayList<>();
+        messages.add(new SmsFilter.BatchMessage("0911111111", "Vec obradena poruka", 500));
+        messages.add(new SmsFilter.BatchMessage("0981234567", "Sastanak je pomaknut na 14 sati", 2000));
+        messages.add(new SmsFilter.BatchMessage("0911234567", "Hitno nazovi kad stignes kuci", 3000));
+        messages.add(new SmsFilter.BatchMessage("0921111111", CAMPAIGN_FIRST, 4000));
+        messages.add(new SmsFilter.BatchMessage("0922222222", CAMPAIGN_SECOND, 5000));
+        messages.add(new SmsFilter.BatchMessage("0923333333", "Za ODJAVA posaljite SMS na 13909", 6000));
+        byte[] verdicts = new SmsFilter(application).evaluateBatch(messages);
+        assertEquals(SmsFilter.VERDICT_RULE, verdicts[5]);
+        InboxScanner.Report report = new InboxScanner.Report(messages, verdicts, 0,
+                                                             preferencesManager.getLastSmsTimestamp());
+
+        FilterDecisionLog.clear();
+        ShadowApplication shadow = shadowOf(application);
+        assertEquals(3, InboxScanner.forwardMissed(application, report));
+        // The scan already decided; forwarding adds no second decision
+        assertTrue(FilterDecisionLog.getSummary().contains("Decisions: 0, forwarded 0, collapsed 0"));
+
+        Intent routed = shadow.getNextStartedService();
+        assertEquals("+385981234567", routed.getStringExtra("sender"));
+        assertEquals("work@example.com", routed.getStringExtra("recipient"));
+        assertEquals(FilterRules.Priority.NORMAL.name(), routed.getStringExtra("priority"));
+
+        Intent urgent = shadow.getNextStartedService();
+        assertEquals("+385911234567", urgent.getStringExtra("sender"));
+        assertNull(urgent.getStringExtra("recipient"));
+        assertEquals(FilterRules.Priority.HIGH.name(), urgent.getStringExtra("priority"));
+
+        Intent campaign = shadow.getNextStartedService();
+        assertEquals(CAMPAIGN_FIRST, campaign.getStringExtra("message"));
+        assertEquals(4000, campaign.getLongExtra("timestamp", 0));
+
+        assertNull(shadow.getNextStartedService());
+        assertEquals(5000, preferencesManager.getLastSmsTimestamp());
+    }
+
+    @Test
+    public void missedMessagesAreRoutedAtTheirOwnTime() throws Exception {
+        Application application = RuntimeEnvironment.getApplication();
+        PreferencesManager preferencesManager = new PreferencesManager(application);
+        preferencesManager.clearAllSettings();
+
+        // An hour-long window twelve hours ago, so the wall clock is well outside it
+        long received = System.currentTimeMillis() - 12 * 3600000L;
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(received);
+        int hour = calendar.get(Calendar.HOUR_OF_DAY);
+        preferencesManager.setFilterRules(String.format(Locale.US,
+            "priority high if time %02d:00-%02d:00\n", hour, (hour + 1) % 24));
+        preferencesManager.updateLastSmsTimestamp(received - 1);
+        FilterSnapshot.reset();
+        ConfigSnapshot.reset();
+
+        List<SmsFilter.BatchMessage> messages = new ArrayList<>();
+        messages.add(new SmsFilter.BatchMessage("0911234567", "Stizem za pola sata", received));
+        InboxScanner.Report report = new InboxScanner.Report(
+            messages, new SmsFilter(application).evaluateBatch(messages), 0, received - 1);
+
+        assertEquals(1, InboxScanner.forwardMissed(application, report));
+        Intent forwarded = shadowOf(application).getNextStartedService();
+        assertEquals(FilterRules.Priority.HIGH.name(), forwarded.getStringExtra("priority"));
+    }
+
+    @Test
+    public void largeBacklogIsMarkedProcessedOnlyBySender() {
+        Application application = RuntimeEnvironment.getApplication();
+        PreferencesManager preferencesManager = new PreferencesManager(application);
+        preferencesManager.clearAllSettings();
+        preferencesManager.setBacklogAttachmentThresholdKb(1);
+        preferencesManager.updateLastSmsTimestamp(1000);
+
+        List<SmsFilter.BatchMessage> messages = new ArrayList<>();
+        for (int i = 1; i <= 40; i++) {
+            messages.add(new SmsFilter.BatchMessage("0911234567", "Poruka broj " + i, 1000 + i));
+        }
+        InboxScanner.Report report = new InboxScanner.Report(messages, new byte[messages.size()], 0,
+                                                             preferencesManager.getLastSmsTimestamp());
+
+        ShadowApplication shadow = shadowOf(application);
+        assertEquals(40, InboxScanner.forwardMissed(application, report));
+
+        Intent digest = shadow.getNextStartedService();
+        assertEquals(1000, digest.getLongExtra(EmailService.EXTRA_BACKLOG_SINCE, 0));
+        assertEquals(1040, digest.getLongExtra(EmailService.EXTRA_BACKLOG_UNTIL, 0));
+        assertTrue(digest.hasExtra(EmailService.EXTRA_BACKLOG_UNTIL));
+        assertNull(shadow.getNextStartedService());
+        // EmailService advances it once the digest is sent
+        assertEquals(1000, preferencesManager.getLastSmsTimestamp());
+    }
+
+    @Test
+    public void inboxIsReadBySendTimeAndStampedWithIt() {
+        Application application = RuntimeEnvironment.getApplication();
+        new PreferencesManager(application).clearAllSettings();
+        FakeSmsProvider provider = Robolectric.setupContentProvider(FakeSmsProvider.class, "sms");
+        // Stored (date) out of order with sent (date_sent); the last one has no sent time
+        provider.rows.addRow(new Object[]{"0911111111", "Prva", 9000L, 1000L});
+        provider.rows.addRow(new Object[]{"0922222222", "Druga", 2500L, 3000L});
+        provider.rows.addRow(new Object[]{"0933333333", "Treca", 2000L, 0L});
+
+        InboxScanner.Report report = InboxScanner.scan(application, 10);
+
+        assertEquals("date_sent DESC", provider.sortOrder);
+        assertEquals(3, report.messages.size());
+        assertEquals(1000, report.messages.get(0).timestamp);
+        assertEquals(2000, report.messages.get(1).timestamp);
+        assertEquals(3000, report.messages.get(2).timestamp);
+    }
+
+    @Test
+    public void digestCoversUpToTheNewestMessage() {
+        Application application = RuntimeEnvironment.getApplication();
+        PreferencesManager preferencesManager = new PreferencesManager(application);
+        preferencesManager.clearAllSettings();
+        preferencesManager.setBacklogAttachmentThresholdKb(1);
+
+        List<SmsFilter.BatchMessage> messages = new ArrayList<>();
+        for (int i = 1; i <= 40; i++) {
+            // Newest in the middle, as when a phone stores messages out of send order
+            messages.add(new SmsFilter.BatchMessage("0911234567", "Poruka broj " + i, i == 20 ? 9000 : 1000 + i));
+        }
+        InboxScanner.Report report = new InboxScanner.Report(messages, new byte[messages.size()], 0, 1000);
+
+        InboxScanner.forwardMissed(application, report);
+
+        Intent digest = shadowOf(application).getNextStartedService();
+        assertEquals(9000, digest.getLongExtra(EmailService.EXTRA_BACKLOG_UNTIL, 0));
+    }
+
+    public static class FakeSmsProvider extends ContentProvider {
+        final MatrixCursor rows = new MatrixCursor(new String[]{"address", "body", "date", "date_sent"});
+        String sortOrder;
+
+        @Override
+        public boolean onCreate() {
+            return true;
+        }
+
+        @Override
+        public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                            String sortOrder) {
+            this.sortOrder = sortOrder;
+            return rows;
+        }
+
+        @Override
+        public String getType(Uri uri) {
+            return null;
+        }
+
+        @Override
+        public Uri insert(Uri uri, ContentValues values) {
+            return null;
+        }
+
+        @Override
+        public int delete(Uri uri, String selection, String[] selectionArgs) {
+            return 0;
+        }
+
+        @Override
+        public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.smsemailforwarder.app.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class KeywordMatcherTest {
+
+    @Test
+    public void findsKeywordsIgnoringCase() {
+        KeywordMatcher matcher = KeywordMatcher.build(Arrays.asList("Nagrada", "kredit", ""));
+
+        assertEquals("Nagrada", matcher.findFirst("Osvojili ste NAGRADU? Ne, nagrada!"));
+        assertEquals("kredit", matcher.findFirst("Brzi KREDIT bez papira"));
+        assertNull(matcher.findFirst("Vasa posiljka stize danas"));
+        assertEquals(2, matcher.size());
+    }
+
+    @Test
+    public void foldsCroatianDigraphs() {
+        KeywordMatcher matcher = KeywordMatcher.build(Arrays.asList("ljubav", "džep"));
+
+        assertTrue(matcher.containsAny("ǇUBAV")); // LJ as one code point
+        assertTrue(matcher.containsAny("u ǅep")); // Dž as one code point
+        assertFalse(matcher.containsAny("l jubav"));
+    }
+
+    @Test
+    public void findsOverlappingAndNestedKeywords() {
+        KeywordMatcher matcher = KeywordMatcher.build(Arrays.asList("he", "she", "hers", "his"));
+
+        assertTrue(matcher.containsAny("ushers"));
+        assertTrue(matcher.containsAny("ahis"));
+        assertFalse(matcher.containsAny("hs h e"));
+    }
+
+    @Test
+    public void agreesWithContainsChainOnRandomInput() {
+        Random random = new Random(7);
+        for (int round = 0; round < 500; round++) {
+            List<String> keywords = new ArrayList<>();
+            int keywordCount = 1 + random.nextInt(20);
+            for (int i = 0; i < keywordCount; i++) {
+                keywords.add(randomText(random, 1 + random.nextInt(4)));
+            }
+            KeywordMatcher matcher = KeywordMatcher.build(keywords);
+
+            for (int i = 0; i < 20; i++) {
+                String text = randomText(random, random.nextInt(40));
+                String folded = KeywordMatcher.fold(text);
+                boolean expected = false;
+                for (String keyword : keywords) {
+                    expected |= folded.contains(KeywordMatcher.fold(keyword));
+                }
+                String found = matcher.findFirst(text);
+                assertEquals(keywords + " in " + text, expected, found != null);
+                if (found != null) {
+                    assertTrue(folded.contains(KeywordMatcher.fold(found)));
+                }
+            }
+        }
+    }
+
+    // Small alphabet so matches are frequent
+    private static String randomText(Random random, int length) {
+        String alphabet = "abcAB ";
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,76 @@
+package com.smsemailforwarder.app.utils;
+
+import java.util.regex.Pattern;
+
+/**
+ * The regex spam check SpamRuleEngine replaced, kept as a reference for tests and benchmarks
+ */
+final class LegacySpamRules {
+
+    private static final String[] SPAM_PATTERNS = {
+        "(?i).*besplat.*",
+        "(?i).*nagrada.*",
+        "(?i).*pobjednik.*",
+        "(?i).*kredit.*",
+        "(?i).*poziv.*sada.*",
+        "(?i).*hitno.*",
+        "(?i).*ograničen.*",
+        "(?i).*ekskluziv.*",
+        "(?i).*bonus.*",
+        "(?i).*promocij.*",
+        "(?i).*klik.*link.*",
+        "(?i).*registruj.*",
+        "(?i).*potvrdi.*",
+        "(?i).*www\\.",
+        "(?i).*http.*",
+        "(?i).*bit\\.ly.*",
+        "(?i).*tinyurl.*",
+        "(?i).*\\d{4,}.*€.*",
+        "(?i).*\\d{4,}.*kn.*",
+        "(?i).*\\d{4,}.*din.*"
+    };
+
+    private static final Pattern[] PATTERNS = new Pattern[SPAM_PATTERNS.length];
+
+    static {
+        for (int i = 0; i < SPAM_PATTERNS.length; i++) {
+            PATTERNS[i] = Pattern.compile(SPAM_PATTERNS[i]);
+        }
+    }
+
+    private LegacySpamRules() {
+    }
+
+    static boolean isSpam(String messageBody) {
+        for (Pattern pattern : PATTERNS) {
+            if (pattern.matcher(messageBody).matches()) {
+                return true;
+            }
+        }
+        return isLikelySpam(messageBody);
+    }
+
+    private static boolean isLikelySpam(String messageBody) {
+        if (messageBody.isEmpty()) {
+            return false;
+        }
+        String lowerCase = messageBody.toLowerCase();
+
+        long upperCaseCount = messageBody.chars().filter(Character::isUpperCase).count();
+        double upperCaseRatio = (double) upperCaseCount / messageBody.length();
+        if (upperCaseRatio > 0.7 && messageBody.length() > 20) {
+            return true;
+        }
+
+        long exclamationCount = messageBody.chars().filter(c -> c == '!').count();
+        if (exclamationCount > 3) {
+            return true;
+        }
+
+        if (NumberingPlan.findEmbeddedNumber(messageBody, NumberingPlan.NumberType.PREMIUM) != null) {
+            return true;
+        }
+
+        return lowerCase.matches(".*[!@#$%^&*()_+={}\\[\\]|\\\\:;\"'<>,.?/~`]{3,}.*");
+    }
+}
@@ -0,0 +1,147 @@
+package com.smsemailforwarder.app.utils;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Randomized properties of MessageNormalizer, checked against the regex cleanup it replaced
+ */
+public class MessageNormalizerTest {
+
+    private static final int RUNS = 50000;
+
+    // Weighted towards the characters the normalizer treats specially
+    private static final String ALPHABET = "\r\r\n\n\n\t    \u0000\u0007\u001B\u007F " +
+        "abcXYZ019čćžšđĆŽ.,!?-€жΩ";
+    private static final String SINGLE_LINE_ALPHABET = "   abcXYZ019čćžšđČĆŽŠĐ.,!?-€";
+
+    @Test
+    public void formatMatchesLegacyRegexChain() {
+        Random random = new Random(43);
+        for (int run = 0; run < RUNS; run++) {
+            String message = randomText(random, ALPHABET, 40);
+            assertEquals(escape(message), legacyFormat(message), SmsFormatter.formatMessageContent(message));
+        }
+    }
+
+    @Test
+    public void escapeMatchesLegacyRegex() {
+        Random random = new Random(44);
+        for (int run = 0; run < RUNS; run++) {
+            String message = randomText(random, ALPHABET, 40);
+            assertEquals(escape(message), message.replaceAll("[\u0000-\u001F\u007F]", ""),
+                         SmsFormatter.escapeForEmail(message));
+        }
+    }
+
+    @Test
+    public void validityMatchesLegacyRegexOnSingleLineText() {
+        // The old pattern could not cross line breaks and only knew ASCII and Croatian letters,
+        // so the two agree only on single-line text in that alphabet
+        Random random = new Random(45);
+        for (int run = 0; run < RUNS; run++) {
+            String message = random.nextInt(100) == 0
+                ? randomText(random, SINGLE_LINE_ALPHABET, 2100) : randomText(random, SINGLE_LINE_ALPHABET, 12);
+            assertEquals(escape(message), legacyIsValid(message), SmsFormatter.isValidMessage(message));
+        }
+    }
+
+    @Test
+    public void outputIsNormalizedAndStable() {
+        Random random = new Random(46);
+        for (int run = 0; run < RUNS; run++) {
+            String message = randomText(random, ALPHABET, 40);
+            boolean stripControl = random.nextBoolean();
+            MessageNormalizer.Result result = MessageNormalizer.normalize(message, stripControl);
+            String text = result.text;
+
+            assertFalse(escape(text), text.indexOf('\r') >= 0);
+            assertFalse(escape(text), text.contains("\n\n\n"));
+            assertTrue(escape(text), text.isEmpty() || text.charAt(0) > ' ' && text.charAt(text.length() - 1) > ' ');
+            assertEquals(escape(text), hasLetterOrDigit(text), result.hasContent);
+            if (stripControl) {
+                for (int i = 0; i < text.length(); i++) {
+                    char c = text.charAt(i);
+                    assertTrue(escape(text), c >= ' ' && c != '\u007F' || c == '\n' || c == '\t');
+                }
+            }
+
+            MessageNormalizer.Result again = MessageNormalizer.normalize(text, stripControl);
+            assertSame(text, again.text);
+            assertEquals(result.hasContent, again.hasContent);
+        }
+    }
+
+    @Test
+    public void nonStringInputMatchesStringInput() {
+        Random random = new Random(47);
+        for (int run = 0; run < RUNS / 10; run++) {
+            String message = randomText(random, ALPHABET, 40);
+            assertEquals(MessageNormalizer.normalize(message, true).text,
+                         MessageNormalizer.normalize(new StringBuilder(message), true).text);
+        }
+    }
+
+    @Test
+    public void handlesNullAndBlankInput() {
+        assertEquals("", MessageNormalizer.normalize(null, true).text);
+        assertFalse(MessageNormalizer.normalize(" \r\n\t ", true).isValid());
+        assertEquals("[Empty message]", SmsFormatter.formatMessageContent(" \r\n "));
+        assertEquals("", SmsFormatter.escapeForEmail(null));
+    }
+
+    private static String randomText(Random random, String alphabet, int maxLength) {
+        int length = random.nextInt(maxLength + 1);
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return sb.toString();
+    }
+
+    private static boolean hasLetterOrDigit(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (Character.isLetterOrDigit(text.charAt(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // SmsFormatter.formatMessageContent before MessageNormalizer
+    private static String legacyFormat(String message) {
+        String trimmed = message.trim();
+        if (trimmed.isEmpty()) {
+            return "[Empty message]";
+        }
+        return trimmed.replaceAll("\\r\\n", "\n")
+                      .replaceAll("\\r", "\n")
+                      .replaceAll("\\n{3,}", "\n\n");
+    }
+
+    // SmsFormatter.isValidMessage before MessageNormalizer
+    private static boolean legacyIsValid(String message) {
+        String trimmed = message.trim();
+        return !trimmed.isEmpty() && trimmed.length() <= 2000
+            && trimmed.matches(".*[a-zA-Z0-9čćžšđČĆŽŠĐ].*");
+    }
+
+    private static String escape(String text) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < ' ' || c > '~') {
+                sb.append(String.format("\\u%04X", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
@@ -0,0 +1,123 @@
+package com.smsemailforwarder.app.utils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Scrapes the metrics endpoint over a real loopback socket
+ */
+@RunWith(RobolectricTestRunner.class)
+public class MetricsHttpServerTest {
+
+    private MetricsRegistry registry;
+    private MetricsHttpServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        registry = MetricsRegistry.getInstance(RuntimeEnvironment.getApplication());
+        server = new MetricsHttpServer(registry, false, 0);
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Test
+    public void scrapeGroupsLabeledSeriesUnderOneFamily() throws IOException {
+        registry.counter("scrape_test").add(3);
+        registry.counter("scrape_test", "reason", "spam").add(2);
+        registry.counter("scrape_test", "reason", "number").increment();
+        // Sorts between the total and its labeled series
+        registry.counter("scrape_test_other").increment();
+        registry.gauge("scrape_test_depth").set(4);
+
+        String response = get("/metrics");
+
+        assertTrue(response.startsWith("HTTP/1.1 200 OK\r\n"));
+        assertTrue(response.contains("Content-Type: " + PrometheusFormatter.CONTENT_TYPE));
+        assertEquals(1, occurrences(response, "# TYPE smsforwarder_scrape_test_total counter\n"));
+        assertFalse(response.contains("\nsmsforwarder_scrape_test_total 3\n"));
+        assertTrue(response.contains("\nsmsforwarder_scrape_test_total{reason=\"spam\"} 2\n"));
+        assertTrue(response.contains("\nsmsforwarder_scrape_test_total{reason=\"number\"} 1\n"));
+        assertTrue(response.contains("\nsmsforwarder_scrape_test_other_total 1\n"));
+        assertTrue(response.contains("\nsmsforwarder_scrape_test_depth 4\n"));
+    }
+
+    @Test
+    public void exportsLatencyHistogramInSeconds() throws IOException {
+        registry.histogram("scrape_latency_us").record(1500);
+
+        String response = get("/metrics");
+
+        assertTrue(response.contains("# TYPE smsforwarder_scrape_latency_seconds histogram\n"));
+        assertTrue(response.contains("\nsmsforwarder_scrape_latency_seconds_bucket{le=\"0.001000\"} 0\n"));
+        assertTrue(response.contains("\nsmsforwarder_scrape_latency_seconds_bucket{le=\"+Inf\"} 1\n"));
+        assertTrue(response.contains("\nsmsforwarder_scrape_latency_seconds_sum 0.001500\n"));
+    }
+
+    @Test
+    public void unknownPathIsNotFound() throws IOException {
+        assertTrue(get("/other").startsWith("HTTP/1.1 404 Not Found\r\n"));
+    }
+
+    @Test
+    public void failedBindLeavesServerStopped() throws IOException {
+        try (ServerSocket taken = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"))) {
+            MetricsHttpServer second = new MetricsHttpServer(registry, false, taken.getLocalPort());
+            try {
+                second.start();
+                fail("Port already in use");
+            } catch (IOException expected) {
+                // Expected
+            }
+            assertFalse(second.isRunning());
+            assertEquals(taken.getLocalPort(), second.getPort());
+        }
+    }
+
+    private String get(String path) throws IOException {
+        try (Socket socket = new Socket(InetAddress.getByName("127.0.0.1"), server.getPort())) {
+            socket.setSoTimeout(5000);
+            OutputStream out = socket.getOutputStream();
+            out.write(("GET " + path + " HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+
+            InputStream in = socket.getInputStream();
+            ByteArrayOutputStream response = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                response.write(buffer, 0, read);
+            }
+            return new String(response.toByteArray(), StandardCharsets.US_ASCII);
+        }
+    }
+
+    private static int occurrences(String text, String part) {
+        int count = 0;
+        for (int i = text.indexOf(part); i >= 0; i = text.indexOf(part, i + 1)) {
+            count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,57 @@
+package com.smsemailforwarder.app.utils;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class NumberIndexTest {
+
+    @Test
+    public void matchesExactAndSuffixNumbers() {
+        NumberIndex index = new NumberIndex();
+        index.update(numbers("+385 91 234 5678", "13909"));
+
+        assertTrue(index.matches("+385912345678"));
+        assertTrue(index.matches("912345678"));
+        assertTrue(index.matches("+38513909"));
+        assertFalse(index.matches("+385912345679"));
+        assertEquals(2, index.size());
+    }
+
+    @Test
+    public void copyIsIndependentOfTheOriginal() {
+        NumberIndex original = new NumberIndex();
+        original.update(numbers("0911111111", "0922222222"));
+
+        NumberIndex copy = original.copy();
+        copy.update(numbers("0922222222", "0933333333"));
+
+        assertTrue(original.matches("+385911111111"));
+        assertFalse(original.matches("+385933333333"));
+        assertFalse(copy.matches("+385911111111"));
+        assertTrue(copy.matches("+385933333333"));
+        assertTrue(original.isIndexOf(numbers("0911111111", "0922222222")));
+        assertTrue(copy.isIndexOf(numbers("0922222222", "0933333333")));
+    }
+
+    @Test
+    public void emptyAndUnloadedIndexes() {
+        NumberIndex index = new NumberIndex();
+        assertFalse(index.isIndexOf(Collections.<String>emptySet()));
+
+        index.update(null);
+        assertTrue(index.isIndexOf(null));
+        assertFalse(index.matches("+385911111111"));
+    }
+
+    private static Set<String> numbers(String... numbers) {
+        return new HashSet<>(Arrays.asList(numbers));
+    }
+}
@@ -0,0 +1,71 @@
+package com.smsemailforwarder.app.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class NumberingPlanTest {
+
+    @Test
+    public void longestPrefixWins() {
+        NumberingPlan.NumberInfo mobile = NumberingPlan.lookup("+385912345678");
+        assertEquals("38591", mobile.prefix);
+        assertEquals("A1 Croatia", mobile.carrier);
+        assertEquals(NumberingPlan.NumberType.MOBILE, mobile.type);
+
+        assertEquals(NumberingPlan.NumberType.FIXED, NumberingPlan.lookup("+38512345678").type);
+        assertEquals(NumberingPlan.NumberType.TOLL_FREE, NumberingPlan.lookup("+385800123456").type);
+        // 38580x is not a range of its own, so only the country matches
+        NumberingPlan.NumberInfo country = NumberingPlan.lookup("+385801234567");
+        assertEquals("385", country.prefix);
+        assertEquals(NumberingPlan.NumberType.UNKNOWN, country.type);
+        assertEquals("Croatia (Other carrier)", country.getDisplayName());
+        assertTrue(country.isKnown());
+    }
+
+    @Test
+    public void unknownPrefixesFallBack() {
+        assertSame(NumberingPlan.UNKNOWN, NumberingPlan.lookup("+12025550123"));
+        assertSame(NumberingPlan.UNKNOWN, NumberingPlan.lookup("+3"));
+        assertSame(NumberingPlan.UNKNOWN, NumberingPlan.lookup("Bank"));
+        assertSame(NumberingPlan.UNKNOWN, NumberingPlan.lookup(""));
+        assertSame(NumberingPlan.UNKNOWN, NumberingPlan.lookup(null));
+        assertFalse(NumberingPlan.UNKNOWN.isKnown());
+        assertEquals("Unknown/International", NumberingPlan.UNKNOWN.getDisplayName());
+    }
+
+    @Test
+    public void boundaryLengths() {
+        // A number that is exactly a range prefix still matches it
+        assertEquals("38591", NumberingPlan.lookup("+38591").prefix);
+        assertEquals("385", NumberingPlan.lookup("+385").prefix);
+        assertEquals("385", NumberingPlan.lookup("+3859").prefix);
+
+        assertSame(NumberingPlan.SHORT_CODE, NumberingPlan.lookup("123456"));
+        assertSame(NumberingPlan.UNKNOWN, NumberingPlan.lookup("1234567"));
+        assertSame(NumberingPlan.SHORT_CODE, NumberingPlan.lookup("1"));
+        assertEquals("Short code", NumberingPlan.SHORT_CODE.getDisplayName());
+    }
+
+    @Test
+    public void findsEmbeddedNumbersOfTheRequestedType() {
+        NumberingPlan.NumberInfo premium =
+            NumberingPlan.findEmbeddedNumber("Posaljite SMS na 060 123 456", NumberingPlan.NumberType.PREMIUM);
+        assertEquals("38560", premium.prefix);
+        assertEquals("38564",
+                     NumberingPlan.findEmbeddedNumber("Zovite +385 64-123-456", NumberingPlan.NumberType.PREMIUM).prefix);
+        assertEquals("38569",
+                     NumberingPlan.findEmbeddedNumber("Zovite 00385 69 123 456", NumberingPlan.NumberType.PREMIUM).prefix);
+
+        assertNull(NumberingPlan.findEmbeddedNumber("Zovite 091 234 5678", NumberingPlan.NumberType.PREMIUM));
+        // Five digits are too few to be a phone number
+        assertNull(NumberingPlan.findEmbeddedNumber("Kod 06012", NumberingPlan.NumberType.PREMIUM));
+        // Digits glued to letters are not a number of their own
+        assertNull(NumberingPlan.findEmbeddedNumber("ref060123456", NumberingPlan.NumberType.PREMIUM));
+        assertNull(NumberingPlan.findEmbeddedNumber(null, NumberingPlan.NumberType.PREMIUM));
+    }
+}
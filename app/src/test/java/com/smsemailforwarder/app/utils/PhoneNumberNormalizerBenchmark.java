@@ -0,0 +1,66 @@
+package com.smsemailforwarder.app.utils;
+
+import org.junit.Test;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scanner normalizer against the regex cleanup it replaced in SmsReceiver
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PhoneNumberNormalizerBenchmark {
+
+    private static final String[] NUMBERS = {
+        "+385 91 234 5678", "091/234-5678", "385912345678", "0038591234567", "912345678", "13909", "HT Info"
+    };
+
+    @Benchmark
+    public void regex(Blackhole blackhole) {
+        for (String number : NUMBERS) {
+            blackhole.consume(regexClean(number));
+        }
+    }
+
+    @Benchmark
+    public void scanner(Blackhole blackhole) {
+        for (String number : NUMBERS) {
+            blackhole.consume(PhoneNumberNormalizer.normalizeUncached(number));
+        }
+    }
+
+    @Benchmark
+    public void cached(Blackhole blackhole) {
+        for (String number : NUMBERS) {
+            blackhole.consume(PhoneNumberNormalizer.normalize(number));
+        }
+    }
+
+    // SmsReceiver.cleanPhoneNumber before the normalizer
+    private static String regexClean(String phoneNumber) {
+        String cleaned = phoneNumber.replaceAll("[^+\\d]", "");
+        if (cleaned.startsWith("+385")) {
+            return cleaned;
+        } else if (cleaned.startsWith("385")) {
+            return "+" + cleaned;
+        } else if (cleaned.startsWith("0") && cleaned.length() >= 8) {
+            return "+385" + cleaned.substring(1);
+        } else if (cleaned.length() >= 8 && cleaned.length() <= 9 && !cleaned.startsWith("0")) {
+            return "+385" + cleaned;
+        }
+        return phoneNumber;
+    }
+
+    @Test
+    public void run() throws Exception {
+        Benchmarks.run(PhoneNumberNormalizerBenchmark.class);
+    }
+}
@@ -0,0 +1,37 @@
+package com.smsemailforwarder.app.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PhoneNumberNormalizerTest {
+
+    @Test
+    public void normalizesCroatianFormatsToE164() {
+        assertEquals("+385912345678", PhoneNumberNormalizer.normalize("+385 91 234 5678"));
+        assertEquals("+385912345678", PhoneNumberNormalizer.normalize("091/234-5678"));
+        assertEquals("+385912345678", PhoneNumberNormalizer.normalize("385912345678"));
+        assertEquals("+385912345678", PhoneNumberNormalizer.normalize("00385912345678"));
+        assertEquals("+385912345678", PhoneNumberNormalizer.normalize("912345678"));
+    }
+
+    @Test
+    public void keepsShortCodesAndSenderIds() {
+        assertEquals("13909", PhoneNumberNormalizer.normalize("13-909"));
+        assertEquals("A1 Info", PhoneNumberNormalizer.normalize(" A1 Info "));
+        assertNull(PhoneNumberNormalizer.normalize(null));
+    }
+
+    @Test
+    public void cachedAndUncachedAgree() {
+        String[] numbers = {"+44 20 7946 0958", "0912345678", "0800 123", "Bank"};
+        for (String number : numbers) {
+            assertEquals(PhoneNumberNormalizer.normalizeUncached(number), PhoneNumberNormalizer.normalize(number));
+        }
+        assertTrue(PhoneNumberNormalizer.isE164(PhoneNumberNormalizer.normalize("+44 20 7946 0958")));
+        assertFalse(PhoneNumberNormalizer.isE164("13909"));
+    }
+}
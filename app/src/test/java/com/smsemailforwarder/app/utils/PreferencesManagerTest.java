@@ -0,0 +1,186 @@
+package com.smsemailforwarder.app.utils;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class PreferencesManagerTest {
+
+    private PreferencesManager preferencesManager;
+
+    @Before
+    public void setUp() {
+        preferencesManager = new PreferencesManager(RuntimeEnvironment.getApplication());
+        preferencesManager.clearAllSettings();
+    }
+
+    @Test
+    public void forwardedCountPersistsAcrossInstances() {
+        assertEquals(0, preferencesManager.getForwardedCount());
+
+        preferencesManager.addForwardedCount(1);
+        preferencesManager.addForwardedCount(25);
+
+        assertEquals(26, new PreferencesManager(RuntimeEnvironment.getApplication()).getForwardedCount());
+    }
+
+    @Test
+    public void forwardedCountIsRuntimeStateNotSettings() {
+        preferencesManager.addForwardedCount(7);
+
+        assertTrue(PreferencesManager.isRuntimeStateKey("forwarded_count"));
+        assertFalse(preferencesManager.exportSettingsToJson().contains("forwarded_count"));
+    }
+
+    @Test
+    public void concurrentAddsAreNotLost() throws InterruptedException {
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 250; i++) {
+                    preferencesManager.addForwardedCount(1);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(1000, preferencesManager.getForwardedCount());
+    }
+
+    @Test
+    public void exportAndImportCarryTheLists() {
+        preferencesManager.setBlockedNumbers(numbers(0, 3));
+        preferencesManager.setFilterKeywords(new HashSet<>(Arrays.asList("loan", "nagradna igra")));
+        preferencesManager.setMinMessageLength(4);
+        String json = preferencesManager.exportSettingsToJson();
+        assertTrue(json.contains("\"schema_version\": " + PreferencesManager.SETTINGS_SCHEMA_VERSION));
+
+        preferencesManager.clearAllSettings();
+        assertTrue(preferencesManager.importSettingsFromJson(json));
+
+        assertEquals(numbers(0, 3), preferencesManager.getBlockedNumbers());
+        assertEquals(new HashSet<>(Arrays.asList("loan", "nagradna igra")),
+                     preferencesManager.getFilterKeywords());
+        assertEquals(4, preferencesManager.getMinMessageLength());
+        assertEquals(json, preferencesManager.exportSettingsToJson());
+    }
+
+    @Test
+    public void importsFilesWithoutSchemaVersion() {
+        preferencesManager.setBlockedNumbers(numbers(0, 2));
+
+        assertTrue(preferencesManager.importSettingsFromJson(
+            "{\"email_subject_format\": \"SMS from {sender}\", \"filter_enabled\": true}"));
+
+        assertEquals("SMS from {sender}", preferencesManager.getEmailSubjectFormat());
+        assertTrue(preferencesManager.isFilterEnabled());
+        // Version 1 files had no lists; the current ones are kept
+        assertEquals(numbers(0, 2), preferencesManager.getBlockedNumbers());
+    }
+
+    @Test
+    public void truncatedFileChangesNothing() {
+        preferencesManager.setEmailSubjectFormat("Before");
+        preferencesManager.setBlockedNumbers(numbers(0, 2));
+        preferencesManager.setFilterEnabled(false);
+        String json = exportWith(numbers(100, 50), "After");
+
+        // Cut off in the middle of the blocked numbers
+        assertFalse(preferencesManager.importSettingsFromJson(json.substring(0, json.indexOf("+38591000120"))));
+
+        assertEquals("Before", preferencesManager.getEmailSubjectFormat());
+        assertEquals(numbers(0, 2), preferencesManager.getBlockedNumbers());
+    }
+
+    @Test
+    public void newerSchemaIsRejected() {
+        preferencesManager.setEmailSubjectFormat("Before");
+        String json = "{\"schema_version\": " + (PreferencesManager.SETTINGS_SCHEMA_VERSION + 1) +
+                      ", \"email_subject_format\": \"After\", \"blocked_numbers\": [\"+385911234567\"]}";
+
+        assertFalse(preferencesManager.importSettingsFromJson(json));
+
+        assertEquals("Before", preferencesManager.getEmailSubjectFormat());
+        assertTrue(preferencesManager.getBlockedNumbers().isEmpty());
+    }
+
+    /**
+     * The size target from the request: 100k list entries round-trip through the streaming
+     * writer and reader
+     */
+    @Test
+    public void hundredThousandEntriesRoundTrip() throws Exception {
+        Set<String> blocked = numbers(0, 80000);
+        Set<String> allowed = numbers(500000, 20000);
+        preferencesManager.setBlockedNumbers(blocked);
+        preferencesManager.setAllowedNumbers(allowed);
+
+        StringWriter out = new StringWriter();
+        preferencesManager.exportSettingsToJson(out);
+        preferencesManager.clearAllSettings();
+        assertTrue(preferencesManager.importSettingsFromJson(new StringReader(out.toString())));
+
+        assertEquals(blocked, preferencesManager.getBlockedNumbers());
+        assertEquals(allowed, preferencesManager.getAllowedNumbers());
+    }
+
+    @Test
+    public void manifestWithoutItsListsIsRejected() throws Exception {
+        preferencesManager.setEmailSubjectFormat("Before");
+        preferencesManager.setBlockedNumbers(numbers(0, 2));
+        Map<String, String> refs = new LinkedHashMap<>();
+        refs.put("blocked_numbers", "0123456789abcdef0123456789abcdef");
+        StringWriter manifest = new StringWriter();
+        preferencesManager.exportSettingsToJson(manifest, refs);
+        String json = manifest.toString().replace("\"Before\"", "\"After\"");
+
+        assertFalse(preferencesManager.importSettingsFromJson(json));
+        assertFalse(preferencesManager.importSettingsFromJson(new StringReader(json),
+                                                              new HashMap<String, Set<String>>()));
+        assertEquals("Before", preferencesManager.getEmailSubjectFormat());
+
+        Map<String, Set<String>> lists = new HashMap<>();
+        lists.put("blocked_numbers", numbers(10, 5));
+        assertTrue(preferencesManager.importSettingsFromJson(new StringReader(json), lists));
+        assertEquals("After", preferencesManager.getEmailSubjectFormat());
+        assertEquals(numbers(10, 5), preferencesManager.getBlockedNumbers());
+    }
+
+    private String exportWith(Set<String> blocked, String subject) {
+        Set<String> savedBlocked = preferencesManager.getBlockedNumbers();
+        String savedSubject = preferencesManager.getEmailSubjectFormat();
+        preferencesManager.setBlockedNumbers(blocked);
+        preferencesManager.setEmailSubjectFormat(subject);
+        String json = preferencesManager.exportSettingsToJson();
+        preferencesManager.setBlockedNumbers(savedBlocked);
+        preferencesManager.setEmailSubjectFormat(savedSubject);
+        return json;
+    }
+
+    private static Set<String> numbers(int first, int count) {
+        Set<String> numbers = new HashSet<>();
+        for (int i = 0; i < count; i++) {
+            numbers.add("+3859" + (1000000 + first + i));
+        }
+        return numbers;
+    }
+}
@@ -0,0 +1,49 @@
+package com.smsemailforwarder.app.utils;
+
+import org.junit.Test;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of fingerprinting a few typical SMS bodies, with and without the one-time code hash
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SimHashBenchmark {
+
+    private static final String[] BODIES = {
+        "Postovani Ivane, iskoristite 20% popusta na sve artikle do nedjelje! Kod: AKCIJA20 www.trgovina.hr",
+        "Vas jednokratni kod za prijavu je 482913. Ne dijelite ga ni s kim.",
+        "Stizem za pola sata, vidimo se kod ulaza",
+        "NAGRADNA IGRA! Posaljite SMS na 866866 i osvojite novi iPhone 15! Cijena poruke 1,99 EUR. "
+            + "Sudjelovanjem prihvacate pravila nagradne igre objavljena na www.nagradna-igra.hr/pravila"
+    };
+
+    @Benchmark
+    public void fingerprint(Blackhole blackhole) {
+        for (String body : BODIES) {
+            blackhole.consume(SimHash.fingerprint(body));
+        }
+    }
+
+    @Benchmark
+    public void fingerprintAndCodes(Blackhole blackhole) {
+        for (String body : BODIES) {
+            blackhole.consume(SimHash.fingerprint(body));
+            blackhole.consume(SimHash.codes(body));
+        }
+    }
+
+    @Test
+    public void run() throws Exception {
+        Benchmarks.run(SimHashBenchmark.class);
+    }
+}
@@ -0,0 +1,72 @@
+package com.smsemailforwarder.app.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SimHashTest {
+
+    private static final long WINDOW_MS = 60000L;
+    private static final int MAX_DISTANCE = NearDuplicateDetector.MAX_DISTANCE;
+
+    @Test
+    public void campaignVariationsStayClose() {
+        long first = SimHash.fingerprint(
+            "Postovani Ivane, iskoristite 20% popusta na sve artikle do nedjelje! www.trgovina.hr");
+        long second = SimHash.fingerprint(
+            "Postovani Ana, iskoristite 20% popusta na sve artikle do nedjelje! www.trgovina.hr");
+        long unrelated = SimHash.fingerprint("Stizem za pola sata, vidimo se kod ulaza");
+
+        assertTrue(SimHash.distance(first, second) <= MAX_DISTANCE);
+        assertTrue(SimHash.distance(first, unrelated) > MAX_DISTANCE);
+    }
+
+    @Test
+    public void emptyTextHasNoFingerprint() {
+        assertEquals(0, SimHash.fingerprint(null));
+        assertEquals(0, SimHash.fingerprint(" .,!? "));
+    }
+
+    @Test
+    public void codesDistinguishOneTimePasswords() {
+        assertNotEquals(SimHash.codes("Vas kod je 482913"), SimHash.codes("Vas kod je 771204"));
+        assertEquals(SimHash.codes("Vas kod je 482913"), SimHash.codes("Kod 482913 vrijedi 5 min"));
+        assertNotEquals(SimHash.codes("1234 5678"), SimHash.codes("12345 678"));
+    }
+
+    @Test
+    public void codesIgnoreShortNumbersPhoneNumbersAndMixedWords() {
+        assertEquals(0, SimHash.codes("Popust 20% do 15h, cijena 1,99 EUR"));
+        assertEquals(0, SimHash.codes("Nazovite 0912345678"));
+        assertEquals(0, SimHash.codes("Kod: AKCIJA2024"));
+        assertEquals(0, SimHash.codes(null));
+    }
+
+    @Test
+    public void oneTimePasswordsWithDifferentCodesAreNotCollapsed() {
+        NearDuplicateDetector detector = NearDuplicateDetector.getInstance();
+        long now = System.currentTimeMillis();
+
+        assertTrue(detector.offer("BANKA", "Vas jednokratni kod za prijavu je 482913. Ne dijelite ga.",
+            now, WINDOW_MS, MAX_DISTANCE, null));
+        assertTrue(detector.offer("BANKA", "Vas jednokratni kod za prijavu je 771204. Ne dijelite ga.",
+            now + 1, WINDOW_MS, MAX_DISTANCE, null));
+        // A resend of the same code is still a duplicate
+        assertFalse(detector.offer("BANKA", "Vas jednokratni kod za prijavu je 771204. Ne dijelite ga.",
+            now + 2, WINDOW_MS, MAX_DISTANCE, null));
+    }
+
+    @Test
+    public void campaignMessagesAreCollapsed() {
+        NearDuplicateDetector detector = NearDuplicateDetector.getInstance();
+        long now = System.currentTimeMillis();
+
+        assertTrue(detector.offer("SHOP", "Postovani Marko, vikend akcija: 30% popusta na obucu u svim "
+            + "poslovnicama. Kupon XK7Q2 vrijedi do nedjelje.", now, WINDOW_MS, MAX_DISTANCE, null));
+        assertFalse(detector.offer("SHOP", "Postovani Luka, vikend akcija: 30% popusta na obucu u svim "
+            + "poslovnicama. Kupon PZ93M vrijedi do nedjelje.", now + 1, WINDOW_MS, MAX_DISTANCE, null));
+    }
+}
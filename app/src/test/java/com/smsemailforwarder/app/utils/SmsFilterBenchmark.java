@@ -0,0 +1,87 @@
+package com.smsemailforwarder.app.utils;
+
+import android.app.Application;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Re-filtering a 50000-message inbox in one batch against deciding each message like a live one
+ */
+@RunWith(RobolectricTestRunner.class)
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SmsFilterBenchmark {
+
+    private static final String[] BODIES = {
+        "Stizem za pola sata, vidimo se kod ulaza",
+        "Vas jednokratni kod za prijavu je 482913. Ne dijelite ga ni s kim.",
+        "NAGRADNA IGRA! Posaljite SMS na 866866 i osvojite novi iPhone 15!",
+        "Cestitamo! Osvojili ste nagradu od 5000 EUR. Kliknite na link: bit.ly/nagrada5k",
+        "Racun za ozujak iznosi 23,40 EUR i dospijeva 15.4.",
+        "Vikend akcija: 30% popusta na obucu, samo u petak",
+        "ok"
+    };
+    private static final String[] SENDERS = {
+        "0911234567", "+385 98 765 4321", "385921112222", "13909", "HT Info", "0038595123456"
+    };
+
+    private SmsFilter filter;
+    private List<SmsFilter.BatchMessage> messages;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Application application = RuntimeEnvironment.getApplication();
+        PreferencesManager preferencesManager = new PreferencesManager(application);
+        preferencesManager.clearAllSettings();
+        preferencesManager.setFilterEnabled(true);
+        preferencesManager.setFilterSpam(true);
+        preferencesManager.setFilterKeywords(new HashSet<>(Arrays.asList("akcija", "popust")));
+        FilterSnapshot.reset();
+
+        filter = new SmsFilter(application);
+        Random random = new Random(1);
+        long now = System.currentTimeMillis();
+        messages = new ArrayList<>(50000);
+        for (int i = 0; i < 50000; i++) {
+            messages.add(new SmsFilter.BatchMessage(SENDERS[random.nextInt(SENDERS.length)],
+                                                    BODIES[random.nextInt(BODIES.length)], now));
+        }
+    }
+
+    @Benchmark
+    public byte[] batch() {
+        return filter.evaluateBatch(messages);
+    }
+
+    @Benchmark
+    public void oneByOne(Blackhole blackhole) {
+        for (SmsFilter.BatchMessage message : messages) {
+            blackhole.consume(filter.decide(message.sender, message.body));
+        }
+    }
+
+    @Test
+    public void run() throws Exception {
+        Benchmarks.runInProcess(SmsFilterBenchmark.class);
+    }
+}
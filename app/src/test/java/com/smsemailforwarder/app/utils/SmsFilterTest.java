@@ -0,0 +1,86 @@
+package com.smsemailforwarder.app.utils;
+
+import android.app.Application;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(RobolectricTestRunner.class)
+public class SmsFilterTest {
+
+    private static final String[] BODIES = {
+        "Stizem za pola sata, vidimo se kod ulaza",
+        "Vas jednokratni kod za prijavu je 482913. Ne dijelite ga ni s kim.",
+        "NAGRADNA IGRA! Posaljite SMS na 866866 i osvojite novi iPhone 15!",
+        "Cestitamo! Osvojili ste nagradu od 5000 EUR. Kliknite na link: bit.ly/nagrada5k",
+        "Racun za ozujak iznosi 23,40 EUR i dospijeva 15.4.",
+        "Vikend akcija: 30% popusta na obucu, samo u petak",
+        "ok"
+    };
+    private static final String[] SENDERS = {
+        "0911234567", "+385 98 765 4321", "385921112222", "13909", "HT Info", "0038595123456"
+    };
+
+    private Application application;
+
+    @Before
+    public void setUp() throws Exception {
+        application = RuntimeEnvironment.getApplication();
+        PreferencesManager preferencesManager = new PreferencesManager(application);
+        preferencesManager.clearAllSettings();
+        preferencesManager.setFilterEnabled(true);
+        preferencesManager.setFilterSpam(true);
+        preferencesManager.setFilterKeywords(new HashSet<>(Arrays.asList("akcija", "popust")));
+        FilterSnapshot.reset();
+    }
+
+    @Test
+    public void batchVerdictsMatchLiveDecisions() {
+        SmsFilter filter = new SmsFilter(application);
+        List<SmsFilter.BatchMessage> messages = randomMessages(new Random(39), 2000);
+
+        byte[] verdicts = filter.evaluateBatch(messages);
+
+        assertEquals(messages.size(), verdicts.length);
+        for (int i = 0; i < messages.size(); i++) {
+            SmsFilter.BatchMessage message = messages.get(i);
+            boolean forward = filter.decide(message.sender, message.body).action == FilterRules.Action.FORWARD;
+            assertEquals(message.sender + ": " + message.body, forward, verdicts[i] == SmsFilter.VERDICT_FORWARD);
+        }
+    }
+
+    @Test
+    public void batchMatchesSequentialEvaluationAcrossSlices() {
+        SmsFilter filter = new SmsFilter(application);
+        List<SmsFilter.BatchMessage> messages = randomMessages(new Random(7), 20000);
+
+        byte[] parallel = filter.evaluateBatch(messages);
+        for (int from = 0; from < messages.size(); from += 100) {
+            byte[] slice = filter.evaluateBatch(messages.subList(from, from + 100));
+            for (int i = 0; i < slice.length; i++) {
+                assertEquals(slice[i], parallel[from + i]);
+            }
+        }
+    }
+
+    private static List<SmsFilter.BatchMessage> randomMessages(Random random, int count) {
+        long now = System.currentTimeMillis();
+        List<SmsFilter.BatchMessage> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            messages.add(new SmsFilter.BatchMessage(SENDERS[random.nextInt(SENDERS.length)],
+                                                    BODIES[random.nextInt(BODIES.length)], now));
+        }
+        return messages;
+    }
+}
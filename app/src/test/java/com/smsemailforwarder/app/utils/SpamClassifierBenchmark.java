@@ -0,0 +1,70 @@
+package com.smsemailforwarder.app.utils;
+
+import org.junit.Test;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scoring latency of the classifier trained on the bundled corpus, next to the built-in rules
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SpamClassifierBenchmark {
+
+    private static final String[] BODIES = {
+        "Postovani Ivane, iskoristite 20% popusta na sve artikle do nedjelje! Kod: AKCIJA20 www.trgovina.hr",
+        "Vas jednokratni kod za prijavu je 482913. Ne dijelite ga ni s kim.",
+        "Stizem za pola sata, vidimo se kod ulaza",
+        "NAGRADNA IGRA! Posaljite SMS na 866866 i osvojite novi iPhone 15! Cijena poruke 1,99 EUR. "
+            + "Sudjelovanjem prihvacate pravila nagradne igre objavljena na www.nagradna-igra.hr/pravila"
+    };
+
+    private SpamClassifier classifier;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        // reset() marks the model loaded, so no Context is needed to read the corpus from assets
+        classifier = new SpamClassifier(null, Files.createTempDirectory("spam").toFile());
+        classifier.reset();
+        for (String line : Files.readAllLines(new File("src/main/assets/spam_corpus.tsv").toPath(),
+                                              StandardCharsets.UTF_8)) {
+            int tab = line.indexOf('\t');
+            if (tab > 0 && !line.startsWith("#")) {
+                classifier.train(line.substring(tab + 1), line.startsWith("spam"));
+            }
+        }
+    }
+
+    @Benchmark
+    public void classifier(Blackhole blackhole) {
+        for (String body : BODIES) {
+            blackhole.consume(classifier.score(body));
+        }
+    }
+
+    @Benchmark
+    public void rules(Blackhole blackhole) {
+        for (String body : BODIES) {
+            blackhole.consume(SpamRuleEngine.getDefault().evaluate(body));
+        }
+    }
+
+    @Test
+    public void run() throws Exception {
+        Benchmarks.run(SpamClassifierBenchmark.class);
+    }
+}
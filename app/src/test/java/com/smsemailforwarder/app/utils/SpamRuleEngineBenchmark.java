@@ -0,0 +1,39 @@
+package com.smsemailforwarder.app.utils;
+
+import org.junit.Test;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single-pass rule engine against the regex chain, for a clean message that has to run every rule
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SpamRuleEngineBenchmark {
+
+    private static final String CLEAN_MESSAGE =
+        "Postovani, Vasa posiljka broj 4711 stize danas izmedu 10 i 12 sati. " +
+        "Za promjenu termina dostave odgovorite na ovu poruku. Hvala, Vasa posta";
+
+    @Benchmark
+    public long engine() {
+        return SpamRuleEngine.getDefault().evaluate(CLEAN_MESSAGE);
+    }
+
+    @Benchmark
+    public boolean regexChain() {
+        return LegacySpamRules.isSpam(CLEAN_MESSAGE);
+    }
+
+    @Test
+    public void run() throws Exception {
+        Benchmarks.run(SpamRuleEngineBenchmark.class);
+    }
+}
@@ -0,0 +1,91 @@
+package com.smsemailforwarder.app.utils;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SpamRuleEngineTest {
+
+    private final SpamRuleEngine engine = SpamRuleEngine.getDefault();
+
+    @Test
+    public void reportsEveryMatchedRule() {
+        long matched = engine.evaluate("Vasa NAGRADA! Poziv vrijedi samo sada, klik na link");
+
+        assertEquals(Arrays.asList("prize", "call_now", "click_link"), engine.getRuleIds(matched));
+    }
+
+    @Test
+    public void matchesFragmentsInOrderOnly() {
+        assertTrue(engine.isSpam("Iznos 12345 kn"));
+        assertFalse(engine.isSpam("kn 12345"));
+        assertFalse(engine.isSpam("Iznos 123 kn"));
+    }
+
+    @Test
+    public void matchesAcrossLinesAndNonAsciiCase() {
+        assertTrue(engine.isSpam("Hitno\npoziv za vas, nazovite sada"));
+        assertTrue(engine.isSpam("Akcija OGRANIČENA na zalihe"));
+        assertEquals(Collections.singletonList("web_link"), engine.getRuleIds(engine.evaluate("Vidi www.example.com")));
+    }
+
+    @Test
+    public void matchesWhereTheRegexChainDidNot() {
+        // Line breaks: the anchored regexes never matched a multi-line message
+        String multiLine = "Cestitamo!\nOsvojili ste nagradu, kliknite na link";
+        assertFalse(LegacySpamRules.isSpam(multiLine));
+        assertEquals(Collections.singletonList("click_link"), engine.getRuleIds(engine.evaluate(multiLine)));
+        String specialChars = "Obavijest\nStanje racuna ***";
+        assertFalse(LegacySpamRules.isSpam(specialChars));
+        assertEquals(Collections.singletonList(SpamRuleEngine.RULE_SPECIAL_CHARS),
+                     engine.getRuleIds(engine.evaluate(specialChars)));
+
+        // "www." in the middle of a message, not only at its end
+        assertFalse(LegacySpamRules.isSpam("Vidi www.example com"));
+        assertTrue(LegacySpamRules.isSpam("Vidi www."));
+        assertTrue(engine.isSpam("Vidi www.example com"));
+        assertTrue(engine.isSpam("Vidi www."));
+
+        // Non-ASCII upper case
+        assertFalse(LegacySpamRules.isSpam("Akcija OGRANIČENA na zalihe"));
+        assertTrue(engine.isSpam("Akcija OGRANIČENA na zalihe"));
+    }
+
+    @Test
+    public void heuristicsUseTheSameThresholds() {
+        assertTrue(engine.isSpam("Ovo je poruka!!! i jos!"));
+        assertTrue(engine.isSpam("OVO JE PORUKA SVA VELIKIM SLOVIMA"));
+        assertFalse(engine.isSpam("Kratko VELIKO"));
+        assertTrue(engine.isSpam("Hm... ok"));
+        assertFalse(engine.isSpam(""));
+    }
+
+    @Test
+    public void agreesWithRegexChainOnRandomMessages() {
+        // ASCII lower-case words only: the regexes folded ASCII only and matched "www." at the end
+        String[] words = {
+            "besplatno", "nagrada", "poziv", "sada", "klik", "link", "http", "bit.ly", "hitno",
+            "1234", "12", "kn", "din", "€", "poruka", "danas", "hvala", "ok", "!", "..", "A", "B",
+            "060 123 456", "broj"
+        };
+        Random random = new Random(11);
+        for (int i = 0; i < 200000; i++) {
+            StringBuilder message = new StringBuilder();
+            int count = random.nextInt(12);
+            for (int j = 0; j < count; j++) {
+                if (j > 0 && random.nextBoolean()) {
+                    message.append(' ');
+                }
+                message.append(words[random.nextInt(words.length)]);
+            }
+            String text = message.toString();
+            assertEquals(text, LegacySpamRules.isSpam(text), engine.isSpam(text));
+        }
+    }
+}